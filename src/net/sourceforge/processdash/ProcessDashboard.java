@@ -52,6 +52,7 @@ import java.net.URL;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -519,24 +520,25 @@ public class ProcessDashboard extends JFrame implements WindowListener,
         }
         pt.click("Initialized time log");
 
-        // possibly reload cached data definitions.
-        File serializedDefinitions = new File(property_directory, "defns.ser");
-        if (serializedDefinitions.exists() &&
-            (serializedDefinitions.lastModified() >
-             TemplateLoader.getTemplateTimestamp()))
-            try {
-                data.loadDefinitions(new FileInputStream
-                    (serializedDefinitions));
-            } catch (Exception e) {}
+        // use previously parsed data definitions where they are still valid.
+        data.openDefinitionSnapshot(new File(property_directory,
+            "defns.snapshot"));
 
         // open all the datafiles that were specified in the properties file.
         data.startInconsistency();
         try {
             if (v != null) {
+                List<String[]> datafiles = new ArrayList<String[]>();
                 String a[];
                 for (int i = 0; i < v.size(); i++) {
                     a = (String[])v.elementAt (i);
-                    openDatafile(a[0], a[1]);
+                    datafiles.add(new String[] { a[0], property_directory + a[1] });
+                }
+                Exception[] errors = data.openDatafiles(datafiles);
+                for (int i = 0; i < errors.length; i++) {
+                    a = (String[])v.elementAt (i);
+                    if (errors[i] != null)
+                        logDatafileError(a[0], a[1], errors[i]);
                 }
             }
         }catch (Exception e) { logErr("open datafiles failed!", e); };
@@ -583,11 +585,7 @@ public class ProcessDashboard extends JFrame implements WindowListener,
         data.finishInconsistency();
         ExportManager.init(data, this);
         pt.click("Initialized export manager");
-        try {
-            data.maybeSaveDefinitions(serializedDefinitions);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        data.saveDefinitionSnapshot();
         RepairDefectCounts.maybeRun(this, property_directory);
         timeLog.refreshMetrics();
         pt.click("Refreshed time log metrics");
@@ -1564,9 +1562,16 @@ public class ProcessDashboard extends JFrame implements WindowListener,
     public void openDatafile (String prefix, String dataFile) {
         try {
             data.openDatafile (prefix, property_directory + dataFile);
-        } catch (FileNotFoundException fnfe) {
-            brokenData.logMissingDataFileError(prefix, fnfe.getMessage());
         } catch (Exception exc) {
+            logDatafileError(prefix, dataFile, exc);
+        }
+    }
+
+    private void logDatafileError(String prefix, String dataFile,
+            Exception exc) {
+        if (exc instanceof FileNotFoundException) {
+            brokenData.logMissingDataFileError(prefix, exc.getMessage());
+        } else {
             logErr("when opening datafile, '" + dataFile + "' for path '"
                     + prefix + "', caught exception:", exc);
         }
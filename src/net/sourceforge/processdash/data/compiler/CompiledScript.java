@@ -23,6 +23,8 @@
 
 package net.sourceforge.processdash.data.compiler;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -38,6 +40,12 @@ public class CompiledScript implements Serializable {
     private String saveString = null;
     private List instructions = new ArrayList();
     private boolean committed = false;
+    private transient ScriptTree tree = null;
+
+    /** When true, scripts are always run by interpreting their instructions,
+     * and are never evaluated via an expression tree.  */
+    private static final boolean INTERPRET_ONLY = Boolean
+            .getBoolean(CompiledScript.class.getName() + ".interpretOnly");
 
     CompiledScript() {}
 
@@ -51,16 +59,37 @@ public class CompiledScript implements Serializable {
     }
 
     void commit() {
-        if (!committed)
+        if (!committed) {
             instructions = Collections.unmodifiableList(instructions);
+            buildTree();
+        }
         committed = true;
     }
 
+    private void buildTree() {
+        if (!INTERPRET_ONLY)
+            tree = ScriptTree.build(instructions);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        if (committed)
+            buildTree();
+    }
+
     public void run(Stack stack, ExpressionContext context)
         throws ExecutionException, IllegalStateException
     {
         if (!committed) throw new IllegalStateException();
 
+        if (tree != null) {
+            synchronized (context) {
+                tree.run(stack, context);
+            }
+            return;
+        }
+
         synchronized (stack) {
             synchronized (context) {
                 Iterator iter = instructions.iterator();
@@ -96,6 +125,10 @@ public class CompiledScript implements Serializable {
         return false;
     }
 
+    List getInstructions() {
+        return instructions;
+    }
+
     void setSaveString(String str) throws IllegalStateException {
         if (committed) throw new IllegalStateException();
         saveString = str;
@@ -25,6 +25,7 @@ package net.sourceforge.processdash.data.compiler;
 
 import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 
 class FunctionCall implements Instruction {
 
@@ -99,6 +100,10 @@ class FunctionCall implements Instruction {
             ("Couldn't find the class for function '" + functionName + "'.");
     }
 
+    String getFunctionName() {
+        return functionName;
+    }
+
     public void execute(Stack stack, ExpressionContext context)
         throws ExecutionException
     {
@@ -121,7 +126,7 @@ class FunctionCall implements Instruction {
             arguments.add(0, arg);
         }
 
-        Object result = f.call(arguments, context);
+        Object result = call(arguments, context);
         if (result instanceof Function.DescribedValue)
             stack.push(((Function.DescribedValue) result).getValue(),
                        ((Function.DescribedValue) result).getDescriptor());
@@ -129,5 +134,14 @@ class FunctionCall implements Instruction {
             stack.push(result);
     }
 
+    Object call(List arguments, ExpressionContext context)
+        throws ExecutionException
+    {
+        if (f == null)
+            throw new ExecutionException("No definition for function " +
+                                         functionName);
+        return f.call(arguments, context);
+    }
+
     public String toString() { return functionName; }
 }
@@ -36,6 +36,10 @@ class PushVariable implements Instruction {
         stack.push(context.get(dataName), context.resolveName(dataName));
     }
 
+    String getDataName() {
+        return dataName;
+    }
+
     public String toString() {
         return "push [" + dataName + "]";
     }
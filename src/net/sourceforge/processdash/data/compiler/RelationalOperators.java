@@ -58,19 +58,3 @@ public class RelationalOperators {
         protected boolean calc(SimpleData left, SimpleData right) {
             return left.greaterThan(right) || left.equals(right); } };
 }
-
-
-class BinaryRelationalOperator extends BinaryOperator {
-
-    public BinaryRelationalOperator(String op) { super(op); }
-
-    protected SimpleData operate(SimpleData left, SimpleData right) {
-        if (left == null || right == null) return RelationalOperators.FALSE;
-        return (calc(left, right) ? RelationalOperators.TRUE
-                                  : RelationalOperators.FALSE);
-    }
-
-    protected boolean calc(SimpleData left, SimpleData right) {
-        return false;
-    }
-}
@@ -0,0 +1,342 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.data.compiler;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sourceforge.processdash.data.DateData;
+import net.sourceforge.processdash.data.DoubleData;
+import net.sourceforge.processdash.data.ImmutableDoubleData;
+import net.sourceforge.processdash.data.ImmutableStringData;
+import net.sourceforge.processdash.data.SimpleData;
+import net.sourceforge.processdash.data.StringData;
+import net.sourceforge.processdash.data.TagData;
+
+
+/**
+ * Reads and writes compiled scripts and constant values in a compact binary
+ * form.
+ * <p>
+ * Scripts are written as their instruction lists, so reading a script back
+ * does not require the expression to be parsed or compiled again.  Strings
+ * are not written inline; instead, they are written as indexes into a
+ * {@link StringTable} supplied by the caller, allowing names that appear in
+ * many scripts to be shared.
+ * <p>
+ * Only the value types and instructions produced by the {@link Compiler}
+ * are supported.  Callers should check {@link #canWrite(CompiledScript)} or
+ * {@link #canWrite(SimpleData)} before writing an object.
+ */
+public class ScriptCodec {
+
+    /** A table that maps strings to integer indexes, and back again. */
+    public interface StringTable {
+
+        /** @return the index of the given string, adding it to the table if
+         *     necessary. */
+        public int indexOf(String s);
+
+        /** @return the string with the given index */
+        public String get(int index) throws IOException;
+    }
+
+
+    private static final int VALUE_NULL = 0;
+
+    private static final int VALUE_TAG = 1;
+
+    private static final int VALUE_DOUBLE = 2;
+
+    private static final int VALUE_IMMUTABLE_DOUBLE = 3;
+
+    private static final int VALUE_STRING = 4;
+
+    private static final int VALUE_IMMUTABLE_STRING = 5;
+
+    private static final int VALUE_DATE = 6;
+
+    private static final int FLAG_EDITABLE = 1;
+
+    private static final int FLAG_DEFINED = 2;
+
+    private static final int FLAG_DATE_ONLY = 4;
+
+
+    private static final int INSTR_STACK_MARKER = 0;
+
+    private static final int INSTR_CONSTANT = 1;
+
+    private static final int INSTR_VARIABLE = 2;
+
+    private static final int INSTR_SCRIPT = 3;
+
+    private static final int INSTR_FUNCTION = 4;
+
+    private static final int INSTR_OPERATOR = 5;
+
+    /** The operators that can appear in a compiled script.  The position of
+     * each operator in this list is used as its identifier, so new entries
+     * must only be added at the end. */
+    private static final Instruction[] OPERATORS = { MathOperators.ADD,
+            MathOperators.SUBTRACT, MathOperators.MULTIPLY,
+            MathOperators.DIVIDE, StringOperators.CONCAT,
+            StringOperators.PATHCONCAT, LogicOperators.AND, LogicOperators.OR,
+            LogicOperators.NOT, RelationalOperators.EQ, RelationalOperators.NEQ,
+            RelationalOperators.LT, RelationalOperators.LTEQ,
+            RelationalOperators.GT, RelationalOperators.GTEQ };
+
+    private static final ImmutableDoubleData[] SHARED_CONSTANTS = {
+            ImmutableDoubleData.READ_ONLY_ZERO,
+            ImmutableDoubleData.EDITABLE_ZERO,
+            ImmutableDoubleData.EDITABLE_UNDEF_NAN,
+            ImmutableDoubleData.READ_ONLY_NAN, ImmutableDoubleData.TRUE,
+            ImmutableDoubleData.DIVIDE_BY_ZERO };
+
+
+    private ScriptCodec() {}
+
+
+    /** @return true if the given value can be written by this codec */
+    public static boolean canWrite(SimpleData value) {
+        if (value == null || value instanceof TagData)
+            return true;
+        Class c = value.getClass();
+        return c == DoubleData.class || c == ImmutableDoubleData.class
+                || c == StringData.class || c == ImmutableStringData.class
+                || c == DateData.class;
+    }
+
+    /** @return true if the given script can be written by this codec */
+    public static boolean canWrite(CompiledScript script) {
+        for (Iterator i = script.getInstructions().iterator(); i.hasNext();) {
+            Instruction instr = (Instruction) i.next();
+            if (instr instanceof PushConstant) {
+                if (!canWrite(((PushConstant) instr).getConstant()))
+                    return false;
+            } else if (instr instanceof PushObject) {
+                Object obj = ((PushObject) instr).getValue();
+                if (!(obj instanceof CompiledScript)
+                        || !canWrite((CompiledScript) obj))
+                    return false;
+            } else if (instr != FunctionCall.PUSH_STACK_MARKER
+                    && !(instr instanceof PushVariable)
+                    && !(instr instanceof FunctionCall)
+                    && operatorIndex(instr) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    public static void writeValue(DataOutput out, SimpleData value,
+            StringTable strings) throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (value instanceof TagData) {
+            out.writeByte(VALUE_TAG);
+        } else if (value instanceof DoubleData) {
+            out.writeByte(value instanceof ImmutableDoubleData
+                    ? VALUE_IMMUTABLE_DOUBLE : VALUE_DOUBLE);
+            out.writeByte(flags(value));
+            out.writeDouble(((DoubleData) value).getDouble());
+        } else if (value instanceof StringData) {
+            out.writeByte(value instanceof ImmutableStringData
+                    ? VALUE_IMMUTABLE_STRING : VALUE_STRING);
+            out.writeByte(flags(value));
+            out.writeInt(strings.indexOf(((StringData) value).getString()));
+        } else if (value instanceof DateData) {
+            DateData date = (DateData) value;
+            out.writeByte(VALUE_DATE);
+            out.writeByte(flags(value)
+                    | (date.isFormatAsDateOnly() ? FLAG_DATE_ONLY : 0));
+            out.writeLong(date.getValue().getTime());
+        } else {
+            throw new IOException("Unsupported value type "
+                    + value.getClass().getName());
+        }
+    }
+
+    private static int flags(SimpleData value) {
+        return (value.isEditable() ? FLAG_EDITABLE : 0)
+                | (value.isDefined() ? FLAG_DEFINED : 0);
+    }
+
+
+    public static SimpleData readValue(DataInput in, StringTable strings)
+            throws IOException {
+        int type = in.readByte();
+        if (type == VALUE_NULL)
+            return null;
+        else if (type == VALUE_TAG)
+            return TagData.getInstance();
+
+        int flags = in.readByte();
+        boolean editable = (flags & FLAG_EDITABLE) != 0;
+        boolean defined = (flags & FLAG_DEFINED) != 0;
+        SimpleData result;
+
+        switch (type) {
+        case VALUE_DOUBLE:
+            result = new DoubleData(in.readDouble(), editable);
+            break;
+
+        case VALUE_IMMUTABLE_DOUBLE:
+            return immutableDouble(in.readDouble(), editable, defined);
+
+        case VALUE_STRING:
+            result = StringData.create(strings.get(in.readInt()));
+            result.setEditable(editable);
+            break;
+
+        case VALUE_IMMUTABLE_STRING:
+            return new ImmutableStringData(strings.get(in.readInt()),
+                    editable, defined);
+
+        case VALUE_DATE:
+            DateData date = new DateData(new Date(in.readLong()), editable);
+            date.setFormatAsDateOnly((flags & FLAG_DATE_ONLY) != 0);
+            result = date;
+            break;
+
+        default:
+            throw new IOException("Unrecognized value type " + type);
+        }
+
+        result.setDefined(defined);
+        return result;
+    }
+
+    private static ImmutableDoubleData immutableDouble(double value,
+            boolean editable, boolean defined) {
+        for (ImmutableDoubleData c : SHARED_CONSTANTS) {
+            if (c.isEditable() == editable && c.isDefined() == defined
+                    && Double.compare(c.getDouble(), value) == 0)
+                return c;
+        }
+        return new ImmutableDoubleData(value, editable, defined);
+    }
+
+
+    public static void writeScript(DataOutput out, CompiledScript script,
+            StringTable strings) throws IOException {
+        String saveString = script.saveString();
+        out.writeInt(saveString == null ? -1 : strings.indexOf(saveString));
+
+        List instructions = script.getInstructions();
+        out.writeInt(instructions.size());
+        for (Iterator i = instructions.iterator(); i.hasNext();) {
+            Instruction instr = (Instruction) i.next();
+            if (instr == FunctionCall.PUSH_STACK_MARKER) {
+                out.writeByte(INSTR_STACK_MARKER);
+            } else if (instr instanceof PushConstant) {
+                out.writeByte(INSTR_CONSTANT);
+                writeValue(out, ((PushConstant) instr).getConstant(), strings);
+            } else if (instr instanceof PushVariable) {
+                out.writeByte(INSTR_VARIABLE);
+                out.writeInt(strings.indexOf(((PushVariable) instr)
+                        .getDataName()));
+            } else if (instr instanceof PushObject) {
+                out.writeByte(INSTR_SCRIPT);
+                writeScript(out, (CompiledScript) ((PushObject) instr)
+                        .getValue(), strings);
+            } else if (instr instanceof FunctionCall) {
+                out.writeByte(INSTR_FUNCTION);
+                out.writeInt(strings.indexOf(((FunctionCall) instr)
+                        .getFunctionName()));
+            } else {
+                int op = operatorIndex(instr);
+                if (op == -1)
+                    throw new IOException("Unsupported instruction " + instr);
+                out.writeByte(INSTR_OPERATOR);
+                out.writeByte(op);
+            }
+        }
+    }
+
+
+    public static CompiledScript readScript(DataInput in, StringTable strings)
+            throws IOException {
+        int saveStringIndex = in.readInt();
+        CompiledScript result = new CompiledScript();
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int type = in.readByte();
+            switch (type) {
+            case INSTR_STACK_MARKER:
+                result.add(FunctionCall.PUSH_STACK_MARKER);
+                break;
+
+            case INSTR_CONSTANT:
+                result.add(new PushConstant(readValue(in, strings)));
+                break;
+
+            case INSTR_VARIABLE:
+                result.add(new PushVariable(strings.get(in.readInt())));
+                break;
+
+            case INSTR_SCRIPT:
+                result.add(new PushObject(readScript(in, strings)));
+                break;
+
+            case INSTR_FUNCTION:
+                try {
+                    result.add(FunctionCall.get(strings.get(in.readInt())));
+                } catch (CompilationException ce) {
+                    throw new IOException(ce.getMessage());
+                }
+                break;
+
+            case INSTR_OPERATOR:
+                int op = in.readByte();
+                if (op < 0 || op >= OPERATORS.length)
+                    throw new IOException("Unrecognized operator " + op);
+                result.add(OPERATORS[op]);
+                break;
+
+            default:
+                throw new IOException("Unrecognized instruction type " + type);
+            }
+        }
+
+        if (saveStringIndex != -1)
+            result.setSaveString(strings.get(saveStringIndex));
+        result.commit();
+        return result;
+    }
+
+    private static int operatorIndex(Instruction instr) {
+        for (int i = 0; i < OPERATORS.length; i++)
+            if (OPERATORS[i] == instr)
+                return i;
+        return -1;
+    }
+
+}
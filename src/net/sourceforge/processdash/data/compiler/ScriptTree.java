@@ -0,0 +1,458 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.data.compiler;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import net.sourceforge.processdash.data.DoubleData;
+import net.sourceforge.processdash.data.ImmutableDoubleData;
+import net.sourceforge.processdash.data.ImmutableStringData;
+import net.sourceforge.processdash.data.NumberData;
+import net.sourceforge.processdash.data.SimpleData;
+
+
+/**
+ * An expression tree that can evaluate a {@link CompiledScript} directly,
+ * without interpreting its instructions against an operand stack.
+ * <p>
+ * Scripts are compiled into a postfix list of {@link Instruction}s.  When
+ * that list describes a single well-formed expression (which is true for
+ * every script the {@link Compiler} produces), this class rebuilds the
+ * expression as a tree of nodes.  Evaluating the tree avoids the
+ * per-instruction push/pop traffic on the {@link ListStack}, and operators
+ * whose operands are all constants are evaluated once, at build time.
+ * <p>
+ * Arithmetic is evaluated on primitive doubles.  Within a nested arithmetic
+ * expression, intermediate results are never boxed into
+ * {@link ImmutableDoubleData} objects; a value object is only created for
+ * the final result (or when the result is handed to a non-arithmetic
+ * consumer, such as a function call).
+ * <p>
+ * Function calls are not translated; they still invoke the original
+ * {@link Function} object with the evaluated argument list.
+ */
+class ScriptTree {
+
+    private Node root;
+
+    private ScriptTree(Node root) {
+        this.root = root;
+    }
+
+    /** Evaluate the expression and push the result onto the stack. */
+    public void run(Stack stack, ExpressionContext context)
+            throws ExecutionException {
+        root.push(stack, context);
+    }
+
+    public String toString() {
+        return root.toString();
+    }
+
+
+    /**
+     * Build an expression tree for a list of instructions.
+     * 
+     * @return the tree, or null if the instructions do not describe a single
+     *     expression that this class knows how to evaluate.
+     */
+    static ScriptTree build(List instructions) {
+        LinkedList nodes = new LinkedList();
+        for (Iterator i = instructions.iterator(); i.hasNext();) {
+            Instruction instr = (Instruction) i.next();
+            Node node;
+
+            if (instr == FunctionCall.PUSH_STACK_MARKER) {
+                node = MARKER;
+
+            } else if (instr instanceof PushConstant) {
+                node = new Constant(((PushConstant) instr).getConstant());
+
+            } else if (instr instanceof PushVariable) {
+                node = new Variable(((PushVariable) instr).getDataName());
+
+            } else if (instr instanceof PushObject) {
+                node = new Constant(((PushObject) instr).getValue());
+
+            } else if (instr instanceof BinaryOperator) {
+                Node right = pop(nodes);
+                Node left = pop(nodes);
+                if (left == null || right == null)
+                    return null;
+                node = newBinary((BinaryOperator) instr, left, right).fold();
+
+            } else if (instr instanceof UnaryOperator) {
+                Node operand = pop(nodes);
+                if (operand == null)
+                    return null;
+                node = new Unary((UnaryOperator) instr, operand).fold();
+
+            } else if (instr instanceof FunctionCall) {
+                LinkedList args = new LinkedList();
+                while (true) {
+                    if (nodes.isEmpty())
+                        return null;
+                    Node arg = (Node) nodes.removeLast();
+                    if (arg == MARKER)
+                        break;
+                    args.addFirst(arg);
+                }
+                node = new Call((FunctionCall) instr,
+                        (Node[]) args.toArray(new Node[args.size()]));
+
+            } else {
+                return null;
+            }
+
+            nodes.addLast(node);
+        }
+
+        if (nodes.size() != 1 || nodes.getFirst() == MARKER)
+            return null;
+        else
+            return new ScriptTree((Node) nodes.getFirst());
+    }
+
+    private static Binary newBinary(BinaryOperator op, Node left,
+            Node right) {
+        if (op instanceof BinaryMathOperator)
+            return new Arithmetic((BinaryMathOperator) op, left, right);
+        else if (op instanceof BinaryRelationalOperator
+                && left.isNumeric() && right.isNumeric())
+            return new Comparison(op, left, right);
+        else
+            return new Binary(op, left, right);
+    }
+
+    private static Node pop(LinkedList nodes) {
+        if (nodes.isEmpty() || nodes.getLast() == MARKER)
+            return null;
+        else
+            return (Node) nodes.removeLast();
+    }
+
+    /** Convert a value to a double, using the same rules that the
+     * {@link BinaryMathOperator} uses when it examines its operands. */
+    private static double toNumber(Object value) throws ExecutionException {
+        if (value instanceof NumberData)
+            return ((NumberData) value).getDouble();
+        else if (value == null || value instanceof SimpleData)
+            return Double.NaN;
+        else
+            throw new ExecutionException("ClassCastException");
+    }
+
+    /** Return true if a calculated value can safely be shared by every
+     * evaluation of the script. */
+    private static boolean isFoldable(Object value) {
+        return value == null
+                || value instanceof ImmutableDoubleData
+                || value instanceof ImmutableStringData
+                || value == RelationalOperators.TRUE
+                || value == RelationalOperators.FALSE;
+    }
+
+
+
+    private static abstract class Node {
+
+        /** Evaluate this node and return its value. */
+        abstract Object eval(ExpressionContext context)
+                throws ExecutionException;
+
+        /** Evaluate this node and push its value (along with any descriptor)
+         * onto the stack. */
+        void push(Stack stack, ExpressionContext context)
+                throws ExecutionException {
+            stack.push(eval(context));
+        }
+
+        /** Evaluate this node as a number. */
+        double evalNumber(ExpressionContext context) throws ExecutionException {
+            return toNumber(eval(context));
+        }
+
+        boolean isConstant() {
+            return false;
+        }
+
+        /** Return true if this node always evaluates to a non-null
+         * DoubleData object. */
+        boolean isNumeric() {
+            return false;
+        }
+    }
+
+    private static final Node MARKER = new Node() {
+        Object eval(ExpressionContext context) {
+            throw new IllegalStateException();
+        }
+    };
+
+
+    private static class Constant extends Node {
+        Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        Object eval(ExpressionContext context) {
+            return value;
+        }
+
+        boolean isConstant() {
+            return true;
+        }
+
+        boolean isNumeric() {
+            return value instanceof DoubleData;
+        }
+
+        public String toString() {
+            return (value instanceof SimpleData ? ((SimpleData) value)
+                    .format() : String.valueOf(value));
+        }
+    }
+
+
+    private static class Variable extends Node {
+        String dataName;
+
+        Variable(String dataName) {
+            this.dataName = dataName;
+        }
+
+        Object eval(ExpressionContext context) {
+            return context.get(dataName);
+        }
+
+        void push(Stack stack, ExpressionContext context) {
+            stack.push(context.get(dataName), context.resolveName(dataName));
+        }
+
+        public String toString() {
+            return "[" + dataName + "]";
+        }
+    }
+
+
+    private static class Binary extends Node {
+        BinaryOperator op;
+        Node left, right;
+
+        Binary(BinaryOperator op, Node left, Node right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        Object eval(ExpressionContext context) throws ExecutionException {
+            Object l = left.eval(context);
+            Object r = right.eval(context);
+            try {
+                return op.operate((SimpleData) l, (SimpleData) r);
+            } catch (ClassCastException cce) {
+                throw new ExecutionException("ClassCastException");
+            }
+        }
+
+        Node fold() {
+            if (left.isConstant() && right.isConstant()) {
+                try {
+                    Object value = eval(null);
+                    if (isFoldable(value))
+                        return new Constant(value);
+                } catch (Exception e) {}
+            }
+            return this;
+        }
+
+        public String toString() {
+            return "(" + left + " " + op + " " + right + ")";
+        }
+    }
+
+
+    /**
+     * A node that performs arithmetic with the same semantics as
+     * {@link BinaryMathOperator}:  operands that are missing, non-numeric, or
+     * NaN produce NaN (which becomes {@link ImmutableDoubleData#BAD_VALUE}),
+     * and infinite operands produce positive infinity (which becomes
+     * {@link ImmutableDoubleData#DIVIDE_BY_ZERO}).  The result of the
+     * operation itself, even when it overflows, is kept as a plain value.
+     */
+    private static class Arithmetic extends Binary {
+
+        Arithmetic(BinaryMathOperator op, Node left, Node right) {
+            super(op, left, right);
+        }
+
+        Object eval(ExpressionContext context) throws ExecutionException {
+            double l = left.evalNumber(context);
+            double r = right.evalNumber(context);
+            if (Double.isNaN(l) || Double.isNaN(r))
+                return ImmutableDoubleData.BAD_VALUE;
+            if (Double.isInfinite(l) || Double.isInfinite(r))
+                return ImmutableDoubleData.DIVIDE_BY_ZERO;
+            return new ImmutableDoubleData(((BinaryMathOperator) op).calc(l,
+                r), false, true);
+        }
+
+        double evalNumber(ExpressionContext context) throws ExecutionException {
+            double l = left.evalNumber(context);
+            double r = right.evalNumber(context);
+            if (Double.isNaN(l) || Double.isNaN(r))
+                return Double.NaN;
+            if (Double.isInfinite(l) || Double.isInfinite(r))
+                return Double.POSITIVE_INFINITY;
+            return ((BinaryMathOperator) op).calc(l, r);
+        }
+
+        boolean isNumeric() {
+            return true;
+        }
+    }
+
+
+    /**
+     * A node that compares two numeric operands without creating value
+     * objects for them.  Since both operands are known to be non-null
+     * DoubleData objects, the {@link DoubleData} comparison methods reduce
+     * to simple comparisons of their double values.
+     */
+    private static class Comparison extends Binary {
+
+        Comparison(BinaryOperator op, Node left, Node right) {
+            super(op, left, right);
+        }
+
+        Object eval(ExpressionContext context) throws ExecutionException {
+            double l = left.evalNumber(context);
+            double r = right.evalNumber(context);
+            boolean result;
+            if (op == RelationalOperators.EQ)
+                result = (l == r);
+            else if (op == RelationalOperators.NEQ)
+                result = !(l == r);
+            else if (op == RelationalOperators.LT)
+                result = (l < r);
+            else if (op == RelationalOperators.LTEQ)
+                result = (l < r || l == r);
+            else if (op == RelationalOperators.GT)
+                result = (l > r);
+            else if (op == RelationalOperators.GTEQ)
+                result = (l > r || l == r);
+            else
+                return super.eval(context);
+
+            return (result ? RelationalOperators.TRUE
+                    : RelationalOperators.FALSE);
+        }
+    }
+
+
+    private static class Unary extends Node {
+        UnaryOperator op;
+        Node operand;
+
+        Unary(UnaryOperator op, Node operand) {
+            this.op = op;
+            this.operand = operand;
+        }
+
+        Object eval(ExpressionContext context) throws ExecutionException {
+            Object value = operand.eval(context);
+            try {
+                return op.operate((SimpleData) value);
+            } catch (ClassCastException cce) {
+                throw new ExecutionException("ClassCastException");
+            }
+        }
+
+        Node fold() {
+            if (operand.isConstant()) {
+                try {
+                    Object value = eval(null);
+                    if (isFoldable(value))
+                        return new Constant(value);
+                } catch (Exception e) {}
+            }
+            return this;
+        }
+
+        public String toString() {
+            return op + "(" + operand + ")";
+        }
+    }
+
+
+    private static class Call extends Node {
+        FunctionCall function;
+        Node[] args;
+
+        Call(FunctionCall function, Node[] args) {
+            this.function = function;
+            this.args = args;
+        }
+
+        Object eval(ExpressionContext context) throws ExecutionException {
+            Object result = call(context);
+            if (result instanceof Function.DescribedValue)
+                return ((Function.DescribedValue) result).getValue();
+            else
+                return result;
+        }
+
+        void push(Stack stack, ExpressionContext context)
+                throws ExecutionException {
+            Object result = call(context);
+            if (result instanceof Function.DescribedValue)
+                stack.push(((Function.DescribedValue) result).getValue(),
+                    ((Function.DescribedValue) result).getDescriptor());
+            else
+                stack.push(result);
+        }
+
+        private Object call(ExpressionContext context)
+                throws ExecutionException {
+            ArrayList arguments = new ArrayList(args.length);
+            for (int i = 0; i < args.length; i++)
+                arguments.add(args[i].eval(context));
+            return function.call(arguments, context);
+        }
+
+        public String toString() {
+            StringBuffer result = new StringBuffer();
+            result.append(function).append("(");
+            for (int i = 0; i < args.length; i++)
+                result.append(i == 0 ? "" : ", ").append(args[i]);
+            return result.append(")").toString();
+        }
+    }
+
+}
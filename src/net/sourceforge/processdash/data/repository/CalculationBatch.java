@@ -0,0 +1,283 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.data.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A <code>CalculationBatch</code> is a snapshot of the listeners that are
+ * waiting for data change notifications, arranged as a dependency graph.
+ * <p>
+ * Some of those listeners are "active": they calculate the value of another
+ * data element (recorded in the repository's <code>activeData</code> map).
+ * When a pending listener is waiting to hear about a change to a value that
+ * an active listener in the same batch will recalculate, the active
+ * listener must be notified first.  This class computes a delivery order
+ * that honors those dependencies, and identifies listeners that are
+ * circularly defined so they can be excluded.
+ * <p>
+ * The batch also groups calculated values into independent subgraphs.
+ * Values in different groups do not depend on each other, so they can be
+ * evaluated concurrently.
+ */
+class CalculationBatch {
+
+    private List<Node> nodes;
+
+    private Map<String, Node> producers;
+
+    private List<DataListener> order;
+
+    private List<DataListener> circular;
+
+
+    /**
+     * Create a batch for the given listeners.
+     * 
+     * @param listeners
+     *            the listeners to include in the batch
+     * @param notifications
+     *            a map whose keys are DataListeners, and whose values are
+     *            maps keyed by the names of the elements each listener is
+     *            waiting to hear about
+     * @param activeData
+     *            a map from active DataListeners to the names of the elements
+     *            they calculate
+     */
+    public CalculationBatch(Collection<DataListener> listeners,
+            Map notifications, Map activeData) {
+        nodes = new ArrayList<Node>(listeners.size());
+        producers = new HashMap<String, Node>();
+
+        for (DataListener dl : listeners) {
+            Map elements = (Map) notifications.get(dl);
+            if (elements == null)
+                continue;
+            Node n = new Node(dl, (String) activeData.get(dl),
+                    new ArrayList<String>(elements.keySet()));
+            nodes.add(n);
+            if (n.output != null)
+                producers.put(n.output, n);
+        }
+
+        for (Node n : nodes) {
+            for (String input : n.inputs) {
+                Node producer = producers.get(input);
+                if (producer != null) {
+                    producer.dependents.add(n);
+                    n.indegree++;
+                    producer.union(n);
+                }
+            }
+        }
+
+        sort();
+    }
+
+
+    /** @return the listeners in this batch that are not circularly defined,
+     *     in an order where each active listener precedes the listeners that
+     *     are waiting on the value it calculates. */
+    public List<DataListener> getListeners() {
+        return order;
+    }
+
+
+    /** @return the active listeners in this batch that participate in a
+     *     circular dependency. */
+    public List<DataListener> getCircularListeners() {
+        return circular;
+    }
+
+
+    /**
+     * Find the calculated values that the given listeners will need to read,
+     * and group them into independent subgraphs.
+     * 
+     * @param readers
+     *            listeners from this batch
+     * @return a list of groups. Each group is a list of data names, ordered so
+     *         each value follows the values it depends upon. No value in one
+     *         group depends on a value in another group.
+     */
+    public List<List<String>> getIndependentCalculations(
+            Collection<DataListener> readers) {
+        Set<DataListener> readerSet = new HashSet<DataListener>(readers);
+        Set<Node> needed = new HashSet<Node>();
+        for (Node n : nodes) {
+            if (readerSet.contains(n.listener)) {
+                for (String input : n.inputs) {
+                    Node producer = producers.get(input);
+                    if (producer != null && producer.position >= 0)
+                        needed.add(producer);
+                }
+            }
+        }
+        if (needed.isEmpty())
+            return Collections.EMPTY_LIST;
+
+        List<Node> sorted = new ArrayList<Node>(needed);
+        Collections.sort(sorted, POSITION_ORDER);
+        Map<Node, List<String>> groups = new HashMap<Node, List<String>>();
+        List<List<String>> result = new ArrayList<List<String>>();
+        for (Node n : sorted) {
+            Node root = n.find();
+            List<String> group = groups.get(root);
+            if (group == null) {
+                groups.put(root, group = new ArrayList<String>());
+                result.add(group);
+            }
+            group.add(n.output);
+        }
+        return result;
+    }
+
+
+    /** Arrange the nodes in dependency order, setting aside any nodes that
+     * are part of a dependency cycle. */
+    private void sort() {
+        order = new ArrayList<DataListener>(nodes.size());
+        circular = new ArrayList<DataListener>();
+
+        LinkedList<Node> ready = new LinkedList<Node>();
+        for (Node n : nodes)
+            if (n.indegree == 0)
+                ready.add(n);
+
+        int remaining = nodes.size();
+        while (remaining > 0) {
+            while (!ready.isEmpty()) {
+                Node n = ready.removeFirst();
+                n.position = order.size();
+                order.add(n.listener);
+                release(n, ready);
+                remaining--;
+            }
+            if (remaining == 0)
+                break;
+
+            // Every remaining node is waiting on some other remaining node,
+            // so at least one dependency cycle exists.  Set aside the nodes
+            // on a cycle; their dependents can then be delivered normally.
+            List<Node> cyclic = new ArrayList<Node>();
+            for (Node n : nodes)
+                if (!n.placed && isOnCycle(n))
+                    cyclic.add(n);
+            if (cyclic.isEmpty())
+                break;
+            for (Node n : cyclic) {
+                n.placed = true;
+                circular.add(n.listener);
+                remaining--;
+            }
+            for (Node n : cyclic)
+                release(n, ready);
+        }
+    }
+
+    private void release(Node n, List<Node> ready) {
+        n.placed = true;
+        for (Node dep : n.dependents)
+            if (--dep.indegree == 0 && !dep.placed)
+                ready.add(dep);
+    }
+
+    private boolean isOnCycle(Node start) {
+        Set<Node> seen = new HashSet<Node>();
+        LinkedList<Node> toVisit = new LinkedList<Node>(start.dependents);
+        while (!toVisit.isEmpty()) {
+            Node n = toVisit.removeFirst();
+            if (n == start)
+                return true;
+            if (!n.placed && seen.add(n))
+                toVisit.addAll(n.dependents);
+        }
+        return false;
+    }
+
+
+    private static class Node {
+
+        DataListener listener;
+
+        String output;
+
+        List<String> inputs;
+
+        List<Node> dependents;
+
+        int indegree;
+
+        int position;
+
+        boolean placed;
+
+        Node parent;
+
+        Node(DataListener listener, String output, List<String> inputs) {
+            this.listener = listener;
+            this.output = output;
+            this.inputs = inputs;
+            this.dependents = new ArrayList<Node>(2);
+            this.position = -1;
+            this.parent = this;
+        }
+
+        Node find() {
+            Node root = this;
+            while (root.parent != root)
+                root = root.parent;
+            for (Node n = this; n != root;) {
+                Node next = n.parent;
+                n.parent = root;
+                n = next;
+            }
+            return root;
+        }
+
+        void union(Node other) {
+            Node a = find(), b = other.find();
+            if (a != b)
+                b.parent = a;
+        }
+    }
+
+    private static final Comparator<Node> POSITION_ORDER =
+        new Comparator<Node>() {
+            public int compare(Node a, Node b) {
+                return a.position - b.position;
+            }
+        };
+
+}
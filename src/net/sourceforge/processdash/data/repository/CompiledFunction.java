@@ -184,6 +184,13 @@ public class CompiledFunction implements SaveableData, AliasedData,
         setDirty();
     }
 
+    /** Note that one or more of our inputs have changed.  This has the same
+     * effect as a data change notification, but spares the caller the work of
+     * building DataEvents that we would ignore anyway. */
+    void invalidate() {
+        setDirty();
+    }
+
     private void setDirty() {
         if (isDisposed() == false) {
             extChanges.setDirty();
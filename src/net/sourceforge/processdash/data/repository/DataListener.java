@@ -33,6 +33,13 @@ import java.util.Vector;
  */
 public interface DataListener {
 
+    /**
+     * A DataListener that can safely be notified on any thread, at the same
+     * time as other listeners.  Listeners that do not implement this
+     * interface receive their notifications one at a time.
+     */
+    public interface ConcurrentDelivery extends DataListener {}
+
     /**
      * Procedure called to notify the DataListener that a data value has
      * changed.
@@ -0,0 +1,323 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.data.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A <code>DataNameIndex</code> records the names of the elements in the
+ * repository in a tree organized by path segment.
+ * <p>
+ * The repository stores its elements in a flat map keyed by full data name.
+ * That map is ideal for lookups, but it forces a scan of every element when
+ * a client only wants the names that begin with a particular prefix.  This
+ * index allows those names to be enumerated by visiting only the matching
+ * subtree.
+ * <p>
+ * Data names in the repository share a small number of path segments (such
+ * as project names and common metric names) across many thousands of
+ * elements.  Segment names are interned in a symbol table owned by this
+ * index, so each distinct segment is held in memory once no matter how many
+ * nodes refer to it.  Symbols are reference counted by the nodes that use
+ * them, and are discarded along with the last such node, so uniquely named
+ * elements do not leave their segments behind.  Leaf nodes hold a reference
+ * to the full name string that the repository uses as its key, rather than
+ * a private copy.
+ * <p>
+ * This class is thread-safe.  Each node is locked separately, and only
+ * while its own fields are read or changed, so threads working in different
+ * parts of the tree do not block each other.
+ */
+class DataNameIndex {
+
+    private volatile Node root;
+
+    private ConcurrentMap<String, Symbol> symbols;
+
+
+    public DataNameIndex() {
+        clear();
+    }
+
+
+    /** Record the presence of a data element with the given name. */
+    public void add(String dataName) {
+        // a node can be pruned by a concurrent remove between the moment we
+        // find it and the moment we lock it.  If that happens, start over.
+        while (!tryAdd(dataName))
+            ;
+    }
+
+    private boolean tryAdd(String dataName) {
+        Node node = root;
+        int start = 0;
+        int slashPos;
+        while ((slashPos = dataName.indexOf('/', start)) != -1) {
+            node = node.getOrCreateChild(dataName, start, slashPos);
+            if (node == null)
+                return false;
+            start = slashPos + 1;
+        }
+        node = node.getOrCreateChild(dataName, start, dataName.length());
+        return (node != null && node.setDataName(dataName));
+    }
+
+
+    /** Record that the data element with the given name no longer exists. */
+    public void remove(String dataName) {
+        Node node = find(dataName, dataName.length());
+        if (node != null && node.clearDataName(dataName))
+            node.prune();
+    }
+
+
+    /**
+     * Add the names of all elements that begin with a given prefix to a
+     * collection.
+     * 
+     * @param prefix a prefix to look for.  The prefix is a simple string
+     *     prefix, and is not required to end on a path boundary.
+     * @param dest the collection where the matching names should be added
+     */
+    public void getNamesWithPrefix(String prefix, Collection<String> dest) {
+        int slashPos = prefix.lastIndexOf('/');
+        Node node = (slashPos == -1 ? root : find(prefix, slashPos));
+        if (node == null)
+            return;
+
+        String partialSegment = prefix.substring(slashPos + 1);
+        for (Node child : node.getChildren()) {
+            if (child.symbol.value.startsWith(partialSegment))
+                child.collectNames(dest);
+        }
+    }
+
+
+    public void clear() {
+        symbols = new ConcurrentHashMap<String, Symbol>();
+        root = new Node(null, null);
+    }
+
+
+    /** @return the number of distinct segment names currently interned */
+    int getSymbolCount() {
+        return symbols.size();
+    }
+
+
+    /**
+     * Find the node for the first <code>len</code> characters of a data
+     * name.
+     */
+    private Node find(String dataName, int len) {
+        Node node = root;
+        int start = 0;
+        while (node != null) {
+            int slashPos = dataName.indexOf('/', start);
+            if (slashPos == -1 || slashPos > len)
+                slashPos = len;
+            node = node.getChild(dataName.substring(start, slashPos));
+            if (slashPos == len)
+                break;
+            start = slashPos + 1;
+        }
+        return node;
+    }
+
+
+    /** Find or create the symbol for a segment, and add a reference to it */
+    private Symbol acquireSymbol(String segment) {
+        while (true) {
+            Symbol result = symbols.get(segment);
+            if (result == null) {
+                result = new Symbol(segment);
+                if (symbols.putIfAbsent(segment, result) == null)
+                    return result;
+            } else if (result.acquire()) {
+                return result;
+            } else {
+                // the symbol is being discarded by another thread
+                symbols.remove(segment, result);
+            }
+        }
+    }
+
+    private void releaseSymbol(Symbol s) {
+        if (s.release())
+            symbols.remove(s.value, s);
+    }
+
+
+    private static class Symbol {
+
+        /** The interned segment name */
+        final String value;
+
+        /** The number of nodes using this symbol.  Once this drops to zero,
+         * the symbol is dead and can no longer be acquired */
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        Symbol(String value) {
+            this.value = value;
+        }
+
+        boolean acquire() {
+            int count;
+            do {
+                count = refCount.get();
+                if (count == 0)
+                    return false;
+            } while (!refCount.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /** @return true if this was the last reference */
+        boolean release() {
+            return refCount.decrementAndGet() == 0;
+        }
+    }
+
+
+    /**
+     * A node in the tree.  The fields of a node are guarded by the node's
+     * own monitor.  When a node must be locked along with its parent, the
+     * parent is always locked first.
+     */
+    private class Node {
+
+        /** The parent of this node, or null for the root */
+        final Node parent;
+
+        /** The interned name of the path segment this node represents */
+        final Symbol symbol;
+
+        /** The full name of the data element at this node, or null if no
+         * element has this exact name */
+        String dataName;
+
+        /** The children of this node, keyed by segment.  Null until the
+         * first child is added */
+        Map<String, Node> children;
+
+        /** True once this node has been detached from the tree */
+        boolean removed;
+
+        Node(Node parent, Symbol symbol) {
+            this.parent = parent;
+            this.symbol = symbol;
+        }
+
+        synchronized Node getChild(String segment) {
+            return (children == null ? null : children.get(segment));
+        }
+
+        synchronized List<Node> getChildren() {
+            if (children == null)
+                return new ArrayList<Node>(0);
+            return new ArrayList<Node>(children.values());
+        }
+
+        /**
+         * Find or create the child for a segment of a data name.
+         * 
+         * @return the child, or null if this node was removed from the tree
+         */
+        synchronized Node getOrCreateChild(String dataName, int beg, int end) {
+            if (removed)
+                return null;
+            String segment = dataName.substring(beg, end);
+            if (children == null)
+                children = new HashMap<String, Node>(4);
+            Node result = children.get(segment);
+            if (result == null) {
+                Symbol s = acquireSymbol(segment);
+                result = new Node(this, s);
+                children.put(s.value, result);
+            }
+            return result;
+        }
+
+        /** @return false if this node was removed from the tree */
+        synchronized boolean setDataName(String dataName) {
+            if (removed)
+                return false;
+            this.dataName = dataName;
+            return true;
+        }
+
+        synchronized boolean clearDataName(String dataName) {
+            if (removed || !dataName.equals(this.dataName))
+                return false;
+            this.dataName = null;
+            return true;
+        }
+
+        /** Discard this node and any newly empty ancestors */
+        void prune() {
+            Node node = this;
+            while (node.parent != null && node.parent.removeIfEmpty(node))
+                node = node.parent;
+        }
+
+        /** Remove the given child from this node if it is no longer needed.
+         * @return true if the child was removed */
+        private synchronized boolean removeIfEmpty(Node child) {
+            synchronized (child) {
+                if (child.removed || child.dataName != null
+                        || (child.children != null
+                                && !child.children.isEmpty()))
+                    return false;
+                child.removed = true;
+                children.remove(child.symbol.value);
+            }
+            releaseSymbol(child.symbol);
+            return true;
+        }
+
+        void collectNames(Collection<String> dest) {
+            String name;
+            List<Node> kids;
+            synchronized (this) {
+                name = dataName;
+                kids = (children == null ? null
+                        : new ArrayList<Node>(children.values()));
+            }
+            if (name != null)
+                dest.add(name);
+            if (kids != null) {
+                for (Node child : kids)
+                    child.collectNames(dest);
+            }
+        }
+    }
+
+}
@@ -92,12 +92,21 @@ public class DataRenamingOperation implements Serializable {
         return false;
     }
 
+    /** @return the datafile text that defines this renaming operation */
+    String saveString() {
+        return null;
+    }
+
     private static class Simple extends DataRenamingOperation {
         String oldName;
 
         public Simple(String oldName) {
             this.oldName = oldName;
         }
+
+        String saveString() {
+            return SIMPLE_RENAME_PREFIX + oldName;
+        }
     }
 
     private static class Regexp extends DataRenamingOperation {
@@ -110,6 +119,10 @@ public class DataRenamingOperation implements Serializable {
             this.replacement = replacement;
         }
 
+        String saveString() {
+            return PATTERN_RENAME_PREFIX + replacement;
+        }
+
         public String maybeRename(String name) {
             Matcher m = pattern.matcher(name);
             if (m.matches()) {
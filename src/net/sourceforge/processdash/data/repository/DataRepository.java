@@ -33,6 +33,7 @@ package net.sourceforge.processdash.data.repository;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -58,11 +59,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -72,6 +73,18 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
 import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -116,8 +129,11 @@ import net.sourceforge.processdash.templates.DataVersionChecker;
 import net.sourceforge.processdash.templates.TemplateLoader;
 import net.sourceforge.processdash.util.CppFilterReader;
 import net.sourceforge.processdash.util.EscapeString;
+import net.sourceforge.processdash.util.FileUtils;
 import net.sourceforge.processdash.util.HashTree;
 import net.sourceforge.processdash.util.PatternList;
+import net.sourceforge.processdash.util.Perl5Util;
+import net.sourceforge.processdash.util.ProfTimer;
 import net.sourceforge.processdash.util.RobustFileOutputStream;
 import net.sourceforge.processdash.util.ThreadThrottler;
 
@@ -132,9 +148,25 @@ public class DataRepository implements Repository, DataContext,
 
     public static final String anonymousPrefix = "///Anonymous";
 
-    /** a mapping of data names (Strings) to data values (DataElements) */
-    Hashtable<String, DataElement> data = new Hashtable(8000);
-//    HashTree data = new HashTree(8000);
+    /** a mapping of data names (Strings) to data values (DataElements).
+     * 
+     * This map is read constantly by report threads, the DataNotifier, and
+     * the DataFreezer, so it uses a lock-striped concurrent map:  lookups
+     * never block, and writers only contend with other writers that happen
+     * to touch the same segment.  Compound operations must be written in
+     * terms of the atomic ConcurrentMap methods rather than by locking the
+     * map itself. */
+    ConcurrentHashMap<String, DataElement> data = new ConcurrentHashMap(
+            DATA_INITIAL_CAPACITY, 0.75f, DATA_CONCURRENCY_LEVEL);
+
+    /** an index of the keys in the data map, organized by path segment to
+     * support efficient enumeration of the names under a given prefix. */
+    DataNameIndex dataNameIndex = new DataNameIndex();
+
+    /** locks which pair each change to the data map with the matching
+     * change to the data name index.  Names are spread across the locks by
+     * hash code, so only writers of names that share a stripe contend. */
+    private final Object[] dataNameLocks = newLocks(DATA_CONCURRENCY_LEVEL);
 
     /** a backwards mapping of the above hashtable for data values that happen
      *  to be DataListeners.  key is a DataListener, value is a String. */
@@ -165,6 +197,7 @@ public class DataRepository implements Repository, DataContext,
 
     private class DataSaver extends Thread implements DataConsistencyObserver {
         private volatile boolean running = true;
+        private boolean changesPending = false;
         public DataSaver() {
             super("DataSaver");
             setDaemon(true);
@@ -172,13 +205,26 @@ public class DataRepository implements Repository, DataContext,
         }
         public void run() {
             while (running) try {
-                sleep(120000);         // save dirty datafiles every 2 minutes
+                waitForChanges();
+                sleep(SAVE_DELAY_MILLIS);   // let related changes accumulate
+                // journal the changes the next time the data is consistent,
+                // and rewrite any datafiles whose journals have grown large
                 addDataConsistencyObserver(this);
+                compactDatafiles(false);
             } catch (InterruptedException ie) {}
         }
+        private synchronized void waitForChanges()
+                throws InterruptedException {
+            while (running && !changesPending)
+                wait();
+            changesPending = false;
+        }
+        public synchronized void changesPending() {
+            changesPending = true;
+            notify();
+        }
         public void dataIsConsistent() {
             saveAllDatafiles();
-            System.gc();
         }
         public void quit() {
             running = false;
@@ -198,14 +244,29 @@ public class DataRepository implements Repository, DataContext,
         volatile boolean isRemoved = false;
         boolean canWrite;
         boolean isImported = false;
-        volatile int dirtyCount;
+
+        /** The names of data elements that have changed since they were
+         * last saved */
+        final Set<String> dirtyNames =
+            Collections.synchronizedSet(new HashSet<String>());
+
+        /** True if this file must be rewritten in full, rather than by
+         * appending changes to its journal */
+        volatile boolean needsRewrite = false;
+
+        /** The journal of changes made since the file was last written */
+        DatafileJournal journal;
 
         public DataFile(String prefix, File file) {
             this.prefix = prefix;
             this.file = file;
             this.fileTimestamp = (file == null ? 0 : file.lastModified());
             this.canWrite = (file == null ? false : file.canWrite());
-            this.dirtyCount = 0;
+            this.journal = (file == null ? null : new DatafileJournal(file));
+        }
+
+        public boolean isDirty() {
+            return needsRewrite || !dirtyNames.isEmpty();
         }
 
         public void invalidate() {
@@ -237,12 +298,12 @@ public class DataRepository implements Repository, DataContext,
          * set to null.  Elements with null values generally are not saved out
          * to any datafile.
          */
-        private SaveableData value = null;
+        private volatile SaveableData value = null;
 
         /** True if the value of this data element came directly from the
          * default values inherited by our {@link DataFile}.
          */
-        private boolean isDefaultValue;
+        private volatile boolean isDefaultValue;
 
         /** The datafile to which this element should be saved.
          * 
@@ -289,11 +350,11 @@ public class DataRepository implements Repository, DataContext,
             return isDefaultName;
         }
 
-        public synchronized SaveableData getValue() {
+        public SaveableData getValue() {
             return value;
         }
 
-        public synchronized boolean isDefaultValue() {
+        public boolean isDefaultValue() {
             return isDefaultValue;
         }
 
@@ -312,8 +373,8 @@ public class DataRepository implements Repository, DataContext,
         }
 
         public synchronized void setValue(SaveableData d, boolean isDefault) {
-            this.value = d;
             this.isDefaultValue = isDefault;
+            this.value = d;
         }
 
         public void disposeValue() {
@@ -421,6 +482,17 @@ public class DataRepository implements Repository, DataContext,
         /** a list of misbehaved data which appears to be circularly defined. */
         Set circularData;
 
+        /** The listeners that some thread is currently sending events to,
+         * mapped to the thread that is delivering them. */
+        Map eventsInFlight;
+
+        /** Worker threads for evaluating independent calculations, and for
+         * delivering events to independent listeners. */
+        private ExecutorService workerExecutor;
+
+        /** Statistics about the notifications we deliver. */
+        NotificationMetrics metrics;
+
         private volatile boolean suspended = false;
 
         private volatile boolean running = true;
@@ -431,6 +503,8 @@ public class DataRepository implements Repository, DataContext,
             activeListeners = new Hashtable();
             patternedListeners = new ArrayList();
             circularData = Collections.synchronizedSet(new HashSet());
+            eventsInFlight = new HashMap();
+            metrics = new NotificationMetrics(notifications);
             setPriority(MIN_PRIORITY);
             setDaemon(true);
             start();
@@ -466,10 +540,29 @@ public class DataRepository implements Repository, DataContext,
          * a result of a change to given <code>DataElement</code> with
          * the given <code>name</code>, and add those notifications to
          * our internal data structures.
+         *
+         * When an active listener is affected, the value it calculates is
+         * about to change as well, so the listeners of that value are
+         * collected too.  The traversal is iterative, and visits each
+         * calculated value once until its listener has been notified.
          */
         public void dataChanged(String name, DataElement d) {
-            if (name == null || circularData.contains(name)) return;
-            if (d == null) d = (DataElement) data.get(name);
+            if (name == null) return;
+            changeCount.incrementAndGet();
+
+            List<String> changedNames = new ArrayList<String>();
+            changedNames.add(name);
+            for (int n = 0; n < changedNames.size(); n++)
+                addNotifications(changedNames.get(n), (n == 0 ? d : null),
+                    changedNames);
+
+            if (suspended) synchronized (this) { notify(); }
+        }
+
+        private void addNotifications(String name, DataElement d,
+                List<String> changedNames) {
+            if (circularData.contains(name)) return;
+            if (d == null) d = data.get(name);
             if (d == null) return;
 
             List dataListenerList = d.dataListeners;
@@ -505,15 +598,13 @@ public class DataRepository implements Repository, DataContext,
 
                 getElementsForDataListener(dl).put(name, d);
                 if (notifyActiveListener)
-                    dataChanged(listenerName, null);
+                    changedNames.add(listenerName);
             } catch (IndexOutOfBoundsException ie) {
                 // Someone has been messing with dataListenerList while we're
                 // iterating through it. No matter...the worst that can happen
                 // is that we will notify someone who doesn't care anymore, and
                 // that is harmless.
             }
-
-            if (suspended) synchronized (this) { notify(); }
         }
 
         private Hashtable getElementsForDataListener(DataListener dl) {
@@ -521,7 +612,7 @@ public class DataRepository implements Repository, DataContext,
             synchronized (notifications) {
                 elements = ((Hashtable) notifications.get(dl));
                 if (elements == null) {
-                    notifications.put(dl, elements = new Hashtable(2));
+                    notifications.put(dl, elements = new PendingEvents());
                 }
             }
             return elements;
@@ -536,7 +627,7 @@ public class DataRepository implements Repository, DataContext,
 
             getElementsForDataListener(dl).put(name, d);
 
-            fireEvent(dl);
+            fireEventAfterDependencies(dl, new HashSet());
         }
 
         public void removeDataListener(String name, DataListener dl) {
@@ -552,98 +643,96 @@ public class DataRepository implements Repository, DataContext,
                 activeListeners.remove(listenerName);
         }
 
-        /** Send one data listener a data changed event, indicating all of
-         * the items they are listening to that have changed.
-         * 
-         * @param dl the listener to notify.
+        /** Send one data listener its pending events, after first notifying
+         * any pending active listeners that calculate the values it is
+         * waiting to hear about.
+         *
+         * This is used to deliver events outside of the normal batch
+         * processing performed by the notifier thread.
          */
-        private void fireEvent(DataListener dl) {
-            if (dl == null) return;
+        private void fireEventAfterDependencies(DataListener dl, Set visited) {
+            if (!visited.add(dl)) return;
 
-            Hashtable elements = ((Hashtable) notifications.get(dl));
+            Hashtable elements = (Hashtable) notifications.get(dl);
             if (elements == null) return;
 
-            String listenerName = (String) activeData.get(dl);
-            if (listenerName != null && circularData.contains(listenerName)) {
-                notifications.remove(dl);
-                return;
+            for (Iterator i = new ArrayList(elements.keySet()).iterator();
+                    i.hasNext();) {
+                String name = (String) i.next();
+                DataListener producer = (DataListener) activeListeners.get(name);
+                if (producer != null && producer != dl) {
+                    awaitDelivery(producer);
+                    fireEventAfterDependencies(producer, visited);
+                }
             }
 
-            synchronized (elements) {
-                if (notifications.get(dl) == null) return;
-
-                Thread t = (Thread) elements.get(CIRCULARITY_TOKEN);
+            fireEvent(dl);
+        }
 
-                if (t != null) {
-                    if (t != Thread.currentThread()) {
-                        //System.out.println("waiting for other thread...");
-                        try { elements.wait(1000); } catch (InterruptedException ie) {}
-                        //System.out.println("waiting done.");
-                        return;
-                    } else {
-                        // circular dependencies between active data listeners
-                        // exist. Break the circular dependency and abort.
-                        if (listenerName != null) {
-                            logger.log(Level.WARNING, "Infinite recursion "
-                                      + "encountered while recalculating {0} "
-                                      + "- ABORTING", listenerName);
-                            circularData.add(listenerName);
-                        }
-                        return;
-                    }
+        /** If another thread is currently delivering events to the given
+         * listener, give it a moment (but no more) to finish. */
+        private void awaitDelivery(DataListener dl) {
+            long timeout = System.currentTimeMillis() + 1000;
+            synchronized (notifications) {
+                while (eventsInFlight.containsKey(dl)) {
+                    long delay = timeout - System.currentTimeMillis();
+                    if (delay <= 0) return;
+                    try { notifications.wait(delay); }
+                    catch (InterruptedException ie) { return; }
                 }
-
-                // record the fact that we are the thread currently handling this
-                // element notification list
-                elements.put(CIRCULARITY_TOKEN, Thread.currentThread());
             }
+        }
 
-            try {                 // run through the elements to see if any are
-                                  // also expected to change, and do those first.
-                for (Iterator i = elements.keySet().iterator(); i.hasNext();) {
-                    String name = (String) i.next();
-                    if (name == CIRCULARITY_TOKEN) continue;
-                    DataListener activeListener =
-                        (DataListener) activeListeners.get(name);
-                    if (activeListener != null)
-                        fireEvent(activeListener);
-                }
-            } catch (ConcurrentModificationException cme) {
-                // The loop above is designed to optimize the event delivery
-                // process. It attempts impose minimal overhead by iterating
-                // over the list of elements directly instead of making a copy.
-                // That opens the door to the slight possibility of a
-                // ConcurrentModificationException.  If one occurs, just proceed
-                // without optimizing the delivery of this particular event.
-                logger.log(Level.FINEST, "Caught cme while optimizing event "
-                          + "delivery for {0}", listenerName);
-            } finally {
-                Hashtable currentElements;
-                synchronized (notifications) {
-                    currentElements = (Hashtable) notifications.remove(dl);
-                    if (currentElements != elements && currentElements != null) {
-                        // Eeek!  While we've been doing the work above, someone
-                        // changed the notifications map behind our back, and
-                        // replaced the element list with a different one. (I'm
-                        // not sure if this can ever happen, but it doesn't hurt
-                        // to be paranoid.)  Undo the damage.
-                        notifications.put(dl, currentElements);
-                    }
-                }
-                elements.remove(CIRCULARITY_TOKEN);
-                if (listenerName != null)
-                    activeListeners.remove(listenerName);
-                if (currentElements == null) {
-                    // this is an indication that the data listener in question
-                    // has apparently been deleted in the time since we started
-                    // this method.  We can skip the task of delivering events.
-                    return;
+        /** Send one data listener a data changed event, indicating all of
+         * the items they are listening to that have changed.
+         *
+         * The pending events are claimed atomically, so each change is
+         * delivered to a given listener exactly once, even if several
+         * threads attempt delivery at the same time.  Deliveries to a given
+         * listener are serialized: if an earlier delivery is still running
+         * on another thread (for example, one that outlived
+         * DELIVERY_WAIT_MILLIS), we wait for it to finish, so the listener
+         * never receives older values after newer ones.
+         *
+         * @param dl the listener to notify.
+         */
+        private void fireEvent(DataListener dl) {
+            if (dl == null) return;
+
+            String listenerName = (String) activeData.get(dl);
+            Hashtable elements;
+            boolean isNested;
+            synchronized (notifications) {
+                Thread deliverer;
+                while ((deliverer = (Thread) eventsInFlight.get(dl)) != null
+                        && deliverer != Thread.currentThread()) {
+                    try { notifications.wait(); }
+                    catch (InterruptedException ie) { return; }
                 }
+                elements = (Hashtable) notifications.remove(dl);
+                if (elements == null) return;
+                isNested = (deliverer != null);
+                if (!isNested)
+                    eventsInFlight.put(dl, Thread.currentThread());
             }
+            if (listenerName != null)
+                activeListeners.remove(listenerName);
+            if (elements instanceof PendingEvents)
+                metrics.recordDelivery(elements.size(), System
+                        .currentTimeMillis() - ((PendingEvents) elements).since);
 
             try {
-                // Now, send the data changed event to this data listener.
-                if (elements.size() == 1) {
+                if (listenerName != null && circularData.contains(listenerName))
+                    return;
+
+                if (dl instanceof CompiledFunction) {
+                    // a calculation only needs to know that its inputs have
+                    // changed.  It will read the new values when it is next
+                    // asked for its own value, so there is no need to build
+                    // (and evaluate) a list of data events.
+                    ((CompiledFunction) dl).invalidate();
+
+                } else if (elements.size() == 1) {
                     // if there is only one changed element, we can use the
                     // singular form of the data notification method, and avoid
                     // creating a Vector object.
@@ -651,6 +740,7 @@ public class DataRepository implements Repository, DataContext,
                     String name = (String) e.getKey();
                     DataElement d = (DataElement) e.getValue();
                     dl.dataValueChanged(d.getDataChangedEvent(name));
+
                 } else if (elements.size() > 1) {
                     // Build a list of data events to send
                     Vector dataEvents = new Vector();
@@ -659,8 +749,8 @@ public class DataRepository implements Repository, DataContext,
                         String name = (String) e.getKey();
                         DataElement d = (DataElement) e.getValue();
                         dataEvents.addElement(d.getDataChangedEvent(name));
-                        dl.dataValuesChanged(dataEvents);
                     }
+                    dl.dataValuesChanged(dataEvents);
                 }
             } catch (RemoteException rem) {
                 logger.log(Level.WARNING,
@@ -672,54 +762,215 @@ public class DataRepository implements Repository, DataContext,
                 // due to multithreading, but no harm is done as long as the
                 // exception is caught here.
             } finally {
-                // notify other threads that might have seen our CIRCULARITY
-                // TOKEN and are waiting for us to finish.
-                synchronized (elements) { elements.notifyAll(); }
+                // notify other threads that might be waiting for us to finish.
+                synchronized (notifications) {
+                    if (!isNested)
+                        eventsInFlight.remove(dl);
+                    notifications.notifyAll();
+                }
             }
         }
 
-        private boolean fireEvent() {
-            if (!notifications.isEmpty()) {
-                try {
-                    fireEvent((DataListener) notifications.keys().nextElement());
-                    return true;
-                } catch (java.util.NoSuchElementException e) {
+        /** Deliver all of the currently pending notifications as a single
+         * batch.
+         *
+         * Pending listeners are arranged into a dependency graph.  Active
+         * listeners are notified first, in dependency order, so every stale
+         * calculation is invalidated exactly once.  The calculated values that
+         * the remaining listeners are waiting to read are then evaluated, with
+         * independent subgraphs running in parallel on a pool of worker
+         * threads.  Finally, the remaining listeners receive their events.
+         * Those listeners do not depend on each other, so the ones that
+         * support concurrent delivery are notified on the same pool.  The
+         * others are notified one at a time on the notifier thread.
+         *
+         * @return false if there were no pending notifications.
+         */
+        private boolean fireBatch() {
+            if (notifications.isEmpty())
+                return false;
+
+            long start = System.currentTimeMillis();
+
+            CalculationBatch batch = new CalculationBatch(new ArrayList(
+                    notifications.keySet()), notifications, activeData);
+
+            for (Iterator i = batch.getCircularListeners().iterator();
+                    i.hasNext();) {
+                DataListener dl = (DataListener) i.next();
+                String listenerName = (String) activeData.get(dl);
+                if (listenerName != null) {
+                    logger.log(Level.WARNING, "Infinite recursion "
+                              + "encountered while recalculating {0} "
+                              + "- ABORTING", listenerName);
+                    circularData.add(listenerName);
+                    activeListeners.remove(listenerName);
                 }
+                notifications.remove(dl);
             }
-            return false;
+
+            List readers = new ArrayList();
+            for (Iterator i = batch.getListeners().iterator(); i.hasNext();) {
+                DataListener dl = (DataListener) i.next();
+                if (activeData.containsKey(dl))
+                    fireEvent(dl);
+                else
+                    readers.add(dl);
+            }
+
+            evaluateInParallel(batch.getIndependentCalculations(readers));
+
+            deliverInParallel(readers);
+
+            long elapsed = System.currentTimeMillis() - start;
+            metrics.recordBatch(elapsed);
+            if (logger.isLoggable(Level.FINER))
+                logger.finer("Delivered data notifications in " + elapsed
+                        + " ms: " + metrics);
+
+            return true;
+        }
+
+        /** Send events to a list of mutually independent listeners, and wait
+         * (for a limited time) for the deliveries to finish. */
+        private void deliverInParallel(List readers) {
+            List concurrent = new ArrayList();
+            List serial = new ArrayList();
+            for (Iterator i = readers.iterator(); i.hasNext();) {
+                DataListener dl = (DataListener) i.next();
+                if (dl instanceof DataListener.ConcurrentDelivery
+                        && NOTIFIER_THREADS > 1)
+                    concurrent.add(dl);
+                else
+                    serial.add(dl);
+            }
+
+            final CountDownLatch done = new CountDownLatch(concurrent.size());
+            for (Iterator i = concurrent.iterator(); i.hasNext();) {
+                final DataListener dl = (DataListener) i.next();
+                getWorkerExecutor().execute(new Runnable() {
+                    public void run() {
+                        try {
+                            fireEvent(dl);
+                        } finally {
+                            done.countDown();
+                        }
+                    }});
+            }
+
+            for (Iterator i = serial.iterator(); i.hasNext();)
+                fireEvent((DataListener) i.next());
+
+            try {
+                // a listener that is slow to respond will finish its delivery
+                // in the background, while we move on to the next batch.
+                done.await(DELIVERY_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {}
+        }
+
+        /** Evaluate groups of calculated values on the worker pool, with
+         * the notifier thread taking a share of the groups.
+         * 
+         * Groups are claimed one at a time by whichever thread is free, and
+         * the notifier thread keeps evaluating until no unclaimed groups
+         * remain.  It does not wait for the groups that workers are still
+         * evaluating: the listeners that read those values will wait only
+         * for the calculations they need. */
+        private void evaluateInParallel(final List<List<String>> groups) {
+            // a single group gains nothing from a hand-off to another thread;
+            // its values will be calculated as its listeners read them.
+            if (groups.size() < 2 || NOTIFIER_THREADS < 2)
+                return;
+
+            final AtomicInteger nextGroup = new AtomicInteger();
+            Runnable evaluator = new Runnable() {
+                public void run() {
+                    int i;
+                    while ((i = nextGroup.getAndIncrement()) < groups.size())
+                        evaluateGroup(groups.get(i));
+                }};
+            int helpers = Math.min(groups.size(), NOTIFIER_THREADS) - 1;
+            for (int i = 0; i < helpers; i++)
+                getWorkerExecutor().execute(evaluator);
+            evaluator.run();
+        }
+
+        private void evaluateGroup(List<String> group) {
+            try {
+                for (String name : group) {
+                    DataElement d = data.get(name);
+                    if (d != null)
+                        d.getSimpleValue();
+                }
+            } catch (Exception e) {
+                // errors will resurface, and be reported, when listeners
+                // read these values.
+            }
+        }
+
+        /** @return a pool of worker threads.  The pool has a bounded queue;
+         * when it fills up, the notifier thread performs the work itself. */
+        private synchronized ExecutorService getWorkerExecutor() {
+            if (workerExecutor == null)
+                workerExecutor = new ThreadPoolExecutor(NOTIFIER_THREADS,
+                        NOTIFIER_THREADS, 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>(NOTIFIER_QUEUE_SIZE),
+                        new ThreadFactory() {
+                            public Thread newThread(Runnable r) {
+                                Thread t = new Thread(r, "DataNotifier.worker");
+                                t.setPriority(MIN_PRIORITY);
+                                t.setDaemon(true);
+                                return t;
+                            }},
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+            return workerExecutor;
         }
 
         public void run() {
             while (running) try {
-                if (fireEvent() == false)
+                if (fireBatch() == false)
                     doWait();
             } catch (Exception e) {}
         }
 
         private synchronized void doWait() {
             suspended = true;
-            try { wait(); } catch (InterruptedException i) {}
+            // recheck while holding our monitor: dataChanged() notifies us
+            // whenever it sees that we are suspended, so a notification that
+            // arrived before we started waiting is not missed.
+            try {
+                while (running && notifications.isEmpty())
+                    wait();
+            } catch (InterruptedException i) {}
             suspended = false;
         }
 
+        /** Wait until all pending notifications have been delivered.
+         *
+         * @return false if there were no pending notifications.
+         */
         public boolean flush() {
             if (notifications.isEmpty())
                 return false;
 
-            boolean done = false;
-            do {
-                if (!done) {
-                    synchronized (this) {
-                        this.notifyAll();
-                    }
+            // each delivery wakes us up.  Listeners can also be discarded
+            // without a delivery, so recheck periodically as well, and wake
+            // the notifier thread again on each pass in case it went back to
+            // sleep in the meantime.
+            while (!notifications.isEmpty()) {
+                synchronized (this) {
+                    this.notifyAll();
+                }
+                synchronized (notifications) {
+                    if (notifications.isEmpty())
+                        break;
                     try {
-                        Thread.sleep(20);
-                    } catch (InterruptedException ie) {}
+                        notifications.wait(FLUSH_RECHECK_MILLIS);
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
                 }
-
-                done = notifications.isEmpty();
-
-            } while (!done);
+            }
 
             return true;
         }
@@ -727,9 +978,20 @@ public class DataRepository implements Repository, DataContext,
         public void quit() {
             running = false;
             interrupt();
+            synchronized (this) {
+                if (workerExecutor != null)
+                    workerExecutor.shutdown();
+            }
         }
     }
-    private static final String CIRCULARITY_TOKEN = "CIRCULARITY_TOKEN";
+
+    /** The changes awaiting delivery to a single listener, along with the
+     * time the first of those changes occurred. */
+    private static class PendingEvents extends Hashtable {
+        private static final long serialVersionUID = 1L;
+        final long since = System.currentTimeMillis();
+        PendingEvents() { super(2); }
+    }
 
     DataNotifier dataNotifier;
 
@@ -981,7 +1243,7 @@ public class DataRepository implements Repository, DataContext,
 
         /** Perform the work required to thaw a data value. */
         private void performThaw(String dataName) {
-            DataElement element = (DataElement) data.get(dataName);
+            DataElement element = data.get(dataName);
             if (element == null) return;
             if (element.datafile != null && element.datafile.isImported) return;
             logger.log(Level.FINE, "Thawing data element {0}", dataName);
@@ -1068,8 +1330,10 @@ public class DataRepository implements Repository, DataContext,
                 if (pos == -1) return; // shouldn't happen!
 
                 String prefix = freezeFlagName.substring(0, pos+1);
+                String regexp = freezeFlagName.substring(pos
+                        + FREEZE_FLAG_TAG.length());
                 this.freezeRegexp = Pattern.compile(ValueFactory.regexpQuote(prefix)
-                        + freezeFlagName.substring(pos + FREEZE_FLAG_TAG.length()));
+                        + regexp);
 
                 this.initializing = true;
                 this.tentativeFreezables = new HashSet();
@@ -1077,7 +1341,10 @@ public class DataRepository implements Repository, DataContext,
 
                 addDataListener(freezeFlagName, this);
 
-                addRepositoryListener(this, prefix);
+                // the regexp must match the entire name, so it is implicitly
+                // anchored at the end.
+                addRepositoryListener(this, prefix,
+                    Perl5Util.getLiteralSuffix(regexp + "$"));
             }
 
             public synchronized void dispose() {
@@ -1195,7 +1462,7 @@ public class DataRepository implements Repository, DataContext,
                 if (!freezeRegexp.matcher(dataName).matches())
                     return;           // only freeze data which matches the regexp.
 
-                DataElement e = (DataElement) data.get(dataName);
+                DataElement e = data.get(dataName);
                 SaveableData value = (e == null ? null : e.getValue());
                 boolean valueIsFrozen = (value instanceof FrozenData);
 
@@ -1347,6 +1614,29 @@ public class DataRepository implements Repository, DataContext,
     private static final int JANITOR_DATA_LIFESPAN =  Integer.getInteger(
             DataRepository.class.getName() + ".dataGenerations", 3).intValue();
 
+    private static final int DATA_INITIAL_CAPACITY = Integer.getInteger(
+            DataRepository.class.getName() + ".initialCapacity", 8000)
+            .intValue();
+    private static final int DATA_CONCURRENCY_LEVEL = Integer.getInteger(
+            DataRepository.class.getName() + ".concurrencyLevel", 32)
+            .intValue();
+
+    private static final int NOTIFIER_THREADS = Integer.getInteger(
+            DataRepository.class.getName() + ".notifierThreads",
+            Runtime.getRuntime().availableProcessors()).intValue();
+    private static final int NOTIFIER_QUEUE_SIZE = Integer.getInteger(
+            DataRepository.class.getName() + ".notifierQueueSize", 1000)
+            .intValue();
+    private static final int FLUSH_RECHECK_MILLIS = 100;
+    private static final int LOADER_THREADS = Integer.getInteger(
+            DataRepository.class.getName() + ".loaderThreads",
+            Runtime.getRuntime().availableProcessors()).intValue();
+    private static final int SAVE_DELAY_MILLIS = Integer.getInteger(
+            DataRepository.class.getName() + ".saveDelay", 5000).intValue();
+    private static final int DELIVERY_WAIT_MILLIS = Integer.getInteger(
+            DataRepository.class.getName() + ".deliveryWait", 1000)
+            .intValue();
+
     private static final int MAX_NEW_ITEMS_PER_GENERATION =
         JANITOR_DATA_ELEM_COUNT / JANITOR_DATA_LIFESPAN;
     private static final int JANITOR_GENERATION_TIME =
@@ -1402,7 +1692,7 @@ public class DataRepository implements Repository, DataContext,
 
             for (Iterator i = getInternalKeys(); i.hasNext();) {
                 String dataName = (String) i.next();
-                DataElement d = (DataElement) data.get(dataName);
+                DataElement d = data.get(dataName);
                 if (isDefaultElement(d) && !d.hasListeners()
                         && d.disposalLockCount == 0
                         && Filter.matchesFilter(prefixes, dataName)) {
@@ -1468,7 +1758,7 @@ public class DataRepository implements Repository, DataContext,
 
             for (Iterator i = getInternalKeys(); i.hasNext();) {
                 String dataName = (String) i.next();
-                DataElement d = (DataElement) data.get(dataName);
+                DataElement d = data.get(dataName);
                 if (isDefaultElement(d)) {
                     potentiallyCleanableCount++;
                     if (!d.hasListeners()) {
@@ -1515,7 +1805,7 @@ public class DataRepository implements Repository, DataContext,
         private void cleanup(DataElement e) {
             synchronized (e) {
                 if (e.disposalLockCount == 0) {
-                    data.remove(e.name);
+                    removeDataElement(e.name, e);
                     e.disposeValue();
                 }
             }
@@ -1562,7 +1852,7 @@ public class DataRepository implements Repository, DataContext,
             synchronized (datafiles) {
                 for (Iterator i = datafiles.iterator(); i.hasNext();) {
                     DataFile datafile = (DataFile) i.next();
-                    if (datafile.file != null && datafile.dirtyCount > 0)
+                    if (datafile.file != null && datafile.isDirty())
                         return true;
                 }
             }
@@ -1579,7 +1869,7 @@ public class DataRepository implements Repository, DataContext,
         for (Iterator i = files.iterator(); i.hasNext();) {
             DataFile datafile = (DataFile) i.next();
             try {
-                if (datafile.dirtyCount > 0)
+                if (datafile.isDirty())
                     saveDatafile(datafile);
             } catch (Exception e) {
                 logger.log(Level.SEVERE,
@@ -1588,6 +1878,32 @@ public class DataRepository implements Repository, DataContext,
         }
     }
 
+    /**
+     * Rewrite datafiles in full, so their journals can be discarded.
+     * 
+     * @param all
+     *            true to rewrite every datafile that has a journal; false to
+     *            only rewrite the ones whose journals have grown large
+     */
+    private void compactDatafiles(boolean all) {
+        List<DataFile> files;
+        synchronized (datafiles) {
+            files = new ArrayList<DataFile>(datafiles);
+        }
+
+        for (DataFile datafile : files) {
+            try {
+                if (datafile.journal != null && (all
+                        ? datafile.journal.hasChanges()
+                        : datafile.journal.needsCompaction()))
+                    compactDatafile(datafile);
+            } catch (Exception e) {
+                logger.log(Level.SEVERE,
+                        "Encountered error when saving datafiles", e);
+            }
+        }
+    }
+
     public void shutDown() {
         logger.fine("Finalizing DataRepository");
         waitForCalculations();
@@ -1600,6 +1916,7 @@ public class DataRepository implements Repository, DataContext,
         } catch (InterruptedException e) {}
 
         saveAllDatafiles();
+        compactDatafiles(true);
         if (dataServer != null)
             dataServer.quit();
         if (secondaryDataServer != null)
@@ -1613,7 +1930,7 @@ public class DataRepository implements Repository, DataContext,
     }
 
     public void purgeDataStructures() {
-        purgeDataStructures(data, activeData, dataListenersForDeferredRemoval,
+        purgeDataStructures(data, dataNameIndex, activeData, dataListenersForDeferredRemoval,
             datafiles, datafilePrefixMap, PathIDMap, IDPathMap,
             dataElementNameSet, defaultDefinitions, defineDeclarations,
             globalDataDefinitions, includedFileCache, mountedPhantomData,
@@ -1632,6 +1949,8 @@ public class DataRepository implements Repository, DataContext,
                 ((Collection) f).clear();
             } else if (f instanceof StringBuffer) {
                 ((StringBuffer) f).setLength(0);
+            } else if (f instanceof DataNameIndex) {
+                ((DataNameIndex) f).clear();
             }
         }
     }
@@ -1700,13 +2019,13 @@ public class DataRepository implements Repository, DataContext,
         oldPrefix = oldPrefix + "/";
         newPrefix = newPrefix + "/";
         int oldPrefixLen = oldPrefix.length();
-        Iterator k = getInternalKeys();
+        Iterator k = getInternalKeys(oldPrefix);
         while (k.hasNext()) {
             name = (String) k.next();
             if (!name.startsWith(oldPrefix))
                 continue;
 
-            element = (DataElement) data.get(name);
+            element = data.get(name);
             if (element == null ||
                 element.isDefaultName() ||
                 element.datafile == null ||
@@ -1737,7 +2056,7 @@ public class DataRepository implements Repository, DataContext,
 
         for (Iterator i = getInternalKeys(); i.hasNext();) {
             String dataName = (String) i.next();
-            DataElement d = (DataElement) data.get(dataName);
+            DataElement d = data.get(dataName);
             maybeReparent(dataName, d);
         }
     }
@@ -1787,8 +2106,9 @@ public class DataRepository implements Repository, DataContext,
         logger.log(Level.INFO, "Reparented data element {0}", dataName);
 
         // now mark both datafiles as modified, so they will be saved.
-        curr.dirtyCount++;
-        f.dirtyCount++;
+        curr.dirtyNames.add(dataName);
+        f.dirtyNames.add(dataName);
+        dataSaver.changesPending();
     }
 
 
@@ -1831,6 +2151,61 @@ public class DataRepository implements Repository, DataContext,
     }
 
 
+    /** A snapshot of previously parsed definitions, or null */
+    private volatile DefinitionSnapshot definitionSnapshot = null;
+
+    /** Collects parsed definitions for the next snapshot, or null */
+    private volatile DefinitionSnapshot.Builder snapshotBuilder = null;
+
+    /** The base filename for definition snapshots */
+    private File snapshotFile = null;
+
+    /** Included files whose definitions cannot be stored in a snapshot,
+     * because parsing them had side effects on global data */
+    private final Set unsnapshottableIncludes = Collections
+            .synchronizedSet(new HashSet());
+
+    private static final boolean DISABLE_SNAPSHOT = Boolean
+            .getBoolean(DataRepository.class.getName() + ".disableSnapshot");
+
+    /**
+     * Begin using a binary snapshot of parsed datafile definitions.
+     * 
+     * Included files and datafiles whose definitions are found in a valid
+     * snapshot will be read from the snapshot instead of being parsed.
+     * Definitions that are parsed will be collected, so they can be written
+     * to a new snapshot by {@link #saveDefinitionSnapshot()}.
+     */
+    public void openDefinitionSnapshot(File file) {
+        if (DISABLE_SNAPSHOT)
+            return;
+        snapshotFile = file;
+        definitionSnapshot = DefinitionSnapshot.open(file,
+            TemplateLoader.getTemplateTimestamp());
+        snapshotBuilder = new DefinitionSnapshot.Builder();
+    }
+
+    /**
+     * Write a new definition snapshot if any definitions were parsed since
+     * {@link #openDefinitionSnapshot(File)} was called, and stop collecting
+     * definitions.
+     */
+    public void saveDefinitionSnapshot() {
+        DefinitionSnapshot.Builder builder = snapshotBuilder;
+        snapshotBuilder = null;
+        if (builder != null && builder.isDirty()) {
+            try {
+                builder.write(snapshotFile, definitionSnapshot,
+                    TemplateLoader.getTemplateTimestamp());
+            } catch (IOException ioe) {
+                logger.log(Level.WARNING,
+                    "Unable to save definition snapshot", ioe);
+            }
+        }
+        definitionSnapshot = null;
+    }
+
+
     /** Dump data in the legacy text format, that was originally used for
      * import/export operations. */
     public static final int DUMP_STYLE_TEXT = 0;
@@ -1903,7 +2278,7 @@ public class DataRepository implements Repository, DataContext,
         // print out all element values.
         for (Iterator i = getInternalKeys(); i.hasNext();) {
             String name = (String) i.next();
-            DataElement element = (DataElement) data.get(name);
+            DataElement element = data.get(name);
             if (element == null)
                 continue;
 
@@ -1931,8 +2306,12 @@ public class DataRepository implements Repository, DataContext,
                                       // save previous changes to the datafile.
                                       // FIXME: if this fails due to file I/O, the
                                       // unsaved changes will be lost.
-                if (datafile.dirtyCount > 0)
+                if (datafile.isDirty()) {
+                    datafile.needsRewrite = true;
                     saveDatafile(datafile);
+                } else {
+                    compactDatafile(datafile);
+                }
 
                                         // remove 'datafile' from the list of
                                         // datafiles in this repository.
@@ -2037,15 +2416,16 @@ public class DataRepository implements Repository, DataContext,
                                 // Add the element to the table
         DataElement d = new DataElement(datafile, name, isDefaultName);
         d.setValue(value, isDefaultValue);
-        synchronized (data) {
-            DataElement displaced = (DataElement) data.put(name, d);
-            if (displaced != null) {
-                // restore the displaced data element. Then throw an exception
-                // to our caller indicating that they cannot add the element,
-                // because it already exists.
-                data.put(name, displaced);
-                throw new DataElementAlreadyExistsException(displaced);
-            }
+        DataElement displaced;
+        synchronized (getDataNameLock(name)) {
+            displaced = data.putIfAbsent(name, d);
+            if (displaced == null)
+                dataNameIndex.add(name);
+        }
+        if (displaced != null) {
+            // throw an exception to our caller indicating that they cannot
+            // add the element, because it already exists.
+            throw new DataElementAlreadyExistsException(displaced);
         }
 
         if (notify && !isDefaultName && !name.startsWith(anonymousPrefix))
@@ -2061,7 +2441,7 @@ public class DataRepository implements Repository, DataContext,
      */
     public synchronized void removeValue(String name) {
 
-        DataElement removedElement = (DataElement)data.get(name);
+        DataElement removedElement = data.get(name);
 
         // if the named object existed in the repository,
         if (removedElement != null) {
@@ -2078,7 +2458,7 @@ public class DataRepository implements Repository, DataContext,
 
                       // flag the element's datafile as having been modified
             if (removedElement.datafile != null)
-                datafileModified(removedElement.datafile);
+                datafileModified(removedElement.datafile, name);
 
                                       // disown the element from its datafile,
             removedElement.datafile = null;
@@ -2160,7 +2540,7 @@ public class DataRepository implements Repository, DataContext,
 
     public void maybeCreateValue(String name, String value, String prefix) {
 
-        DataElement d = (DataElement)data.get(name);
+        DataElement d = data.get(name);
 
         // if this name represents a default value that has lazily not yet been
         // constructed, do not create the default value.
@@ -2206,7 +2586,7 @@ public class DataRepository implements Repository, DataContext,
     }
 
     private DataElement getOrCreateDefaultDataElement(String dataName) {
-        DataElement d = (DataElement)data.get(dataName);
+        DataElement d = data.get(dataName);
         if (d == null) {
             try {
                 d = maybeCreateDefaultData(dataName);
@@ -2269,7 +2649,7 @@ public class DataRepository implements Repository, DataContext,
             return null;
         String dataName = createDataName(dataFile.prefix,
                 IMPORTED_NULL_ELEMENT_NAME);
-        DataElement result = (DataElement) data.get(dataName);
+        DataElement result = data.get(dataName);
         if (result == null) {
             try {
                 result = add(dataName, IS_DEFAULT_NAME, null, IS_DEFAULT_VAL,
@@ -2364,7 +2744,7 @@ public class DataRepository implements Repository, DataContext,
 
         try {
             recursion_depth++;
-            DataElement d = (DataElement)data.get(name);
+            DataElement d = data.get(name);
 
             if (d != null) {
                                     // change the value of the data element.
@@ -2386,7 +2766,7 @@ public class DataRepository implements Repository, DataContext,
                         d.isDefaultName = false;
                     }
 
-                    datafileModified(d.datafile);
+                    datafileModified(d.datafile, name);
                 }
 
                                       // possibly throw away the old value.
@@ -2423,7 +2803,7 @@ public class DataRepository implements Repository, DataContext,
                     if (!isDefaultValue
                             && (isDefaultName || value != null)
                             && checkDatafileModification)
-                        datafileModified(f);
+                        datafileModified(f, name);
                 } catch (DataElementAlreadyExistsException e) {
                     // this rare occurrence means that some other thread created this
                     // DataElement in the time since we tried to retrieve it and found
@@ -2440,7 +2820,7 @@ public class DataRepository implements Repository, DataContext,
     public void valueRecalculated(String name, SaveableData value) {
 
         if (recursion_depth < MAX_RECURSION_DEPTH) {
-            DataElement d = (DataElement)data.get(name);
+            DataElement d = data.get(name);
             if (d == null || d.getValue() != value) return;
 
             try {
@@ -2481,6 +2861,11 @@ public class DataRepository implements Repository, DataContext,
         }
     }
 
+    /** @return statistics about the delivery of data change notifications */
+    public NotificationMetrics getNotificationMetrics() {
+        return dataNotifier.metrics;
+    }
+
     public String getAliasedName(String name) {
         DataElement d = getOrCreateDefaultDataElement(name);
         String aliasName = null;
@@ -2502,7 +2887,7 @@ public class DataRepository implements Repository, DataContext,
 
     public void restoreDefaultValue(String name) {
 
-        DataElement d = (DataElement) data.get(name);
+        DataElement d = data.get(name);
 
         if (d == null)
             // either the item either doesn't exist, or it is already a
@@ -2573,6 +2958,22 @@ public class DataRepository implements Repository, DataContext,
     private static final String includeTag = "#include ";
     private final Hashtable includedFileCache = new Hashtable();
 
+    /** Guards the loading of included files */
+    private final Object includeLoadLock = new Object();
+
+    /** Included files that are being loaded by the thread holding the
+     * includeLoadLock, but whose definitions are not yet complete */
+    private final Map includesInProgress = new HashMap();
+
+    /** While a datafile is being read, the global values it defines and the
+     * files it includes, in the order they were encountered.  Elements are
+     * either an Object[] name/value pair, or the name of an included file */
+    private final ThreadLocal globalPutLog = new ThreadLocal();
+
+    /** The logs of global values defined by included files that were loaded
+     * while reading a datafile, but have not yet been applied */
+    private final Map includeGlobalPuts = new Hashtable();
+
     private Map getIncludedFileDefinitions(String datafile) {
         //debug("getIncludedFileDefinitions("+datafile+")");
         datafile = followDatafileRedirections(datafile);
@@ -2609,43 +3010,128 @@ public class DataRepository implements Repository, DataContext,
         // Check in the defaultDefinitions map for any requested redirections.
         datafile = followDatafileRedirections(datafile);
 
+        // if a datafile is being read, note that it needs this file's globals
+        List globalPuts = (List) globalPutLog.get();
+        if (globalPuts != null)
+            globalPuts.add(datafile);
+
         Map result = getIncludedFileDefinitions(datafile);
-        if (result == null) {
-            result = new HashMap();
-
-            // Lookup any applicable default data definitions.
-            DefinitionFactory defaultDefns =
-                (DefinitionFactory) defaultDefinitions.get(datafile);
-            if (defaultDefns != null)
-                result.putAll(defaultDefns.getDefinitions(DataRepository.this));
-
-            if (!isImaginaryDatafileName(datafile))
-                loadDatafile(datafile, findDatafile(datafile), result,
-                        DO_FOLLOW_INCLUDES, DO_CLOSE, "UTF-8");
-
-            // Although we aren't technically done creating this datafile,
-            // we need to store it in the cache before calling
-            // insertRollupDefinitions to avoid entering an infinite loop.
-            includedFileCache.put(datafile, result);
-
-            // check to see if the datafile requests a rollup
-            Object rollupIDval = result.get("Use_Rollup");
-            if (rollupIDval instanceof StringData) {
-                String rollupID = ((StringData) rollupIDval).getString();
-                insertRollupDefinitions(result, rollupID);
+        if (result != null)
+            return result;
+
+        // Included files are loaded by one thread at a time.  Datafiles that
+        // are read concurrently will share a single copy of each included
+        // file, and will never see definitions that are still being built.
+        synchronized (includeLoadLock) {
+            result = (Map) includesInProgress.get(datafile);
+            if (result == null)
+                result = getIncludedFileDefinitions(datafile);
+            if (result == null && definitionSnapshot != null)
+                result = loadIncludedFileDefinitionsFromSnapshot(datafile);
+            if (result == null) {
+                try {
+                    result = buildIncludedFileDefinitions(datafile);
+                } finally {
+                    includesInProgress.remove(datafile);
+                }
             }
+        }
 
-            // prepare renaming operations for later use
-            DataRenamingOperation.initRenamingOperations(result);
+        return result;
+    }
 
-            result = Collections.unmodifiableMap(result);
-            includedFileCache.put(datafile, result);
-            definitionsDirty = true;
+    private Map buildIncludedFileDefinitions(String datafile)
+        throws FileNotFoundException, IOException, InvalidDatafileFormat
+    {
+        // if a datafile is being read, log the global values defined by this
+        // file separately, so they can be applied when it is first needed.
+        List outerGlobalPuts = (List) globalPutLog.get();
+        if (outerGlobalPuts != null) {
+            List globalPuts = new ArrayList();
+            includeGlobalPuts.put(datafile, globalPuts);
+            globalPutLog.set(globalPuts);
+        }
+        try {
+            return buildIncludedFileDefinitionsImpl(datafile);
+        } finally {
+            if (outerGlobalPuts != null)
+                globalPutLog.set(outerGlobalPuts);
+        }
+    }
+
+    private Map buildIncludedFileDefinitionsImpl(String datafile)
+        throws FileNotFoundException, IOException, InvalidDatafileFormat
+    {
+        Map result = new HashMap();
+        boolean snapshottable = !isImaginaryDatafileName(datafile);
+
+        // Lookup any applicable default data definitions.
+        DefinitionFactory defaultDefns =
+            (DefinitionFactory) defaultDefinitions.get(datafile);
+        if (defaultDefns != null)
+            result.putAll(defaultDefns.getDefinitions(DataRepository.this));
+
+        if (!isImaginaryDatafileName(datafile)) {
+            FileLoader loader = parseDatafile(datafile,
+                new InputStreamReader(findDatafile(datafile), "UTF-8"),
+                result, DO_FOLLOW_INCLUDES, DO_CLOSE);
+            snapshottable = loader.isSnapshottable();
+        }
+
+        // Although we aren't technically done creating this datafile,
+        // we need to make it available before calling
+        // insertRollupDefinitions to avoid entering an infinite loop.
+        includesInProgress.put(datafile, result);
+
+        // check to see if the datafile requests a rollup
+        Object rollupIDval = result.get("Use_Rollup");
+        if (rollupIDval instanceof StringData) {
+            String rollupID = ((StringData) rollupIDval).getString();
+            insertRollupDefinitions(result, rollupID);
         }
 
+        // prepare renaming operations for later use
+        DataRenamingOperation.initRenamingOperations(result);
+
+        result = Collections.unmodifiableMap(result);
+        includedFileCache.put(datafile, result);
+        definitionsDirty = true;
+
+        DefinitionSnapshot.Builder builder = snapshotBuilder;
+        if (!snapshottable)
+            unsnapshottableIncludes.add(datafile);
+        else if (builder != null)
+            builder.addIncludedFile(datafile,
+                getDefineDeclarations(datafile), result, false);
+
+        return result;
+    }
+
+    private Map loadIncludedFileDefinitionsFromSnapshot(String datafile) {
+        DefinitionSnapshot snapshot = definitionSnapshot;
+        if (snapshot == null)
+            return null;
+
+        String defines = getDefineDeclarations(datafile);
+        Map result = snapshot.getIncludedFileDefinitions(datafile, defines);
+        if (result == null)
+            return null;
+
+        result = Collections.unmodifiableMap(result);
+        includedFileCache.put(datafile, result);
+        definitionsDirty = true;
+
+        DefinitionSnapshot.Builder builder = snapshotBuilder;
+        if (builder != null)
+            builder.addIncludedFile(datafile, defines, result, true);
         return result;
     }
 
+    private boolean isSnapshottableInclude(String datafile) {
+        datafile = followDatafileRedirections(bracket(datafile));
+        return !unsnapshottableIncludes.contains(datafile);
+    }
+
     private void insertRollupDefinitions(Map definitions, String rollupID) {
         // It would be nice to accept a list of rollupIDs
         try {
@@ -2668,7 +3154,7 @@ public class DataRepository implements Repository, DataContext,
         DataFile datafile = null;
 
         // if the data element is null, try looking it up.
-        if (element == null) element = (DataElement)data.get(dataName);
+        if (element == null) element = data.get(dataName);
 
         if (element == null)
             datafile = guessDataFile(dataName, DO_NOT_REQUIRE_WRITABLE);
@@ -2725,17 +3211,24 @@ public class DataRepository implements Repository, DataContext,
     private class FileLoader extends DepthFirstAdapter {
         private String inheritedDatafile = null;
         private boolean followIncludes;
+        private boolean snapshottable = true;
         private Map dest;
         public FileLoader(Map dest, boolean followIncludes) {
             this.dest = dest;
             this.followIncludes = followIncludes;
         }
         public String getInheritedDatafile() { return inheritedDatafile; }
+        public boolean isSnapshottable() { return snapshottable; }
 
         private void putVal(String name, Object value) {
-            if (name.startsWith("/"))
-                putGlobalValue(name, value);
-            else if ((value == null || value.equals("null")
+            if (name.startsWith("/")) {
+                List globalPuts = (List) globalPutLog.get();
+                if (globalPuts != null)
+                    globalPuts.add(new Object[] { name, value });
+                else
+                    putGlobalValue(name, value);
+                snapshottable = false;
+            } else if ((value == null || value.equals("null")
                     || value.equals("=null")) && followIncludes)
                 dest.remove(name);
             else
@@ -2819,6 +3312,8 @@ public class DataRepository implements Repository, DataContext,
                 Map cachedIncludeFile =
                     loadIncludedFileDefinitions(inheritedDatafile);
                 Map filteredIncludeFile = cachedIncludeFile;
+                if (!isSnapshottableInclude(inheritedDatafile))
+                    snapshottable = false;
 
                 if (node.getExcludeClause() != null) {
                     IdentifierLister filter = new IdentifierLister();
@@ -2867,15 +3362,18 @@ public class DataRepository implements Repository, DataContext,
     private String loadDatafile(String filename, Reader datafile, Map dest,
             boolean followIncludes, boolean close)
         throws FileNotFoundException, IOException, InvalidDatafileFormat {
+        return parseDatafile(filename, datafile, dest, followIncludes, close)
+                .getInheritedDatafile();
+    }
+    private FileLoader parseDatafile(String filename, Reader datafile,
+            Map dest, boolean followIncludes, boolean close)
+        throws FileNotFoundException, IOException, InvalidDatafileFormat {
 
         FileLoader loader = new FileLoader(dest, followIncludes);
         try {
             // Initialize data, file, and read buffer.
             BufferedReader in = new BufferedReader(datafile);
-            String defineDecls = null;
-            if (filename != null)
-                defineDecls = (String) defineDeclarations.get(filename);
-            defineDecls = prependGlobalDefineDeclarations(defineDecls);
+            String defineDecls = getDefineDeclarations(filename);
 
             CppFilterReader readIn = new CppFilterReader(in, defineDecls);
             Parser p = new Parser(new Lexer(new PushbackReader(readIn, 1024)));
@@ -2909,7 +3407,14 @@ public class DataRepository implements Repository, DataContext,
             if (close) datafile.close();
         }
 
-        return loader.getInheritedDatafile();
+        return loader;
+    }
+
+    private String getDefineDeclarations(String filename) {
+        String defineDecls = null;
+        if (filename != null)
+            defineDecls = (String) defineDeclarations.get(filename);
+        return prependGlobalDefineDeclarations(defineDecls);
     }
 
     public void parseDatafile(String contents, Map dest)
@@ -3089,7 +3594,7 @@ public class DataRepository implements Repository, DataContext,
     }
 
     private void putGlobalValue(String name, Object valueObj) {
-        DataElement e = (DataElement) data.get(name);
+        DataElement e = data.get(name);
         if (e != null && e.getValue() != null)
             return;                 // don't overwrite existing values?
 
@@ -3109,6 +3614,23 @@ public class DataRepository implements Repository, DataContext,
         }
     }
 
+    /** Apply the global values that were logged while reading a datafile,
+     * including those from included files that have not been applied yet.
+     */
+    private void applyGlobalPuts(List globalPuts) {
+        for (Iterator i = globalPuts.iterator(); i.hasNext();) {
+            Object item = i.next();
+            if (item instanceof String) {
+                List included = (List) includeGlobalPuts.remove(item);
+                if (included != null)
+                    applyGlobalPuts(included);
+            } else {
+                Object[] put = (Object[]) item;
+                putGlobalValue((String) put[0], put[1]);
+            }
+        }
+    }
+
 
     private Map filterDefinitions(Map definitions,
                                    List identifiers,
@@ -3140,35 +3662,219 @@ public class DataRepository implements Repository, DataContext,
 
         logger.log(Level.FINE, "Opening datafile {0}", datafilePath);
 
-        String encoding = getDatasetEncoding();
+        ParsedDatafile p = new ParsedDatafile();
+        try {
+            readDatafile(p, dataPrefix, datafilePath);
+        } finally {
+            applyGlobalPuts(p.globalPuts);
+        }
+        mountDatafile(p);
 
-        Hashtable values = new Hashtable();
+        logger.log(Level.FINE, "Done opening datafile {0}", datafilePath);
+    }
 
-        DataFile dataFile = new DataFile(dataPrefix, new File(datafilePath));
-        dataFile.inheritsFrom =
-            loadDatafile(null, new FileInputStream(dataFile.file),
-                         values, DO_NOT_FOLLOW_INCLUDES, DO_CLOSE, encoding);
+    /**
+     * Open several datafiles.
+     * 
+     * The datafiles, and the files they include, are read and parsed
+     * concurrently.  They are mounted into the repository one at a time, in
+     * the order given, along with any global values they define, so the
+     * result is the same as if
+     * {@link #openDatafile(String, String)} had been called for each one.
+     * 
+     * @param datafiles
+     *            a list of two-element arrays, each holding a data prefix and
+     *            the path of the datafile to mount at that prefix
+     * @return an array with one entry per datafile: null if the datafile was
+     *         opened successfully, or the exception that prevented it from
+     *         being opened
+     */
+    public Exception[] openDatafiles(List<String[]> datafiles) {
+        ProfTimer pt = new ProfTimer(DataRepository.class,
+                "DataRepository.openDatafiles");
+        Exception[] result = new Exception[datafiles.size()];
+        int numThreads = Math.min(LOADER_THREADS, datafiles.size());
+
+        if (numThreads < 2) {
+            for (int i = 0; i < result.length; i++) {
+                String[] datafile = datafiles.get(i);
+                try {
+                    openDatafile(datafile[0], datafile[1]);
+                } catch (Exception e) {
+                    result[i] = e;
+                }
+            }
+            pt.click("Opened " + result.length + " datafiles");
+            return result;
+        }
+
+        // the generated lexer and parser load their tables lazily, without
+        // any locking.  Load them here, before the loader threads need them.
+        new Parser(new Lexer(new PushbackReader(new StringReader(""))));
+
+        // read and parse the datafiles on a pool of threads
+        final long[] readMillis = new long[1];
+        ExecutorService loader = Executors.newFixedThreadPool(numThreads,
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "DataRepository.loader");
+                    t.setDaemon(true);
+                    return t;
+                }});
+        List<ParsedDatafile> parsed = new ArrayList<ParsedDatafile>();
+        List<Future> reads = new ArrayList<Future>();
+        for (final String[] datafile : datafiles) {
+            final ParsedDatafile p = new ParsedDatafile();
+            parsed.add(p);
+            reads.add(loader.submit(new Callable<ParsedDatafile>() {
+                public ParsedDatafile call() throws Exception {
+                    long start = System.currentTimeMillis();
+                    try {
+                        readDatafile(p, datafile[0], datafile[1]);
+                        return p;
+                    } finally {
+                        long elapsed = System.currentTimeMillis() - start;
+                        synchronized (readMillis) {
+                            readMillis[0] += elapsed;
+                        }
+                    }
+                }}));
+        }
+        loader.shutdown();
+
+        // mount each datafile, in order, as soon as it is ready
+        for (int i = 0; i < result.length; i++) {
+            String datafilePath = datafiles.get(i)[1];
+            ParsedDatafile p = parsed.get(i);
+            try {
+                reads.get(i).get();
+                applyGlobalPuts(p.globalPuts);
+                logger.log(Level.FINE, "Mounting datafile {0}", datafilePath);
+                mountDatafile(p);
+            } catch (java.util.concurrent.ExecutionException ee) {
+                // apply the globals that were read before the error, as
+                // openDatafile() would have
+                applyGlobalPuts(p.globalPuts);
+                Throwable cause = ee.getCause();
+                result[i] = (cause instanceof Exception ? (Exception) cause
+                        : new IOException(String.valueOf(cause)));
+            } catch (InterruptedException ie) {
+                result[i] = new IOException("Interrupted while opening "
+                        + datafilePath);
+            } catch (Exception e) {
+                result[i] = e;
+            }
+        }
+
+        synchronized (readMillis) {
+            pt.click("Opened " + result.length + " datafiles, reading them on "
+                    + numThreads + " threads in a total of " + readMillis[0]
+                    + " ms");
+        }
+        return result;
+    }
+
+    /** A datafile that has been read and parsed, but not yet mounted */
+    private class ParsedDatafile {
+        DataFile dataFile;
+        Map values;
+        boolean dataModified;
+        List globalPuts = new ArrayList();
+    }
+
+    /** Read and parse a datafile, along with the files it includes.
+     * 
+     * This does not alter the repository, except to cache the definitions
+     * of included files.  Global values defined by these files are logged
+     * in the result instead, to be applied before the datafile is mounted.
+     * So it is safe to read several datafiles at once.
+     */
+    private void readDatafile(ParsedDatafile result, String dataPrefix,
+            String datafilePath)
+        throws FileNotFoundException, IOException, InvalidDatafileFormat {
+
+        globalPutLog.set(result.globalPuts);
+        try {
+            readDatafileImpl(result, dataPrefix, datafilePath);
+        } finally {
+            globalPutLog.remove();
+        }
+    }
+
+    private void readDatafileImpl(ParsedDatafile result, String dataPrefix,
+            String datafilePath)
+        throws FileNotFoundException, IOException, InvalidDatafileFormat {
+
+        String encoding = getDatasetEncoding();
+
+        DataFile dataFile = result.dataFile =
+            new DataFile(dataPrefix, new File(datafilePath));
+        DefinitionSnapshot.DatafileContents contents =
+            readDatafileContents(dataFile.file, encoding);
+        Map values = result.values = contents.values;
+        dataFile.inheritsFrom = contents.inheritsFrom;
+        dataFile.journal.replay(values, encoding);
         if (dataFile.inheritsFrom != null)
             dataFile.inheritedDefinitions =
                 loadIncludedFileDefinitions(dataFile.inheritsFrom);
 
         // perform any renaming operations that were requested in the datafile
-        boolean dataModified = DataRenamingOperation.performRenames(values,
+        result.dataModified = DataRenamingOperation.performRenames(values,
                 dataFile.inheritedDefinitions);
+    }
+
+    /** Add a parsed datafile to the repository. */
+    private void mountDatafile(ParsedDatafile p) throws InvalidDatafileFormat {
+        DataFile dataFile = p.dataFile;
 
                                 // only add the datafile element if the
                                 // loadDatafile process was successful
         addDataFile(dataFile);
 
                                 // mount the data in the repository.
-        mountData(dataFile, dataPrefix, values);
-
-        logger.log(Level.FINE, "Done opening datafile {0}", datafilePath);
+        mountData(dataFile, dataFile.prefix, p.values);
 
-        if (dataModified)       // possibly mark the file as modified.
+        if (p.dataModified)     // possibly mark the file as modified.
             datafileModified(dataFile);
     }
 
+    private DefinitionSnapshot.DatafileContents readDatafileContents(
+            File file, String encoding)
+        throws FileNotFoundException, IOException, InvalidDatafileFormat {
+
+        // the parsed values depend upon the encoding and the global #define
+        // declarations, so both are part of the key for snapshot entries
+        String parseContext = encoding + "\n" + getDefineDeclarations(null);
+        DefinitionSnapshot snapshot = definitionSnapshot;
+        DefinitionSnapshot.Builder builder = snapshotBuilder;
+
+        DefinitionSnapshot.DatafileContents result = null;
+        if (snapshot != null)
+            result = snapshot.getDatafileContents(file, parseContext);
+        if (result != null) {
+            if (builder != null)
+                builder.addDatafile(file, parseContext, result, true);
+            return result;
+        }
+
+        // read the file once, so the checksum describes exactly the content
+        // that was parsed
+        result = new DefinitionSnapshot.DatafileContents();
+        result.lastModified = file.lastModified();
+        byte[] content = FileUtils.slurpContents(new FileInputStream(file),
+            true);
+        result.length = content.length;
+        result.checksum = DefinitionSnapshot.checksum(content);
+        result.values = new Hashtable();
+        FileLoader loader = parseDatafile(null, new InputStreamReader(
+                new ByteArrayInputStream(content), encoding), result.values,
+            DO_NOT_FOLLOW_INCLUDES, DO_CLOSE);
+        result.inheritsFrom = loader.getInheritedDatafile();
+        if (builder != null && loader.isSnapshottable())
+            builder.addDatafile(file, parseContext, result, false);
+        return result;
+    }
+
     public static String getDatasetEncoding() {
         return Settings.getBool(USE_UTF8_SETTING, false) ?
             "UTF-8" : Charset.defaultCharset().name();
@@ -3222,7 +3928,7 @@ public class DataRepository implements Repository, DataContext,
                         logger.warning("Data value for '" + dataName + "' in file '"
                                 + datafilePath + "' is malformed.");
 
-                    DataElement d = (DataElement)data.get(dataName);
+                    DataElement d = data.get(dataName);
                     if (d == null) {
                         boolean isDefaultName = defaultData.containsKey(localName);
                         if (o != null || isDefaultName) {
@@ -3237,7 +3943,7 @@ public class DataRepository implements Repository, DataContext,
                     if (d != null) {
                         putValue(dataName, o, IS_NOT_DEFAULT_VAL,
                                 NOT_MODIFYING_DATAFILE);
-                        d = (DataElement)data.get(dataName);
+                        d = data.get(dataName);
                         if (d != null) {
                             d.datafile = dataFile;
                             d.isDefaultName = defaultData.containsKey(localName);
@@ -3270,7 +3976,7 @@ public class DataRepository implements Repository, DataContext,
                         shouldCreateEagerly = datafileModified = true;
 
                     String dataName = dataPrefixSlash + localName;
-                    DataElement d = (DataElement)data.get(dataName);
+                    DataElement d = data.get(dataName);
                     if (d == null) {
                         // this data element does not already exist in the repository.
                         // most such items do not need to be created; we can let them
@@ -3474,30 +4180,99 @@ public class DataRepository implements Repository, DataContext,
         return prefix + "/" + DATAFILE_MAP_VAL_NAME;
     }
 
+    /** Record a change that requires the datafile to be rewritten in full */
     private void datafileModified(DataFile datafile) {
-        if (datafile != null && ++datafile.dirtyCount > MAX_DIRTY)
-            saveDatafile(datafile);
+        if (datafile != null) {
+            datafile.needsRewrite = true;
+            dataSaver.changesPending();
+        }
+    }
+
+    /** Record a change to a single element of the datafile */
+    private void datafileModified(DataFile datafile, String name) {
+        if (datafile != null) {
+            datafile.dirtyNames.add(name);
+            if (datafile.dirtyNames.size() > MAX_DIRTY)
+                saveDatafile(datafile);
+            else
+                dataSaver.changesPending();
+        }
     }
 
     private List<DataElement> getElementsForDatafile(DataFile datafile) {
         List result = new ArrayList();
-        synchronized (data) {
-            for (DataElement elem : data.values()) {
-                if (elem != null && elem.datafile == datafile)
-                    result.add(elem);
-            }
+        for (DataElement elem : data.values()) {
+            if (elem.datafile == datafile)
+                result.add(elem);
         }
         return result;
     }
 
     private Iterator getInternalKeys() {
+        List l = new ArrayList(data.keySet());
+        return l.iterator();
+    }
+
+    private Iterator getInternalKeys(String prefix) {
         List l = new ArrayList();
-        synchronized (data) {
-            l.addAll(data.keySet());
-        }
+        dataNameIndex.getNamesWithPrefix(prefix, l);
         return l.iterator();
     }
 
+    /** Get the names of the elements in the data map which might match the
+     * given prefix or collection of prefixes.  If no prefix is given, this
+     * will return the names of all elements.
+     */
+    private Set getInternalKeysForPrefixes(Object prefixes) {
+        if (prefixes instanceof String && ((String) prefixes).length() > 0) {
+            Set result = new HashSet();
+            dataNameIndex.getNamesWithPrefix((String) prefixes, result);
+            return result;
+        }
+
+        if (prefixes instanceof Collection
+                && !((Collection) prefixes).isEmpty()) {
+            Set result = new HashSet();
+            for (Object prefix : (Collection) prefixes) {
+                if (prefix instanceof String && ((String) prefix).length() > 0)
+                    dataNameIndex.getNamesWithPrefix((String) prefix, result);
+                else
+                    return new HashSet(data.keySet());
+            }
+            return result;
+        }
+
+        return new HashSet(data.keySet());
+    }
+
+    /** Remove an element from the data map, if it is still the element
+     * registered under the given name, along with its data name index entry.
+     * The map and the index are updated together under the lock for that
+     * name, so they cannot disagree with the changes made by a concurrent
+     * add().
+     */
+    private boolean removeDataElement(String name, DataElement d) {
+        synchronized (getDataNameLock(name)) {
+            if (!data.remove(name, d))
+                return false;
+            dataNameIndex.remove(name);
+            return true;
+        }
+    }
+
+    private Object getDataNameLock(String name) {
+        int h = name.hashCode();
+        h ^= (h >>> 16);
+        return dataNameLocks[(h & 0x7fffffff) % dataNameLocks.length];
+    }
+
+    private static Object[] newLocks(int count) {
+        Object[] result = new Object[Math.max(1, count)];
+        for (int i = 0; i < result.length; i++)
+            result[i] = new Object();
+        return result;
+    }
+
     public Iterator getKeys() {
         return getKeys(null, null);
     }
@@ -3515,9 +4290,7 @@ public class DataRepository implements Repository, DataContext,
         private Iterator workingExplicitNames;
 
         public AllDataNamesIterator(Object prefix, Object hints) {
-            synchronized (data) {
-                explicitDataNames = new HashSet(data.keySet());
-            }
+            explicitDataNames = getInternalKeysForPrefixes(prefix);
             if (hints instanceof DataNameFilter.ExplicitOnly) {
                 files = Collections.EMPTY_LIST;
             } else {
@@ -3676,7 +4449,11 @@ public class DataRepository implements Repository, DataContext,
 
     protected boolean saveDisabled = false;
 
-    /** Saves a set of data to the appropriate data file.
+    /** Saves changes to a set of data.
+     * 
+     * Changes to individual elements are appended to the datafile's journal.
+     * The datafile is rewritten in full if that was specifically requested,
+     * or if the journal cannot be used.
      * 
      * @param datafile the datafile to save
      */
@@ -3685,12 +4462,108 @@ public class DataRepository implements Repository, DataContext,
                   || saveDisabled)
               return;
 
+        // synchronize to prevent two different threads from trying to save
+        // the same datafile concurrently.
+        synchronized (datafile) {
+            if (datafile.needsRewrite || !appendToJournal(datafile))
+                writeDatafile(datafile);
+        }
+    }
+
+    /** Rewrite a datafile in full if it has a journal that is still in use.
+     * 
+     * @param datafile the datafile to compact
+     */
+    private void compactDatafile(DataFile datafile) {
+        if (datafile == null || datafile.file == null || datafile.isRemoved
+                  || saveDisabled)
+              return;
+
+        synchronized (datafile) {
+            if (datafile.journal.hasChanges() && datafile.journal.isCurrent())
+                writeDatafile(datafile);
+        }
+    }
+
+    /** Append the changed elements of a datafile to its journal.
+     * 
+     * @return true if the changes were journaled successfully
+     */
+    private boolean appendToJournal(DataFile datafile) {
+        // if the datafile was changed on disk since the journal was started,
+        // the journal no longer applies to it.
+        DatafileJournal journal = datafile.journal;
+        if (!journal.isCurrent())
+            return false;
+
+        List<String> names;
+        synchronized (datafile.dirtyNames) {
+            names = new ArrayList<String>(datafile.dirtyNames);
+            datafile.dirtyNames.clear();
+        }
+        if (names.isEmpty())
+            return true;
+        Collections.sort(names);
+
+        String prefix = datafile.prefix + "/";
+        Map<String, String> changes = new LinkedHashMap<String, String>();
+        for (String name : names) {
+            if (!name.startsWith(prefix))
+                continue;
+            DataElement element = data.get(name);
+            String valStr = null;
+            if (element != null && element.datafile == datafile)
+                valStr = getSaveString(element);
+            changes.put(name.substring(prefix.length()), valStr);
+        }
+
+        try {
+            journal.append(changes, getDatasetEncoding());
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Encountered exception while writing to "
+                    + "the journal for " + datafile.file.getPath()
+                    + "; rewriting datafile instead", e);
+            datafile.dirtyNames.addAll(names);
+            return false;
+        }
+    }
+
+    /** @return the string that should be written to a datafile for the
+     * given element, or null if the element should not be written */
+    private String getSaveString(DataElement element) {
+        // if the element has a default value, it is not saved.
+        if (element.isDefaultValue())
+            return null;
+
+        SaveableData value = element.getValue();
+        String valStr = null;
+        boolean editable = true;
+
+        if (value != null) {
+            valStr = value.saveString();
+            editable = value.isEditable();
+        } else if (element.isDefaultName()) {
+            // store the fact that the default is overwritten with null
+            valStr = "null";
+        }
+
+        if (valStr == null || valStr.length() == 0)
+            return null;
+        else
+            return (editable ? valStr : "=" + valStr);
+    }
+
+    /** Writes the full set of data to the appropriate data file, and
+     * discards the datafile's journal.
+     * 
+     * @param datafile the datafile to save
+     */
+    private void writeDatafile(DataFile datafile) {
         // this flag should stay false until we are absolutely certain
         // that we have successfully saved the datafile.
         boolean saveSuccessful = false;
 
-        // synchronize to prevent two different threads from trying to save
-        // the same datafile concurrently.
         synchronized (datafile) { try {
             // debug("saveDatafile");
 
@@ -3706,38 +4579,30 @@ public class DataRepository implements Repository, DataContext,
             // the save operation.  This way, if the datafile is modified
             // during the save operation, the dirty changes will take effect,
             // and the datafile will be saved again in the future.
-            datafile.dirtyCount = 0;
+            datafile.needsRewrite = false;
+            datafile.dirtyNames.clear();
 
             int prefixLength = datafile.prefix.length() + 1;
+            Iterator names = (prefixLength > 1
+                    ? getInternalKeys(datafile.prefix + "/")
+                    : getInternalKeys());
 
-            for (Iterator i = getInternalKeys(); i.hasNext();) {
-                String name = (String) i.next();
-                DataElement element = (DataElement)data.get(name);
+            while (names.hasNext()) {
+                String name = (String) names.next();
+                DataElement element = data.get(name);
 
                 if (element == null
-                        || element.datafile != datafile
-                        || element.isDefaultValue())
-                    // if there is no such element, if it doesn't belong to this
-                    // DataFile, or if it has a default value, skip it.
+                        || element.datafile != datafile)
+                    // if there is no such element, or if it doesn't belong to
+                    // this DataFile, skip it.
                     continue;
 
-                SaveableData value = element.getValue();
-                String valStr = null;
-                boolean editable = true;
-
-                if (value != null) {
-                    valStr = value.saveString();
-                    editable = value.isEditable();
-                } else if (element.isDefaultName()) {
-                    // store the fact that the default is overwritten with null
-                    valStr = "null";
-                }
-
-                if (valStr == null || valStr.length() == 0)
+                String valStr = getSaveString(element);
+                if (valStr == null)
                     continue;
 
                 name = name.substring(prefixLength).replace('=', EQUALS_SIGN_REPL);
-                valuesToSave.add(name + (editable ? "=" : "==") + valStr);
+                valuesToSave.add(name + "=" + valStr);
             }
 
             // Write the saved values
@@ -3786,6 +4651,7 @@ public class DataRepository implements Repository, DataContext,
                 out.close();
 
                 saveSuccessful = true;
+                datafile.journal.delete();
                 System.err.println("Saved " + datafile.file.getPath());
             } catch (IOException e) {
                 logger.log(Level.SEVERE, "Encountered exception while closing "
@@ -3796,7 +4662,7 @@ public class DataRepository implements Repository, DataContext,
         } finally {
             // if we couldn't successfully save the datafile, mark it as dirty.
             if (!saveSuccessful)
-                datafile.dirtyCount = 1000;
+                datafile.needsRewrite = true;
         } }
     }
 
@@ -3920,7 +4786,7 @@ public class DataRepository implements Repository, DataContext,
 
         if (d.dataListeners == null) {    // if no one cares about this element
             if (d.getValue() == null)         // and it has no value,
-                data.remove(name);            // throw it away.
+                removeDataElement(name, d);   // throw it away.
 
         } else if (d.dataListeners.isEmpty()) {
                            // if no one cares about this element any longer,
@@ -3934,7 +4800,7 @@ public class DataRepository implements Repository, DataContext,
 
 
     public void removeDataListener(String name, DataListener dl) {
-        DataElement d = (DataElement)data.get(name);
+        DataElement d = data.get(name);
         if (d != null) {
             d.removeDataListener(dl);
             dataNotifier.removeDataListener(name, dl);
@@ -3956,7 +4822,7 @@ public class DataRepository implements Repository, DataContext,
         // walk the hashtable, removing this datalistener.
         for (Iterator i = getInternalKeys(); i.hasNext();) {
             String name = (String) i.next();
-            DataElement element = (DataElement) data.get(name);
+            DataElement element = data.get(name);
             if (element != null)
                 element.removeDataListener(dl);
         }
@@ -3976,7 +4842,7 @@ public class DataRepository implements Repository, DataContext,
                   // walk the hashtable, removing this datalistener.
         for (Iterator i = getInternalKeys(); i.hasNext();) {
             String name = (String) i.next();
-            DataElement element = (DataElement) data.get(name);
+            DataElement element = data.get(name);
             if (element != null)
                 element.removeDataListeners(listenersToRemove);
         }
@@ -3992,15 +4858,35 @@ public class DataRepository implements Repository, DataContext,
 
 
     public void addRepositoryListener(RepositoryListener rl, String prefix) {
+        addRepositoryListener(rl, prefix, null);
+    }
+
+    /**
+     * Register a listener for dataAdded and dataRemoved events about elements
+     * whose names begin with a given prefix and end with a given suffix.
+     * 
+     * Listeners with a suffix are found through an index when events are
+     * dispatched, so events about other names cost them nothing.  The
+     * listener must still check the names it receives if it has any
+     * additional criteria.
+     * 
+     * @param rl the listener to register
+     * @param prefix the prefix of interesting names, or null for all names
+     * @param nameSuffix the literal suffix of interesting names, or null
+     */
+    public void addRepositoryListener(RepositoryListener rl, String prefix,
+            String nameSuffix) {
         //debug("addRepositoryListener:" + prefix);
 
                                 // add the listener to our repository list.
-        repositoryListenerList.addListener(rl, prefix);
+        repositoryListenerList.addListener(rl, prefix, nameSuffix);
 
                                 // notify the listener of all the elements
                                 // already in the repository.
         Iterator k = getKeys(prefix, rl);
         String name;
+        if (nameSuffix != null && nameSuffix.length() == 0)
+            nameSuffix = null;
 
 
         if (prefix != null && prefix.length() != 0) {
@@ -4008,13 +4894,15 @@ public class DataRepository implements Repository, DataContext,
                                 // if they have specified a prefix, notify them
                                 // of all the data beginning with that prefix.
             while (k.hasNext())
-                if ((name = (String) k.next()).startsWith(prefix))
+                if ((name = (String) k.next()).startsWith(prefix)
+                        && (nameSuffix == null || name.endsWith(nameSuffix)))
                     rl.dataAdded(name);
 
         } else {                // if they have specified no prefix, only
                                 // notify them of data that is NOT anonymous.
             while (k.hasNext())
-                if (!(name = (String) k.next()).startsWith(anonymousPrefix))
+                if (!(name = (String) k.next()).startsWith(anonymousPrefix)
+                        && (nameSuffix == null || name.endsWith(nameSuffix)))
                     rl.dataAdded(name);
         }
 
@@ -4061,6 +4949,18 @@ public class DataRepository implements Repository, DataContext,
         // debug("removeRepositoryListener done");
     }
 
+    private AtomicLong changeCount = new AtomicLong();
+
+    /** Return a number that increases every time a data element changes.
+     *
+     * Clients that cache information derived from the data in this
+     * repository can compare this number against a previously saved value
+     * to find out whether anything has changed in the meantime.
+     */
+    public long getChangeCount() {
+        return changeCount.get();
+    }
+
     private volatile int inconsistencyDepth = 0;
     private Set consistencyListeners =
         Collections.synchronizedSet(new HashSet());
@@ -0,0 +1,215 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.data.repository;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import net.sourceforge.processdash.util.FileUtils;
+
+/**
+ * An append-only record of the changes made to a datafile since it was last
+ * written in full.
+ * <p>
+ * Each line of the journal records the current state of one data element:
+ * <tt>+name=value</tt> gives a value in datafile syntax, and <tt>-name</tt>
+ * indicates that the element should no longer appear in the file.  Later
+ * lines override earlier ones.  The first line records the size and
+ * modification time of the datafile the changes apply to; once the datafile
+ * has been rewritten, an old journal no longer matches and is ignored.
+ */
+class DatafileJournal {
+
+    static final String FILENAME_SUFFIX = ".jnl";
+
+    private static final String HEADER = "#journal ";
+
+    private static final int MIN_COMPACTION_SIZE = Integer.getInteger(
+        DataRepository.class.getName() + ".journalCompactionSize", 16384)
+            .intValue();
+
+    private static final Logger logger = Logger.getLogger(DatafileJournal.class
+            .getName());
+
+
+    /** The datafile this journal belongs to */
+    private File datafile;
+
+    /** The file containing the journal */
+    private File file;
+
+    /** The number of bytes we know to be in the journal */
+    private long size;
+
+
+    DatafileJournal(File datafile) {
+        this.datafile = datafile;
+        this.file = new File(datafile.getPath() + FILENAME_SUFFIX);
+        this.size = -1;
+    }
+
+    /**
+     * Apply the changes recorded in this journal to the values that were
+     * read from the datafile.
+     * 
+     * @return true if any changes were applied
+     */
+    public synchronized boolean replay(Map values, String encoding)
+            throws IOException {
+        if (!file.isFile()) {
+            size = 0;
+            return false;
+        }
+
+        String text = new String(FileUtils.slurpContents(new FileInputStream(
+            file), true), encoding);
+        // ignore a final line that was only partially written
+        int end = text.lastIndexOf('\n');
+        String[] lines = (end == -1 ? new String[0] : text.substring(0, end)
+                .split("\r?\n"));
+
+        if (lines.length == 0 || !lines[0].equals(getStamp())) {
+            logger.warning("Discarding outdated journal " + file.getPath());
+            delete();
+            return false;
+        }
+
+        int changeCount = 0;
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int equalsPos = line.indexOf('=');
+            if (line.startsWith("+") && equalsPos > 1) {
+                values.put(decodeName(line.substring(1, equalsPos)),
+                    line.substring(equalsPos + 1));
+                changeCount++;
+            } else if (line.startsWith("-") && equalsPos == -1) {
+                values.remove(decodeName(line.substring(1)));
+                changeCount++;
+            } else {
+                logger.warning("Ignoring malformed line " + (i + 1)
+                        + " in journal " + file.getPath());
+            }
+        }
+
+        size = file.length();
+        return changeCount > 0;
+    }
+
+    /**
+     * Append changes to the journal.
+     * 
+     * @param changes
+     *            a map whose keys are the local names of data elements, and
+     *            whose values are the strings that would be written to the
+     *            datafile for those elements (or null if the element should
+     *            not appear in the datafile)
+     * @throws IOException
+     *             if the changes could not be written. The journal should
+     *             not be used again until the datafile has been rewritten.
+     */
+    public synchronized void append(Map<String, String> changes,
+            String encoding) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        if (getSize() == 0)
+            buf.append(getStamp()).append('\n');
+
+        for (Iterator i = changes.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<String, String> e = (Map.Entry) i.next();
+            String name = encodeName(e.getKey());
+            if (e.getValue() == null)
+                buf.append('-').append(name).append('\n');
+            else
+                buf.append('+').append(name).append('=').append(e.getValue())
+                        .append('\n');
+        }
+
+        byte[] bytes = buf.toString().getBytes(encoding);
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(bytes);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        size = getSize() + bytes.length;
+    }
+
+    /**
+     * @return true if this journal can record changes to the datafile as it
+     *         currently exists on disk
+     */
+    public synchronized boolean isCurrent() {
+        if (getSize() == 0)
+            return true;
+
+        // the header is plain ASCII, so it reads the same in any encoding
+        return FileUtils.fileContentsStartWith(file, "UTF-8", getStamp()
+                + "\n");
+    }
+
+    /** @return true if this journal contains any changes */
+    public synchronized boolean hasChanges() {
+        return getSize() > 0;
+    }
+
+    /**
+     * @return true if this journal has grown large enough that the datafile
+     *         should be rewritten in full
+     */
+    public synchronized boolean needsCompaction() {
+        long threshold = Math.max(MIN_COMPACTION_SIZE, datafile.length() / 2);
+        return getSize() > threshold;
+    }
+
+    /** Discard this journal, after the datafile has been rewritten */
+    public synchronized void delete() {
+        if (file.exists() && !file.delete())
+            logger.warning("Could not delete journal " + file.getPath());
+        size = 0;
+    }
+
+    private long getSize() {
+        if (size < 0)
+            size = (file.isFile() ? file.length() : 0);
+        return size;
+    }
+
+    private String getStamp() {
+        return HEADER + datafile.length() + " " + datafile.lastModified();
+    }
+
+    private static String encodeName(String name) {
+        return name.replace('=', DataRepository.EQUALS_SIGN_REPL);
+    }
+
+    private static String decodeName(String name) {
+        return name.replace(DataRepository.EQUALS_SIGN_REPL, '=');
+    }
+
+}
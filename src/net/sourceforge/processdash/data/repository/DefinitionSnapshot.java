@@ -0,0 +1,687 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.data.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import net.sourceforge.processdash.data.SimpleData;
+import net.sourceforge.processdash.data.compiler.CompiledScript;
+import net.sourceforge.processdash.data.compiler.ScriptCodec;
+import net.sourceforge.processdash.util.FileUtils;
+import net.sourceforge.processdash.util.RobustFileOutputStream;
+import net.sourceforge.processdash.util.StringUtils;
+
+
+/**
+ * A binary snapshot of parsed data definitions.
+ * <p>
+ * Parsing datafiles is one of the most expensive parts of dashboard startup.
+ * A snapshot records the result of that parsing for the include files that
+ * define process data, and for the datafiles that hold project data, so the
+ * next startup can skip the parser for any file that has not changed.
+ * <p>
+ * The snapshot file begins with a header and an index, followed by the
+ * encoded definitions and a shared string table.  Values are written with
+ * their exact type, and scripts are written as compiled instruction lists
+ * by {@link ScriptCodec}.  The file is read through a memory mapping, and
+ * each entry is decoded only when the repository asks for it.
+ * <p>
+ * Entries are validated before use:<ul>
+ * <li>The whole snapshot is discarded if the templates have changed since it
+ *     was written, or if the checksum in its header does not match the rest
+ *     of the file.</li>
+ * <li>An entry is ignored if the preprocessor definitions in effect differ
+ *     from those that applied when it was parsed.</li>
+ * <li>A datafile entry is ignored if the timestamp, length or checksum of
+ *     the file has changed.</li></ul>
+ * <p>
+ * Two snapshot files are used in alternation, so a new snapshot can always be
+ * written while the previous one is still mapped into memory.
+ */
+class DefinitionSnapshot {
+
+    private static final int MAGIC = 0x50445342; // "PDSB"
+
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int TYPE_TEXT = 'T';
+
+    private static final int TYPE_VALUE = 'V';
+
+    private static final int TYPE_SCRIPT = 'C';
+
+    private static final int TYPE_RENAME = 'R';
+
+    private static final Logger logger = Logger
+            .getLogger(DefinitionSnapshot.class.getName());
+
+
+    /** The file this snapshot was read from */
+    private File file;
+
+    /** The contents of the snapshot file */
+    private ByteBuffer buffer;
+
+    /** The offsets of the entries in the string table */
+    private int[] stringOffsets;
+
+    /** Strings that have been decoded from the string table */
+    private String[] strings;
+
+    /** Index entries for included files, keyed by bracketed file name */
+    private Map<String, Entry> includes;
+
+    /** Index entries for datafiles, keyed by file path */
+    private Map<String, Entry> datafiles;
+
+
+    private DefinitionSnapshot(File file, ByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+
+    /**
+     * Open the most recent valid snapshot.
+     * 
+     * @param base
+     *            the base name of the snapshot files
+     * @param templateTimestamp
+     *            the modification time of the templates in use
+     * @return the snapshot, or null if no valid snapshot was found
+     */
+    public static DefinitionSnapshot open(File base, long templateTimestamp) {
+        File[] files = getSnapshotFiles(base);
+        if (files[1].lastModified() > files[0].lastModified())
+            files = new File[] { files[1], files[0] };
+
+        for (File f : files) {
+            if (!f.isFile())
+                continue;
+            try {
+                DefinitionSnapshot result = read(f, templateTimestamp);
+                if (result != null) {
+                    logger.log(Level.FINE, "Opened definition snapshot {0}",
+                        f);
+                    return result;
+                }
+            } catch (Exception e) {
+                logger.log(Level.FINE, "Could not read definition snapshot "
+                        + f, e);
+            }
+        }
+        return null;
+    }
+
+    private static DefinitionSnapshot read(File f, long templateTimestamp)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+                    .size());
+        } finally {
+            raf.close();
+        }
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION
+                || buffer.getLong(8) != templateTimestamp)
+            return null;
+
+        ByteBuffer contents = buffer.duplicate();
+        contents.position(HEADER_SIZE);
+        if (checksum(contents) != buffer.getLong(24)) {
+            logger.log(Level.FINE, "Checksum mismatch in definition "
+                    + "snapshot {0}", f);
+            return null;
+        }
+
+        DefinitionSnapshot result = new DefinitionSnapshot(f, buffer);
+        result.readStringTable(buffer.getInt(16));
+        result.readIndex(buffer.getInt(20));
+        return result;
+    }
+
+    private void readStringTable(int offset) throws IOException {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        int count = b.getInt();
+        stringOffsets = new int[count];
+        strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            stringOffsets[i] = b.position();
+            b.position(b.position() + 4 + b.getInt());
+        }
+    }
+
+    private void readIndex(int offset) throws IOException {
+        DataInput in = openInput(offset);
+        int count = in.readInt();
+        includes = new HashMap<String, Entry>();
+        for (int i = 0; i < count; i++) {
+            String name = getString(in.readInt());
+            Entry e = new Entry(getString(in.readInt()), 0, 0, 0,
+                    in.readInt());
+            includes.put(name, e);
+        }
+
+        count = in.readInt();
+        datafiles = new HashMap<String, Entry>();
+        for (int i = 0; i < count; i++) {
+            String path = getString(in.readInt());
+            Entry e = new Entry(getString(in.readInt()), in.readLong(), in
+                    .readLong(), in.readLong(), in.readInt());
+            datafiles.put(path, e);
+        }
+    }
+
+    /** @return the file this snapshot was read from */
+    public File getFile() {
+        return file;
+    }
+
+
+    /**
+     * Retrieve the definitions from an included file.
+     * 
+     * @param name
+     *            the bracketed name of the included file
+     * @param defines
+     *            the preprocessor declarations that would be used to parse
+     *            the file
+     * @return the definitions in the file, or null if this snapshot does not
+     *         contain valid definitions for the file
+     */
+    public synchronized Map getIncludedFileDefinitions(String name,
+            String defines) {
+        Entry e = includes.get(name);
+        if (e == null || !e.defines.equals(defines))
+            return null;
+
+        try {
+            DataInput in = openInput(e.offset);
+            return readDefinitions(in, new HashMap());
+        } catch (Exception ex) {
+            logger.log(Level.FINE, "Could not read snapshot definitions for "
+                    + name, ex);
+            includes.remove(name);
+            return null;
+        }
+    }
+
+
+    /**
+     * Retrieve the values that were read from a datafile.
+     * 
+     * @param f
+     *            the datafile
+     * @param defines
+     *            the preprocessor declarations that would be used to parse
+     *            the file
+     * @return the contents of the datafile, or null if this snapshot does not
+     *         contain valid values for the current version of the file
+     */
+    public synchronized DatafileContents getDatafileContents(File f,
+            String defines) {
+        Entry e = datafiles.get(f.getPath());
+        if (e == null || !e.defines.equals(defines)
+                || e.lastModified != f.lastModified()
+                || e.length != f.length())
+            return null;
+
+        try {
+            // a file can be edited without changing its timestamp or length,
+            // so compare the content as well
+            if (checksum(f) != e.checksum)
+                return null;
+
+            DataInput in = openInput(e.offset);
+            int inheritsFrom = in.readInt();
+            DatafileContents result = new DatafileContents();
+            result.inheritsFrom = (inheritsFrom == -1 ? null
+                    : getString(inheritsFrom));
+            result.values = readDefinitions(in, new Hashtable());
+            result.lastModified = e.lastModified;
+            result.length = e.length;
+            result.checksum = e.checksum;
+            return result;
+        } catch (Exception ex) {
+            logger.log(Level.FINE, "Could not read snapshot values for " + f,
+                ex);
+            datafiles.remove(f.getPath());
+            return null;
+        }
+    }
+
+    private Map readDefinitions(DataInput in, Map dest) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = getString(in.readInt());
+            int type = in.readByte();
+            Object value;
+            switch (type) {
+            case TYPE_TEXT:
+                value = getString(in.readInt());
+                break;
+            case TYPE_VALUE:
+                value = ScriptCodec.readValue(in, stringReader);
+                break;
+            case TYPE_SCRIPT:
+                value = ScriptCodec.readScript(in, stringReader);
+                break;
+            case TYPE_RENAME:
+                value = DataRenamingOperation.maybeInitRenamingOperation(name,
+                    getString(in.readInt()));
+                break;
+            default:
+                throw new IOException("Unrecognized definition type " + type);
+            }
+            dest.put(name, value);
+        }
+        return dest;
+    }
+
+    private DataInput openInput(int offset) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        return new DataInputStream(new BufferInputStream(b));
+    }
+
+    private String getString(int index) throws IOException {
+        if (index < 0 || index >= strings.length)
+            throw new IOException("Invalid string index " + index);
+
+        String result = strings[index];
+        if (result == null) {
+            ByteBuffer b = buffer.duplicate();
+            b.position(stringOffsets[index]);
+            byte[] bytes = new byte[b.getInt()];
+            b.get(bytes);
+            result = StringUtils.intern(new String(bytes, "UTF-8"), false);
+            strings[index] = result;
+        }
+        return result;
+    }
+
+    private ScriptCodec.StringTable stringReader = new ScriptCodec.StringTable() {
+        public int indexOf(String s) {
+            throw new UnsupportedOperationException();
+        }
+
+        public String get(int index) throws IOException {
+            return getString(index);
+        }
+    };
+
+
+    private static File[] getSnapshotFiles(File base) {
+        return new File[] { base,
+                new File(base.getParentFile(), base.getName() + ".1") };
+    }
+
+    /** @return a checksum of the contents of a datafile */
+    static long checksum(File f) throws IOException {
+        return FileUtils.computeChecksum(f, new CRC32());
+    }
+
+    /** @return a checksum of datafile content that has been read */
+    static long checksum(byte[] content) {
+        CRC32 result = new CRC32();
+        result.update(content);
+        return result.getValue();
+    }
+
+    private static long checksum(ByteBuffer b) {
+        CRC32 result = new CRC32();
+        byte[] buf = new byte[65536];
+        while (b.hasRemaining()) {
+            int len = Math.min(buf.length, b.remaining());
+            b.get(buf, 0, len);
+            result.update(buf, 0, len);
+        }
+        return result.getValue();
+    }
+
+
+    private static class Entry {
+        String defines;
+
+        long lastModified;
+
+        long length;
+
+        long checksum;
+
+        int offset;
+
+        Entry(String defines, long lastModified, long length, long checksum,
+                int offset) {
+            this.defines = defines;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.checksum = checksum;
+            this.offset = offset;
+        }
+    }
+
+
+    /** The parsed contents of a datafile */
+    static class DatafileContents {
+
+        /** The include file named by the datafile, or null */
+        String inheritsFrom;
+
+        /** The values defined in the datafile */
+        Map values;
+
+        /** The modification time of the file when it was parsed */
+        long lastModified;
+
+        /** The length of the file when it was parsed */
+        long length;
+
+        /** A checksum of the file contents that were parsed */
+        long checksum;
+
+    }
+
+
+    /**
+     * Collects parsed definitions while the repository is loading, and
+     * writes them to a new snapshot.
+     */
+    static class Builder {
+
+        private Map<String, Object[]> includes;
+
+        private Map<String, Object[]> datafiles;
+
+        private boolean dirty;
+
+        Builder() {
+            includes = new LinkedHashMap<String, Object[]>();
+            datafiles = new LinkedHashMap<String, Object[]>();
+        }
+
+        /** Record the definitions from an included file.
+         * @param fromSnapshot true if the definitions were read from a
+         *     snapshot, rather than parsed */
+        public synchronized void addIncludedFile(String name, String defines,
+                Map definitions, boolean fromSnapshot) {
+            includes.put(name, new Object[] { defines, definitions });
+            if (!fromSnapshot)
+                dirty = true;
+        }
+
+        /** Record the values read from a datafile.
+         * @param fromSnapshot true if the values were read from a snapshot,
+         *     rather than parsed */
+        public synchronized void addDatafile(File f, String defines,
+                DatafileContents contents, boolean fromSnapshot) {
+            // copy the values, since the caller will go on to modify them
+            DatafileContents copy = new DatafileContents();
+            copy.inheritsFrom = contents.inheritsFrom;
+            copy.values = new HashMap(contents.values);
+            copy.lastModified = contents.lastModified;
+            copy.length = contents.length;
+            copy.checksum = contents.checksum;
+            datafiles.put(f.getPath(), new Object[] { defines, copy });
+            if (!fromSnapshot)
+                dirty = true;
+        }
+
+        /** @return true if any definitions were parsed rather than read from
+         *     a snapshot */
+        public synchronized boolean isDirty() {
+            return dirty;
+        }
+
+        /**
+         * Write a new snapshot file.
+         * 
+         * @param base
+         *            the base name of the snapshot files
+         * @param current
+         *            the snapshot currently in use, or null
+         * @param templateTimestamp
+         *            the modification time of the templates in use
+         */
+        public synchronized void write(File base, DefinitionSnapshot current,
+                long templateTimestamp) throws IOException {
+            File[] files = getSnapshotFiles(base);
+            File dest = files[0];
+            if (current != null && current.getFile().equals(dest))
+                dest = files[1];
+
+            StringTableWriter strings = new StringTableWriter();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            ByteArrayOutputStream entryBuf = new ByteArrayOutputStream();
+            ByteArrayOutputStream indexBuf = new ByteArrayOutputStream();
+            DataOutputStream index = new DataOutputStream(indexBuf);
+
+            List<Object[]> indexEntries = new ArrayList<Object[]>();
+            for (Map.Entry<String, Object[]> e : includes.entrySet()) {
+                Object[] val = e.getValue();
+                entryBuf.reset();
+                DataOutputStream out = new DataOutputStream(entryBuf);
+                if (writeDefinitions(out, (Map) val[1], strings)) {
+                    indexEntries.add(new Object[] { e.getKey(), val[0],
+                            HEADER_SIZE + body.size() });
+                    entryBuf.writeTo(body);
+                }
+            }
+            index.writeInt(indexEntries.size());
+            for (Object[] entry : indexEntries) {
+                index.writeInt(strings.indexOf((String) entry[0]));
+                index.writeInt(strings.indexOf((String) entry[1]));
+                index.writeInt((Integer) entry[2]);
+            }
+
+            indexEntries.clear();
+            for (Map.Entry<String, Object[]> e : datafiles.entrySet()) {
+                Object[] val = e.getValue();
+                DatafileContents contents = (DatafileContents) val[1];
+                entryBuf.reset();
+                DataOutputStream out = new DataOutputStream(entryBuf);
+                out.writeInt(contents.inheritsFrom == null ? -1 : strings
+                        .indexOf(contents.inheritsFrom));
+                if (writeDefinitions(out, contents.values, strings)) {
+                    indexEntries.add(new Object[] { e.getKey(), val[0],
+                            contents, HEADER_SIZE + body.size() });
+                    entryBuf.writeTo(body);
+                }
+            }
+            index.writeInt(indexEntries.size());
+            for (Object[] entry : indexEntries) {
+                DatafileContents contents = (DatafileContents) entry[2];
+                index.writeInt(strings.indexOf((String) entry[0]));
+                index.writeInt(strings.indexOf((String) entry[1]));
+                index.writeLong(contents.lastModified);
+                index.writeLong(contents.length);
+                index.writeLong(contents.checksum);
+                index.writeInt((Integer) entry[3]);
+            }
+            index.flush();
+
+            ByteArrayOutputStream stringBuf = new ByteArrayOutputStream();
+            strings.writeTo(new DataOutputStream(stringBuf));
+
+            int indexOffset = HEADER_SIZE + body.size();
+            int stringsOffset = indexOffset + indexBuf.size();
+            CRC32 checksum = new CRC32();
+            checksum.update(body.toByteArray());
+            checksum.update(indexBuf.toByteArray());
+            checksum.update(stringBuf.toByteArray());
+
+            RobustFileOutputStream fileOut = new RobustFileOutputStream(dest);
+            try {
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(fileOut));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(templateTimestamp);
+                out.writeInt(stringsOffset);
+                out.writeInt(indexOffset);
+                out.writeLong(checksum.getValue());
+                body.writeTo(out);
+                indexBuf.writeTo(out);
+                stringBuf.writeTo(out);
+                out.flush();
+            } catch (IOException ioe) {
+                fileOut.abort();
+                throw ioe;
+            }
+            fileOut.close();
+
+            dirty = false;
+            logger.log(Level.FINE, "Wrote definition snapshot {0}", dest);
+        }
+
+        /**
+         * Write a map of definitions.
+         * 
+         * @return false if the map contained values that cannot be written
+         */
+        private boolean writeDefinitions(DataOutputStream out, Map defns,
+                StringTableWriter strings) throws IOException {
+            out.writeInt(defns.size());
+            for (Iterator i = defns.entrySet().iterator(); i.hasNext();) {
+                Map.Entry e = (Map.Entry) i.next();
+                Object value = e.getValue();
+                out.writeInt(strings.indexOf((String) e.getKey()));
+
+                if (value instanceof String) {
+                    out.writeByte(TYPE_TEXT);
+                    out.writeInt(strings.indexOf((String) value));
+
+                } else if (value instanceof SimpleData
+                        && ScriptCodec.canWrite((SimpleData) value)) {
+                    out.writeByte(TYPE_VALUE);
+                    ScriptCodec.writeValue(out, (SimpleData) value, strings);
+
+                } else if (value == null) {
+                    out.writeByte(TYPE_VALUE);
+                    ScriptCodec.writeValue(out, null, strings);
+
+                } else if (value instanceof CompiledScript
+                        && ScriptCodec.canWrite((CompiledScript) value)) {
+                    out.writeByte(TYPE_SCRIPT);
+                    ScriptCodec.writeScript(out, (CompiledScript) value,
+                        strings);
+
+                } else if (value instanceof DataRenamingOperation
+                        && ((DataRenamingOperation) value).saveString() != null) {
+                    out.writeByte(TYPE_RENAME);
+                    out.writeInt(strings.indexOf(((DataRenamingOperation) value)
+                            .saveString()));
+
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
+    /** Builds a string table while a snapshot is being written. */
+    private static class StringTableWriter implements ScriptCodec.StringTable {
+
+        private Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+        private List<String> strings = new ArrayList<String>();
+
+        public int indexOf(String s) {
+            Integer result = indexes.get(s);
+            if (result == null) {
+                result = strings.size();
+                strings.add(s);
+                indexes.put(s, result);
+            }
+            return result;
+        }
+
+        public String get(int index) {
+            return strings.get(index);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                byte[] bytes = s.getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+        }
+    }
+
+
+    /** An InputStream that reads from a ByteBuffer. */
+    private static class BufferInputStream extends InputStream {
+
+        private ByteBuffer buf;
+
+        BufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        public int read() {
+            return (buf.hasRemaining() ? buf.get() & 0xff : -1);
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining())
+                return -1;
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.data.repository;
+
+import java.util.Map;
+
+/**
+ * Statistics about the delivery of data change notifications by a
+ * {@link DataRepository}.
+ * <p>
+ * Latency is measured from the moment a listener first has a change waiting
+ * for it, until the moment that change is handed to the listener.  Several
+ * changes to the values a listener watches are coalesced into a single
+ * notification, so the number of deliveries is normally much smaller than
+ * the number of changed values.
+ */
+public class NotificationMetrics {
+
+    private Map pendingNotifications;
+
+    private long batchCount;
+
+    private long batchMillis;
+
+    private long deliveryCount;
+
+    private long eventCount;
+
+    private long totalLatency;
+
+    private long maxLatency;
+
+
+    NotificationMetrics(Map pendingNotifications) {
+        this.pendingNotifications = pendingNotifications;
+    }
+
+    synchronized void recordBatch(long elapsed) {
+        batchCount++;
+        batchMillis += elapsed;
+    }
+
+    synchronized void recordDelivery(int numEvents, long latency) {
+        deliveryCount++;
+        eventCount += numEvents;
+        totalLatency += latency;
+        if (latency > maxLatency)
+            maxLatency = latency;
+    }
+
+
+    /** @return the number of listeners that currently have changes waiting
+     *     to be delivered */
+    public int getQueueDepth() {
+        return pendingNotifications.size();
+    }
+
+    /** @return the number of notification batches processed so far */
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    /** @return the average time, in milliseconds, spent processing a batch */
+    public synchronized double getAverageBatchMillis() {
+        return (batchCount == 0 ? 0 : (double) batchMillis / batchCount);
+    }
+
+    /** @return the number of times a listener has been notified */
+    public synchronized long getDeliveryCount() {
+        return deliveryCount;
+    }
+
+    /** @return the number of changed values reported to listeners */
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+
+    /** @return the average notification latency, in milliseconds */
+    public synchronized double getAverageLatencyMillis() {
+        return (deliveryCount == 0 ? 0 : (double) totalLatency / deliveryCount);
+    }
+
+    /** @return the longest notification latency seen, in milliseconds */
+    public synchronized long getMaxLatencyMillis() {
+        return maxLatency;
+    }
+
+    public synchronized String toString() {
+        return "queueDepth=" + getQueueDepth() //
+                + ", batches=" + batchCount //
+                + ", avgBatchMillis=" + getAverageBatchMillis() //
+                + ", deliveries=" + deliveryCount //
+                + ", events=" + eventCount //
+                + ", avgLatencyMillis=" + getAverageLatencyMillis() //
+                + ", maxLatencyMillis=" + maxLatency;
+    }
+
+}
@@ -24,9 +24,13 @@
 package net.sourceforge.processdash.data.repository;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
@@ -50,6 +54,11 @@ import java.util.Vector;
  * <p>
  * Each node in the tree contains a list of interested listeners, and a
  * set of children.  Each child has a prefix associated with it.
+ * <p>
+ * Many listeners are further interested only in elements whose names end
+ * with a particular literal suffix (for example, "/Completed").  Those
+ * listeners are stored in a {@link SuffixIndex} at their node, so an event
+ * only reaches the ones whose suffix actually matches.
  */
 
 
@@ -63,6 +72,13 @@ class PrefixHierarchy {
     Vector listeners = null;
 
 
+    /**
+     * RepositoryListeners that are interested in events that reach this node
+     * of the tree, but only for data names ending with a particular suffix.
+     */
+    SuffixIndex suffixIndex = null;
+
+
     /** A list of children of this node in the tree.  The keys in the
      * Hashtable represent possible prefixes, and the values represent
      * children of this node.  It is also important to realize that
@@ -89,8 +105,8 @@ class PrefixHierarchy {
 
     // create a PrefixHierarchy containing one listener.
     //
-    private PrefixHierarchy(RepositoryListener l) {
-        addListener(l);
+    private PrefixHierarchy(RepositoryListener l, String suffix) {
+        addLocalListener(l, suffix);
     }
 
 
@@ -99,15 +115,16 @@ class PrefixHierarchy {
     // and name2 should map to a new PrefixHierarchy for listener2.
     //
     private PrefixHierarchy(String name1, PrefixHierarchy child1,
-                            String name2, RepositoryListener listener2) {
+                            String name2, RepositoryListener listener2,
+                            String suffix2) {
 
         children = new Hashtable(3);
         children.put(name1, child1);
 
         if (name2.length() == 0)
-            addListener(listener2);
+            addLocalListener(listener2, suffix2);
         else
-            children.put(name2, new PrefixHierarchy(listener2));
+            children.put(name2, new PrefixHierarchy(listener2, suffix2));
     }
 
 
@@ -135,6 +152,17 @@ class PrefixHierarchy {
     //
     private void dispatchToListeners(boolean added, String dataName) {
 
+        if (suffixIndex != null) {
+            List matches = suffixIndex.getListeners(dataName);
+            for (int i = matches.size();  i-- != 0; ) {
+                RepositoryListener l = (RepositoryListener) matches.get(i);
+                if (added)
+                    l.dataAdded(dataName);
+                else
+                    l.dataRemoved(dataName);
+            }
+        }
+
         if (listeners == null) return;
 
         int i = listeners.size();
@@ -175,11 +203,18 @@ class PrefixHierarchy {
 
 
 
-    // Add this listener to our list.
+    // Add this listener to our list, or to our suffix index if it is only
+    // interested in names with a particular suffix.
     //
-    private synchronized void addListener(RepositoryListener l) {
-        if (listeners == null) listeners = new Vector();
-        listeners.addElement(l);
+    private synchronized void addLocalListener(RepositoryListener l,
+            String suffix) {
+        if (suffix != null && suffix.length() > 0) {
+            if (suffixIndex == null) suffixIndex = new SuffixIndex();
+            suffixIndex.add(suffix, l);
+        } else {
+            if (listeners == null) listeners = new Vector();
+            listeners.addElement(l);
+        }
     }
 
 
@@ -188,11 +223,22 @@ class PrefixHierarchy {
      *  dataRemoved events for elements whose name begins with @param prefix.
      */
     public void addListener(RepositoryListener l, String prefix) {
+        addListener(l, prefix, null);
+    }
+
+
+
+    /** add a listener. This listener is interested in dataAdded and
+     *  dataRemoved events for elements whose name begins with @param prefix,
+     *  and ends with @param suffix.
+     */
+    public void addListener(RepositoryListener l, String prefix,
+            String suffix) {
 
                                   // if prefix is the empty string, just add
                                   // this listener to our listener list.
         if (prefix == null || prefix.length() == 0) {
-            addListener(l);
+            addLocalListener(l, suffix);
             return;
         }
 
@@ -203,18 +249,19 @@ class PrefixHierarchy {
         }
 
         synchronized (children) {
-            addListenerImpl(l, prefix);
+            addListenerImpl(l, prefix, suffix);
         }
     }
 
-    private void addListenerImpl(RepositoryListener l, String prefix) {
+    private void addListenerImpl(RepositoryListener l, String prefix,
+            String suffix) {
                                   // if "prefix" already appears as the prefix
                                   // for one of our children (a common case),
                                   // simply add the listener to the child's
                                   // list.
         PrefixHierarchy child = (PrefixHierarchy) children.get(prefix);
         if (child != null) {
-            child.addListener(l);
+            child.addLocalListener(l, suffix);
             return;
         }
 
@@ -233,7 +280,7 @@ class PrefixHierarchy {
                                       // if "prefix" begins with this child's
             case -1:			// prefix, add this listener to this child.
                 ((PrefixHierarchy) children.get(childPrefix)).addListener
-                    (l, prefix.substring(childPrefix.length()));
+                    (l, prefix.substring(childPrefix.length()), suffix);
                 return;
 
                                         // if this child's prefix starts with
@@ -245,7 +292,7 @@ class PrefixHierarchy {
                     (prefix.substring(0, match),
                      new PrefixHierarchy(childPrefix.substring(match),
                                          (PrefixHierarchy) children.remove(childPrefix),
-                                         prefix.substring(match), l));
+                                         prefix.substring(match), l, suffix));
                 return;
             }
         }
@@ -253,7 +300,7 @@ class PrefixHierarchy {
                                     // getting to this point means that "prefix"
                                     // is not like any of our children.  Just
                                     // add it to our list of children.
-        children.put(prefix, new PrefixHierarchy(l));
+        children.put(prefix, new PrefixHierarchy(l, suffix));
     }
 
 
@@ -264,6 +311,9 @@ class PrefixHierarchy {
         if (listeners != null)
             listeners.removeElement(rl);
 
+        if (suffixIndex != null)
+            suffixIndex.remove(rl);
+
         if (children != null) {
             Enumeration c = children.elements();
             while (c.hasMoreElements())
@@ -297,6 +347,9 @@ class PrefixHierarchy {
     private void debugPrint(String p) {
         if (listeners != null)
             System.out.println(p + "# listeners: "+listeners.size());
+        if (suffixIndex != null)
+            System.out.println(p + "# suffix listeners: "
+                    + suffixIndex.size());
         if (children != null)
             for (Enumeration c = children.keys(); c.hasMoreElements(); ) {
                 String n = (String) c.nextElement();
@@ -304,5 +357,81 @@ class PrefixHierarchy {
                 ((PrefixHierarchy) children.get(n)).debugPrint(p + "    ");
             }
     }
-}
 
+
+
+    /**
+     * An index of listeners by the literal suffixes of the data names they
+     * are interested in.
+     * <p>
+     * The index is a trie of suffixes, read from the last character
+     * backward.  Walking the trie from the end of a data name visits exactly
+     * the suffixes that the name ends with, so finding the interested
+     * listeners costs a few map lookups no matter how many listeners are
+     * registered.
+     */
+    static class SuffixIndex {
+
+        /** Listeners whose suffix ends at this node */
+        private Vector listeners;
+
+        /** Children of this node, keyed by the preceding character */
+        private Map children;
+
+        public synchronized void add(String suffix, RepositoryListener l) {
+            SuffixIndex node = this;
+            for (int i = suffix.length();  i-- > 0; ) {
+                Character c = Character.valueOf(suffix.charAt(i));
+                if (node.children == null)
+                    node.children = new HashMap(4);
+                SuffixIndex child = (SuffixIndex) node.children.get(c);
+                if (child == null)
+                    node.children.put(c, child = new SuffixIndex());
+                node = child;
+            }
+            if (node.listeners == null)
+                node.listeners = new Vector();
+            node.listeners.addElement(l);
+        }
+
+        /** @return the listeners whose suffixes match the end of the given
+         *      data name */
+        public synchronized List getListeners(String dataName) {
+            List result = null;
+            SuffixIndex node = this;
+            for (int i = dataName.length();  i-- > 0; ) {
+                if (node.children == null)
+                    break;
+                node = (SuffixIndex) node.children.get(Character
+                        .valueOf(dataName.charAt(i)));
+                if (node == null)
+                    break;
+                if (node.listeners != null) {
+                    if (result == null)
+                        result = new ArrayList(node.listeners);
+                    else
+                        result.addAll(node.listeners);
+                }
+            }
+            return (result == null ? Collections.EMPTY_LIST : result);
+        }
+
+        public synchronized void remove(RepositoryListener l) {
+            if (listeners != null)
+                while (listeners.removeElement(l))
+                    ;
+            if (children != null)
+                for (Iterator i = children.values().iterator(); i.hasNext();)
+                    ((SuffixIndex) i.next()).remove(l);
+        }
+
+        public synchronized int size() {
+            int result = (listeners == null ? 0 : listeners.size());
+            if (children != null)
+                for (Iterator i = children.values().iterator(); i.hasNext();)
+                    result += ((SuffixIndex) i.next()).size();
+            return result;
+        }
+    }
+
+}
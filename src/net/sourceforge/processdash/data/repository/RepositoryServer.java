@@ -49,7 +49,8 @@ public class RepositoryServer extends Thread {
     private static final String RESTORE_DEFAULT_TOKEN =
         DataInterpreter.RESTORE_DEFAULT_TOKEN.saveString();
 
-    private class RepositoryServerThread extends Thread implements DataListener {
+    private class RepositoryServerThread extends Thread implements
+            DataListener.ConcurrentDelivery {
 
         DataRepository data = null;
         Socket clientSocket = null;
@@ -69,7 +69,7 @@ public class SearchFunction implements SaveableData, RepositoryListener,
 
         this.value.setEditable(false);
 
-        data.addRepositoryListener(this, start);
+        data.addRepositoryListener(this, start, tag);
     }
 
     private void storeTag(String tagName) {
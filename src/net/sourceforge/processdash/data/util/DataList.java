@@ -28,6 +28,7 @@ package net.sourceforge.processdash.data.util;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
+import java.util.regex.Pattern;
 
 
 import net.sourceforge.processdash.data.*;
@@ -164,6 +165,8 @@ abstract class DataList {
     private class PatternWatcher implements Handler, DataListener,
         RepositoryListener {
 
+        Pattern pattern;
+
         PatternWatcher() {
             dataName = dataName.substring(1);         // remove "~" from beginning
             String prefixUsed = null;
@@ -184,10 +187,18 @@ abstract class DataList {
             if (!re.endsWith("$"))
                 re = re + "$";
 
-            // convert the regexp into a perl pattern match.
+            // only names that end with the literal tail of the regexp can
+            // possibly match, so only listen for those names.
+            String suffix = Perl5Util.getLiteralSuffix(re);
+
+            // convert the regexp into a perl pattern match, and compile it
+            // once for the life of this watcher.
             re = "m\n" + re + "\ns";
+            pattern = Perl5Util.compile(re);
+            if (pattern == null)
+                System.err.println("RegexpException: " + re);
 
-            data.addRepositoryListener(this, prefixUsed);
+            data.addRepositoryListener(this, prefixUsed, suffix);
         }
 
         private void handleDataEvent(DataEvent e) {
@@ -212,14 +223,9 @@ abstract class DataList {
 
 
         public void dataAdded(String name) {
-            try {
-                if (perl.match(re, name)) {
-                    dataList.put(name, new DataListValue(null)); // needed?
-                    data.addActiveDataListener(name, this, customerName);
-                }
-            } catch (Perl5Util.RegexpException m) {
-                System.err.println("RegexpException: " + re);
-                re = null;
+            if (pattern != null && pattern.matcher(name).find()) {
+                dataList.put(name, new DataListValue(null)); // needed?
+                data.addActiveDataListener(name, this, customerName);
             }
         }
 
@@ -308,9 +314,13 @@ abstract class DataList {
 
             condition = "s\n^" + re +  "\n" + condExp.toString() + "\ns";
 
+            // only names that end with the literal tail of the regexp can
+            // possibly match, so only listen for those names.
+            String suffix = Perl5Util.getLiteralSuffix(re);
+
             re = "m\n^" + re + "\ns";
 
-            data.addRepositoryListener(this, prefixUsed);
+            data.addRepositoryListener(this, prefixUsed, suffix);
         }
 
         private String addPrefixToVariable(String arg, int number) {
@@ -249,7 +249,8 @@ public class ResultSet {
         data = (Object[][]) newData.toArray(new Object[numRows()][0]);
     }
 
-    private static class NullDataListener implements DataListener {
+    private static class NullDataListener implements
+            DataListener.ConcurrentDelivery {
         public void dataValueChanged(DataEvent e) {}
         public void dataValuesChanged(Vector v) {}
     }
@@ -44,12 +44,15 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.EventObject;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.JOptionPane;
 import javax.swing.event.EventListenerList;
@@ -78,6 +81,21 @@ public class DashHierarchy extends Hashtable<PropertyKey, Prop> implements
     protected int nextDefectLogNumber = 0;
     public    String dataPath = null;
 
+    /** A snapshot index of node IDs.  Props can be modified in place, so
+     * hits are verified before use; the index is only rebuilt after a miss
+     * if a Prop was stored or a node ID was changed since it was built. */
+    private volatile NodeIDIndex nodeIDIndex = null;
+
+    /** An index of the keys found by {@link #findExistingKey}.  It is
+     * discarded whenever a Prop is stored or removed, or the children of
+     * any Prop change. */
+    private volatile PathIndex pathIndex = null;
+
+    /** Counts the Props stored in or removed from this hierarchy.  It is
+     * incremented after each change, so an index built before the count
+     * was read is never mistaken for a current one. */
+    private final AtomicInteger changeCount = new AtomicInteger();
+
 
     public DashHierarchy (String baseDataPath) {
         super();
@@ -130,6 +148,23 @@ public class DashHierarchy extends Hashtable<PropertyKey, Prop> implements
         //fireHierarchyChanged();
     }
 
+    public synchronized Prop put (PropertyKey key, Prop value) {
+        Prop result = super.put (key, value);
+        changeCount.incrementAndGet();
+        return result;
+    }
+
+    public synchronized void clear() {
+        super.clear();
+        changeCount.incrementAndGet();
+    }
+
+    private synchronized Prop removeProp (PropertyKey key) {
+        Prop result = super.remove (key);
+        changeCount.incrementAndGet();
+        return result;
+    }
+
     public Prop pget (PropertyKey key) {
         Prop val;
         if (key == null)
@@ -143,7 +178,7 @@ public class DashHierarchy extends Hashtable<PropertyKey, Prop> implements
     }
 
     public Prop premove (PropertyKey key) {
-        Prop val = (Prop) super.remove (key);
+        Prop val = removeProp (key);
         if (val == null)
             val = new Prop ();
         //else
@@ -222,7 +257,21 @@ public class DashHierarchy extends Hashtable<PropertyKey, Prop> implements
     }
 
     public PropertyKey findExistingKey (String s) {
-        return findKey(s, true);
+        if (s == null) return null;
+        String path = (s.startsWith("/") ? s.substring(1) : s);
+
+        PathIndex index = pathIndex;
+        if (index == null || !index.isCurrent())
+            pathIndex = index = new PathIndex();
+
+        PropertyKey result = index.keys.get(path);
+        if (result == null) {
+            result = findKey(path, true);
+            // only remember the result if nothing changed during the search
+            if (result != null && index.isCurrent())
+                index.keys.put(path, result);
+        }
+        return result;
     }
 
     public PropertyKey findClosestKey(String path) {
@@ -250,12 +299,10 @@ public class DashHierarchy extends Hashtable<PropertyKey, Prop> implements
                 path = path.substring(slashPos+1);
             }
 
-            for (int i = p.getNumChildren();  i-- > 0; ) {
-                PropertyKey child = p.getChild(i);
-                if (nextSegment.equals(child.name())) {
-                    result = child;
-                    continue SEGMENTS;
-                }
+            PropertyKey child = p.getChildByName(nextSegment);
+            if (child != null) {
+                result = child;
+                continue SEGMENTS;
             }
 
             return exactMatch ? null : result;
@@ -265,13 +312,59 @@ public class DashHierarchy extends Hashtable<PropertyKey, Prop> implements
     }
 
     public PropertyKey findKeyByNodeID(String nodeID) {
-        if (StringUtils.hasValue(nodeID)) {
+        if (!StringUtils.hasValue(nodeID))
+            return null;
+
+        // consult the index, and confirm that the node still has this ID
+        NodeIDIndex index = nodeIDIndex;
+        if (index != null) {
+            PropertyKey key = index.keys.get(nodeID);
+            if (key != null) {
+                Prop p = get(key);
+                if (p != null && nodeID.equals(p.getNodeID()))
+                    return key;
+            }
+            // no node can have gained this ID unless a Prop was stored or
+            // a node ID was changed since the index was built.
+            if (index.isCurrent())
+                return null;
+        }
+
+        // the index is missing or stale. Rebuild it with a full scan.
+        synchronized (this) {
+            index = new NodeIDIndex();
             for (Map.Entry<PropertyKey, Prop> e : entrySet()) {
-                if (nodeID.equals(e.getValue().getNodeID()))
-                    return e.getKey();
+                String oneID = e.getValue().getNodeID();
+                if (StringUtils.hasValue(oneID))
+                    index.keys.put(oneID, e.getKey());
             }
         }
-        return null;
+        nodeIDIndex = index;
+        return index.keys.get(nodeID);
+    }
+
+    private class NodeIDIndex {
+        private Map<String, PropertyKey> keys =
+            new HashMap<String, PropertyKey>();
+        private int changeCount = DashHierarchy.this.changeCount.get();
+        private int nodeIDChanges = Prop.getNodeIDChangeCount();
+
+        private boolean isCurrent() {
+            return changeCount == DashHierarchy.this.changeCount.get()
+                    && nodeIDChanges == Prop.getNodeIDChangeCount();
+        }
+    }
+
+    private class PathIndex {
+        private Map<String, PropertyKey> keys =
+            new ConcurrentHashMap<String, PropertyKey>();
+        private int changeCount = DashHierarchy.this.changeCount.get();
+        private int childChanges = Prop.getChildChangeCount();
+
+        private boolean isCurrent() {
+            return changeCount == DashHierarchy.this.changeCount.get()
+                    && childChanges == Prop.getChildChangeCount();
+        }
     }
 
     /* returns true IIF the property has a datafile. */
@@ -321,7 +414,7 @@ public class DashHierarchy extends Hashtable<PropertyKey, Prop> implements
             if (explicit || responsibleForData(fromKey))
                 fireDataFileChange(new PendingDataChange(toKey.path(),
                                                          fromKey.path()));
-            super.remove(fromKey);
+            removeProp(fromKey);
             put (toKey, aProp);
         }
         //fireHierarchyChanged();
@@ -337,7 +430,7 @@ public class DashHierarchy extends Hashtable<PropertyKey, Prop> implements
                 remove (val.getChild (idx));
             }
 
-            super.remove(key);
+            removeProp(key);
         }
 
         //fireHierarchyChanged();
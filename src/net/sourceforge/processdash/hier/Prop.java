@@ -28,6 +28,10 @@
 
 package net.sourceforge.processdash.hier;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import net.sourceforge.processdash.util.*;
 
 public class Prop
@@ -43,6 +47,27 @@ public class Prop
     protected int selectedChild = 0;
     protected PropertyKey children[] = null;
 
+    /** An immutable index of child keys by name, built on demand for nodes
+     * with many children.  Readers may build it without locking, so it is
+     * only used while it matches both the current children array and the
+     * {@link #childVersion} recorded before that array was read. */
+    private volatile ChildIndex childIndex = null;
+
+    /** Incremented after every change to the children, including in-place
+     * changes to the array that would not be visible to an index. */
+    private volatile int childVersion = 0;
+
+    /** Nodes with fewer children than this are searched linearly */
+    private static final int CHILD_INDEX_THRESHOLD = 8;
+
+    /** Counts calls to {@link #setNodeID}, so an index of node IDs can tell
+     * whether an ID might have changed in place since it was built. */
+    private static final AtomicInteger NODE_ID_CHANGES = new AtomicInteger();
+
+    /** Counts changes to the children of any Prop, so an index of paths can
+     * tell whether the structure might have changed since it was built. */
+    private static final AtomicInteger CHILD_CHANGES = new AtomicInteger();
+
     protected static final char ESC_CHAR = '\\';
     public static final String TEMPLATE_QUALIFIER = ":!*!:";
 
@@ -71,7 +96,10 @@ public class Prop
     // methods
     public void setDefectLog  (String log) { defectLog     = log; }
     public void setID         (String id)  { myID          = id;  }
-    public void setNodeID     (String id)  { nodeID        = id;  }
+    public void setNodeID     (String id)  {
+        nodeID = id;
+        NODE_ID_CHANGES.incrementAndGet();
+    }
     public void setScriptFile (String log) { scriptFile    = log; }
     public void setDataFile   (String log) { dataFile      = log; }
     public void setExtraData  (String d)   { extraData     = d;   }
@@ -79,9 +107,10 @@ public class Prop
     public void setSelectedChild (int num) { selectedChild = num; }
 
     public void setChild (PropertyKey childKey, int which) {
-        if ((which < children.length) && (which >= 0))
+        if ((which < children.length) && (which >= 0)) {
             children [which] = childKey;
-        else
+            childrenChanged();
+        } else
             addChild (childKey, which);
     }
 
@@ -99,6 +128,7 @@ public class Prop
         for (int ii = where + 1; ii < temp.length; ii++)
             temp [ii] = children [ii - 1];
         children = temp;
+        childrenChanged();
         if (selectedChild >= where)
             selectedChild++;
         if (selectedChild >= temp.length)
@@ -119,6 +149,7 @@ public class Prop
         for (int ii = which; ii < temp.length; ii++)
             temp [ii] = children [ii + 1];
         children = temp;
+        childrenChanged();
         if (selectedChild > which)
             selectedChild--;
         else if (selectedChild == which)
@@ -136,6 +167,7 @@ public class Prop
         PropertyKey childB = children[which];
         children[which-1] = childB;
         children[which]   = childA;
+        childrenChanged();
 
         if (selectedChild == which)
             selectedChild--;
@@ -143,10 +175,17 @@ public class Prop
             selectedChild++;
     }
 
+    private void childrenChanged() {
+        childVersion++;
+        CHILD_CHANGES.incrementAndGet();
+    }
+
 
     public String getDefectLog ()  { return defectLog; }
     public String getID ()         { return myID; }
     public String getNodeID()      { return nodeID; }
+    static int getNodeIDChangeCount() { return NODE_ID_CHANGES.get(); }
+    static int getChildChangeCount() { return CHILD_CHANGES.get(); }
     public String getScriptFile () { return scriptFile; }
     public String getDataFile ()   { return dataFile; }
     public String getExtraData()   { return extraData; }
@@ -171,6 +210,54 @@ public class Prop
         return -1;
     }
 
+    /**
+     * Find the child of this node with the given name.  If several children
+     * share the name, the last one is returned.
+     *
+     * @return the key of the named child, or null if there is no such child
+     */
+    public PropertyKey getChildByName(String name) {
+        // read the version first, so a change made while the index is being
+        // built will leave the new index out of date rather than wrong
+        int version = childVersion;
+        PropertyKey[] c = children;
+        if (c == null || name == null)
+            return null;
+
+        if (c.length < CHILD_INDEX_THRESHOLD) {
+            for (int i = c.length; i-- > 0;)
+                if (name.equals(c[i].name()))
+                    return c[i];
+            return null;
+        }
+
+        ChildIndex index = childIndex;
+        if (index == null || !index.matches(c, version)) {
+            index = new ChildIndex(c, version);
+            childIndex = index;
+        }
+        return index.keys.get(name);
+    }
+
+    private static class ChildIndex {
+        private final PropertyKey[] children;
+        private final int version;
+        private final Map<String, PropertyKey> keys;
+
+        private ChildIndex(PropertyKey[] children, int version) {
+            Map<String, PropertyKey> keys = new HashMap<String, PropertyKey>();
+            for (int i = 0; i < children.length; i++)
+                keys.put(children[i].name(), children[i]);
+            this.children = children;
+            this.version = version;
+            this.keys = keys;
+        }
+
+        private boolean matches(PropertyKey[] children, int version) {
+            return this.children == children && this.version == version;
+        }
+    }
+
     private String stringRep (String s) {
         return ((s == null) ? "" : EscapeString.applyEscape (s, ESC_CHAR, "]"));
     }
@@ -183,12 +270,7 @@ public class Prop
     }
 
     public boolean isUniqueChildName (String s) {
-        if (children == null)
-            return true;
-        for (int ii = 0; ii < children.length; ii++)
-            if (children [ii].name().equals (s))
-                return false;
-        return true;
+        return getChildByName(s) == null;
     }
 
     public String uniqueChildName (String baseName) {
@@ -31,9 +31,19 @@ public class PropertyKey implements Comparable {
         new PropertyKey ("", ROOT_NAME);
 
     private static String SEPARATOR = "/";
-    private String myParent = null;
-    private String myName   = null;
-    private Integer myHashCode = null;
+
+    /** The full key of the parent, or "" if this key has no parent */
+    private final String myParent;
+    private final String myName;
+
+    /** The parent key. Keys constructed from a parent share that instance;
+     * keys parsed from a string resolve their parent on first use. */
+    private PropertyKey myParentKey = null;
+
+    // lazily computed values, cached to avoid recomputation
+    private String myKey = null;
+    private String myPath = null;
+    private int myHashCode = 0;
 
     public boolean equals (Object obj) {
         if (this == obj)
@@ -44,33 +54,42 @@ public class PropertyKey implements Comparable {
             PropertyKey that = (PropertyKey) obj;
 
             // quick optimization using cached hash codes
-            if (this.myHashCode != null &&
-                that.myHashCode != null &&
-                !this.myHashCode.equals(that.myHashCode))
+            if (this.myHashCode != 0 &&
+                that.myHashCode != 0 &&
+                this.myHashCode != that.myHashCode)
                 return false;
 
-            return this.myParent.equals(that.myParent) &&
-                this.myName.equals(that.myName);
+            // keys built from the same parent share its key string, so
+            // the parent comparison is usually an identity check
+            return this.myName.equals(that.myName) &&
+                this.myParent.equals(that.myParent);
 
         } else
             return false;
     }
 
     public int hashCode() {
-        if (myHashCode == null)     // cache value to avoid recomputation
-            myHashCode = new Integer(key().hashCode());
-        return myHashCode.intValue();
+        int result = myHashCode;
+        if (result == 0)
+            myHashCode = result = key().hashCode();
+        return result;
     }
 
     public PropertyKey (PropertyKey parent, String name) {
         myParent = (parent == null) ? "" : parent.key();
         myName   = (name == null) ? "" : name;
+        if (myParent.length() > 0)
+            myParentKey = parent;
     }
 
                                 // essentially a clone() method
     public PropertyKey (PropertyKey key) {
-        myParent = key.myParent;
-        myName   = key.myName;
+        myParent    = key.myParent;
+        myName      = key.myName;
+        myParentKey = key.myParentKey;
+        myKey       = key.myKey;
+        myPath      = key.myPath;
+        myHashCode  = key.myHashCode;
     }
 
     private PropertyKey (String parent, String name) {
@@ -81,28 +100,31 @@ public class PropertyKey implements Comparable {
     public PropertyKey getParent () {
         if (myParent.length() == 0)
             return null;
-        int sep = myParent.lastIndexOf (SEPARATOR);
-        String p, n;
-        if (sep < 0) {
-            p = "";
-            n = myParent;
-        } else {
-            p = myParent.substring (0, sep);
-            n = myParent.substring (sep + 1);
-        }
-        return new PropertyKey (p, n);
+        PropertyKey result = myParentKey;
+        if (result == null)
+            myParentKey = result = fromKey(myParent);
+        return result;
     }
 
     public String key () {
-        return ((myParent.equals("")) ? "" : myParent + SEPARATOR) + myName;
+        String result = myKey;
+        if (result == null) {
+            if (myParent.length() == 0)
+                result = myName;
+            else
+                result = myParent + SEPARATOR + myName;
+            myKey = result;
+        }
+        return result;
     }
 
     public boolean isChildOf (PropertyKey k2) {
-        boolean rv = false;
         String s = k2.key();
-        if (myParent.equals (s) || myParent.startsWith (s + SEPARATOR))
-            rv = true;
-        return rv;
+        if (!myParent.startsWith(s))
+            return false;
+        int len = s.length();
+        return (myParent.length() == len
+                || myParent.startsWith(SEPARATOR, len));
     }
 
     public static PropertyKey fromKey (String s) {
@@ -117,11 +139,16 @@ public class PropertyKey implements Comparable {
     }
 
     public String path () {
-        try {                       // start 1 char past ROOT (start w/SEPARATOR)
-            return key().substring(ROOT_NAME.length());
-        } catch (Exception e) {
-            return SEPARATOR;
+        String result = myPath;
+        if (result == null) {
+            try {                   // start 1 char past ROOT (start w/SEPARATOR)
+                result = key().substring(ROOT_NAME.length());
+            } catch (Exception e) {
+                result = SEPARATOR;
+            }
+            myPath = result;
         }
+        return result;
     }
 
     public String name () { return myName; }
@@ -25,23 +25,145 @@ package net.sourceforge.processdash.log.time;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import net.sourceforge.processdash.Settings;
 import net.sourceforge.processdash.util.EnumerIterator;
+import net.sourceforge.processdash.util.IteratorConcatenator;
 
 public class BaseTimeLog implements TimeLog {
 
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final Logger logger = Logger.getLogger(BaseTimeLog.class
+            .getName());
+
     private File timeLogFile;
 
+    private File indexFile;
+
+    private TimeLogIndex index;
+
+    /** The length and timestamp of a file that could not be indexed */
+    private long unindexableLength = -1, unindexableTimestamp = -1;
+
+    /** True if the saved index turned out to be wrong, and should be
+     * rebuilt rather than loaded */
+    private boolean ignoreSavedIndex;
+
     public BaseTimeLog(File file) {
         timeLogFile = file;
+
+        String indexName = file.getName();
+        int dotPos = indexName.lastIndexOf('.');
+        if (dotPos > 0)
+            indexName = indexName.substring(0, dotPos);
+        indexFile = new File(file.getParentFile(), indexName + INDEX_SUFFIX);
     }
 
     public EnumerIterator filter(String path, Date from, Date to) throws IOException {
-        EnumerIterator result = new TimeLogReader(timeLogFile);
-        if (path != null || from != null || to != null)
+        return filter(path, from, to, null);
+    }
+
+    /**
+     * Find the entries that match the given criteria, along with the entries
+     * that have particular IDs.
+     * 
+     * When an index of the time log is available, only the matching entries
+     * are read from the file. The entries read are still checked against the
+     * criteria, in case the file changed in a way the index could not detect.
+     * If the entries read do not match the index, the index is discarded and
+     * the file is scanned sequentially instead. If extra IDs are requested,
+     * the result may also include entries that do not match the criteria, so
+     * the caller must filter the result again.
+     */
+    EnumerIterator filter(String path, Date from, Date to,
+            Collection<Long> extraIDs) throws IOException {
+        boolean isQuery = (path != null || from != null || to != null);
+
+        EnumerIterator result = null;
+        TimeLogIndex idx = (isQuery ? getIndex() : null);
+        if (idx != null) {
+            int[] selection = idx.select(path, from, to, extraIDs);
+            if (selection != null) {
+                try {
+                    List<TimeLogEntry> entries = idx.read(timeLogFile,
+                        selection);
+                    if (idx.isValidFor(timeLogFile)) {
+                        result = new IteratorConcatenator(Collections
+                                .singletonList(entries.iterator()));
+                        if (logger.isLoggable(Level.FINER))
+                            logger.finer("Read " + selection.length + " of "
+                                    + idx.size() + " time log entries from "
+                                    + timeLogFile);
+                    }
+                } catch (IOException ioe) {
+                    // the file changed underneath us, or in a way the index
+                    // could not detect. Fall back to a sequential scan, which
+                    // will report any real problem
+                    logger.log(Level.FINE, "Discarding time log index for "
+                            + timeLogFile, ioe);
+                    discardIndex(idx);
+                }
+            }
+        }
+
+        if (result == null)
+            result = new TimeLogReader(timeLogFile);
+        if (isQuery && extraIDs == null)
             result = new TimeLogIteratorFilter(result, path, from, to);
         return result;
     }
 
+    private synchronized TimeLogIndex getIndex() {
+        if (index != null && index.isValidFor(timeLogFile))
+            return index;
+
+        index = null;
+        long length = timeLogFile.length();
+        long timestamp = timeLogFile.lastModified();
+        if (!timeLogFile.isFile() || (length == unindexableLength
+                && timestamp == unindexableTimestamp))
+            return null;
+
+        TimeLogIndex result = (ignoreSavedIndex ? null
+                : TimeLogIndex.load(indexFile));
+        ignoreSavedIndex = false;
+        if (result == null || !result.isValidFor(timeLogFile)) {
+            try {
+                result = TimeLogIndex.build(timeLogFile);
+            } catch (IOException ioe) {
+                logger.log(Level.FINE, "Could not index " + timeLogFile, ioe);
+                result = null;
+            }
+            if (result == null) {
+                unindexableLength = length;
+                unindexableTimestamp = timestamp;
+                return null;
+            }
+
+            if (Settings.isReadWrite()) {
+                try {
+                    result.save(indexFile);
+                } catch (IOException ioe) {
+                    logger.log(Level.FINE, "Could not save time log index "
+                            + indexFile, ioe);
+                }
+            }
+        }
+
+        return (index = result);
+    }
+
+    private synchronized void discardIndex(TimeLogIndex idx) {
+        if (index == idx)
+            index = null;
+        ignoreSavedIndex = true;
+    }
+
 }
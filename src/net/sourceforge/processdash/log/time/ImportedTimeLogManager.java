@@ -27,16 +27,20 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.sourceforge.processdash.hier.Filter;
 import net.sourceforge.processdash.util.EnumerIterator;
 import net.sourceforge.processdash.util.FileUtils;
 import net.sourceforge.processdash.util.IteratorConcatenator;
+import net.sourceforge.processdash.util.IteratorFilter;
 import net.sourceforge.processdash.util.StringMapper;
 import net.sourceforge.processdash.util.TempFileFactory;
 
@@ -114,6 +118,67 @@ public class ImportedTimeLogManager {
             oldFile.delete();
     }
 
+    /**
+     * Apply a set of changes to the time log associated with the given prefix.
+     * Incoming entries replace any existing entries with the same ID, and
+     * existing entries with the given deleted IDs are removed.
+     * 
+     * @param prefix the prefix where the time log is mounted
+     * @param changedEntries an input stream containing XML time log data
+     * @param deletedIDs the IDs of time log entries that should be removed
+     */
+    public void updateTimeLog(String prefix, InputStream changedEntries,
+            Collection<Long> deletedIDs) throws IOException {
+        prefix = cleanupPrefix(prefix);
+
+        // read the changed entries, and prepend the prefix to each
+        List changes = new ArrayList();
+        Iterator i = new TimeLogEntryVOPathFilter(new TimeLogReader(
+                changedEntries, false), new PrefixAppender(prefix));
+        while (i.hasNext())
+            changes.add(i.next());
+        if (changes.isEmpty() && deletedIDs.isEmpty())
+            return;
+
+        // merge the changes with the entries we already have
+        Set<Long> replacedIDs = new HashSet<Long>(deletedIDs);
+        for (Iterator c = changes.iterator(); c.hasNext();)
+            replacedIDs.add(((TimeLogEntry) c.next()).getID());
+        File currentFile = (File) importedLogs.get(prefix);
+        Iterator timeLogEntries = changes.iterator();
+        if (currentFile != null)
+            timeLogEntries = new IteratorConcatenator(new ReplacedEntryFilter(
+                    new TimeLogReader(currentFile), replacedIDs),
+                    timeLogEntries);
+
+        File oldFile;
+        if (!timeLogEntries.hasNext()) {
+            oldFile = (File) importedLogs.remove(prefix);
+        } else {
+            File destFile = TempFileFactory.get().createTempFile(
+                "tempImportedTimeLog", ".xml");
+            TimeLogWriter.write(destFile, timeLogEntries);
+            oldFile = (File) importedLogs.put(prefix, destFile);
+        }
+
+        if (oldFile != null)
+            oldFile.delete();
+    }
+
+    private static class ReplacedEntryFilter extends IteratorFilter {
+        private Set<Long> replacedIDs;
+
+        public ReplacedEntryFilter(Iterator parent, Set<Long> replacedIDs) {
+            super(parent);
+            this.replacedIDs = replacedIDs;
+            init();
+        }
+
+        protected boolean includeInResults(Object o) {
+            return !replacedIDs.contains(((TimeLogEntry) o).getID());
+        }
+    }
+
     /**
      * Return an iterator of the time log entries mounted at the given prefix.
      * If no imported defects are mounted at the given prefix, returns null.
@@ -0,0 +1,486 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.log.time;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import net.sourceforge.processdash.hier.Filter;
+import net.sourceforge.processdash.util.RobustFileOutputStream;
+
+
+/**
+ * An index of the entries in a time log XML file, by start time and path.
+ * <p>
+ * {@link TimeLogWriter} writes each entry on a line of its own.  The index
+ * records the byte range of each of those lines, sorted by start time, along
+ * with a table of the distinct paths in the log.  A query can then select
+ * the matching entries without parsing any XML, and only the selected lines
+ * are read back from the file and parsed.
+ * <p>
+ * The XML file remains the authoritative copy of the data.  The index is
+ * saved in a sidecar file, and is discarded if the length, timestamp or
+ * checksum of the XML file has changed since it was built.  (The checksum
+ * is only recomputed while the file's timestamp is too recent to rule out
+ * a later edit within the timestamp granularity.)  Files that do not follow
+ * the one-entry-per-line layout (or that contain garbled entries) are not
+ * indexed, and callers fall back to a full scan.
+ */
+class TimeLogIndex implements TimeLogIOConstants {
+
+    private static final int MAGIC = 0x50445449; // "PDTI"
+
+    private static final int VERSION = 2;
+
+    /** The coarsest file timestamp resolution we expect to encounter */
+    private static final long TIMESTAMP_GRANULARITY = 2000;
+
+    /** Queries that select more than this percentage of the log are
+     * answered with a sequential scan instead of reading selected lines */
+    private static final int SCAN_PERCENT = 50;
+
+    private static final long NO_START_TIME = Long.MIN_VALUE;
+
+    private static final Logger logger = Logger.getLogger(TimeLogIndex.class
+            .getName());
+
+
+    /** The length and timestamp of the XML file when the index was built */
+    private long fileLength, fileTimestamp;
+
+    /** A CRC32 checksum of the XML file when the index was built */
+    private long fileChecksum;
+
+    /** The time we last confirmed that the file matched the checksum, or
+     * zero if the checksum has not been checked */
+    private long verifiedTime;
+
+    /** The distinct paths in the log */
+    private String[] paths;
+
+    /** The start time, ID, path number, offset and length of each entry,
+     * sorted by start time.  Entries with no start time come first. */
+    private long[] starts;
+    private long[] ids;
+    private int[] pathNums;
+    private long[] offsets;
+    private int[] lengths;
+
+    /** The number of entries that have no start time */
+    private int numUntimed;
+
+
+    private TimeLogIndex(long fileLength, long fileTimestamp,
+            long fileChecksum) {
+        this.fileLength = fileLength;
+        this.fileTimestamp = fileTimestamp;
+        this.fileChecksum = fileChecksum;
+    }
+
+    /** @return true if this index still describes the given file */
+    public synchronized boolean isValidFor(File xmlFile) {
+        if (xmlFile.length() != fileLength
+                || xmlFile.lastModified() != fileTimestamp)
+            return false;
+
+        // once we have seen the file unchanged for longer than the timestamp
+        // granularity, any further edit would change its timestamp.
+        if (verifiedTime - fileTimestamp > TIMESTAMP_GRANULARITY)
+            return true;
+
+        long now = System.currentTimeMillis();
+        try {
+            if (checksum(xmlFile) != fileChecksum)
+                return false;
+        } catch (IOException ioe) {
+            return false;
+        }
+        verifiedTime = now;
+        return true;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+
+    /**
+     * Find the entries that match a query.
+     * 
+     * @param path a path prefix, or null to include all paths
+     * @param from the earliest start time to include, or null
+     * @param to the latest start time to include, or null
+     * @param extraIDs the IDs of entries to include even if they do not
+     *     match the other criteria; can be null
+     * @return the positions of the matching entries, in file order; or null
+     *     if so many entries match that a sequential scan would be faster
+     */
+    public int[] select(String path, Date from, Date to,
+            Collection<Long> extraIDs) {
+        boolean[] pathMatches = null;
+        if (path != null) {
+            pathMatches = new boolean[paths.length];
+            for (int i = paths.length; i-- > 0;)
+                pathMatches[i] = Filter.pathMatches(paths[i], path, true);
+        }
+
+        // entries without a start time match any date range.
+        int lo = (from == null ? numUntimed : searchStart(from.getTime()));
+        int hi = (to == null ? starts.length : searchStart(to.getTime() + 1));
+
+        int[] result = new int[starts.length];
+        int count = 0;
+        for (int i = 0; i < starts.length; i++) {
+            boolean inRange = (i < numUntimed || (i >= lo && i < hi));
+            boolean matches = inRange
+                    && (pathMatches == null || (pathNums[i] >= 0
+                            && pathMatches[pathNums[i]]));
+            if (matches || (extraIDs != null && extraIDs.contains(ids[i])))
+                result[count++] = i;
+        }
+
+        if (count * 100L > starts.length * (long) SCAN_PERCENT)
+            return null;
+
+        // sort the selected entries back into file order.
+        Integer[] sel = new Integer[count];
+        for (int i = count; i-- > 0;)
+            sel[i] = result[i];
+        Arrays.sort(sel, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                long diff = offsets[a] - offsets[b];
+                return (diff < 0 ? -1 : (diff > 0 ? 1 : 0));
+            }});
+        result = new int[count];
+        for (int i = count; i-- > 0;)
+            result[i] = sel[i];
+        return result;
+    }
+
+    /** @return the position of the first entry that starts at or after
+     *     the given time */
+    private int searchStart(long time) {
+        int lo = numUntimed, hi = starts.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+
+    /**
+     * Read selected entries from the XML file.
+     * 
+     * @param xmlFile the file this index describes
+     * @param selection positions returned by {@link #select}
+     * @return the selected entries, in file order
+     * @throws IOException if the entries could not be read, or if the
+     *     entries in the file do not match the index
+     */
+    public List<TimeLogEntry> read(File xmlFile, int[] selection)
+            throws IOException {
+        int total = 0;
+        for (int i : selection)
+            total += lengths[i];
+
+        String rootStart = "<" + DOC_ROOT_ELEM + ">\n";
+        String rootEnd = "</" + DOC_ROOT_ELEM + ">\n";
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(total + 40);
+        buf.write(rootStart.getBytes(ENCODING));
+
+        RandomAccessFile in = new RandomAccessFile(xmlFile, "r");
+        try {
+            byte[] line = new byte[256];
+            for (int i : selection) {
+                if (lengths[i] > line.length)
+                    line = new byte[lengths[i]];
+                in.seek(offsets[i]);
+                in.readFully(line, 0, lengths[i]);
+                buf.write(line, 0, lengths[i]);
+            }
+        } finally {
+            in.close();
+        }
+
+        buf.write(rootEnd.getBytes(ENCODING));
+
+        // parse the entries now, so a stale index is caught here rather
+        // than partway through the caller's iteration.
+        List<TimeLogEntry> result = new ArrayList<TimeLogEntry>(
+                selection.length);
+        try {
+            TimeLogReader reader = new TimeLogReader(new ByteArrayInputStream(
+                    buf.toByteArray()));
+            while (reader.hasNext())
+                result.add((TimeLogEntry) reader.next());
+        } catch (IONoSuchElementException ionsee) {
+            throw ionsee.getIOException();
+        }
+        if (result.size() != selection.length)
+            throw new IOException("Time log index for " + xmlFile
+                    + " is out of date");
+        for (int i = 0; i < selection.length; i++) {
+            if (result.get(i).getID() != ids[selection[i]])
+                throw new IOException("Time log index for " + xmlFile
+                        + " is out of date");
+        }
+        return result;
+    }
+
+
+    /**
+     * Build an index for a time log file.
+     * 
+     * @return the new index, or null if the file cannot be indexed
+     */
+    public static TimeLogIndex build(File xmlFile) throws IOException {
+        long buildTime = System.currentTimeMillis();
+        long length = xmlFile.length();
+        long timestamp = xmlFile.lastModified();
+
+        // find the byte range of each line that holds a time log entry
+        List<long[]> lines = new ArrayList<long[]>();
+        CRC32 checksum = new CRC32();
+        InputStream in = new FileInputStream(xmlFile);
+        try {
+            byte[] tag = ("<" + TIME_ELEM + " ").getBytes(ENCODING);
+            byte[] buf = new byte[65536];
+            long pos = 0, lineStart = 0;
+            int matched = 0, tagsOnLine = 0;
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                checksum.update(buf, 0, len);
+                for (int i = 0; i < len; i++) {
+                    byte b = buf[i];
+                    pos++;
+                    if (b == '\n') {
+                        if (tagsOnLine > 1)
+                            return null;
+                        else if (tagsOnLine == 1)
+                            lines.add(new long[] { lineStart,
+                                    pos - lineStart });
+                        lineStart = pos;
+                        matched = tagsOnLine = 0;
+                    } else if (b == tag[matched]) {
+                        if (++matched == tag.length) {
+                            tagsOnLine++;
+                            matched = 0;
+                        }
+                    } else {
+                        matched = (b == tag[0] ? 1 : 0);
+                    }
+                }
+            }
+            if (tagsOnLine > 0)
+                return null;
+        } finally {
+            in.close();
+        }
+
+        // parse the entries, and pair them with the lines we found
+        List<TimeLogEntry> entries = new ArrayList<TimeLogEntry>(lines.size());
+        TimeLogReader reader = new TimeLogReader(xmlFile);
+        try {
+            while (reader.hasNext())
+                entries.add((TimeLogEntry) reader.next());
+        } catch (IONoSuchElementException ionsee) {
+            throw ionsee.getIOException();
+        }
+        if (entries.size() != lines.size()) {
+            logger.fine("Cannot index " + xmlFile + ": found "
+                    + entries.size() + " entries on " + lines.size()
+                    + " lines");
+            return null;
+        }
+
+        if (xmlFile.length() != length || xmlFile.lastModified() != timestamp)
+            // the file changed while we were reading it
+            return null;
+
+        Integer[] order = new Integer[entries.size()];
+        final long[] startTimes = new long[entries.size()];
+        for (int i = order.length; i-- > 0;) {
+            order[i] = i;
+            Date start = entries.get(i).getStartTime();
+            startTimes[i] = (start == null ? NO_START_TIME : start.getTime());
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                if (startTimes[a] != startTimes[b])
+                    return (startTimes[a] < startTimes[b] ? -1 : 1);
+                return a - b;
+            }});
+
+        TimeLogIndex result = new TimeLogIndex(length, timestamp, checksum
+                .getValue());
+        result.verifiedTime = buildTime;
+        result.allocate(order.length);
+        Map<String, Integer> pathNums = new HashMap<String, Integer>();
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < order.length; i++) {
+            int e = order[i];
+            TimeLogEntry tle = entries.get(e);
+            result.starts[i] = startTimes[e];
+            result.ids[i] = tle.getID();
+            result.offsets[i] = lines.get(e)[0];
+            result.lengths[i] = (int) lines.get(e)[1];
+            if (startTimes[e] == NO_START_TIME)
+                result.numUntimed++;
+
+            String path = tle.getPath();
+            if (path == null) {
+                result.pathNums[i] = -1;
+            } else {
+                Integer num = pathNums.get(path);
+                if (num == null) {
+                    num = paths.size();
+                    pathNums.put(path, num);
+                    paths.add(path);
+                }
+                result.pathNums[i] = num;
+            }
+        }
+        result.paths = paths.toArray(new String[paths.size()]);
+        return result;
+    }
+
+    /** @return a CRC32 checksum of the contents of a file */
+    private static long checksum(File file) throws IOException {
+        CRC32 checksum = new CRC32();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[65536];
+            int len;
+            while ((len = in.read(buf)) != -1)
+                checksum.update(buf, 0, len);
+        } finally {
+            in.close();
+        }
+        return checksum.getValue();
+    }
+
+    private void allocate(int size) {
+        starts = new long[size];
+        ids = new long[size];
+        pathNums = new int[size];
+        offsets = new long[size];
+        lengths = new int[size];
+    }
+
+
+    /**
+     * Read an index from a sidecar file.
+     * 
+     * @return the index, or null if the file is missing or unreadable
+     */
+    public static TimeLogIndex load(File indexFile) {
+        if (!indexFile.isFile())
+            return null;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(indexFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+
+            TimeLogIndex result = new TimeLogIndex(in.readLong(), in
+                    .readLong(), in.readLong());
+            result.paths = new String[in.readInt()];
+            for (int i = 0; i < result.paths.length; i++)
+                result.paths[i] = in.readUTF();
+
+            int size = in.readInt();
+            result.numUntimed = in.readInt();
+            result.allocate(size);
+            for (int i = 0; i < size; i++) {
+                result.starts[i] = in.readLong();
+                result.ids[i] = in.readLong();
+                result.pathNums[i] = in.readInt();
+                result.offsets[i] = in.readLong();
+                result.lengths[i] = in.readInt();
+            }
+            return result;
+
+        } catch (IOException ioe) {
+            logger.log(Level.FINE, "Could not read time log index "
+                    + indexFile, ioe);
+            return null;
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException ioe) {}
+        }
+    }
+
+    /** Write this index to a sidecar file */
+    public void save(File indexFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new RobustFileOutputStream(indexFile)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(fileLength);
+        out.writeLong(fileTimestamp);
+        out.writeLong(fileChecksum);
+        out.writeInt(paths.length);
+        for (String path : paths)
+            out.writeUTF(path);
+        out.writeInt(starts.length);
+        out.writeInt(numUntimed);
+        for (int i = 0; i < starts.length; i++) {
+            out.writeLong(starts[i]);
+            out.writeLong(ids[i]);
+            out.writeInt(pathNums[i]);
+            out.writeLong(offsets[i]);
+            out.writeInt(lengths[i]);
+        }
+        out.close();
+    }
+
+}
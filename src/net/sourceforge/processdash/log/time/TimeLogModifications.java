@@ -27,8 +27,10 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -398,7 +400,25 @@ public class TimeLogModifications implements CommittableModifiableTimeLog {
             // optimization if there are no modifications to perform
             return parent.filter(path, from, to);
 
-        Iterator baseEntries = parent.filter(null, null, null);
+        Iterator baseEntries;
+        if (parent instanceof BaseTimeLog
+                && (path != null || from != null || to != null)) {
+            // let the base log select entries with its index. Our changes
+            // could move any entry we have modified into the requested
+            // range, so those entries are requested too. Batch renames can
+            // move any entry into the requested path, so in that case only
+            // the date range can be applied to the base log.
+            Collection<Long> modifiedIDs;
+            String basePath;
+            synchronized (this) {
+                modifiedIDs = new HashSet<Long>(modifications.keySet());
+                basePath = (batchRenames.isEmpty() ? path : null);
+            }
+            baseEntries = ((BaseTimeLog) parent).filter(basePath, from, to,
+                modifiedIDs);
+        } else {
+            baseEntries = parent.filter(null, null, null);
+        }
         Iterator modifiedEntries = new ModifiedEntriesFilter(baseEntries);
         Iterator addedEntries = new AddedEntriesFilter();
         EnumerIterator allEntries = new IteratorConcatenator(modifiedEntries,
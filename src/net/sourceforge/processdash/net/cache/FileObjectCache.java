@@ -29,6 +29,14 @@ import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.sourceforge.processdash.util.FileUtils;
 import net.sourceforge.processdash.util.RobustFileOutputStream;
@@ -36,6 +44,7 @@ import net.sourceforge.processdash.util.XMLUtils;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
 
 public class FileObjectCache implements ObjectCache,
                                         CachedObject.CachedDataProvider {
@@ -47,6 +56,27 @@ public class FileObjectCache implements ObjectCache,
     protected String extension;
     protected int nextAvaliableID;
 
+    /** The types of all the objects in the cache, keyed by ID.  This is
+     * built the first time someone asks for objects of a particular type. */
+    private volatile Map<Integer, String> typeIndex;
+
+    /** Counts the objects stored or deleted, so a type index that was built
+     * without holding the lock can tell whether it missed a change. */
+    private int changeCount;
+
+    /** The XML of recently used objects, keyed by ID.  Each caller receives
+     * a new object built from this XML, so changes made by one caller are
+     * not seen by others until the object is stored. */
+    private Map<Integer, Element> recentObjects = Collections
+            .synchronizedMap(new LinkedHashMap<Integer, Element>(16,
+                    0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Integer, Element> eldest) {
+                    return size() > MAX_RECENT_OBJECTS;
+                }
+            });
+
     /** Create an cache which stores its objects into a directory as
      * files with the given extension.
      * @param directory the directory where the files should be placed.
@@ -86,9 +116,39 @@ public class FileObjectCache implements ObjectCache,
     }
 
     /** Retrieve a cached object by its ID. */
-    public synchronized CachedObject getCachedObject(int id, double maxAge) {
+    public CachedObject getCachedObject(int id, double maxAge) {
         if (id < 0) return null;
 
+        // recently used objects can be rebuilt without going to disk.
+        Element xml = recentObjects.get(id);
+        if (xml == null) {
+            xml = readCachedXML(id);
+            if (xml == null)
+                return null;
+        }
+        CachedObject result = openXML(id, xml);
+        if (result == null)
+            return null;
+
+        try {
+            result.refresh(maxAge);
+            return result;
+        } catch (Exception e) {
+            System.err.println(e);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Read the XML for a cached object from disk, and remember it as
+     * recently used. */
+    private synchronized Element readCachedXML(int id) {
+        // another thread may have loaded or stored this object while we
+        // were waiting for the lock.
+        Element result = recentObjects.get(id);
+        if (result != null)
+            return result;
+
         FileInputStream fis = null;
         try {
             File f = makeFile(id);
@@ -96,11 +156,8 @@ public class FileObjectCache implements ObjectCache,
 
             fis = new FileInputStream(f);
             Document d = XMLUtils.parse(fis);
-            Element docRoot = d.getDocumentElement();
-
-            CachedObject result =
-                CachedObject.openXML(this, id, docRoot, this);
-            result.refresh(maxAge);
+            result = d.getDocumentElement();
+            recentObjects.put(id, result);
             return result;
 
         } catch (Exception e) {
@@ -112,9 +169,23 @@ public class FileObjectCache implements ObjectCache,
         return null;
     }
 
+    /** Build a new object from cached XML.  DOM trees are not safe for
+     * concurrent use, so only one object is built from an element at a time.
+     */
+    private CachedObject openXML(int id, Element xml) {
+        synchronized (xml) {
+            return CachedObject.openXML(this, id, xml, this);
+        }
+    }
+
 
     /** Delete an object from the cache. */
     public synchronized void deleteCachedObject(int id) {
+        recentObjects.remove(id);
+        changeCount++;
+        if (typeIndex != null)
+            typeIndex.remove(id);
+
         File f = makeFile(id);
         f.delete();
         f = makeDataFile(id);
@@ -127,6 +198,11 @@ public class FileObjectCache implements ObjectCache,
         if (id < 0)
             throw new IllegalArgumentException("Invalid id.");
 
+        recentObjects.remove(id);
+        changeCount++;
+        if (typeIndex != null)
+            typeIndex.put(id, getIndexType(obj));
+
         File f = null, backup = null;
         FileOutputStream fos = null;
         try {
@@ -156,6 +232,15 @@ public class FileObjectCache implements ObjectCache,
                 }
             }
 
+            // keep a private copy of the XML, so later changes the caller
+            // makes to this object are not seen by other callers.
+            Document d = XMLUtils.parse(xml.toString());
+            recentObjects.put(id, d.getDocumentElement());
+
+        } catch (SAXException se) {
+            System.err.println(se);
+            se.printStackTrace();
+
         } catch (IOException ioe) {
             if (fos != null) try { fos.close(); } catch (Exception e) {}
 
@@ -192,58 +277,90 @@ public class FileObjectCache implements ObjectCache,
 
     /** get a list of all the objects in the cache of the specified
      * type. If type is null, all objects are returned. */
-    public synchronized CachedObject[] getObjects(String type) {
-        int[] allIDs = getObjectIDs();
-
-        int len = allIDs.length;
-        CachedObject[] objects = new CachedObject[len];
-
-        for (int i = len;  i-- > 0; ) {
-            CachedObject co = getCachedObject(allIDs[i], -1);
-            if (co == null || (type != null && !type.equals(co.getType()))) {
-                len--;
-                objects[i] = null;
-            } else
-                objects[i] = co;
+    public CachedObject[] getObjects(String type) {
+        int[] ids = getObjectIDs(type);
+        List<CachedObject> results = new ArrayList<CachedObject>(ids.length);
+        for (int id : ids) {
+            CachedObject co = getCachedObject(id, -1);
+            if (co != null)
+                results.add(co);
         }
-
-        CachedObject[] results = new CachedObject[len];
-        if (len == 0) return results;
-
-        for (int i = objects.length;   i-- > 0; )
-            if (objects[i] != null)
-                results[--len] = objects[i];
-        return results;
+        return results.toArray(new CachedObject[results.size()]);
     }
 
 
     /** get a list of ids for all the objects in the cache. */
-    public synchronized int[] getObjectIDs() {
+    public int[] getObjectIDs() {
+        // this does not hold the lock, so an object that is being stored
+        // may be present only as a backup file.  Include those as well.
         String[] filenames = directory.list(new Filter());
-        int[] results = new int[filenames.length];
+        SortedSet<Integer> ids = new TreeSet<Integer>();
         for (int i = filenames.length;   i-- > 0; ) try {
             String num = filenames[i];
+            if (num.startsWith(BACKUP_PREFIX))
+                num = num.substring(BACKUP_PREFIX.length());
             num = num.substring(0, num.length()-extension.length());
-            results[i] = Integer.parseInt(num);
+            ids.add(Integer.parseInt(num));
         } catch (Exception e) {
-            results[i] = -1;
+            ids.add(-1);
         }
+
+        int[] results = new int[ids.size()];
+        int i = 0;
+        for (Integer id : ids)
+            results[i++] = id;
         return results;
     }
 
     /** get a list of ids for all the objects in the cache of the
      * specified type. If type is null, all objects are returned. */
     public int[] getObjectIDs(String type) {
-        if (type == null) return getObjectIDs();
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Map.Entry<Integer, String> e : getTypeIndex().entrySet()) {
+            if (type == null || type.equals(e.getValue()))
+                ids.add(e.getKey());
+        }
+        Collections.sort(ids);
 
-        CachedObject[] objects = getObjects(type);
-        int len = objects.length;
-        int[] results = new int[len];
-        for (int i = objects.length;   i-- > 0; )
-            results[i] = objects[i].getID();
+        int[] results = new int[ids.size()];
+        for (int i = results.length;   i-- > 0; )
+            results[i] = ids.get(i);
         return results;
     }
 
+    /** Return the index of object types, building it if necessary.  The
+     * index is built without holding the lock, and is built again if an
+     * object was stored or deleted in the meantime. */
+    private Map<Integer, String> getTypeIndex() {
+        Map<Integer, String> result;
+        while ((result = typeIndex) == null) {
+            int startCount;
+            synchronized (this) {
+                startCount = changeCount;
+            }
+
+            Map<Integer, String> index =
+                new ConcurrentHashMap<Integer, String>();
+            for (int id : getObjectIDs()) {
+                Element xml = readCachedXML(id);
+                CachedObject co = (xml == null ? null : openXML(id, xml));
+                if (co != null)
+                    index.put(id, getIndexType(co));
+            }
+
+            synchronized (this) {
+                if (typeIndex == null && changeCount == startCount)
+                    typeIndex = index;
+            }
+        }
+        return result;
+    }
+
+    private static String getIndexType(CachedObject obj) {
+        String type = obj.getType();
+        return (type == null ? "" : type);
+    }
+
 
     /** Encapsulate the file naming logic in one place. */
     protected File makeFile(int id) {
@@ -256,13 +373,17 @@ public class FileObjectCache implements ObjectCache,
         return new File(directory, BACKUP_PREFIX + id + extension);
     }
 
-    /** FilenameFilter which locates files with the correct extension. */
+    static final int MAX_RECENT_OBJECTS = Integer.getInteger(
+        FileObjectCache.class.getName() + ".maxRecentObjects", 50)
+            .intValue();
+
+    /** FilenameFilter which locates object files with the correct
+     * extension, and their backups. */
     private class Filter implements FilenameFilter {
         public boolean accept(File dir, String name) {
             return
                 name.endsWith(extension) &&
-                !name.endsWith("d" + extension) &&
-                !name.startsWith(RobustFileOutputStream.BACKUP_PREFIX);
+                !name.endsWith("d" + extension);
         }
     }
 }
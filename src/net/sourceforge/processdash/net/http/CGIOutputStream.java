@@ -24,11 +24,8 @@
 package net.sourceforge.processdash.net.http;
 
 
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringReader;
@@ -36,13 +33,18 @@ import java.io.StringReader;
 import javax.servlet.http.HttpServletResponse;
 
 import net.sourceforge.processdash.util.FileUtils;
-import net.sourceforge.processdash.util.TempFileFactory;
 
 
 /**
  * This class acts as an OutputStream for a TinyCGI script. As the script writes
  * data to this stream in CGI format, this object interprets the headers and
  * content and repeats the information to a standard HttpServletResponse object.
+ * 
+ * In {@link #NORMAL} mode, the entire response is buffered in memory so it
+ * can be sent with a Content-Length header. In {@link #LARGE} mode, only a
+ * fixed window of content is buffered; if the response outgrows the window,
+ * the headers are committed and the content is streamed to the client with
+ * chunked encoding. In {@link #STREAMING} mode, nothing is buffered.
  */
 public class CGIOutputStream extends OutputStream {
 
@@ -59,8 +61,9 @@ public class CGIOutputStream extends OutputStream {
     private ByteArrayOutputStream headerBuffer;
     private byte[] last4HeaderBytes = new byte[4];
 
-    private OutputStream contentBuffer;
-    private File largeOutputFile;
+    private ByteArrayOutputStream contentBuffer;
+    private boolean committed;
+    private int peakBufferSize;
 
     /**
      * Create a new CGI output stream.
@@ -85,20 +88,25 @@ public class CGIOutputStream extends OutputStream {
         if (inHeader)
             writeHeaderByte(b);
         else
-            writeContentByte(b);
+            writeContent(b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (inHeader && len > 0) {
+            writeHeaderByte(b[off++]);
+            len--;
+        }
+        if (len > 0)
+            writeContent(b, off, len);
     }
 
     public void cleanup() {
         FileUtils.safelyClose(contentBuffer);
-
-        if (largeOutputFile != null)
-            largeOutputFile.delete();
+        contentBuffer = null;
     }
 
     public void finish() throws IOException {
-        FileUtils.safelyClose(contentBuffer);
-
-        if (!isStreaming) {
+        if (!isStreaming && !committed) {
             sendHeader();
             sendContent();
         }
@@ -106,32 +114,29 @@ public class CGIOutputStream extends OutputStream {
         out.flush();
     }
 
+    /**
+     * @return the largest number of content bytes that were held in memory
+     *         at any one time while this response was being generated
+     */
+    public int getPeakBufferSize() {
+        return peakBufferSize;
+    }
+
     private void sendContent() throws IOException {
-        if (contentBuffer instanceof ByteArrayOutputStream) {
-            ByteArrayOutputStream buf = (ByteArrayOutputStream) contentBuffer;
-            if (buf.size() > 0)
-                buf.writeTo(out);
+        if (contentBuffer != null) {
+            if (contentBuffer.size() > 0)
+                contentBuffer.writeTo(out);
             contentBuffer = null;
-
-        } else if (largeOutputFile != null){
-            if (largeOutputFile.length() > 0)
-                FileUtils.copyFile(largeOutputFile, out);
-            largeOutputFile.delete();
-            largeOutputFile = null;
         }
     }
 
     private int getContentLength() {
-        if (contentBuffer instanceof ByteArrayOutputStream)
-            return ((ByteArrayOutputStream) contentBuffer).size();
-        if (largeOutputFile != null)
-            return (int) largeOutputFile.length();
+        if (contentBuffer != null && !committed)
+            return contentBuffer.size();
         return -1;
     }
 
     public void flush() throws IOException {
-        if (contentBuffer != null)
-            contentBuffer.flush();
         if (isStreaming)
             out.flush();
     }
@@ -148,11 +153,7 @@ public class CGIOutputStream extends OutputStream {
     private void prepForContent() throws IOException {
         if (isStreaming)
             sendHeader();
-        else if (isLarge) {
-            largeOutputFile = TempFileFactory.get().createTempFile("cgi", null);
-            contentBuffer = new BufferedOutputStream(new FileOutputStream(
-                    largeOutputFile));
-        } else
+        else
             contentBuffer = new ByteArrayOutputStream();
     }
 
@@ -169,11 +170,45 @@ public class CGIOutputStream extends OutputStream {
                 last4HeaderBytes[3] == '\n');
     }
 
-    private void writeContentByte(int b) throws IOException {
-        if (isStreaming)
+    private void writeContent(int b) throws IOException {
+        if (isStreaming || committed) {
             out.write(b);
-        else
+        } else {
             contentBuffer.write(b);
+            contentWritten();
+        }
+    }
+
+    private void writeContent(byte[] b, int off, int len) throws IOException {
+        // if this write would push a large response past its window, start
+        // streaming before the bytes are copied into the buffer.
+        if (isLarge && !committed
+                && contentBuffer.size() + len > LARGE_WINDOW_SIZE)
+            commitLargeResponse();
+
+        if (isStreaming || committed) {
+            out.write(b, off, len);
+        } else {
+            contentBuffer.write(b, off, len);
+            contentWritten();
+        }
+    }
+
+    private void contentWritten() throws IOException {
+        int size = contentBuffer.size();
+        if (size > peakBufferSize)
+            peakBufferSize = size;
+
+        // if a large response has outgrown its window, commit the headers
+        // and stream the remaining content to the client.
+        if (isLarge && size > LARGE_WINDOW_SIZE)
+            commitLargeResponse();
+    }
+
+    private void commitLargeResponse() throws IOException {
+        committed = true;
+        sendHeader();
+        sendContent();
     }
 
 
@@ -214,6 +249,8 @@ public class CGIOutputStream extends OutputStream {
         // based on the headers read, send a response back
         if (location != null) {
             resp.sendRedirect(location);
+        } else if (status == HttpServletResponse.SC_NOT_MODIFIED) {
+            resp.setStatus(status);
         } else if (status > 0) {
             resp.sendError(status, statusString);
         } else {
@@ -248,4 +285,8 @@ public class CGIOutputStream extends OutputStream {
         return result;
     }
 
+    private static final int LARGE_WINDOW_SIZE = Integer.getInteger(
+        CGIOutputStream.class.getName() + ".largeWindowSize", 256 * 1024)
+            .intValue();
+
 }
@@ -28,13 +28,19 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -75,6 +81,7 @@ public class HTMLPreprocessor {
     boolean foreachParams = true;
     String defaultEchoEncoding = null;
     LinkedList resources;
+    Map<String, Future<byte[]>> prefetchedIncludes;
 
 
     public HTMLPreprocessor(ContentSource web, DataContext data, Map env) {
@@ -104,15 +111,90 @@ public class HTMLPreprocessor {
 
     /** preprocess the given content, and return the result. */
     public String preprocess(String content) throws IOException {
+        return preprocess(content, null, 0);
+    }
+
+    /** preprocess content that was read from a named template, and return
+     * the result.
+     * 
+     * The template is parsed once into a list of top-level directives, and
+     * cached under the given name along with its modification time.  Later
+     * calls for the same unmodified template reuse the parsed form, so the
+     * literal text is copied through untouched and only the directives are
+     * evaluated again.
+     * 
+     * @param content the text of the template
+     * @param templateName a name that uniquely identifies the template (for
+     *     example, its URI), or null if the content should not be cached
+     * @param lastModified the modification time of the template, or 0 if
+     *     unknown
+     */
+    public String preprocess(String content, String templateName,
+            long lastModified) throws IOException {
+        if (templateName == null || hasEagerReplacements())
+            return processDirectives(parseBlocks(content));
+
+        long start = System.nanoTime();
+        String result;
+        if (lastModified == 0) {
+            // without a modification time, we can't tell whether a cached
+            // parse is still current.
+            result = processDirectives(parseBlocks(content));
+        } else {
+            ParsedTemplate template = getParsedTemplate(templateName,
+                lastModified, content);
+            result = (template.text == null ? content
+                    : processTemplate(template));
+        }
+        TEMPLATE_METRICS.recordRender(templateName, System.nanoTime() - start);
+        return result;
+    }
+
+    /** Create a buffer holding the given content, with eager replacements
+     * applied and directive blocks numbered. */
+    private StringBuffer parseBlocks(String content) {
         StringBuffer text = new StringBuffer(content);
-        cachedTestExpressions.clear();
         maybePerformEagerReplacements(text);
 
         numberBlocks(text, "foreach", "endfor", null, null);
         numberBlocks(text, "fortree", "endtree", null, null);
         numberBlocks(text, "if", "endif", "else", "elif");
         numberBlocks(text, "replace", "endreplace", null, null);
+        return text;
+    }
 
+    /** Evaluate all of the directives in a block-numbered buffer */
+    private String processDirectives(StringBuffer text) throws IOException {
+        cachedTestExpressions.clear();
+        prefetchIncludes(findPrefetchableIncludes(text));
+        evaluateDirectives(text);
+        return text.toString();
+    }
+
+    /** Evaluate the directives in a parsed template */
+    private String processTemplate(ParsedTemplate template)
+            throws IOException {
+        cachedTestExpressions.clear();
+        prefetchIncludes(template.prefetchableIncludes);
+
+        String text = template.text;
+        int[] spans = template.directiveSpans;
+        StringBuffer result = new StringBuffer(text.length());
+        int pos = 0;
+        for (int i = 0; i < spans.length; i += 2) {
+            result.append(text, pos, spans[i]);
+            StringBuffer directive = new StringBuffer(spans[i + 1] - spans[i]);
+            directive.append(text, spans[i], spans[i + 1]);
+            evaluateDirectives(directive);
+            result.append(directive);
+            pos = spans[i + 1];
+        }
+        result.append(text, pos, text.length());
+        return result.toString();
+    }
+
+    /** Evaluate, in order, all of the directives in a buffer */
+    private void evaluateDirectives(StringBuffer text) throws IOException {
         DirectiveMatch dir;
         int pos = 0;
         while ((dir = new DirectiveMatch(text, "", pos, true)).matches()) {
@@ -140,12 +222,15 @@ public class HTMLPreprocessor {
                 dir.replace("");
             pos = dir.end;
         }
-        return text.toString();
     }
 
 
+    private boolean hasEagerReplacements() {
+        return env.get(REPLACEMENTS_PARAM) instanceof Map;
+    }
+
     private void maybePerformEagerReplacements(StringBuffer text) {
-        if (env.get(REPLACEMENTS_PARAM) instanceof Map) {
+        if (hasEagerReplacements()) {
             Map replacements = (Map) env.get(REPLACEMENTS_PARAM);
             for (Iterator i = replacements.entrySet().iterator(); i.hasNext();) {
                 Map.Entry e = (Map.Entry) i.next();
@@ -171,7 +256,7 @@ public class HTMLPreprocessor {
             // replace the include directive with its contents.
             String context = (String) env.get("REQUEST_URI");
             String incText = new String
-                (web.getContent(context, url, false), "UTF-8");
+                (getIncludeContent(context, url, include), "UTF-8");
 
             // If the page author wants us to extract only a certain piece of
             // the file, discard the rest.
@@ -190,6 +275,88 @@ public class HTMLPreprocessor {
         }
     }
 
+    /** Find the cacheable includes at the top level of the page.
+     * 
+     * Includes marked with the "cacheable" attribute promise that they have
+     * no side effects, so they can be generated concurrently, in any order.
+     * Includes that appear inside a block are not fetched in advance, since
+     * their URLs might change (or they might not be needed at all) by the
+     * time the block is evaluated.
+     */
+    private List<String> findPrefetchableIncludes(StringBuffer text) {
+        List<String> result = new ArrayList<String>();
+        int depth = 0;
+        DirectiveMatch dir;
+        int pos = 0;
+        while ((dir = new DirectiveMatch(text, "", pos, true)).matches()) {
+            pos = dir.end;
+            String name = dir.directive;
+            if (blockMatch("endfor", name) || blockMatch("endtree", name)
+                    || blockMatch("endif", name)
+                    || blockMatch("endreplace", name))
+                depth--;
+            else if (blockMatch("else", name) || blockMatch("elif", name))
+                ;
+            else if (blockMatch("foreach", name)
+                    || blockMatch("fortree", name) || blockMatch("if", name)
+                    || blockMatch("replace", name))
+                depth++;
+            else if (depth == 0 && "include".equals(name)
+                    && dir.getAttribute(CACHEABLE_ATTR) != null
+                    && !hasTrailingParam(dir)) {
+                String url = dir.getAttribute("file");
+                if (!isNull(url) && !result.contains(url))
+                    result.add(url);
+            }
+        }
+        return result;
+    }
+
+    /** Begin fetching the given cacheable includes. */
+    private void prefetchIncludes(List<String> urls) {
+        prefetchedIncludes = new HashMap<String, Future<byte[]>>();
+        if (!(web instanceof WebServer))
+            return;
+
+        String context = (String) env.get("REQUEST_URI");
+        for (String url : urls) {
+            try {
+                prefetchedIncludes.put(url, ((WebServer) web)
+                        .getCachedContentAsync(context, url));
+            } catch (IOException ioe) {
+                // the include will be retried, and the error reported,
+                // when the directive is processed.
+            }
+        }
+    }
+
+    /** Retrieve the content for an include directive */
+    private byte[] getIncludeContent(String context, String url,
+            DirectiveMatch include) throws IOException {
+        Future<byte[]> prefetched = prefetchedIncludes.remove(url);
+        if (prefetched != null) {
+            try {
+                return prefetched.get();
+            } catch (InterruptedException ie) {
+                throw new IOException(ie);
+            } catch (ExecutionException ee) {
+                if (ee.getCause() instanceof IOException)
+                    throw (IOException) ee.getCause();
+                else
+                    throw new IOException(ee.getCause());
+            }
+
+        } else if (include.getAttribute(CACHEABLE_ATTR) != null
+                && web instanceof WebServer) {
+            return ((WebServer) web).getCachedContent(context, url);
+
+        } else {
+            return web.getContent(context, url, false);
+        }
+    }
+
+    private static final String CACHEABLE_ATTR = "cacheable";
+
     private String appendFileParameters(String url, DirectiveMatch include) {
         while (hasTrailingParam(include)) {
             DirectiveMatch param = new DirectiveMatch(include.buf, "parameter",
@@ -1369,6 +1536,156 @@ public class HTMLPreprocessor {
     }
 
 
+    /** Look up the parsed form of a template in the cache, parsing the
+     * content and caching the result if necessary.
+     */
+    private ParsedTemplate getParsedTemplate(String templateName,
+            long lastModified, String content) {
+        ParsedTemplate result = TEMPLATE_CACHE.get(templateName);
+        if (result != null && result.lastModified == lastModified) {
+            TEMPLATE_METRICS.recordHit();
+        } else {
+            TEMPLATE_METRICS.recordMiss();
+            result = parseTemplate(lastModified, content);
+            TEMPLATE_CACHE.put(templateName, result);
+        }
+        return result;
+    }
+
+    /** Number the blocks in a template, and find the spans of text occupied
+     * by each of its top-level directives.
+     */
+    private ParsedTemplate parseTemplate(long lastModified, String content) {
+        if (content.indexOf(DIRECTIVE_START) == -1)
+            return new ParsedTemplate(lastModified, null, new int[0],
+                    Collections.<String>emptyList());
+
+        StringBuffer text = parseBlocks(content);
+        List<Integer> spans = new ArrayList<Integer>();
+        DirectiveMatch dir;
+        int pos = 0;
+        while ((dir = new DirectiveMatch(text, "", pos, true)).matches()) {
+            int end = getSpanEnd(dir);
+
+            // directives nested within the span can reach past its end (for
+            // example, a break inside an if block), so extend the span to
+            // cover everything they might touch.
+            DirectiveMatch nested;
+            int nestedPos = dir.end;
+            while ((nested = new DirectiveMatch(text, "", nestedPos, true))
+                    .matches() && nested.begin < end) {
+                end = Math.max(end, getSpanEnd(nested));
+                nestedPos = nested.end;
+            }
+
+            spans.add(dir.begin);
+            spans.add(end);
+            pos = end;
+        }
+
+        int[] directiveSpans = new int[spans.size()];
+        for (int i = 0; i < directiveSpans.length; i++)
+            directiveSpans[i] = spans.get(i);
+        return new ParsedTemplate(lastModified, text.toString(),
+                directiveSpans, findPrefetchableIncludes(text));
+    }
+
+    /** Find the end of the text that evaluating a directive could modify */
+    private int getSpanEnd(DirectiveMatch dir) {
+        String name = dir.directive;
+        if ("echo".equals(name))
+            return dir.end;
+        else if ("include".equals(name)) {
+            // a parsed include inserts text that could reach anywhere
+            if (dir.getAttribute("parse") != null)
+                return dir.buf.length();
+            int end = dir.end;
+            DirectiveMatch param;
+            while ((param = new DirectiveMatch(dir.buf, "parameter", end,
+                    true)).matches()
+                    && StringUtils.isWhiteSpace(dir.buf.subSequence(end,
+                        param.begin)))
+                end = param.end;
+            return end;
+        } else if (blockMatch("foreach", name))
+            return getEndDirectiveEnd(dir, blockNum("foreach", name)
+                    + "endfor");
+        else if (blockMatch("if", name))
+            return getEndDirectiveEnd(dir, blockNum("if", name) + "endif");
+        else if ("set".equals(name)) {
+            if (dir.getAttribute("value") == null
+                    && dir.getAttribute("inline") != null)
+                return getEndDirectiveEnd(dir, "endset");
+        } else if ("break".equals(name))
+            return getEndDirectiveEnd(dir, "endbreak " + cleanup(dir.contents));
+        else if (blockMatch("replace", name))
+            return getEndDirectiveEnd(dir, blockNum("replace", name)
+                    + "endreplace");
+        else if (blockMatch("fortree", name))
+            return getEndDirectiveEnd(dir, blockNum("fortree", name)
+                    + "endtree");
+        return dir.end;
+    }
+
+    private int getEndDirectiveEnd(DirectiveMatch dir, String endDirective) {
+        DirectiveMatch end = new DirectiveMatch(dir.buf, endDirective,
+                dir.end, true);
+        return (end.matches() ? end.end : dir.end);
+    }
+
+
+    /** The parsed form of a template.
+     */
+    private static class ParsedTemplate {
+
+        /** the modification time of the template */
+        final long lastModified;
+
+        /** the template text with directive blocks numbered, or null if
+         * the template contains no directives */
+        final String text;
+
+        /** the begin and end offsets in the text of each top-level
+         * directive.  A block directive spans through its matching end
+         * directive, and an include spans the parameters that follow it. */
+        final int[] directiveSpans;
+
+        /** the cacheable includes at the top level of the template */
+        final List<String> prefetchableIncludes;
+
+        ParsedTemplate(long lastModified, String text, int[] directiveSpans,
+                List<String> prefetchableIncludes) {
+            this.lastModified = lastModified;
+            this.text = text;
+            this.directiveSpans = directiveSpans;
+            this.prefetchableIncludes = prefetchableIncludes;
+        }
+    }
+
+    private static final int TEMPLATE_CACHE_SIZE = Integer.getInteger(
+        HTMLPreprocessor.class.getName() + ".templateCacheSize", 200)
+            .intValue();
+
+    private static final Map<String, ParsedTemplate> TEMPLATE_CACHE = Collections
+            .synchronizedMap(new LinkedHashMap<String, ParsedTemplate>(16,
+                    0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, ParsedTemplate> eldest) {
+                    return size() > TEMPLATE_CACHE_SIZE;
+                }
+            });
+
+    private static final TemplateCacheMetrics TEMPLATE_METRICS =
+            new TemplateCacheMetrics(TEMPLATE_CACHE, TEMPLATE_CACHE_SIZE);
+
+    /** @return statistics about the reuse of parsed templates, and the time
+     *     spent rendering them */
+    public static TemplateCacheMetrics getTemplateCacheMetrics() {
+        return TEMPLATE_METRICS;
+    }
+
+
     private static Map parseParameters(String params) {
         Map result = new HashMap();
         try {
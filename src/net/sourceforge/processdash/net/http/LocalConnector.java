@@ -55,6 +55,11 @@ public class LocalConnector extends AbstractConnector {
     static final String EXTRA_ENVIRONMENT_KEY = LocalConnector.class.getName()
             + ".extraEnvironment";
 
+    static final String NESTING_DEPTH_KEY = LocalConnector.class.getName()
+            + ".nestingDepth";
+
+    private static final int MAX_NESTING_DEPTH = 50;
+
     private static final String LOCAL_ORIGIN = "http://"
             + LocalConnector.class.getName();
 
@@ -66,12 +71,33 @@ public class LocalConnector extends AbstractConnector {
 
     public ByteArrayBuffer getResponse(String uri, int port, Map extraEnv)
             throws Exception {
+        return getResponse(uri, port, extraEnv, getCurrentRequest());
+    }
+
+    /**
+     * @return the request that is currently being handled by this thread, or
+     *         null if this thread is not handling a request
+     */
+    static Request getCurrentRequest() {
         // get the current, previously active connection if one exists
         AbstractHttpConnection conn = AbstractHttpConnection
                 .getCurrentConnection();
+        return (conn == null ? null : conn.getRequest());
+    }
 
-        // Identify the effective server name for this request
-        Request parentRequest = (conn == null ? null : conn.getRequest());
+    /**
+     * Execute a request on behalf of a given parent request. This allows a
+     * request to be made from a thread other than the one that is handling
+     * the parent request.
+     */
+    public ByteArrayBuffer getResponse(String uri, int port, Map extraEnv,
+            Request parentRequest) throws Exception {
+        // internal requests can trigger other internal requests. Keep track
+        // of how deeply this chain of requests is nested, so we can abort
+        // if a page (directly or indirectly) includes itself.
+        int nestingDepth = getNestingDepth(parentRequest) + 1;
+        if (nestingDepth > MAX_NESTING_DEPTH)
+            throw new IOException("Infinite recursion - aborting.");
 
         // construct an HTTP request for this data
         StringBuilder requestHeader = new StringBuilder();
@@ -86,11 +112,17 @@ public class LocalConnector extends AbstractConnector {
         ByteArrayBuffer requestBuffer = new ByteArrayBuffer(
                 requestHeader.toString(), StringUtil.__ISO_8859_1);
         LocalRequest request = new LocalRequest(requestBuffer, extraEnv,
-                parentRequest, false);
+                parentRequest, nestingDepth, false);
         AccessController.doPrivileged(request);
         return request.getResponsesBuffer();
     }
 
+    private static int getNestingDepth(Request request) {
+        Object depth = (request == null ? null
+                : request.getAttribute(NESTING_DEPTH_KEY));
+        return (depth instanceof Integer ? (Integer) depth : 0);
+    }
+
     private void copyHeader(StringBuilder dest, Request parentRequest,
             String headerName, String noParentValue) {
         String value = (parentRequest == null ? noParentValue
@@ -127,6 +159,8 @@ public class LocalConnector extends AbstractConnector {
 
         private Request _parentRequest;
 
+        private final int _nestingDepth;
+
         private final boolean _keepOpen;
 
         private volatile ByteArrayBuffer _responsesBuffer;
@@ -134,10 +168,11 @@ public class LocalConnector extends AbstractConnector {
         private IOException _exception;
 
         private LocalRequest(ByteArrayBuffer requestsBuffer, Map extraEnv,
-                Request parentRequest, boolean keepOpen) {
+                Request parentRequest, int nestingDepth, boolean keepOpen) {
             _requestsBuffer = requestsBuffer;
             _extraEnv = extraEnv;
             _parentRequest = parentRequest;
+            _nestingDepth = nestingDepth;
             _keepOpen = keepOpen;
         }
 
@@ -150,6 +185,7 @@ public class LocalConnector extends AbstractConnector {
             Request request = connection.getRequest();
             request.setAttribute(PARENT_REQUEST_KEY, _parentRequest);
             request.setAttribute(EXTRA_ENVIRONMENT_KEY, _extraEnv);
+            request.setAttribute(NESTING_DEPTH_KEY, _nestingDepth);
             endPoint.setConnection(connection);
             connectionOpened(connection);
 
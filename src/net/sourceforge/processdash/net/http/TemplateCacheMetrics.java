@@ -0,0 +1,135 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.net.http;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Statistics about the parsed templates cached by the
+ * {@link HTMLPreprocessor}.
+ * <p>
+ * A hit is a request for a template whose parsed form was already cached
+ * and still current; a miss is a request that required the template to be
+ * parsed.  Render times are tracked separately for each template, and
+ * include the time spent evaluating the template's directives.
+ */
+public class TemplateCacheMetrics {
+
+    private Map cachedTemplates;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private Map<String, long[]> renderStats;
+
+
+    TemplateCacheMetrics(Map cachedTemplates, final int maxTemplates) {
+        this.cachedTemplates = cachedTemplates;
+        this.renderStats = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, long[]> e) {
+                return size() > maxTemplates;
+            }
+        };
+    }
+
+    synchronized void recordHit() {
+        hitCount++;
+    }
+
+    synchronized void recordMiss() {
+        missCount++;
+    }
+
+    synchronized void recordRender(String templateName, long nanos) {
+        long[] stats = renderStats.get(templateName);
+        if (stats == null)
+            renderStats.put(templateName, stats = new long[2]);
+        stats[0]++;
+        stats[1] += nanos;
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("Rendered " + templateName + " in "
+                    + (nanos / 1000000) + " ms (" + stats[0]
+                    + " renders, average " + (stats[1] / stats[0] / 1000000)
+                    + " ms)");
+    }
+
+
+    /** @return the number of parsed templates currently cached */
+    public int getCachedTemplateCount() {
+        return cachedTemplates.size();
+    }
+
+    /** @return the number of requests that reused a cached template */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /** @return the number of requests that had to parse a template */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /** @return the fraction of requests that reused a cached template */
+    public synchronized double getHitRate() {
+        long total = hitCount + missCount;
+        return (total == 0 ? 0 : (double) hitCount / total);
+    }
+
+    /** @return the names of the templates with recorded render times */
+    public synchronized List<String> getTemplateNames() {
+        return new ArrayList<String>(renderStats.keySet());
+    }
+
+    /** @return the number of times the named template has been rendered */
+    public synchronized long getRenderCount(String templateName) {
+        long[] stats = renderStats.get(templateName);
+        return (stats == null ? 0 : stats[0]);
+    }
+
+    /** @return the average time, in milliseconds, spent rendering the named
+     *     template */
+    public synchronized double getAverageRenderMillis(String templateName) {
+        long[] stats = renderStats.get(templateName);
+        return (stats == null || stats[0] == 0 ? 0
+                : stats[1] / 1000000.0 / stats[0]);
+    }
+
+    public synchronized String toString() {
+        return "cachedTemplates=" + getCachedTemplateCount() //
+                + ", hits=" + hitCount //
+                + ", misses=" + missCount //
+                + ", hitRate=" + getHitRate();
+    }
+
+    private static final Logger logger = Logger
+            .getLogger(TemplateCacheMetrics.class.getName());
+
+}
@@ -121,6 +121,7 @@ public class TextPreprocessingHandlerServlet extends HttpServlet {
         Map env = PDashServletUtils.buildEnvironment(req);
 
         // read the original resource as a string
+        long lastModified = conn.getLastModified();
         ByteArrayOutputStream rawBytes = new ByteArrayOutputStream(Math.max(
             numBytes, conn.getContentLength()));
         rawBytes.write(buffer, 0, numBytes);
@@ -140,7 +141,7 @@ public class TextPreprocessingHandlerServlet extends HttpServlet {
             p.setDefaultEchoEncoding("html");
         else
             p.setEchoBareParams(false);
-        content = p.preprocess(content);
+        content = p.preprocess(content, uri, lastModified);
         byte[] resultBytes = content.getBytes("utf-8");
 
         if (contentType != null)
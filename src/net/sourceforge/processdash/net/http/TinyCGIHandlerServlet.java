@@ -29,6 +29,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -42,6 +44,9 @@ public class TinyCGIHandlerServlet extends HttpServlet {
 
     private String hardcodedLinkContents;
 
+    private Map<String, ResolvedLink> resolvedLinks =
+            new ConcurrentHashMap<String, ResolvedLink>();
+
     @Override
     public void init(ServletConfig config) throws ServletException {
         super.init(config);
@@ -63,20 +68,62 @@ public class TinyCGIHandlerServlet extends HttpServlet {
     protected void handleLink(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
 
-        // open the link file which describes this CGI script
-        BufferedReader linkContents = getLinkContents(req);
-        if (linkContents == null) {
-            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
-            return;
+        // find the CGI script described by the link file
+        String key = (hardcodedLinkContents != null ? "" : req
+                .getServletPath());
+        int generation = TEMPLATE_GENERATION.get();
+        ResolvedLink link = resolvedLinks.get(key);
+        if (link != null && link.generation != generation) {
+            // the templates have been reloaded since this link was resolved,
+            // so the link file or the script class may have changed
+            resolvedLinks.clear();
+            link = null;
+        }
+        if (link == null) {
+            // open the link file which describes this CGI script
+            BufferedReader linkContents = getLinkContents(req);
+            if (linkContents == null) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+
+            // parse the link file, and remember the result if the script
+            // class was found
+            link = new ResolvedLink(req.getServletPath(),
+                    getScriptClass(linkContents),
+                    parseLinkParameters(linkContents), generation);
+            if (link.scriptClass != null)
+                resolvedLinks.put(key, link);
         }
 
-        // build the CGI environment and parse the link file
+        // build the CGI environment, and add the parameters from the link
         Map env = PDashServletUtils.buildEnvironment(req);
-        TinyCGI script = getScript(req, linkContents);
-        parseLinkParameters(env, linkContents);
+        addLinkParameters(env, link.linkQuery);
 
         // run the script
-        runScript(req, resp, env, script);
+        long start = System.nanoTime();
+        int peakBufferSize = -1;
+        try {
+            peakBufferSize = runScript(req, resp, env, link.getScript(),
+                link.outputMode);
+        } finally {
+            METRICS.recordRequest(link.uri, System.nanoTime() - start,
+                peakBufferSize);
+        }
+    }
+
+
+    /**
+     * Discard the links resolved by all servlet instances. This is called
+     * when the web server reloads its templates.
+     */
+    static void templatesReloaded() {
+        TEMPLATE_GENERATION.incrementAndGet();
+    }
+
+    /** @return statistics about the TinyCGI requests that have been handled */
+    public static TinyCGIMetrics getMetrics() {
+        return METRICS;
     }
 
 
@@ -104,9 +151,9 @@ public class TinyCGIHandlerServlet extends HttpServlet {
 
 
     /**
-     * Retrieve a TinyCGI script object named by the ".link" file
+     * Retrieve the TinyCGI script class named by the ".link" file
      */
-    private TinyCGI getScript(HttpServletRequest req, BufferedReader link) {
+    private Class getScriptClass(BufferedReader link) {
         try {
             // read the first line of the link file, which names the CGI class
             String linkTarget = link.readLine();
@@ -117,7 +164,9 @@ public class TinyCGIHandlerServlet extends HttpServlet {
                     .trim();
             ClassLoader cl = Thread.currentThread().getContextClassLoader();
             Class clazz = Class.forName(className, true, cl);
-            return (TinyCGI) clazz.newInstance();
+            if (!TinyCGI.class.isAssignableFrom(clazz))
+                throw new ClassCastException(className);
+            return clazz;
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -127,10 +176,10 @@ public class TinyCGIHandlerServlet extends HttpServlet {
 
 
     /**
-     * Parse the parameters specified in the link file, and add them to the
-     * QUERY_STRING in the environment
+     * Parse the parameters specified in the link file, and return them as an
+     * encoded query string (or null if the link file has no parameters).
      */
-    private void parseLinkParameters(Map env, BufferedReader linkContents)
+    private String parseLinkParameters(BufferedReader linkContents)
             throws IOException {
         StringBuilder query = new StringBuilder();
         String param;
@@ -157,31 +206,43 @@ public class TinyCGIHandlerServlet extends HttpServlet {
             }
         }
 
-        if (query.length() != 0) {
-            // merge the newly constructed query parameters with
-            // the existing query string.
+        linkContents.close();
+        return (query.length() == 0 ? null : query.substring(1));
+    }
+
+
+    /**
+     * Add the parameters specified in the link file to the QUERY_STRING in
+     * the environment
+     */
+    private void addLinkParameters(Map env, String linkQuery) {
+        if (linkQuery != null) {
+            // merge the link parameters with the existing query string.
             String existingQuery = (String) env.get("QUERY_STRING");
+            String query = linkQuery;
             if (existingQuery != null)
-                query.append("&").append(existingQuery);
+                query = query + "&" + existingQuery;
 
             // save the resulting query string into the environment
             // for this thread.
-            env.put("QUERY_STRING", query.substring(1));
+            env.put("QUERY_STRING", query);
         }
-
-        linkContents.close();
     }
 
 
     /**
      * Run the TinyCGI script for the given request
+     * 
+     * @return the peak number of content bytes buffered in memory while the
+     *         response was generated
      */
-    private void runScript(HttpServletRequest req, HttpServletResponse resp,
-            Map env, TinyCGI script) throws IOException, ServletException {
+    private int runScript(HttpServletRequest req, HttpServletResponse resp,
+            Map env, TinyCGI script, int outputMode) throws IOException,
+            ServletException {
         if (script == null) {
             resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
                 "Couldn't load script for server shortcut.");
-            return;
+            return 0;
         }
 
         // Run the cgi script, and capture the results.
@@ -189,7 +250,7 @@ public class TinyCGIHandlerServlet extends HttpServlet {
         try {
             env.put(HttpServletRequest.class, req);
             env.put(HttpServletResponse.class, resp);
-            cgiOut = new CGIOutputStream(resp, getOutputMode(script));
+            cgiOut = new CGIOutputStream(resp, outputMode);
             script.service(req.getInputStream(), cgiOut, env);
             cgiOut.finish();
 
@@ -197,7 +258,13 @@ public class TinyCGIHandlerServlet extends HttpServlet {
             if (cgiOut != null)
                 cgiOut.cleanup();
 
-            if (cgie instanceof TinyCGIException) {
+            if (cgie instanceof TinyCGIException && resp.isCommitted()) {
+                // if part of a large response has already been streamed to
+                // the client, it is too late to send an error code. Abort
+                // the response instead.
+                throw new IOException(cgie);
+
+            } else if (cgie instanceof TinyCGIException) {
                 // If a CGI script throws a TinyCGIException, send back the
                 // requested HTTP error code.
                 TinyCGIException tce = (TinyCGIException) cgie;
@@ -215,17 +282,65 @@ public class TinyCGIHandlerServlet extends HttpServlet {
                 throw new ServletException(cgie);
             }
         }
+
+        return (cgiOut == null ? 0 : cgiOut.getPeakBufferSize());
     }
 
-    private int getOutputMode(Object script) {
-        if (script instanceof TinyCGIHighVolume)
+    private static int getOutputMode(Class scriptClass) {
+        if (scriptClass == null)
+            return CGIOutputStream.NORMAL;
+        else if (TinyCGIHighVolume.class.isAssignableFrom(scriptClass))
             return CGIOutputStream.LARGE;
-        else if (script instanceof TinyCGIStreaming)
+        else if (TinyCGIStreaming.class.isAssignableFrom(scriptClass))
             return CGIOutputStream.STREAMING;
         else
             return CGIOutputStream.NORMAL;
     }
 
+
+    /**
+     * The parsed contents of a ".link" file.
+     */
+    private static class ResolvedLink {
+
+        String uri;
+
+        Class scriptClass;
+
+        int outputMode;
+
+        String linkQuery;
+
+        /** The template generation when this link was resolved */
+        int generation;
+
+        ResolvedLink(String uri, Class scriptClass, String linkQuery,
+                int generation) {
+            this.uri = uri;
+            this.scriptClass = scriptClass;
+            this.outputMode = getOutputMode(scriptClass);
+            this.linkQuery = linkQuery;
+            this.generation = generation;
+        }
+
+        /** Create a new script instance to handle a request */
+        TinyCGI getScript() {
+            if (scriptClass == null)
+                return null;
+            try {
+                return (TinyCGI) scriptClass.newInstance();
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    /** Incremented each time the web server reloads its templates */
+    private static final AtomicInteger TEMPLATE_GENERATION = new AtomicInteger();
+
+    private static final TinyCGIMetrics METRICS = new TinyCGIMetrics();
+
     static final String LINK_SUFFIX = ".link";
 
     private static final String CGI_LINK_PREFIX = "class:";
@@ -0,0 +1,148 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.net.http;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Statistics about the TinyCGI scripts run by the
+ * {@link TinyCGIHandlerServlet}.
+ * <p>
+ * Requests are counted for each script URI, along with the time spent
+ * running the script and the largest amount of output it buffered. The
+ * overall request rate is measured over the most recent minute.
+ */
+public class TinyCGIMetrics {
+
+    /** The number of seconds the request rate is averaged over */
+    static final int RATE_WINDOW_SECONDS = 60;
+
+    private long requestCount;
+
+    private Map<String, long[]> scriptStats;
+
+    private long[] recentSeconds;
+
+    private int[] recentCounts;
+
+
+    TinyCGIMetrics() {
+        this.scriptStats = new HashMap<String, long[]>();
+        this.recentSeconds = new long[RATE_WINDOW_SECONDS];
+        this.recentCounts = new int[RATE_WINDOW_SECONDS];
+    }
+
+    void recordRequest(String uri, long nanos, int peakBufferSize) {
+        recordRequest(uri, nanos, peakBufferSize, System.currentTimeMillis());
+    }
+
+    synchronized void recordRequest(String uri, long nanos,
+            int peakBufferSize, long now) {
+        requestCount++;
+
+        long second = now / 1000;
+        int slot = (int) (second % RATE_WINDOW_SECONDS);
+        if (recentSeconds[slot] != second) {
+            recentSeconds[slot] = second;
+            recentCounts[slot] = 0;
+        }
+        recentCounts[slot]++;
+
+        long[] stats = scriptStats.get(uri);
+        if (stats == null)
+            scriptStats.put(uri, stats = new long[3]);
+        stats[0]++;
+        stats[1] += nanos;
+        stats[2] = Math.max(stats[2], peakBufferSize);
+
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("Ran " + uri + " in " + (nanos / 1000000)
+                    + " ms, buffering " + peakBufferSize + " bytes ("
+                    + stats[0] + " requests, average "
+                    + (stats[1] / stats[0] / 1000000)
+                    + " ms, largest buffer " + stats[2] + " bytes)");
+    }
+
+
+    /** @return the total number of TinyCGI requests handled */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /** @return the average number of requests per second during the most
+     *     recent minute */
+    public double getRequestRate() {
+        return getRequestRate(System.currentTimeMillis());
+    }
+
+    synchronized double getRequestRate(long now) {
+        long second = now / 1000;
+        int count = 0;
+        for (int i = 0; i < RATE_WINDOW_SECONDS; i++)
+            if (second - recentSeconds[i] < RATE_WINDOW_SECONDS)
+                count += recentCounts[i];
+        return (double) count / RATE_WINDOW_SECONDS;
+    }
+
+    /** @return the URIs of the scripts that have handled requests */
+    public synchronized List<String> getScriptUris() {
+        return new ArrayList<String>(scriptStats.keySet());
+    }
+
+    /** @return the number of requests handled by the script at a URI */
+    public synchronized long getRequestCount(String uri) {
+        long[] stats = scriptStats.get(uri);
+        return (stats == null ? 0 : stats[0]);
+    }
+
+    /** @return the average time, in milliseconds, the script at a URI took
+     *     to handle a request */
+    public synchronized double getAverageMillis(String uri) {
+        long[] stats = scriptStats.get(uri);
+        return (stats == null || stats[0] == 0 ? 0
+                : stats[1] / 1000000.0 / stats[0]);
+    }
+
+    /** @return the largest number of bytes the script at a URI buffered
+     *     while handling a request */
+    public synchronized long getMaxBufferSize(String uri) {
+        long[] stats = scriptStats.get(uri);
+        return (stats == null ? 0 : stats[2]);
+    }
+
+    public synchronized String toString() {
+        return "requests=" + requestCount //
+                + ", requestRate=" + getRequestRate() //
+                + ", scripts=" + scriptStats.size();
+    }
+
+    private static final Logger logger = Logger
+            .getLogger(TinyCGIMetrics.class.getName());
+
+}
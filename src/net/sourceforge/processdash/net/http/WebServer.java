@@ -25,22 +25,33 @@ package net.sourceforge.processdash.net.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.eclipse.jetty.io.ByteArrayBuffer;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.eclipse.jetty.server.handler.HandlerWrapper;
@@ -191,32 +202,66 @@ public class WebServer implements ContentSource {
      */
     public byte[] getRequest(final String uri, boolean skipHeaders,
             Map extraEnvironment) throws IOException {
-        if (internalRequestNesting > 50)
-            throw new IOException("Infinite recursion - aborting.");
+        return getRequest(uri, skipHeaders, extraEnvironment,
+            LocalConnector.getCurrentRequest());
+    }
+
+    private byte[] getRequest(String uri, boolean skipHeaders,
+            Map extraEnvironment, Request parentRequest) throws IOException {
+        ByteArrayBuffer response = executeRequest(uri, extraEnvironment,
+            parentRequest);
+        byte[] buf = response.array();
+        int start = response.getIndex();
+        int len = response.length();
+        if (skipHeaders) {
+            int headerLen = HTTPUtils.getHeaderLength(buf, start, len);
+            start += headerLen;
+            len -= headerLen;
+        }
+
+        if (start == 0 && len == buf.length)
+            return buf;
+        byte[] result = new byte[len];
+        System.arraycopy(buf, start, result, 0, len);
+        return result;
+    }
+
+    /**
+     * Perform an internal http request, and write the body of the response
+     * to the given stream. The response headers are discarded.
+     * 
+     * This avoids the intermediate copies made by the byte array variants of
+     * this method, and is preferable when the response is only going to be
+     * written somewhere else.
+     * 
+     * @param uri the uri of the request, as described for
+     *     {@link #getRequest(String, boolean, Map)}
+     * @param out the stream where the response body should be written
+     * @param extraEnvironment additional environment variables to add to the
+     *     request environment.
+     */
+    public void getRequest(String uri, OutputStream out,
+            Map extraEnvironment) throws IOException {
+        ByteArrayBuffer response = executeRequest(uri, extraEnvironment,
+            LocalConnector.getCurrentRequest());
+        byte[] buf = response.array();
+        int start = response.getIndex();
+        int len = response.length();
+        int headerLen = HTTPUtils.getHeaderLength(buf, start, len);
+        out.write(buf, start + headerLen, len - headerLen);
+    }
 
-        synchronized(this) { internalRequestNesting++; }
-        byte [] result = null;
+    private ByteArrayBuffer executeRequest(String uri, Map extraEnvironment,
+            Request parentRequest) throws IOException {
         try {
-            result = localConnector.getResponse(uri, port, extraEnvironment)
-                    .asArray();
+            return localConnector.getResponse(uri, port, extraEnvironment,
+                parentRequest);
         } catch (IOException ioe) {
             throw ioe;
         } catch (Exception e) {
             throw new IOException(e);
-        } finally {
-            synchronized(this) { internalRequestNesting--; }
-        }
-
-        if (!skipHeaders)
-            return result;
-        else {
-            int headerLen = HTTPUtils.getHeaderLength(result);
-            byte [] contents = new byte[result.length - headerLen];
-            System.arraycopy(result, headerLen, contents, 0, contents.length);
-            return contents;
         }
     }
-    private volatile int internalRequestNesting = 0;
 
     public byte[] getRequest(String uri, boolean skipHeaders)
             throws IOException {
@@ -242,6 +287,145 @@ public class WebServer implements ContentSource {
             return getRequest(uri, true);
     }
 
+    /**
+     * Retrieve the content of an internal request that has no side effects,
+     * reusing a recently generated response if possible.
+     * 
+     * Responses are kept for a short time, and are discarded as soon as any
+     * data in the repository changes.
+     */
+    public byte[] getCachedContent(String context, String uri)
+            throws IOException {
+        uri = resolveUriInContext(context, uri);
+        return getCachedContent(uri, LocalConnector.getCurrentRequest());
+    }
+
+    /**
+     * Begin retrieving the content of an internal request that has no side
+     * effects, on a background thread.
+     * 
+     * The request is made on behalf of the request that the current thread is
+     * handling, and its response is cached as described for
+     * {@link #getCachedContent(String, String)}. If the current thread is
+     * already one of the background threads, the request is performed
+     * immediately, so nested includes never wait on each other for a free
+     * thread.
+     */
+    public Future<byte[]> getCachedContentAsync(String context, String uri)
+            throws IOException {
+        final String absUri = resolveUriInContext(context, uri);
+        final Request parentRequest = LocalConnector.getCurrentRequest();
+        FutureTask<byte[]> result = new FutureTask<byte[]>(
+                new Callable<byte[]>() {
+                    public byte[] call() throws IOException {
+                        return getCachedContent(absUri, parentRequest);
+                    }
+                });
+        if (Thread.currentThread() instanceof IncludeThread)
+            result.run();
+        else
+            getIncludeExecutor().execute(result);
+        return result;
+    }
+
+    private byte[] getCachedContent(String uri, Request parentRequest)
+            throws IOException {
+        // responses can vary based on the client making the request, so
+        // include identifying information about the client in the key
+        String key = uri;
+        if (parentRequest != null)
+            key = parentRequest.getRemoteAddr() + " "
+                    + parentRequest.getHeader("Host") + " " + uri;
+
+        long changeCount = getDataChangeCount();
+        CachedResponse cached;
+        synchronized (responseCache) {
+            cached = responseCache.get(key);
+        }
+        if (cached != null && cached.isCurrent(changeCount))
+            return cached.content;
+
+        byte[] content = getRequest(uri, true, null, parentRequest);
+        synchronized (responseCache) {
+            pruneResponseCache();
+            responseCache.put(key, new CachedResponse(content, changeCount));
+        }
+        return content;
+    }
+
+    private long getDataChangeCount() {
+        Object data = DEFAULT_ENV.get(TinyCGI.DATA_REPOSITORY);
+        if (data instanceof DataRepository)
+            return ((DataRepository) data).getChangeCount();
+        else
+            return 0;
+    }
+
+    private void pruneResponseCache() {
+        long now = System.currentTimeMillis();
+        for (Iterator<CachedResponse> i = responseCache.values().iterator(); i
+                .hasNext();) {
+            if (i.next().expires < now)
+                i.remove();
+        }
+    }
+
+    private synchronized ExecutorService getIncludeExecutor() {
+        if (includeExecutor == null)
+            includeExecutor = Executors.newFixedThreadPool(INCLUDE_THREADS,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        return new IncludeThread(r);
+                    }
+                });
+        return includeExecutor;
+    }
+
+    private static class IncludeThread extends Thread {
+        IncludeThread(Runnable r) {
+            super(r, "WebServer.include");
+            setDaemon(true);
+        }
+    }
+
+    private static class CachedResponse {
+        byte[] content;
+        long changeCount;
+        long expires;
+
+        CachedResponse(byte[] content, long changeCount) {
+            this.content = content;
+            this.changeCount = changeCount;
+            this.expires = System.currentTimeMillis() + RESPONSE_CACHE_MILLIS;
+        }
+
+        boolean isCurrent(long changeCount) {
+            return this.changeCount == changeCount
+                    && expires > System.currentTimeMillis();
+        }
+    }
+
+    /** Cached responses, with the least recently used discarded first when
+     * the cache is full */
+    private Map<String, CachedResponse> responseCache =
+            new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, CachedResponse> eldest) {
+                    return size() > RESPONSE_CACHE_SIZE;
+                }
+            };
+
+    private ExecutorService includeExecutor;
+
+    private static final int INCLUDE_THREADS = Integer.getInteger(
+        WebServer.class.getName() + ".includeThreads", 4).intValue();
+
+    private static final int RESPONSE_CACHE_MILLIS = Integer.getInteger(
+        WebServer.class.getName() + ".responseCacheMillis", 10000).intValue();
+
+    private static final int RESPONSE_CACHE_SIZE = Integer.getInteger(
+        WebServer.class.getName() + ".responseCacheSize", 50).intValue();
+
     public String getRequestAsString(String uri) throws IOException {
         return getRequestAsString(uri, null);
     }
@@ -434,6 +618,7 @@ public class WebServer implements ContentSource {
             if (!u.toString().toLowerCase().contains("/tpidw.jar!/"))
                 newWebApps.add(getWebAppForUrl(u));
         webApps.setHandlers(newWebApps.toArray(new Handler[newWebApps.size()]));
+        TinyCGIHandlerServlet.templatesReloaded();
 
         writePackagesToDefaultEnv();
     }
@@ -502,6 +687,10 @@ public class WebServer implements ContentSource {
             for (Handler h : webApps.getHandlers())
                 h.stop();
             server.stop();
+            synchronized (this) {
+                if (includeExecutor != null)
+                    includeExecutor.shutdownNow();
+            }
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Unable to stop web server", e);
         }
@@ -61,7 +61,7 @@ public class IncludeTeamTools extends TinyCGIBase {
             String syncURI = resolveRelativeURI(scriptPath, SYNC_URL);
             uri = uri + SYNC_PARAM + HTMLUtils.urlEncode(syncURI);
 
-            outStream.write(getRequest(uri, true));
+            getTinyWebServer().getRequest(uri, outStream, null);
         } catch (Exception e) {
             out.print(TOOLS_MISSING_MSG);
         }
@@ -0,0 +1,93 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.tool.bridge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes the content of a resource as an ordered list of chunks, each
+ * identified by a hash of its contents.
+ */
+public class ChunkRecipe {
+
+    private List<String> chunkIDs;
+
+    private List<Integer> chunkLengths;
+
+    private long totalLength;
+
+    private long lastModified;
+
+    private Long checksum;
+
+    public ChunkRecipe() {
+        chunkIDs = new ArrayList<String>();
+        chunkLengths = new ArrayList<Integer>();
+        totalLength = 0;
+    }
+
+    public void addChunk(String chunkID, int length) {
+        chunkIDs.add(chunkID);
+        chunkLengths.add(length);
+        totalLength += length;
+    }
+
+    public int getChunkCount() {
+        return chunkIDs.size();
+    }
+
+    public String getChunkID(int pos) {
+        return chunkIDs.get(pos);
+    }
+
+    public int getChunkLength(int pos) {
+        return chunkLengths.get(pos);
+    }
+
+    public List<String> getChunkIDs() {
+        return chunkIDs;
+    }
+
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public Long getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(Long checksum) {
+        this.checksum = checksum;
+    }
+
+}
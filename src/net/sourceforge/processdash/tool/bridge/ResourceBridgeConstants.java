@@ -141,6 +141,56 @@ public interface ResourceBridgeConstants {
      */
     String DELETE_FILE_PARAM = "deleteFile";
 
+    /**
+     * name of response header indicating that the server supports chunked
+     * transfer of resources. Its value names the chunking scheme in use; the
+     * client should only use chunked transfer if it uses the same scheme.
+     */
+    String CHUNKING_HEADER = "X-Process-Dashboard-Bridge-Chunking";
+
+    /**
+     * value of action parameter requesting an XML listing of the chunks that
+     * make up each of the selected resources
+     */
+    String CHUNK_LIST_ACTION = "chunkList";
+
+    /**
+     * value of action parameter requesting the download of a ZIP file
+     * containing the contents of particular chunks
+     */
+    String CHUNK_DOWNLOAD_ACTION = "chunkDownload";
+
+    /**
+     * value of action parameter asking which of a list of chunks are not yet
+     * known to the server. The response is a newline-separated list of the
+     * chunk IDs that the server is missing.
+     */
+    String CHUNK_QUERY_ACTION = "chunkQuery";
+
+    /**
+     * value of action parameter asking to store data to the collection,
+     * by assembling resources from chunks
+     */
+    String CHUNK_UPLOAD_ACTION = "chunkUpload";
+
+    /**
+     * for chunk download and query requests, this request parameter names a
+     * chunk ID
+     */
+    String CHUNK_ID_PARAM = "chunk";
+
+    /**
+     * for a chunk upload, a parameter name for an XML listing of the chunks
+     * that make up each resource to be written
+     */
+    String CHUNK_RECIPES_PARAM = "chunkRecipes";
+
+    /**
+     * for a chunk upload, a parameter name for a ZIP file containing the
+     * chunks that the server was missing
+     */
+    String UPLOAD_CHUNKS_ZIP_PARAM = "uploadedChunksZip";
+
     /**
      * value of action parameter requesting that collection data be backed up
      */
@@ -53,6 +53,8 @@ public class BridgedImportDirectory implements ImportDirectory {
         FileResourceCollection localCollection = new FileResourceCollection(
                 importDirectory, false);
         localCollection.setStrategy(strategy);
+        localCollection.setChecksumCacheFile(new File(importDirectory,
+                FileResourceCollection.CHECKSUM_CACHE_FILENAME));
         this.client = new ResourceBridgeClient(localCollection, remoteURL, null);
 
         this.client.syncDown();
@@ -102,6 +102,8 @@ public class BridgedWorkingDirectory extends AbstractWorkingDirectory {
 
         collection = new FileResourceCollection(workingDirectory, false);
         collection.setStrategy(strategy);
+        collection.setChecksumCacheFile(new File(workingDirectory,
+                FileResourceCollection.CHECKSUM_CACHE_FILENAME));
 
         client = new ResourceBridgeClient(collection, remoteURL, strategy
                 .getUnlockedFilter());
@@ -60,6 +60,8 @@ public class CachingLocalImportDirectory implements ImportDirectory {
                 .getCacheDirectoryForBridgedImport(getDescription());
         this.cacheDirectory.mkdirs();
         this.cachedCollection = makeCollection(cacheDirectory);
+        this.cachedCollection.setChecksumCacheFile(new File(cacheDirectory,
+                FileResourceCollection.CHECKSUM_CACHE_FILENAME));
 
         this.lastUpdateTime = -1;
         try {
@@ -114,6 +116,7 @@ public class CachingLocalImportDirectory implements ImportDirectory {
 
         // copy any files that are missing from the cache, or that differ
         syncFilesDown(diff.getOnlyInA(), diff.getDiffering());
+        cachedCollection.saveChecksumCache();
     }
 
     private void syncFilesDown(List<String>... filesets) throws IOException {
@@ -29,6 +29,7 @@ import static net.sourceforge.processdash.tool.bridge.ResourceFilterFactory.INCL
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -45,14 +46,20 @@ import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Adler32;
+import java.util.zip.CheckedOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import net.sourceforge.processdash.tool.bridge.ChunkRecipe;
 import net.sourceforge.processdash.tool.bridge.OfflineLockStatus;
 import net.sourceforge.processdash.tool.bridge.OfflineLockStatusListener;
 import net.sourceforge.processdash.tool.bridge.ResourceBridgeConstants;
@@ -61,7 +68,11 @@ import net.sourceforge.processdash.tool.bridge.ResourceCollectionInfo;
 import net.sourceforge.processdash.tool.bridge.ResourceCollectionType;
 import net.sourceforge.processdash.tool.bridge.ResourceFilterFactory;
 import net.sourceforge.processdash.tool.bridge.ResourceListing;
+import net.sourceforge.processdash.tool.bridge.impl.ChunkStore;
+import net.sourceforge.processdash.tool.bridge.impl.ContentChunker;
 import net.sourceforge.processdash.tool.bridge.impl.HttpAuthenticator;
+import net.sourceforge.processdash.tool.bridge.report.ChunkContentStream;
+import net.sourceforge.processdash.tool.bridge.report.ChunkRecipeListing;
 import net.sourceforge.processdash.tool.bridge.report.ListingHashcodeCalculator;
 import net.sourceforge.processdash.tool.bridge.report.ResourceCollectionDiff;
 import net.sourceforge.processdash.tool.bridge.report.ResourceContentStream;
@@ -91,6 +102,10 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
 
     String serverVersion;
 
+    String chunkingScheme;
+
+    ChunkStore chunkStore;
+
     String userName;
 
     String userId;
@@ -136,6 +151,15 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
         return offlineLockStatus;
     }
 
+    /**
+     * Set the store that holds content chunks for transfers with servers that
+     * support chunking.  If none is set, a store in the application directory
+     * is shared by all clients.
+     */
+    public synchronized void setChunkStore(ChunkStore chunkStore) {
+        this.chunkStore = chunkStore;
+    }
+
     private void setOfflineLockStatus(OfflineLockStatus s) {
         this.offlineLockStatus = s;
         if (offlineLockStatusListener != null)
@@ -158,11 +182,15 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
         pt.click("checked hashes - mismatch");
 
         // as an optimization, download any files from the server that were
-        // created/modified after our most recently changed file.
-        long mostRecentLocalModTime = getMostRecentLocalModTime();
-        downloadFiles(makeGetRequest(DOWNLOAD_ACTION,
-            ResourceFilterFactory.LAST_MOD_PARAM, mostRecentLocalModTime));
-        pt.click("downloaded recent changes");
+        // created/modified after our most recently changed file. This is
+        // skipped if the server supports chunking, because that would
+        // transfer these files whole.
+        if (!isChunkedTransferSupported()) {
+            long mostRecentLocalModTime = getMostRecentLocalModTime();
+            downloadFiles(makeGetRequest(DOWNLOAD_ACTION,
+                ResourceFilterFactory.LAST_MOD_PARAM, mostRecentLocalModTime));
+            pt.click("downloaded recent changes");
+        }
 
         // now make a complete comparison of local-vs-remote changes.
         ResourceCollectionDiff diff = getDiff();
@@ -246,7 +274,7 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
         // upload files that need to be created or updated in the remote
         // collection
         if (!diff.getOnlyInA().isEmpty() || !diff.getDiffering().isEmpty()) {
-            List params = new ArrayList();
+            List<String> filesToUpload = new ArrayList<String>();
             for (String resourceName : diff.getOnlyInA()) {
                 if (isSyncDownOnly(resourceName)) {
                     logger.fine("deleting local resource " + resourceName);
@@ -254,8 +282,7 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
                     madeChange = true;
                 } else {
                     logger.fine("uploading new resource " + resourceName);
-                    addFileUploadParamsWithBatching(params, resourceName);
-                    madeChange = true;
+                    filesToUpload.add(resourceName);
                 }
             }
             for (String resourceName : diff.getDiffering()) {
@@ -263,21 +290,18 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
                     filesToDownload.add(resourceName);
                 } else {
                     logger.fine("uploading modified resource " + resourceName);
-                    addFileUploadParamsWithBatching(params, resourceName);
-                    madeChange = true;
+                    filesToUpload.add(resourceName);
                 }
             }
-            if (!params.isEmpty()) {
-                startZipUploadThread(params);
-                doPostRequest(UPLOAD_ACTION, (Object[]) params.toArray());
+            if (!filesToUpload.isEmpty()) {
+                uploadFilesNamed(filesToUpload);
                 pt.click("Uploaded new/modified resources");
                 madeChange = true;
             }
         }
 
         if (!filesToDownload.isEmpty()) {
-            List params = addMultiple(null, INCLUDE_PARAM, filesToDownload);
-            downloadFiles(makeGetRequest(DOWNLOAD_ACTION, params));
+            downloadFilesNamed(filesToDownload);
             madeChange = true;
         }
 
@@ -457,6 +481,27 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
         return remoteList.getChecksum(resourceName);
     }
 
+    /**
+     * Retrieve the checksum of a single file on the server.
+     * 
+     * @param remoteUrl the url of the team server
+     * @param resourceName the name of the resource to check
+     * @return the checksum of the file, or null if it does not exist
+     * @throws IOException if an IO error occurs
+     */
+    public static Long getSingleFileChecksum(URL remoteUrl,
+            String resourceName) throws IOException {
+        StringBuffer request = new StringBuffer(remoteUrl.toString());
+        HTMLUtils.appendQuery(request, VERSION_PARAM, CLIENT_VERSION);
+        HTMLUtils.appendQuery(request, ACTION_PARAM, LIST_ACTION);
+        HTMLUtils.appendQuery(request, INCLUDE_PARAM, resourceName);
+        URLConnection conn = new URL(request.toString()).openConnection();
+        setRequestToken(conn);
+        ResourceCollectionInfo remoteList = XmlCollectionListing
+                .parseListing(new BufferedInputStream(conn.getInputStream()));
+        return remoteList.getChecksum(resourceName);
+    }
+
     /**
      * Delete a single file from the server.
      * 
@@ -537,6 +582,7 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
         // finally, retrieve the value from the server and compare the two.
         HttpException.checkValid(conn);
         serverVersion = conn.getHeaderField(VERSION_HEADER);
+        chunkingScheme = conn.getHeaderField(CHUNKING_HEADER);
         String hashResult = HTTPUtils.getResponseAsString(conn);
         long remoteHash = Long.valueOf(hashResult);
         return (localHash == remoteHash);
@@ -562,6 +608,7 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
                 ResourceFilterFactory.DEFAULT_FILTER);
         // finally, retrieve the list from the server and compare the two.
         serverVersion = conn.getHeaderField(VERSION_HEADER);
+        chunkingScheme = conn.getHeaderField(CHUNKING_HEADER);
         ResourceCollectionInfo remoteList = XmlCollectionListing
                 .parseListing(new BufferedInputStream(conn.getInputStream()));
         return new ResourceCollectionDiff(localList, remoteList);
@@ -587,6 +634,9 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
     }
 
     private void downloadFilesNamed(List filesToDownload) throws IOException {
+        if (isChunkedTransferSupported())
+            downloadFilesChunked(filesToDownload);
+
         while (!filesToDownload.isEmpty()) {
             // Some web servers will reject an HTTP request if it includes too
             // many HTTP parameters. If we need to download more than 450
@@ -603,6 +653,96 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
         }
     }
 
+    /**
+     * Download files by transferring only the chunks we do not already have.
+     * Files that are successfully written will be removed from the list; if
+     * any problems occur, the remaining files are left in the list so they
+     * can be downloaded whole.
+     */
+    private void downloadFilesChunked(List<String> filesToDownload) {
+        ChunkStore store = getChunkStore();
+        try {
+            // retrieve the chunk recipes for the files we need
+            Map<String, ChunkRecipe> recipes =
+                new LinkedHashMap<String, ChunkRecipe>();
+            for (int i = 0; i < filesToDownload.size(); i += 450) {
+                List<String> oneBatch = filesToDownload.subList(i,
+                    Math.min(i + 450, filesToDownload.size()));
+                URLConnection conn = makeGetRequest(CHUNK_LIST_ACTION,
+                    addMultiple(null, INCLUDE_PARAM, oneBatch));
+                recipes.putAll(ChunkRecipeListing.parseRecipes(
+                    new BufferedInputStream(conn.getInputStream())));
+            }
+
+            // add the chunks of our current copy of each file to the store.
+            // Then any chunks that are still missing must be downloaded.
+            Set<String> missingChunks = new LinkedHashSet<String>();
+            for (Map.Entry<String, ChunkRecipe> e : recipes.entrySet()) {
+                String resourceName = e.getKey();
+                ChunkRecipe recipe = e.getValue();
+                if (!store.containsAll(recipe)
+                        && localCollection.getLastModified(resourceName) > 0)
+                    ChunkRecipeListing.getRecipe(localCollection,
+                        resourceName, store);
+                for (String chunkID : recipe.getChunkIDs())
+                    if (!store.contains(chunkID))
+                        missingChunks.add(chunkID);
+            }
+            List<String> chunksToDownload = new ArrayList<String>(
+                    missingChunks);
+            while (!chunksToDownload.isEmpty()) {
+                List<String> oneBatch = chunksToDownload.subList(0,
+                    Math.min(450, chunksToDownload.size()));
+                URLConnection conn = makeGetRequest(CHUNK_DOWNLOAD_ACTION,
+                    addMultiple(null, CHUNK_ID_PARAM, oneBatch));
+                ChunkContentStream.readChunks(new BufferedInputStream(conn
+                        .getInputStream()), store);
+                oneBatch.clear();
+            }
+
+            // assemble each file from the chunks in the store
+            for (Map.Entry<String, ChunkRecipe> e : recipes.entrySet()) {
+                String resourceName = e.getKey();
+                ChunkRecipe recipe = e.getValue();
+                if (!store.containsAll(recipe)
+                        || !checksumMatches(store, recipe))
+                    continue;
+
+                OutputStream out = localCollection.getOutputStream(
+                    resourceName, recipe.getLastModified());
+                if (out == null)
+                    continue;
+                logger.fine("downloading resource " + resourceName
+                        + " in chunks");
+                try {
+                    store.writeContent(recipe, out);
+                } finally {
+                    out.close();
+                }
+                filesToDownload.remove(resourceName);
+            }
+        } catch (IOException ioe) {
+            logger.log(Level.WARNING, "Unable to download chunks from "
+                    + remoteUrl + "; downloading whole files instead", ioe);
+        } finally {
+            store.prune();
+        }
+    }
+
+    private boolean checksumMatches(ChunkStore store, ChunkRecipe recipe)
+            throws IOException {
+        if (recipe.getChecksum() == null)
+            return false;
+
+        // compute the checksum of the assembled content, discarding the data
+        CheckedOutputStream out = new CheckedOutputStream(new OutputStream() {
+            public void write(int b) {}
+            public void write(byte[] b, int off, int len) {}
+        }, new Adler32());
+        store.writeContent(recipe, out);
+        return out.getChecksum().getValue() == recipe.getChecksum();
+    }
+
     private ResourceCollectionInfo downloadFiles(URLConnection conn)
             throws IOException {
         ResourceCollectionInfo info = null;
@@ -639,6 +779,156 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
         return info;
     }
 
+    private void uploadFilesNamed(List<String> filesToUpload)
+            throws IOException, LockFailureException {
+        if (isChunkedTransferSupported() && uploadFilesChunked(filesToUpload))
+            return;
+
+        List params = new ArrayList();
+        for (String resourceName : filesToUpload)
+            addFileUploadParamsWithBatching(params, resourceName);
+        if (!params.isEmpty()) {
+            startZipUploadThread(params);
+            doPostRequest(UPLOAD_ACTION, (Object[]) params.toArray());
+        }
+    }
+
+    /**
+     * Upload files by sending their chunk recipes, along with the chunks that
+     * the server does not already have.
+     * 
+     * @return true if the files were uploaded, false if a problem occurred
+     *         and the files should be uploaded whole instead
+     */
+    private boolean uploadFilesChunked(List<String> filesToUpload)
+            throws LockFailureException {
+        ChunkStore store = getChunkStore();
+        try {
+            // split each file into chunks, saving them in the store
+            final Map<String, ChunkRecipe> recipes =
+                new LinkedHashMap<String, ChunkRecipe>();
+            for (String resourceName : filesToUpload) {
+                ChunkRecipe recipe = ChunkRecipeListing.getRecipe(
+                    localCollection, resourceName, store);
+                if (recipe != null)
+                    recipes.put(resourceName, recipe);
+            }
+            if (recipes.isEmpty())
+                return true;
+
+            // ask the server which of those chunks it needs. Some web servers
+            // reject requests with too many parameters, so the query is sent
+            // in batches of 450. Each batch names the files its chunks came
+            // from, so the server can find those chunks in its current copy.
+            Set<String> queriedChunks = new HashSet<String>();
+            final List<String> missingChunks = new ArrayList<String>();
+            List<String> batchNames = new ArrayList<String>();
+            List<String> batchChunks = new ArrayList<String>();
+            for (Map.Entry<String, ChunkRecipe> e : recipes.entrySet()) {
+                String resourceName = e.getKey();
+                batchNames.add(resourceName);
+                for (String chunkID : e.getValue().getChunkIDs()) {
+                    if (!queriedChunks.add(chunkID))
+                        continue;
+                    batchChunks.add(chunkID);
+                    if (batchNames.size() + batchChunks.size() >= 450) {
+                        queryMissingChunks(batchNames, batchChunks,
+                            missingChunks);
+                        batchNames.clear();
+                        batchChunks.clear();
+                        batchNames.add(resourceName);
+                    }
+                }
+            }
+            if (!batchChunks.isEmpty())
+                queryMissingChunks(batchNames, batchChunks, missingChunks);
+
+            // send the recipes and the missing chunks. These are streamed
+            // from background threads rather than assembled in memory.
+            logger.fine("uploading " + missingChunks.size() + " of "
+                    + queriedChunks.size() + " chunks");
+            final ChunkStore chunkSource = store;
+            PipedUploadStream recipeData = new PipedUploadStream() {
+                protected void writeContent(OutputStream out)
+                        throws IOException {
+                    ChunkRecipeListing.writeRecipes(recipes, out);
+                }};
+            PipedUploadStream chunkData = new PipedUploadStream() {
+                protected void writeContent(OutputStream out)
+                        throws IOException {
+                    ChunkContentStream.writeChunks(chunkSource,
+                        missingChunks, out);
+                }};
+            recipeData.start();
+            chunkData.start();
+            try {
+                doPostRequest(CHUNK_UPLOAD_ACTION, //
+                    CHUNK_RECIPES_PARAM, recipeData, //
+                    UPLOAD_CHUNKS_ZIP_PARAM, chunkData);
+            } finally {
+                FileUtils.safelyClose(recipeData);
+                FileUtils.safelyClose(chunkData);
+            }
+            return true;
+
+        } catch (IOException ioe) {
+            logger.log(Level.WARNING, "Unable to upload chunks to "
+                    + remoteUrl + "; uploading whole files instead", ioe);
+            return false;
+        } finally {
+            store.prune();
+        }
+    }
+
+    /**
+     * Ask the server which of a batch of chunks it needs, and add those chunk
+     * IDs to a list.
+     */
+    private void queryMissingChunks(List<String> resourceNames,
+            List<String> chunkIDs, List<String> missingChunks)
+            throws IOException, LockFailureException {
+        List params = addMultiple(null, INCLUDE_PARAM, resourceNames);
+        addMultiple(params, CHUNK_ID_PARAM, chunkIDs);
+        byte[] response = doPostRequest(CHUNK_QUERY_ACTION, params.toArray());
+        Set<String> queried = new HashSet<String>(chunkIDs);
+        for (String line : new String(response, "UTF-8").split("\n")) {
+            line = line.trim();
+            if (queried.contains(line))
+                missingChunks.add(line);
+        }
+    }
+
+    private boolean isChunkedTransferSupported() {
+        return ContentChunker.SCHEME.equals(chunkingScheme)
+                && Boolean.getBoolean(DISABLE_CHUNKING_PROPERTY) == false;
+    }
+
+    private ChunkStore getChunkStore() {
+        if (chunkStore == null)
+            chunkStore = getDefaultChunkStore();
+        return chunkStore;
+    }
+
+    private static synchronized ChunkStore getDefaultChunkStore() {
+        if (DEFAULT_CHUNK_STORE == null) {
+            File dir = new File(DirectoryPreferences
+                    .getApplicationDirectory(true), "chunks");
+            DEFAULT_CHUNK_STORE = new ChunkStore(dir, DEFAULT_CHUNK_STORE_SIZE);
+        }
+        return DEFAULT_CHUNK_STORE;
+    }
+
+    private static ChunkStore DEFAULT_CHUNK_STORE = null;
+
+    private static final long DEFAULT_CHUNK_STORE_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * A system property that can be set to "true" to transfer whole files
+     * even when the server supports chunking
+     */
+    public static final String DISABLE_CHUNKING_PROPERTY =
+        ResourceBridgeClient.class.getName() + ".disableChunking";
+
     private void addFileUploadParamsWithBatching(List params, String resourceName)
             throws IOException, LockFailureException {
         if (params.size() >= 100) {
@@ -746,9 +1036,9 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
         return (HttpURLConnection) conn;
     }
 
-    private void doPostRequest(String action, Object... params)
+    private byte[] doPostRequest(String action, Object... params)
         throws IOException, LockFailureException {
-        doPostRequest(action, null, params);
+        return doPostRequest(action, null, params);
     }
 
     private void doLockPostRequest(String action, Object... params)
@@ -756,11 +1046,11 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
         doPostRequest(action, offlineLockStatusResponseAnalyzer, params);
     }
 
-    private void doPostRequest(String action,
+    private byte[] doPostRequest(String action,
             HttpResponseAnalyzer responseAnalyzer, Object... params)
             throws IOException, LockFailureException {
         try {
-            doPostRequest(new URL(remoteUrl), userName, userId,
+            return doPostRequest(new URL(remoteUrl), userName, userId,
                 sourceIdentifier, extraLockData, responseAnalyzer, action,
                 params);
         } catch (LockFailureException lfe) {
@@ -930,6 +1220,73 @@ public class ResourceBridgeClient implements ResourceBridgeConstants {
      */
     private static final String ZIP_UPLOAD_MIN_SERVER_VERSION = "3.6.9";
 
+    /**
+     * A stream whose content is written by a background thread as it is read,
+     * so large uploads do not need to be held in memory. If the content can't
+     * be written, the reader receives the error instead of an end of stream,
+     * so a truncated upload is never mistaken for a complete one.
+     */
+    private static abstract class PipedUploadStream extends PipedInputStream
+            implements Runnable {
+
+        private PipedOutputStream out;
+
+        private volatile IOException writeError;
+
+        private PipedUploadStream() throws IOException {
+            super(8096);
+            out = new PipedOutputStream(this);
+        }
+
+        public void start() {
+            Thread t = new Thread(this);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        public void run() {
+            try {
+                writeContent(out);
+            } catch (IOException ioe) {
+                // record the error before closing the pipe, so the reader
+                // sees it when it reaches the end of the content
+                logger.log(Level.FINE, "Unable to write upload content", ioe);
+                writeError = ioe;
+            }
+            FileUtils.safelyClose(out);
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            int result = super.read();
+            if (result == -1)
+                checkWriteError();
+            return result;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len)
+                throws IOException {
+            int result = super.read(b, off, len);
+            if (result == -1)
+                checkWriteError();
+            return result;
+        }
+
+        private void checkWriteError() throws IOException {
+            IOException e = writeError;
+            if (e != null) {
+                IOException ioe = new IOException(
+                        "Unable to write upload content");
+                ioe.initCause(e);
+                throw ioe;
+            }
+        }
+
+        protected abstract void writeContent(OutputStream out)
+                throws IOException;
+    }
+
     private class ZipUploadStream extends PipedInputStream implements Runnable {
 
         private PipedOutputStream out;
@@ -0,0 +1,226 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.tool.bridge.impl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+import net.sourceforge.processdash.tool.bridge.ChunkRecipe;
+import net.sourceforge.processdash.util.FileUtils;
+import net.sourceforge.processdash.util.RobustFileOutputStream;
+
+
+/**
+ * A directory of content chunks, each stored in a file named by its chunk ID.
+ * 
+ * Chunks are immutable, so a store can safely be shared by several
+ * collections.  When the store grows beyond its maximum size, the chunks that
+ * were least recently used are discarded.
+ */
+public class ChunkStore {
+
+    private File directory;
+
+    private long maxSize;
+
+    private static final Logger logger = Logger.getLogger(ChunkStore.class
+            .getName());
+
+
+    public ChunkStore(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return true if this store holds the chunk with the given ID
+     */
+    public boolean contains(String chunkID) {
+        return ContentChunker.isChunkID(chunkID)
+                && getChunkFile(chunkID).isFile();
+    }
+
+    /**
+     * Open the content of a chunk for reading.
+     * 
+     * @return a stream with the chunk data, or null if this store does not
+     *         hold the given chunk
+     */
+    public InputStream getInputStream(String chunkID) throws IOException {
+        if (!ContentChunker.isChunkID(chunkID))
+            return null;
+
+        File f = getChunkFile(chunkID);
+        try {
+            InputStream result = new BufferedInputStream(
+                    new FileInputStream(f));
+            // record the use of this chunk, so pruning will keep it
+            f.setLastModified(System.currentTimeMillis());
+            return result;
+        } catch (FileNotFoundException fnfe) {
+            return null;
+        }
+    }
+
+    /**
+     * Save a chunk in this store.
+     * 
+     * @throws IOException
+     *             if the data does not match the chunk ID, or could not be
+     *             written
+     */
+    public synchronized void putChunk(String chunkID, byte[] data, int off,
+            int len) throws IOException {
+        if (!chunkID.equals(ContentChunker.getChunkID(data, off, len)))
+            throw new IOException("Content does not match chunk ID "
+                    + chunkID);
+        if (contains(chunkID))
+            return;
+
+        RobustFileOutputStream out = new RobustFileOutputStream(
+                getChunkFile(chunkID));
+        try {
+            out.write(data, off, len);
+            out.close();
+        } catch (IOException ioe) {
+            out.abort();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Split some content into chunks, and save any chunks that this store
+     * does not already hold.  The stream is closed afterward.
+     * 
+     * @return the recipe for the given content
+     */
+    public ChunkRecipe addContent(InputStream in) throws IOException {
+        try {
+            return ContentChunker.chunk(in, new ContentChunker.ChunkHandler() {
+                public void handleChunk(String chunkID, byte[] data, int off,
+                        int len) throws IOException {
+                    if (!contains(chunkID))
+                        putChunk(chunkID, data, off, len);
+                }
+            });
+        } finally {
+            FileUtils.safelyClose(in);
+        }
+    }
+
+    /**
+     * @return true if this store holds every chunk in the given recipe
+     */
+    public boolean containsAll(ChunkRecipe recipe) {
+        for (String chunkID : recipe.getChunkIDs())
+            if (!contains(chunkID))
+                return false;
+        return true;
+    }
+
+    /**
+     * Write the content described by a recipe to an output stream.  The
+     * stream is not closed.
+     * 
+     * @throws FileNotFoundException
+     *             if this store does not hold one of the chunks in the recipe
+     */
+    public void writeContent(ChunkRecipe recipe, OutputStream out)
+            throws IOException {
+        for (String chunkID : recipe.getChunkIDs()) {
+            InputStream in = getInputStream(chunkID);
+            if (in == null)
+                throw new FileNotFoundException("Missing chunk " + chunkID);
+            try {
+                FileUtils.copyFile(in, out);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * If this store has grown beyond its maximum size, delete the least
+     * recently used chunks until it fits again.
+     */
+    public synchronized void prune() {
+        File[] subdirs = directory.listFiles();
+        if (subdirs == null)
+            return;
+
+        List<File> chunkFiles = new ArrayList<File>();
+        long totalSize = 0;
+        for (File subdir : subdirs) {
+            File[] files = subdir.listFiles();
+            if (files == null)
+                continue;
+            for (File f : files) {
+                if (ContentChunker.isChunkID(f.getName())) {
+                    chunkFiles.add(f);
+                    totalSize += f.length();
+                }
+            }
+        }
+        if (totalSize <= maxSize)
+            return;
+
+        Collections.sort(chunkFiles, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return (diff < 0 ? -1 : (diff > 0 ? 1 : 0));
+            }});
+        int numDeleted = 0;
+        for (File f : chunkFiles) {
+            if (totalSize <= maxSize)
+                break;
+            long size = f.length();
+            if (f.delete()) {
+                totalSize -= size;
+                numDeleted++;
+            }
+        }
+        logger.fine("Pruned " + numDeleted + " chunks from " + directory);
+    }
+
+    private File getChunkFile(String chunkID) {
+        // spread chunks across subdirectories, to keep directories small
+        File subdir = new File(directory, chunkID.substring(0, 2));
+        return new File(subdir, chunkID);
+    }
+
+}
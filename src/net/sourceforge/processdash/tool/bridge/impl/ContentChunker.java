@@ -0,0 +1,195 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.tool.bridge.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import net.sourceforge.processdash.tool.bridge.ChunkRecipe;
+
+
+/**
+ * Splits a stream of content into chunks whose boundaries are chosen by a
+ * rolling hash of the content itself.
+ * 
+ * Because each boundary depends only on the bytes immediately before it, an
+ * edit to a file only changes the chunks near the edit; the chunks elsewhere
+ * in the file keep the same boundaries and IDs as before.  Clients and
+ * servers must use the same scheme to share chunks, so any change to the
+ * parameters below requires a new {@link #SCHEME} name.
+ */
+public class ContentChunker {
+
+    /** An identifier for the chunking scheme implemented by this class */
+    public static final String SCHEME = "gear-sha1-v1";
+
+    /** Chunks are never smaller than this, except at the end of a file */
+    public static final int MIN_CHUNK_SIZE = 2 * 1024;
+
+    /** Chunks are cut at this size if no boundary has been found */
+    public static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * A boundary occurs where the top bits of the rolling hash are all zero.
+     * Thirteen bits give an average chunk size of about 8K.
+     */
+    private static final long BOUNDARY_MASK = -1L << (64 - 13);
+
+
+    /** Receives the content of each chunk as it is found */
+    public interface ChunkHandler {
+        public void handleChunk(String chunkID, byte[] data, int off, int len)
+                throws IOException;
+    }
+
+
+    /**
+     * Read a stream to the end and split it into chunks.  The stream is not
+     * closed.
+     * 
+     * @param in
+     *            the content to split
+     * @param handler
+     *            an object to receive each chunk, or null if only the recipe
+     *            is needed
+     * @return the recipe listing the chunks that were found
+     */
+    public static ChunkRecipe chunk(InputStream in, ChunkHandler handler)
+            throws IOException {
+        ChunkRecipe result = new ChunkRecipe();
+        MessageDigest digest = getDigest();
+
+        // the buffer holds up to two maximum-size chunks, so we only need to
+        // shift unprocessed data to the front once per MAX_CHUNK_SIZE bytes
+        byte[] buf = new byte[2 * MAX_CHUNK_SIZE];
+        int start = 0, pos = 0, fill = 0;
+        long hash = 0;
+
+        while (true) {
+            if (pos == fill) {
+                if (fill == buf.length) {
+                    System.arraycopy(buf, start, buf, 0, fill - start);
+                    pos -= start;
+                    fill -= start;
+                    start = 0;
+                }
+                int numRead = in.read(buf, fill, buf.length - fill);
+                if (numRead == -1)
+                    break;
+                fill += numRead;
+                continue;
+            }
+
+            hash = (hash << 1) + GEAR[buf[pos++] & 0xff];
+            int len = pos - start;
+            if (len == MAX_CHUNK_SIZE
+                    || (len >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0)) {
+                emitChunk(result, digest, handler, buf, start, len);
+                start = pos;
+                hash = 0;
+            }
+        }
+
+        if (pos > start)
+            emitChunk(result, digest, handler, buf, start, pos - start);
+
+        return result;
+    }
+
+    private static void emitChunk(ChunkRecipe recipe, MessageDigest digest,
+            ChunkHandler handler, byte[] buf, int off, int len)
+            throws IOException {
+        String chunkID = getChunkID(digest, buf, off, len);
+        recipe.addChunk(chunkID, len);
+        if (handler != null)
+            handler.handleChunk(chunkID, buf, off, len);
+    }
+
+
+    /**
+     * Compute the ID for a block of chunk data.
+     */
+    public static String getChunkID(byte[] data, int off, int len) {
+        return getChunkID(getDigest(), data, off, len);
+    }
+
+    private static String getChunkID(MessageDigest digest, byte[] data,
+            int off, int len) {
+        digest.reset();
+        digest.update(data, off, len);
+        byte[] hash = digest.digest();
+        StringBuilder result = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            result.append(HEX_DIGITS[(b >> 4) & 0xf]);
+            result.append(HEX_DIGITS[b & 0xf]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return true if the given string has the form of a chunk ID
+     */
+    public static boolean isChunkID(String s) {
+        if (s == null || s.length() != 40)
+            return false;
+        for (int i = s.length(); i-- > 0;) {
+            char c = s.charAt(i);
+            if (Character.digit(c, 16) == -1 || Character.isUpperCase(c))
+                return false;
+        }
+        return true;
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // all Java implementations are required to support SHA-1
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+
+    /**
+     * A table of pseudorandom values, one per byte value, for the rolling
+     * hash.  The values must never change, since they determine where chunk
+     * boundaries fall.
+     */
+    private static final long[] GEAR = new long[256];
+    static {
+        // fill the table using the SplitMix64 generator with a fixed seed
+        long seed = 0x5DEECE66DL;
+        for (int i = 0; i < GEAR.length; i++) {
+            long z = (seed += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.tool.bridge.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sourceforge.processdash.util.FileUtils;
+import net.sourceforge.processdash.util.RobustFileOutputStream;
+
+
+/**
+ * A persistent record of the checksums of the files in a collection.
+ * 
+ * Each checksum is stored along with the size and modification time of the
+ * file it was computed from, and is only reused while both still match.  This
+ * lets a collection skip rereading its files after a restart.
+ */
+class FileChecksumCache {
+
+    private static final int MAGIC = 0x50444353; // "PDCS"
+
+    private static final int VERSION = 1;
+
+    /**
+     * Files modified less than this many milliseconds before a save could
+     * still change without a visible change in their timestamp, so their
+     * checksums are not saved yet.
+     */
+    private static final long RACY_WINDOW = 3000;
+
+    private File file;
+
+    private Map<String, Entry> entries;
+
+    private boolean dirty;
+
+    private static final Logger logger = Logger
+            .getLogger(FileChecksumCache.class.getName());
+
+
+    FileChecksumCache(File file) {
+        this.file = file;
+        this.entries = new HashMap<String, Entry>();
+        this.dirty = false;
+        load();
+    }
+
+    /**
+     * @return the checksum recorded for a file, or null if none was recorded
+     *         for the given size and modification time
+     */
+    synchronized Long getChecksum(String resourceName, long size, long modTime) {
+        Entry e = entries.get(resourceName);
+        if (e != null && e.size == size && e.modTime == modTime)
+            return e.checksum;
+        else
+            return null;
+    }
+
+    synchronized void putChecksum(String resourceName, long size,
+            long modTime, long checksum) {
+        Entry e = entries.get(resourceName);
+        if (e == null || e.size != size || e.modTime != modTime
+                || e.checksum != checksum) {
+            entries.put(resourceName, new Entry(size, modTime, checksum));
+            dirty = true;
+        }
+    }
+
+    synchronized void remove(String resourceName) {
+        if (entries.remove(resourceName) != null)
+            dirty = true;
+    }
+
+    /** Write the cache to disk, if it has changed since it was last saved */
+    synchronized void saveIfChanged() {
+        if (!dirty)
+            return;
+
+        RobustFileOutputStream fileOut = null;
+        try {
+            long cutoff = System.currentTimeMillis() - RACY_WINDOW;
+            boolean skippedEntries = false;
+            Map<String, Entry> toSave = new HashMap<String, Entry>();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (e.getValue().modTime > cutoff)
+                    skippedEntries = true;
+                else
+                    toSave.put(e.getKey(), e.getValue());
+            }
+
+            fileOut = new RobustFileOutputStream(file);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(fileOut));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(toSave.size());
+            for (Map.Entry<String, Entry> e : toSave.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().size);
+                out.writeLong(e.getValue().modTime);
+                out.writeLong(e.getValue().checksum);
+            }
+            out.close();
+            dirty = skippedEntries;
+
+        } catch (IOException ioe) {
+            logger.log(Level.FINE, "Could not save checksum cache " + file,
+                ioe);
+            if (fileOut != null)
+                try {
+                    fileOut.abort();
+                } catch (Exception e) {}
+        }
+    }
+
+    private void load() {
+        if (!file.isFile())
+            return;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return;
+
+            for (int i = in.readInt(); i-- > 0;) {
+                String resourceName = in.readUTF();
+                entries.put(resourceName, new Entry(in.readLong(), in
+                        .readLong(), in.readLong()));
+            }
+
+        } catch (IOException ioe) {
+            logger.log(Level.FINE, "Could not read checksum cache " + file,
+                ioe);
+            entries.clear();
+        } finally {
+            FileUtils.safelyClose(in);
+        }
+    }
+
+
+    private static class Entry {
+
+        long size;
+
+        long modTime;
+
+        long checksum;
+
+        Entry(long size, long modTime, long checksum) {
+            this.size = size;
+            this.modTime = modTime;
+            this.checksum = checksum;
+        }
+
+    }
+
+}
@@ -34,6 +34,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -41,6 +42,7 @@ import java.util.Map;
 import java.util.zip.Adler32;
 
 import net.sourceforge.processdash.tool.bridge.ResourceCollection;
+import net.sourceforge.processdash.tool.bridge.report.ListingHashcodeCalculator;
 import net.sourceforge.processdash.util.FileUtils;
 import net.sourceforge.processdash.util.RobustFileOutputStream;
 import net.sourceforge.processdash.util.TimedInputStream;
@@ -57,6 +59,14 @@ public class FileResourceCollection implements ResourceCollection,
 
     public static final String ADDED_OR_MODIFIED = "modified";
 
+    /**
+     * A conventional location for a checksum cache, relative to the
+     * collection directory.  The strategies used by dashboard clients do not
+     * accept files in subdirectories, so this file will not appear as a
+     * resource in the collection.
+     */
+    public static final String CHECKSUM_CACHE_FILENAME = "metadata/checksums.dat";
+
 
     File directory;
 
@@ -72,6 +82,10 @@ public class FileResourceCollection implements ResourceCollection,
 
     File mostRecentBackup = null;
 
+    FileChecksumCache checksumCache;
+
+    volatile long[] lastListingHashcode;
+
 
     public FileResourceCollection(File directory) {
         this(directory, true);
@@ -93,6 +107,24 @@ public class FileResourceCollection implements ResourceCollection,
         return directory;
     }
 
+    /**
+     * Save the checksums of files in this collection to the given file, so
+     * they can be reused after a restart instead of rereading every file.
+     */
+    public void setChecksumCacheFile(File cacheFile) {
+        this.checksumCache = (cacheFile == null ? null
+                : new FileChecksumCache(cacheFile));
+    }
+
+    /**
+     * Write any new checksums to the checksum cache file.  This happens
+     * automatically when a listing hashcode is computed.
+     */
+    public void saveChecksumCache() {
+        if (checksumCache != null)
+            checksumCache.saveIfChanged();
+    }
+
     public String getDescription() {
         return directory.getPath();
     }
@@ -121,6 +153,62 @@ public class FileResourceCollection implements ResourceCollection,
     }
 
 
+    /**
+     * Compute a hashcode for the given resources, as defined by
+     * {@link ListingHashcodeCalculator}.
+     * 
+     * The name, size, and modification time of each resource are folded into
+     * a fingerprint for the listing.  If the fingerprint is unchanged since
+     * the previous call, the previous hashcode is returned without examining
+     * any checksums.
+     */
+    public long getListingHashcode(List<String> resourceNames) {
+        long fingerprint = getListingFingerprint(resourceNames);
+        long[] last = lastListingHashcode;
+        if (last != null && last[0] == fingerprint)
+            return last[1];
+
+        long result = ListingHashcodeCalculator.getListingHashcode(this,
+            resourceNames);
+        lastListingHashcode = new long[] { fingerprint, result };
+        saveChecksumCache();
+        return result;
+    }
+
+    private long getListingFingerprint(List<String> resourceNames) {
+        String[] names = resourceNames.toArray(new String[resourceNames
+                .size()]);
+        Arrays.sort(names);
+
+        long result = FNV_OFFSET;
+        for (String name : names) {
+            CachedFileData fd = getFileData(name);
+            if (fd == null)
+                continue;
+            long lastMod = fd.getLastModified();
+            long leaf = FNV_OFFSET;
+            for (int i = 0; i < name.length(); i++)
+                leaf = fnv(leaf, name.charAt(i));
+            leaf = fnv(fnv(leaf, lastMod), fd.getSize());
+            result = fnv(result, leaf);
+        }
+        return result;
+    }
+
+    private static long fnv(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value & 0xff);
+            hash *= FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+
     public InputStream getInputStream(String resourceName) throws IOException {
         if (!checkResourceName(resourceName))
             return null;
@@ -150,6 +238,8 @@ public class FileResourceCollection implements ResourceCollection,
                 f.delete();
             }
             cachedData.remove(resourceName);
+            if (checksumCache != null)
+                checksumCache.remove(resourceName);
             if (propSupport != null)
                 propSupport.firePropertyChange(resourceName, null, DELETED);
         }
@@ -254,7 +344,7 @@ public class FileResourceCollection implements ResourceCollection,
         CachedFileData result = cachedData.get(resourceName);
         if (result == null) {
             File file = new File(directory, resourceName);
-            result = new CachedFileData(file);
+            result = new CachedFileData(resourceName, file);
             cachedData.put(resourceName, result);
         }
         return result;
@@ -263,23 +353,30 @@ public class FileResourceCollection implements ResourceCollection,
 
     protected class CachedFileData {
 
+        private String resourceName;
+
         private File f;
 
         private long lastChecked;
 
         private long lastModified;
 
+        private long size;
+
         private Long checksum;
 
-        public CachedFileData(File f) {
+        public CachedFileData(String resourceName, File f) {
+            this.resourceName = resourceName;
             this.f = f;
             this.lastModified = lastChecked = -1;
+            this.size = -1;
             this.checksum = null;
         }
 
         public void setLastModified(long mod) {
             f.setLastModified(mod);
             lastModified = mod;
+            size = f.length();
         }
 
         public long getLastModified() {
@@ -288,9 +385,11 @@ public class FileResourceCollection implements ResourceCollection,
             if (lastCheckAge > 5000 || lastCheckAge < 0
                     || lastChecked < cacheInvalidationTimestamp) {
                 long realLastMod = f.lastModified();
+                long realSize = f.length();
                 synchronized (this) {
-                    if (realLastMod != lastModified) {
+                    if (realLastMod != lastModified || realSize != size) {
                         lastModified = realLastMod;
+                        size = realSize;
                         checksum = null;
                     }
                     lastChecked = now;
@@ -299,6 +398,11 @@ public class FileResourceCollection implements ResourceCollection,
             return lastModified;
         }
 
+        public long getSize() {
+            getLastModified();
+            return size;
+        }
+
         public Long getChecksum() {
             while (true) {
                 // Check the last modification time. If it has changed
@@ -312,13 +416,26 @@ public class FileResourceCollection implements ResourceCollection,
                     return null;
 
                 // The file exists. If we have a valid checksum, return it.
+                // (The persistent cache is only updated here, after the
+                // loop below has confirmed that the file did not change
+                // while its checksum was being computed.)
                 Long cksum = this.checksum;
-                if (cksum != null)
+                if (cksum != null) {
+                    if (checksumCache != null)
+                        checksumCache.putChecksum(resourceName, size, lastMod,
+                            cksum);
                     return cksum;
+                }
 
                 try {
-                    // We don't have an up-to-date checksum. Calculate one.
-                    Long newSum = FileUtils.computeChecksum(f, new Adler32());
+                    // We don't have an up-to-date checksum. Look for one in
+                    // the persistent cache, or calculate one.
+                    Long newSum = null;
+                    if (checksumCache != null)
+                        newSum = checksumCache.getChecksum(resourceName, size,
+                            lastMod);
+                    if (newSum == null)
+                        newSum = FileUtils.computeChecksum(f, new Adler32());
                     // Save the new checksum. But don't return it yet! Start
                     // back at the top of the loop and make certain the last
                     // modified time hasn't changed since we calculated the
@@ -0,0 +1,109 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.tool.bridge.report;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import net.sourceforge.processdash.tool.bridge.impl.ChunkStore;
+import net.sourceforge.processdash.tool.bridge.impl.ContentChunker;
+import net.sourceforge.processdash.util.FileUtils;
+
+
+/**
+ * Reads and writes ZIP archives of content chunks, where each entry is named
+ * by its chunk ID.
+ */
+public class ChunkContentStream {
+
+    /**
+     * Write a ZIP archive containing chunks from a store.  Chunks that the
+     * store does not hold are skipped.
+     * 
+     * @return the number of chunk bytes written
+     */
+    public static long writeChunks(ChunkStore store,
+            Collection<String> chunkIDs, OutputStream out) throws IOException {
+        long total = 0;
+        byte[] buf = new byte[ContentChunker.MAX_CHUNK_SIZE];
+        ZipOutputStream zipOut = new ZipOutputStream(out);
+        zipOut.setLevel(9);
+
+        for (String chunkID : chunkIDs) {
+            InputStream in = store.getInputStream(chunkID);
+            if (in == null)
+                continue;
+
+            try {
+                zipOut.putNextEntry(new ZipEntry(chunkID));
+                int numRead;
+                while ((numRead = in.read(buf)) != -1) {
+                    zipOut.write(buf, 0, numRead);
+                    total += numRead;
+                }
+                zipOut.closeEntry();
+            } finally {
+                in.close();
+            }
+        }
+
+        zipOut.finish();
+        return total;
+    }
+
+    /**
+     * Read a ZIP archive of chunks, and save each chunk into a store.  The
+     * stream is closed afterward.
+     * 
+     * @return the number of chunk bytes read
+     * @throws IOException
+     *             if an entry's content does not match its chunk ID
+     */
+    public static long readChunks(InputStream in, ChunkStore store)
+            throws IOException {
+        long total = 0;
+        ZipInputStream zipIn = new ZipInputStream(in);
+        try {
+            ZipEntry e;
+            while ((e = zipIn.getNextEntry()) != null) {
+                String chunkID = e.getName();
+                if (!ContentChunker.isChunkID(chunkID))
+                    continue;
+                byte[] data = FileUtils.slurpContents(zipIn, false);
+                store.putChunk(chunkID, data, 0, data.length);
+                total += data.length;
+                zipIn.closeEntry();
+            }
+        } finally {
+            zipIn.close();
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,200 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.tool.bridge.report;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.processdash.tool.bridge.ChunkRecipe;
+import net.sourceforge.processdash.tool.bridge.ResourceCollection;
+import net.sourceforge.processdash.tool.bridge.impl.ChunkStore;
+import net.sourceforge.processdash.tool.bridge.impl.ContentChunker;
+import net.sourceforge.processdash.util.XMLUtils;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xmlpull.v1.XmlSerializer;
+
+
+/**
+ * A report which generates an XML document listing the chunks that make up
+ * each resource in a collection, along with their modification times and
+ * checksums.
+ */
+public class ChunkRecipeListing implements CollectionReport {
+
+    private ChunkStore chunkStore;
+
+    /**
+     * @param chunkStore
+     *            a store that should receive the chunks of each resource as
+     *            the report is generated, so they can be served later; can be
+     *            null
+     */
+    public ChunkRecipeListing(ChunkStore chunkStore) {
+        this.chunkStore = chunkStore;
+    }
+
+    public String getContentType() {
+        return "text/xml";
+    }
+
+    public void runReport(ResourceCollection c, List<String> resources,
+            OutputStream out) throws IOException {
+        Map<String, ChunkRecipe> recipes =
+            new LinkedHashMap<String, ChunkRecipe>();
+        for (String resourceName : resources) {
+            ChunkRecipe recipe = getRecipe(c, resourceName, chunkStore);
+            if (recipe != null)
+                recipes.put(resourceName, recipe);
+        }
+        writeRecipes(recipes, out);
+    }
+
+    /**
+     * Compute the chunk recipe for a single resource in a collection.
+     * 
+     * @param chunkStore
+     *            a store that should receive the chunks of the resource; can
+     *            be null
+     * @return the recipe for the resource, or null if it does not exist
+     */
+    public static ChunkRecipe getRecipe(ResourceCollection c,
+            String resourceName, ChunkStore chunkStore) throws IOException {
+        long lastMod = c.getLastModified(resourceName);
+        if (lastMod < 1)
+            return null;
+
+        Long checksum = c.getChecksum(resourceName);
+        if (checksum == null)
+            return null;
+
+        InputStream in = c.getInputStream(resourceName);
+        if (in == null)
+            return null;
+
+        ChunkRecipe result;
+        if (chunkStore != null) {
+            result = chunkStore.addContent(in);
+        } else {
+            try {
+                result = ContentChunker.chunk(in, null);
+            } finally {
+                in.close();
+            }
+        }
+        result.setLastModified(lastMod);
+        result.setChecksum(checksum);
+        return result;
+    }
+
+    public static void writeRecipes(Map<String, ChunkRecipe> recipes,
+            OutputStream out) throws IOException {
+        XmlSerializer ser = XMLUtils.getXmlSerializer(true);
+
+        ser.setOutput(out, ENCODING);
+        ser.startDocument(ENCODING, null);
+        ser.startTag(null, DOCUMENT_TAG);
+
+        for (Map.Entry<String, ChunkRecipe> e : recipes.entrySet()) {
+            ChunkRecipe recipe = e.getValue();
+            ser.startTag(null, RESOURCE_TAG);
+            ser.attribute(null, NAME_ATTR, e.getKey());
+            ser.attribute(null, MOD_TIME_ATTR,
+                Long.toString(recipe.getLastModified()));
+            if (recipe.getChecksum() != null)
+                ser.attribute(null, CHECKSUM_ATTR,
+                    recipe.getChecksum().toString());
+            for (int i = 0; i < recipe.getChunkCount(); i++) {
+                ser.startTag(null, CHUNK_TAG);
+                ser.attribute(null, ID_ATTR, recipe.getChunkID(i));
+                ser.attribute(null, LENGTH_ATTR,
+                    Integer.toString(recipe.getChunkLength(i)));
+                ser.endTag(null, CHUNK_TAG);
+            }
+            ser.endTag(null, RESOURCE_TAG);
+        }
+
+        ser.endTag(null, DOCUMENT_TAG);
+        ser.endDocument();
+    }
+
+    public static Map<String, ChunkRecipe> parseRecipes(InputStream in)
+            throws IOException {
+        try {
+            Element data = XMLUtils.parse(in).getDocumentElement();
+            Map<String, ChunkRecipe> result =
+                new LinkedHashMap<String, ChunkRecipe>();
+            NodeList resourceElems = data.getElementsByTagName(RESOURCE_TAG);
+            for (int i = 0; i < resourceElems.getLength(); i++) {
+                Element res = (Element) resourceElems.item(i);
+                ChunkRecipe recipe = new ChunkRecipe();
+                recipe.setLastModified(Long.parseLong(res
+                        .getAttribute(MOD_TIME_ATTR)));
+                String checksum = res.getAttribute(CHECKSUM_ATTR);
+                if (XMLUtils.hasValue(checksum))
+                    recipe.setChecksum(Long.valueOf(checksum));
+                NodeList chunkElems = res.getElementsByTagName(CHUNK_TAG);
+                for (int j = 0; j < chunkElems.getLength(); j++) {
+                    Element chunk = (Element) chunkElems.item(j);
+                    String id = chunk.getAttribute(ID_ATTR);
+                    if (!ContentChunker.isChunkID(id))
+                        throw new IOException("Invalid chunk ID " + id);
+                    recipe.addChunk(id, Integer.parseInt(chunk
+                            .getAttribute(LENGTH_ATTR)));
+                }
+                result.put(res.getAttribute(NAME_ATTR), recipe);
+            }
+            return result;
+        } catch (Exception e) {
+            IOException ioe = new IOException(
+                    "Unable to parse chunk recipe listing");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final String DOCUMENT_TAG = "chunkRecipes";
+
+    private static final String RESOURCE_TAG = "resource";
+
+    private static final String CHUNK_TAG = "chunk";
+
+    private static final String NAME_ATTR = "name";
+
+    private static final String MOD_TIME_ATTR = "modTime";
+
+    private static final String CHECKSUM_ATTR = "checksum";
+
+    private static final String ID_ATTR = "id";
+
+    private static final String LENGTH_ATTR = "length";
+
+}
@@ -34,6 +34,7 @@ import java.util.zip.CheckedOutputStream;
 import net.sourceforge.processdash.tool.bridge.ResourceCollection;
 import net.sourceforge.processdash.tool.bridge.ResourceCollectionInfo;
 import net.sourceforge.processdash.tool.bridge.ResourceFilter;
+import net.sourceforge.processdash.tool.bridge.impl.FileResourceCollection;
 
 
 public class ListingHashcodeCalculator {
@@ -64,6 +65,10 @@ public class ListingHashcodeCalculator {
     public static long getListingHashcode(ResourceCollectionInfo collection,
             ResourceFilter filter) {
         List<String> resourceNames = filter.filterCollection(collection);
+        if (collection instanceof FileResourceCollection)
+            // file collections can often reuse a previously computed value
+            return ((FileResourceCollection) collection)
+                    .getListingHashcode(resourceNames);
         return getListingHashcode(collection, resourceNames);
     }
 
@@ -39,7 +39,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,7 +61,9 @@ import net.sourceforge.processdash.security.DashboardPermission;
 import net.sourceforge.processdash.team.group.UserGroupManagerDash;
 import net.sourceforge.processdash.tool.bridge.client.DynamicImportDirectory;
 import net.sourceforge.processdash.tool.bridge.client.ImportDirectory;
+import net.sourceforge.processdash.tool.bridge.client.LocalImportDirectory;
 import net.sourceforge.processdash.tool.export.impl.ArchiveMetricsFileImporter;
+import net.sourceforge.processdash.tool.export.impl.ArchiveMetricsXmlConstants;
 import net.sourceforge.processdash.tool.export.impl.MessageImporterXMLv1;
 import net.sourceforge.processdash.tool.export.impl.TextMetricsFileImporter;
 import net.sourceforge.processdash.tool.export.mgr.ImportInstructionSpecProvider;
@@ -66,7 +74,7 @@ import net.sourceforge.processdash.util.XMLUtils;
 
 
 /* This class imports data files into the repository */
-public class DataImporter extends Thread {
+public class DataImporter {
 
     public static final String EXPORT_FILE_OLD_SUFFIX = ".txt";
     public static final String EXPORT_FILE_SUFFIX = ".pdash";
@@ -74,7 +82,6 @@ public class DataImporter extends Thread {
     private static final String TEAM_LIST_FILE = "team.xml";
     public static final String EXPORT_DATANAME = "EXPORT_FILE";
 
-    private static final long TIME_DELAY = 10 * 60 * 1000; // 10 minutes
     private static Hashtable<String, DataImporter> importers = new Hashtable();
     private static List initializingImporters = Collections
             .synchronizedList(new ArrayList());
@@ -93,7 +100,6 @@ public class DataImporter extends Thread {
     private ImportDirectory directory;
     private Element instructionSpec;
     private ActionListener listener;
-    private volatile boolean isRunning = true;
     private Map<String, Long> modTimes = new HashMap<String, Long>();
     private Map<String, String> prefixes = new HashMap<String, String>();
 
@@ -140,6 +146,12 @@ public class DataImporter extends Thread {
             imp.quit();
         }
         importers.clear();
+        ImportScheduler.shutDown();
+        synchronized (DataImporter.class) {
+            if (importExecutor != null)
+                importExecutor.shutdownNow();
+            importExecutor = null;
+        }
         ImportedTimeLogManager.getInstance().dispose();
     }
 
@@ -159,6 +171,20 @@ public class DataImporter extends Thread {
         refreshPrefixWithFeedback(prefix);
     }
     public static List<String> refreshPrefixWithFeedback(String prefix) {
+        return refreshPrefixWithFeedback(prefix, null);
+    }
+    /**
+     * Check the import directories for a prefix, and import any new files.
+     * 
+     * @param prefix
+     *            the import prefix to refresh
+     * @param metrics
+     *            an object to record progress and throughput statistics
+     *            while the files are imported; can be null
+     * @return descriptions of the files that were imported
+     */
+    public static List<String> refreshPrefixWithFeedback(String prefix,
+            ImportMetrics metrics) {
         List<String> result = new ArrayList<String>();
         prefix = massagePrefix(prefix);
         Iterator i = importers.values().iterator();
@@ -169,9 +195,11 @@ public class DataImporter extends Thread {
                 importer.importPrefix.startsWith(prefix)) {
                 logger.info("checking " + importer.importPrefix + "=>"
                         + importer.directory.getDescription());
-                importer.checkFiles(result);
+                importer.checkFiles(result, metrics);
             }
         }
+        if (metrics != null)
+            logger.info("Refresh of " + prefix + " " + metrics);
         return result;
     }
     public static List<String> refreshLocation(String location) {
@@ -208,9 +236,17 @@ public class DataImporter extends Thread {
         else
             checkFiles(null);
 
-        this.setDaemon(true);
         if (DYNAMIC_IMPORT)
-            this.start();
+            ImportScheduler.getInstance().register(this, PARALLEL_INIT);
+    }
+
+    /**
+     * Create an importer that is neither checked nor scheduled; used by
+     * subclasses that supply their own checks.
+     */
+    DataImporter(String prefix, ImportDirectory importDir) {
+        this.importPrefix = prefix;
+        this.directory = importDir;
     }
 
     public void refreshIfCached() {
@@ -220,25 +256,42 @@ public class DataImporter extends Thread {
     }
 
     public void quit() {
-        isRunning = false;
-        this.interrupt();
+        ImportScheduler.unregister(this);
+        finishInitializing();
     }
 
+    /**
+     * Called by the {@link ImportScheduler} to check for new files.
+     * 
+     * @return true if any files were imported or closed
+     */
+    boolean checkScheduled() {
+        boolean result = checkFiles(null);
+        finishInitializing();
+        return result;
+    }
 
-    public void run() {
-        if (PARALLEL_INIT) {
-            checkFiles(null);
-            synchronized (initializingImporters) {
-                initializingImporters.remove(this);
-                if (initializingImporters.isEmpty())
-                    initializingImporters.notifyAll();
-            }
+    private void finishInitializing() {
+        synchronized (initializingImporters) {
+            if (initializingImporters.remove(this)
+                    && initializingImporters.isEmpty())
+                initializingImporters.notifyAll();
         }
-        while (isRunning) try {
-            sleep(TIME_DELAY);
-            if (isRunning)
-                checkFiles(null);
-        } catch (InterruptedException e) {}
+    }
+
+    /**
+     * @return the directory on the local filesystem holding the files we
+     *     import, if changes to it can be watched; otherwise null
+     */
+    File getWatchableDirectory() {
+        if (directory instanceof LocalImportDirectory)
+            return directory.getDirectory();
+        else
+            return null;
+    }
+
+    String getDirectoryDescription() {
+        return importPrefix + "=>" + directory.getDescription();
     }
 
     private void loadInstructionSpec(ImportInstructionSpecProvider provider) {
@@ -272,7 +325,16 @@ public class DataImporter extends Thread {
             return null;
     }
 
-    private synchronized void checkFiles(List<String> feedback) {
+    private boolean checkFiles(List<String> feedback) {
+        return checkFiles(feedback, null);
+    }
+
+    private synchronized boolean checkFiles(List<String> feedback,
+            ImportMetrics metrics) {
+        if (metrics == null)
+            metrics = new ImportMetrics();
+        long start = System.currentTimeMillis();
+        boolean changed = false;
         try {
             FILE_IO_LOCK.acquireUninterruptibly();
             Set<String> currentFilenames = new HashSet<String>(modTimes
@@ -283,18 +345,34 @@ public class DataImporter extends Thread {
             File [] files = getFilesToImport();
 
             // check them all to see if they need importing.
+            List<PendingImport> pending = new ArrayList<PendingImport>();
             for (int i = files.length;  i-- > 0;  ) {
-                String filename = files[i].getName();
+                PendingImport p = checkFile(files[i]);
+                if (p != null)
+                    pending.add(p);
+                else
+                    currentFilenames.remove(files[i].getName());
+            }
+
+            // start reading archives in parallel, then record the results
+            // in order. Each file is imported to its own prefix, and its
+            // data is committed by a single task, so commits for a given
+            // prefix remain ordered.
+            metrics.addPending(pending.size());
+            startParallelImports(pending);
+            for (PendingImport p : pending) {
                 try {
-                    if (checkFile(files[i]))
-                        if (feedback != null)
-                            feedback.add(getDescription(files[i]));
-                    currentFilenames.remove(filename);
+                    p.finish(metrics);
+                    changed = true;
+                    if (feedback != null)
+                        feedback.add(getDescription(p.file));
+                    currentFilenames.remove(p.file.getName());
                 } catch (Throwable t) {
                     // if an error is encountered when trying to import one
                     // of the files, log a message and attempt to continue
                     // with the remaining files.
-                    String errMsg = "Error importing file '" + files[i] +"'";
+                    metrics.fileFailed();
+                    String errMsg = "Error importing file '" + p.file +"'";
                     logger.log(Level.SEVERE, errMsg, t);
                 }
             }
@@ -302,15 +380,47 @@ public class DataImporter extends Thread {
             // if any previously imported files no longer exist, close
             // the corresponding datafiles.
             for (String filename : currentFilenames)
-                closeFile(filename);
+                if (closeFile(filename))
+                    changed = true;
 
         } catch (IOException ioe) {
             logger.log(Level.FINE, "IOException in DataImporter", ioe);
         } finally {
             FILE_IO_LOCK.release();
+            metrics.addElapsedTime(System.currentTimeMillis() - start);
         }
+        return changed;
     }
 
+    private void startParallelImports(List<PendingImport> pending) {
+        // only archives are imported in parallel. Other files update
+        // global state, and are imported in order on this thread.
+        List<PendingImport> archives = new ArrayList<PendingImport>();
+        for (PendingImport p : pending)
+            if (p.file.getName().toLowerCase().endsWith(EXPORT_FILE_SUFFIX))
+                archives.add(p);
+
+        if (archives.size() > 1 && NUM_PARALLEL_IMPORTS > 1) {
+            ExecutorService executor = getImportExecutor();
+            for (PendingImport p : archives)
+                p.future = executor.submit(p);
+        }
+    }
+
+    private static synchronized ExecutorService getImportExecutor() {
+        if (importExecutor == null)
+            importExecutor = Executors.newFixedThreadPool(
+                NUM_PARALLEL_IMPORTS, new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "DataImporter.Worker");
+                        t.setDaemon(true);
+                        return t;
+                    }});
+        return importExecutor;
+    }
+
+    private static ExecutorService importExecutor = null;
+
     private File[] getFilesToImport() {
         // get a list of files in the directory
         File[] files = directory.getDirectory().listFiles();
@@ -349,7 +459,7 @@ public class DataImporter extends Thread {
     /** If the file is one that could be imported, return its filename, in
      * lowercase, without the suffix. Otherwise, return null.
      */
-    private String getBaseImportName(String filename) {
+    static String getBaseImportName(String filename) {
         filename = filename.toLowerCase();
 
         if (filename.startsWith(RobustFileOutputStream.OUT_PREFIX))
@@ -360,6 +470,11 @@ public class DataImporter extends Thread {
             // ignore invisible system files created on Unix or Mac systems.
             return null;
 
+        else if (filename
+                .endsWith(ArchiveMetricsXmlConstants.BASE_ARCHIVE_SUFFIX))
+            // ignore base archives; they are read when applying a delta.
+            return null;
+
         else if (filename.endsWith(EXPORT_FILE_OLD_SUFFIX))
             // accept files whose name ends with the old export suffix.
             return filename.substring(0,
@@ -428,35 +543,82 @@ public class DataImporter extends Thread {
     }
 
     public synchronized void dispose() {
-        isRunning = false;
+        ImportScheduler.unregister(this);
         for (String filename : new ArrayList<String>(modTimes.keySet())) {
             closeFile(filename);
         }
     }
 
 
-    private boolean checkFile(File f) throws IOException {
+    private PendingImport checkFile(File f) {
         String filename = f.getName();
         Long prevModTime = modTimes.get(filename);
         long modTime = f.lastModified();
 
         // If this file is new (we've never seen it before), or if has
-        // been modified since we imported it last,
-        if (prevModTime == null || prevModTime.longValue() < modTime) {
-            importData(f, data);                   // import it, and
-            modTimes.put(filename, modTime);       // save its mod time
-            return true;
+        // been modified since we imported it last, it should be imported.
+        if (prevModTime == null || prevModTime.longValue() < modTime)
+            return new PendingImport(f, modTime);
+
+        return null;
+    }
+
+    /**
+     * A file that should be imported. The import itself can run on any
+     * thread; the results are recorded by {@link #finish(ImportMetrics)} on
+     * the thread that is checking the directory.
+     */
+    private class PendingImport implements Callable<Object> {
+
+        File file;
+
+        long modTime;
+
+        String prefix;
+
+        long importMillis, bytes;
+
+        Future<Object> future;
+
+        PendingImport(File file, long modTime) {
+            this.file = file;
+            this.modTime = modTime;
+        }
+
+        public Object call() throws IOException {
+            long start = System.currentTimeMillis();
+            prefix = importFile(file, data);
+            importMillis = System.currentTimeMillis() - start;
+            bytes = file.length();
+            return null;
+        }
+
+        void finish(ImportMetrics metrics) throws Exception {
+            if (future == null) {
+                call();
+            } else {
+                try {
+                    future.get();
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    throw (cause instanceof Exception ? (Exception) cause : ee);
+                }
+            }
+
+            recordImport(file, prefix);              // note the import, and
+            modTimes.put(file.getName(), modTime);   // save its mod time
+            metrics.fileImported(bytes, importMillis);
         }
 
-        return false;
     }
 
-    private void closeFile(String filename) {
+    private boolean closeFile(String filename) {
         String prefix = prefixes.get(filename);
-        if (prefix == null) return;
+        if (prefix == null) return false;
         logger.info("closing import " + getDescription(filename));
         closeImportedFile(data, prefix);
         modTimes.remove(filename);
+        return true;
     }
 
     public static void closeImportedFile(DataRepository data, String prefix) {
@@ -464,12 +626,19 @@ public class DataImporter extends Thread {
         ImportedDefectManager.closeDefects(prefix);
         ImportedTimeLogManager.getInstance().closeTimeLogs(prefix);
         ImportedEVManager.getInstance().closeTaskLists(prefix);
+        ArchiveMetricsFileImporter.closeArchive(prefix);
     }
 
 
     public void importData(File f, DataRepository data)
         throws IOException
     {
+        String prefix = importFile(f, data);
+        recordImport(f, prefix);
+    }
+
+    /** Import the data in a file, and return the prefix it was mounted at */
+    private String importFile(File f, DataRepository data) throws IOException {
         String prefix = makePrefix(f);
         logger.info("importing " + f);
 
@@ -487,7 +656,10 @@ public class DataImporter extends Thread {
         } else if (filename.equals(TEAM_LIST_FILE)) {
             UserGroupManagerDash.getInstance().addTeamMemberList(f);
         }
+        return prefix;
+    }
 
+    private void recordImport(File f, String prefix) {
         prefixes.put(f.getName(), prefix);
         if (listener != null)
             listener.actionPerformed(new ActionEvent(this,
@@ -515,4 +687,6 @@ public class DataImporter extends Thread {
     }
     private static final boolean PARALLEL_INIT = Settings.getBool(
         "dataImporter.parallelInit", false);
+    private static final int NUM_PARALLEL_IMPORTS = Settings.getInt(
+        "dataImporter.numParallelImports", 4);
 }
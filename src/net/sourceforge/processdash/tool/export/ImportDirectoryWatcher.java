@@ -0,0 +1,176 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.tool.export;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Receives notifications from the operating system when files in import
+ * directories change.
+ * <p>
+ * This class uses the WatchService introduced in Java 7. Other classes refer
+ * to watch registrations only as opaque objects, so they can still load on
+ * older JVMs, where {@link #create(Listener)} will fail.
+ */
+class ImportDirectoryWatcher implements Runnable {
+
+    public interface Listener {
+
+        /**
+         * Called when files in a watched directory have changed.
+         * 
+         * @param key the registration returned by {@link #register(File)}
+         * @param filenames the names of the files that changed, or null if
+         *     the changes could not be tracked individually
+         */
+        public void directoryChanged(Object key, List<String> filenames);
+
+    }
+
+    private static final Logger logger = Logger
+            .getLogger(ImportDirectoryWatcher.class.getName());
+
+    /** Filesystem types that hold files shared by other computers */
+    private static final Set<String> NETWORK_FILESYSTEM_TYPES = new HashSet(
+            Arrays.asList("nfs", "nfs4", "cifs", "smb", "smbfs", "smb2",
+                "smb3", "afpfs", "ncpfs", "webdav", "davfs", "fuse.sshfs",
+                "9p"));
+
+    private WatchService service;
+
+    private Listener listener;
+
+
+    private ImportDirectoryWatcher(WatchService service, Listener listener) {
+        this.service = service;
+        this.listener = listener;
+    }
+
+    /**
+     * Create a watcher and start its notification thread.
+     * 
+     * @throws IOException if the watch service could not be created. On
+     *     JVMs older than Java 7, a LinkageError is thrown instead.
+     */
+    public static ImportDirectoryWatcher create(Listener listener)
+            throws IOException {
+        WatchService service = FileSystems.getDefault().newWatchService();
+        ImportDirectoryWatcher result = new ImportDirectoryWatcher(service,
+                listener);
+        Thread t = new Thread(result, "ImportDirectoryWatcher");
+        t.setDaemon(true);
+        t.start();
+        return result;
+    }
+
+    /**
+     * Begin watching a directory.
+     * 
+     * @return an object identifying the registration, or null if the
+     *     directory cannot be watched
+     */
+    public Object register(File dir) {
+        try {
+            Path path = Paths.get(dir.getAbsolutePath());
+            if (isNetworkPath(path)) {
+                logger.fine("Not watching network directory " + dir);
+                return null;
+            }
+            return path.register(service, ENTRY_CREATE, ENTRY_MODIFY,
+                ENTRY_DELETE);
+        } catch (Exception e) {
+            logger.log(Level.FINE, "Cannot watch directory " + dir, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if a path is on a network share. The operating system
+     *     often does not report changes that other computers make to a
+     *     share, so those directories must be polled.
+     */
+    static boolean isNetworkPath(Path path) throws IOException {
+        String str = path.toString();
+        if (str.startsWith("\\\\") || str.startsWith("//"))
+            return true; // UNC path
+
+        String type = Files.getFileStore(path).type();
+        return type != null
+                && NETWORK_FILESYSTEM_TYPES.contains(type.toLowerCase());
+    }
+
+    /** Stop watching the directory for a registration */
+    public void cancel(Object key) {
+        ((WatchKey) key).cancel();
+    }
+
+    /** Stop watching all directories, and end the notification thread */
+    public void close() {
+        try {
+            service.close();
+        } catch (IOException ioe) {}
+    }
+
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                List<String> filenames = new ArrayList<String>();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW)
+                        filenames = null;
+                    else if (filenames != null)
+                        filenames.add(event.context().toString());
+                }
+                key.reset();
+                listener.directoryChanged(key, filenames);
+            }
+        } catch (ClosedWatchServiceException cwse) {
+        } catch (InterruptedException ie) {
+        }
+    }
+
+}
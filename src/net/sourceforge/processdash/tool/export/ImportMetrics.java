@@ -0,0 +1,116 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.tool.export;
+
+
+/**
+ * Collects progress and throughput statistics while import directories are
+ * checked for new files.
+ * 
+ * An object of this class can be passed to
+ * {@link DataImporter#refreshPrefixWithFeedback(String, ImportMetrics)}.
+ * Its values are updated as each file is imported, so another thread can
+ * read them to display progress.
+ */
+public class ImportMetrics {
+
+    private int pendingCount;
+
+    private int importedCount;
+
+    private int failedCount;
+
+    private long bytesImported;
+
+    private long importMillis;
+
+    private long elapsedMillis;
+
+
+    /** @return the number of files waiting to be imported */
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /** @return the number of files that were imported successfully */
+    public synchronized int getImportedCount() {
+        return importedCount;
+    }
+
+    /** @return the number of files that could not be imported */
+    public synchronized int getFailedCount() {
+        return failedCount;
+    }
+
+    /** @return the total size of the files that were imported */
+    public synchronized long getBytesImported() {
+        return bytesImported;
+    }
+
+    /**
+     * @return the total time spent importing individual files. When files
+     *         are imported in parallel, this can exceed the elapsed time.
+     */
+    public synchronized long getImportMillis() {
+        return importMillis;
+    }
+
+    /** @return the elapsed time spent checking import directories */
+    public synchronized long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /** @return the number of bytes imported per second of elapsed time */
+    public synchronized long getBytesPerSecond() {
+        return (elapsedMillis == 0 ? 0 : bytesImported * 1000 / elapsedMillis);
+    }
+
+    synchronized void addPending(int count) {
+        pendingCount += count;
+    }
+
+    synchronized void fileImported(long bytes, long millis) {
+        pendingCount--;
+        importedCount++;
+        bytesImported += bytes;
+        importMillis += millis;
+    }
+
+    synchronized void fileFailed() {
+        pendingCount--;
+        failedCount++;
+    }
+
+    synchronized void addElapsedTime(long millis) {
+        elapsedMillis += millis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "imported " + importedCount + " files (" + bytesImported
+                + " bytes, " + failedCount + " failed) in " + elapsedMillis
+                + " ms";
+    }
+
+}
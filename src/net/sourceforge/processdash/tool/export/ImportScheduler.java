@@ -0,0 +1,393 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.tool.export;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sourceforge.processdash.Settings;
+
+
+/**
+ * Schedules the checks that look for new and changed files in import
+ * directories.
+ * <p>
+ * A single timer thread schedules the checks for all registered
+ * {@link DataImporter} objects.  Checks that are due are handed to a small
+ * pool of worker threads, so a slow or unresponsive network share does not
+ * delay the checks of other directories.
+ * <p>
+ * Directories on the local filesystem are watched for changes when the JVM
+ * supports it; a change schedules a check after a short settling delay, so
+ * a burst of notifications results in a single import pass. These
+ * directories are still checked at the usual polling interval, in case a
+ * notification is missed. Network shares are not watched, because changes
+ * made by other computers are often not reported.
+ * <p>
+ * Other directories are polled. The polling interval backs off while a
+ * directory is unchanged, and grows in proportion to the time a check takes,
+ * so slow network shares are not polled continuously.
+ */
+class ImportScheduler implements Runnable, ImportDirectoryWatcher.Listener {
+
+    /** The usual delay between checks of a directory */
+    static final long POLL_DELAY = 60000L * Settings.getInt(
+        "dataImporter.pollMinutes", 10);
+
+    /** The longest delay between checks of a directory */
+    static final long MAX_POLL_DELAY = Math.max(POLL_DELAY, 60000L
+            * Settings.getInt("dataImporter.maxPollMinutes", 30));
+
+    /** How long to wait for changes to a watched directory to settle */
+    static final long SETTLE_DELAY = 3000;
+
+    /** The longest a check can be postponed by continuing changes */
+    private static final long MAX_SETTLE_DELAY = 30000;
+
+    /** Polling intervals are at least this multiple of the check time */
+    static final int SLOW_POLL_FACTOR = 100;
+
+    /** The number of directories that can be checked at the same time */
+    private static final int NUM_CHECK_THREADS = Math.max(1, Settings.getInt(
+        "slowNetwork.numParallelReads", 10));
+
+    private static final Logger logger = Logger.getLogger(ImportScheduler.class
+            .getName());
+
+    private static ImportScheduler INSTANCE = null;
+
+
+    private Map<DataImporter, Entry> entries;
+
+    private Map<Object, Entry> watchedEntries;
+
+    private ImportDirectoryWatcher watcher;
+
+    private Thread thread;
+
+    private ThreadPoolExecutor checkExecutor;
+
+    private boolean running;
+
+
+    /**
+     * Create a scheduler. The timer thread is not started until
+     * {@link #start()} is called.
+     * 
+     * @param watchDirectories true if local directories should be watched
+     *     for changes
+     */
+    ImportScheduler(boolean watchDirectories) {
+        entries = new HashMap<DataImporter, Entry>();
+        watchedEntries = new HashMap<Object, Entry>();
+        if (watchDirectories) {
+            try {
+                watcher = ImportDirectoryWatcher.create(this);
+            } catch (Throwable t) {
+                // directory watching is not available on this JVM
+                logger.log(Level.FINE, "Import directories will be polled", t);
+            }
+        }
+
+        checkExecutor = new ThreadPoolExecutor(NUM_CHECK_THREADS,
+                NUM_CHECK_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ImportScheduler.check");
+                        t.setDaemon(true);
+                        return t;
+                    }});
+        checkExecutor.allowCoreThreadTimeOut(true);
+        running = true;
+    }
+
+    private void start() {
+        thread = new Thread(this, "ImportScheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static synchronized ImportScheduler getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new ImportScheduler(true);
+            INSTANCE.start();
+        }
+        return INSTANCE;
+    }
+
+    public static synchronized void shutDown() {
+        if (INSTANCE != null) {
+            INSTANCE.stop();
+            INSTANCE = null;
+        }
+    }
+
+
+    /**
+     * Begin scheduling checks for an importer.
+     * 
+     * @param checkNow true if the importer should be checked right away;
+     *     otherwise the first check happens after the usual delay
+     */
+    public synchronized void register(DataImporter importer, boolean checkNow) {
+        Entry e = new Entry(importer);
+        File dir = importer.getWatchableDirectory();
+        if (watcher != null && dir != null) {
+            e.watchKey = watcher.register(dir);
+            if (e.watchKey != null)
+                watchedEntries.put(e.watchKey, e);
+        }
+
+        long now = currentTime();
+        e.due = (checkNow ? now : now + getDelay(e, 0));
+        entries.put(importer, e);
+        notifyAll();
+    }
+
+    /** Stop scheduling checks for an importer */
+    public static synchronized void unregister(DataImporter importer) {
+        if (INSTANCE != null)
+            INSTANCE.removeEntry(importer);
+    }
+
+    synchronized void removeEntry(DataImporter importer) {
+        Entry e = entries.remove(importer);
+        if (e != null)
+            stopWatching(e);
+    }
+
+    private void stopWatching(Entry e) {
+        if (e.watchKey != null) {
+            watchedEntries.remove(e.watchKey);
+            watcher.cancel(e.watchKey);
+            e.watchKey = null;
+        }
+    }
+
+    synchronized void stop() {
+        running = false;
+        entries.clear();
+        watchedEntries.clear();
+        if (watcher != null)
+            watcher.close();
+        checkExecutor.shutdown();
+        notifyAll();
+    }
+
+
+    public synchronized void directoryChanged(Object key,
+            List<String> filenames) {
+        Entry e = watchedEntries.get(key);
+        if (e == null)
+            return;
+
+        if (filenames != null) {
+            boolean relevant = false;
+            for (String filename : filenames)
+                if (DataImporter.getBaseImportName(filename) != null)
+                    relevant = true;
+            if (!relevant)
+                return;
+        }
+
+        long now = currentTime();
+        if (e.firstEvent == 0)
+            e.firstEvent = now;
+        e.due = Math.min(now + SETTLE_DELAY, e.firstEvent + MAX_SETTLE_DELAY);
+        notifyAll();
+    }
+
+
+    public void run() {
+        while (true) {
+            List<Entry> batch = new ArrayList<Entry>();
+            synchronized (this) {
+                while (running && !collectDueEntries(batch)) {
+                    try {
+                        wait(getTimeUntilNextCheck());
+                    } catch (InterruptedException ie) {}
+                }
+                if (!running)
+                    return;
+
+                for (final Entry e : batch) {
+                    checkExecutor.execute(new Runnable() {
+                        public void run() {
+                            check(e);
+                        }});
+                }
+            }
+        }
+    }
+
+    /** Perform the checks that are due, on the calling thread */
+    void runDueChecks() {
+        List<Entry> batch = new ArrayList<Entry>();
+        synchronized (this) {
+            collectDueEntries(batch);
+        }
+        for (Entry e : batch)
+            check(e);
+    }
+
+    private boolean collectDueEntries(List<Entry> batch) {
+        long now = currentTime();
+        for (Entry e : entries.values()) {
+            if (e.due <= now && !e.checking) {
+                e.checking = true;
+                e.eventTriggered = (e.firstEvent != 0);
+                e.firstEvent = 0;
+                e.due = Long.MAX_VALUE;
+                batch.add(e);
+            }
+        }
+        return !batch.isEmpty();
+    }
+
+    private long getTimeUntilNextCheck() {
+        long next = Long.MAX_VALUE;
+        for (Entry e : entries.values())
+            if (!e.checking) // a finished check will wake the timer thread
+                next = Math.min(next, e.due);
+        if (next == Long.MAX_VALUE)
+            return 0;
+        else
+            return Math.max(1, next - currentTime());
+    }
+
+    private void check(Entry e) {
+        long start = currentTime();
+        boolean changed = false;
+        try {
+            changed = e.importer.checkScheduled();
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, "Unexpected error when checking "
+                    + e.importer.getDirectoryDescription(), t);
+        }
+        long end = currentTime();
+        long elapsed = end - start;
+
+        synchronized (this) {
+            e.checking = false;
+            if (entries.get(e.importer) != e)
+                return;
+
+            if (changed && e.watchKey != null && e.checked
+                    && !e.eventTriggered) {
+                // a periodic check found changes that no notification told
+                // us about. Notifications don't work for this directory.
+                logger.fine("Change notifications are unreliable for "
+                        + e.importer.getDirectoryDescription()
+                        + "; polling instead");
+                stopWatching(e);
+            }
+            e.idleChecks = (changed ? 0 : e.idleChecks + 1);
+            e.checked = true;
+
+            // if a notification arrived during the check, keep the time
+            // it scheduled. Otherwise, schedule the next periodic check.
+            long nextCheck = end + getDelay(e, elapsed);
+            if (e.firstEvent != 0)
+                nextCheck = Math.min(nextCheck, e.due);
+            e.due = nextCheck;
+            notifyAll();
+        }
+
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("Checked " + e.importer.getDirectoryDescription()
+                    + " in " + elapsed + " ms; next check in "
+                    + (e.due - end) / 1000 + " sec");
+    }
+
+    private long getDelay(Entry e, long checkTime) {
+        if (e.watchKey != null)
+            return POLL_DELAY;
+
+        long delay = POLL_DELAY;
+        for (int i = e.idleChecks; i-- > 0 && delay < MAX_POLL_DELAY;)
+            delay = delay * 2;
+        delay = Math.max(delay, checkTime * SLOW_POLL_FACTOR);
+        return Math.min(delay, MAX_POLL_DELAY);
+    }
+
+
+    /** @return the time of the next scheduled check for an importer */
+    synchronized long getNextCheckTime(DataImporter importer) {
+        Entry e = entries.get(importer);
+        return (e == null ? -1 : e.due);
+    }
+
+    /** @return the watch registration for an importer, or null if polled */
+    synchronized Object getWatchKey(DataImporter importer) {
+        Entry e = entries.get(importer);
+        return (e == null ? null : e.watchKey);
+    }
+
+    /** @return the current time; overridden for testing */
+    long currentTime() {
+        return System.currentTimeMillis();
+    }
+
+
+    private static class Entry {
+
+        DataImporter importer;
+
+        /** The watch registration for this directory, or null if polled */
+        Object watchKey;
+
+        /** The time of the next check */
+        long due;
+
+        /** The time of the first unhandled change notification, or 0 */
+        long firstEvent;
+
+        /** True while a worker thread is checking this directory */
+        boolean checking;
+
+        /** True if the current check was requested by a notification */
+        boolean eventTriggered;
+
+        /** True if this directory has been checked at least once */
+        boolean checked;
+
+        /** The number of consecutive checks that found no changes */
+        int idleChecks;
+
+        Entry(DataImporter importer) {
+            this.importer = importer;
+        }
+
+    }
+
+}
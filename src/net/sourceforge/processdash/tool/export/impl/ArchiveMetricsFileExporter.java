@@ -25,6 +25,7 @@ package net.sourceforge.processdash.tool.export.impl;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -50,7 +51,9 @@ import org.xmlpull.v1.XmlSerializer;
 import net.sourceforge.processdash.DashController;
 import net.sourceforge.processdash.DashboardContext;
 import net.sourceforge.processdash.ProcessDashboard;
+import net.sourceforge.processdash.Settings;
 import net.sourceforge.processdash.data.DateData;
+import net.sourceforge.processdash.data.SimpleData;
 import net.sourceforge.processdash.data.repository.DataRepository;
 import net.sourceforge.processdash.data.util.TopDownBottomUpJanitor;
 import net.sourceforge.processdash.ev.EVDependencyCalculator;
@@ -63,6 +66,7 @@ import net.sourceforge.processdash.tool.export.mgr.CompletionStatus;
 import net.sourceforge.processdash.tool.export.mgr.ExportFileEntry;
 import net.sourceforge.processdash.util.DateUtils;
 import net.sourceforge.processdash.util.HTMLUtils;
+import net.sourceforge.processdash.util.IteratorFilter;
 import net.sourceforge.processdash.util.StringUtils;
 import net.sourceforge.processdash.util.ThreadThrottler;
 import net.sourceforge.processdash.util.XMLUtils;
@@ -83,12 +87,18 @@ public class ArchiveMetricsFileExporter implements Runnable,
 
     private static final String EV_FILE_NAME = "ev.xml";
 
+    private static final String DELETIONS_FILE_NAME = "deletions.xml";
+
     private static final String DATA_TIMESTAMP_NAME = "Data_Activity_Timestamp";
 
     private DashboardContext ctx;
 
     private ExportFileStream dest;
 
+    private String targetPath;
+
+    private String baseArchiveName;
+
     private Collection filter;
 
     private List metricsIncludes;
@@ -99,6 +109,8 @@ public class ArchiveMetricsFileExporter implements Runnable,
 
     private Date maxActivityDate;
 
+    private IncrementalExportState incrementalState;
+
     private CompletionStatus completionStatus = CompletionStatus.NOT_RUN_STATUS;
 
     private static final Logger logger = Logger
@@ -115,6 +127,8 @@ public class ArchiveMetricsFileExporter implements Runnable,
             List metricsExcludes, List additionalEntries) {
         this.ctx = ctx;
         this.dest = new ExportFileStream(url, dest);
+        this.targetPath = ExportFileStream.getExportTargetPath(dest, url);
+        this.baseArchiveName = getBaseArchiveName(dest.getName());
         this.filter = filter;
         this.metricsIncludes = metricsIncludes;
         this.metricsExcludes = metricsExcludes;
@@ -154,21 +168,58 @@ public class ArchiveMetricsFileExporter implements Runnable,
         ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(
                 outStream));
 
+        incrementalState = null;
+        if (Settings.getBool("export.deltaArchives", false)) {
+            incrementalState = IncrementalExportState.get(
+                DashController.getDatasetID(), targetPath);
+            // only write a delta if the destination still holds our base
+            Long destBaseChecksum = null;
+            if (incrementalState.hasBase())
+                destBaseChecksum = dest.getSiblingChecksum(baseArchiveName);
+            incrementalState.startExport(getExportConfig(), destBaseChecksum);
+        }
+
         EST_TIME_JANITOR.cleanup(ctx);
         Collection taskListNames = writeData(zipOut);
-        if (!taskListNames.isEmpty())
-            writeTaskLists(zipOut, taskListNames);
-        writeDefects(zipOut);
+        boolean includeTaskLists = writeTaskLists(zipOut, taskListNames);
+        boolean includeDefects = writeDefects(zipOut);
         writeTimeLogEntries(zipOut);
+        if (isDelta())
+            writeDeletions(zipOut);
         maybeSaveMaxActivityDate();
         writeAditionalEntries(zipOut);
-        writeManifest(zipOut, !taskListNames.isEmpty());
+        writeManifest(zipOut, includeTaskLists, includeDefects);
 
         zipOut.close();
+        long archiveChecksum = dest.getChecksum();
+
+        // a full export also becomes the base that future deltas will be
+        // applied against. Write the base first, so a delta never refers
+        // to a base that isn't there.
+        if (incrementalState != null && !isDelta()) {
+            incrementalState.discardSavedState();
+            dest.copyToSibling(baseArchiveName);
+        }
         dest.finish();
+
+        if (incrementalState != null)
+            incrementalState.exportFinished(archiveChecksum);
+    }
+
+    private boolean isDelta() {
+        return incrementalState != null && incrementalState.isDelta();
+    }
+
+    /**
+     * Describe the settings that determine which items are exported. If
+     * these change, a delta can't be written against the previous base.
+     */
+    private String getExportConfig() {
+        return filter + "|" + metricsIncludes + "|" + metricsExcludes;
     }
 
-    private void writeManifest(ZipOutputStream zipOut, boolean includeTaskLists)
+    private void writeManifest(ZipOutputStream zipOut,
+            boolean includeTaskLists, boolean includeDefects)
             throws IOException {
         zipOut.putNextEntry(new ZipEntry(MANIFEST_FILE_NAME));
 
@@ -185,12 +236,27 @@ public class ArchiveMetricsFileExporter implements Runnable,
         xml.ignorableWhitespace(NEWLINE + NEWLINE);
 
         xml.startTag(null, ARCHIVE_ELEM);
-        xml.attribute(null, TYPE_ATTR, FILE_TYPE_ARCHIVE);
+        if (isDelta()) {
+            xml.attribute(null, TYPE_ATTR, FILE_TYPE_DELTA_ARCHIVE);
+            xml.attribute(null, EXPORT_ID_ATTR, incrementalState.getExportID());
+            xml.attribute(null, BASE_ID_ATTR, incrementalState.getBaseID());
+        } else {
+            xml.attribute(null, TYPE_ATTR, FILE_TYPE_ARCHIVE);
+            if (incrementalState != null)
+                xml.attribute(null, EXPORT_ID_ATTR,
+                    incrementalState.getExportID());
+        }
         xml.ignorableWhitespace(NEWLINE);
 
         writeManifestMetaData(xml);
+        // deletions must be applied before the changed items are imported
+        if (isDelta())
+            writeManifestFileEntry(xml, DELETIONS_FILE_NAME,
+                FILE_TYPE_DELETIONS, "1");
         writeManifestFileEntry(xml, DATA_FILE_NAME, FILE_TYPE_METRICS, "1");
-        writeManifestFileEntry(xml, DEFECT_FILE_NAME, FILE_TYPE_DEFECTS, "1");
+        if (includeDefects)
+            writeManifestFileEntry(xml, DEFECT_FILE_NAME, FILE_TYPE_DEFECTS,
+                "1");
         writeManifestFileEntry(xml, TIME_FILE_NAME, FILE_TYPE_TIME_LOG, "1");
         if (includeTaskLists)
             writeManifestFileEntry(xml, EV_FILE_NAME, FILE_TYPE_EARNED_VALUE,
@@ -312,8 +378,12 @@ public class ArchiveMetricsFileExporter implements Runnable,
             ddef.init();
         }
 
+        Iterator toExport = ddef;
+        if (incrementalState != null)
+            toExport = new IncrementalDataFilter(ddef, incrementalState);
+
         DataExporter exp = new DataExporterXMLv1();
-        exp.export(zipOut, ddef);
+        exp.export(zipOut, toExport);
         baseIter.iterationFinished();
 
         zipOut.closeEntry();
@@ -324,19 +394,64 @@ public class ArchiveMetricsFileExporter implements Runnable,
         return taskListWatcher.getTaskListNames();
     }
 
-    private void writeDefects(ZipOutputStream zipOut) throws IOException {
-        zipOut.putNextEntry(new ZipEntry(DEFECT_FILE_NAME));
+    private static class IncrementalDataFilter extends IteratorFilter {
+
+        private IncrementalExportState state;
 
+        protected IncrementalDataFilter(Iterator parent,
+                IncrementalExportState state) {
+            super(parent);
+            this.state = state;
+            init();
+        }
+
+        protected boolean includeInResults(Object o) {
+            ExportedDataValue v = (ExportedDataValue) o;
+            SimpleData value = v.getSimpleValue();
+            return value != null && state.includeDataValue(v.getName(), value);
+        }
+
+    }
+
+    private boolean writeDefects(ZipOutputStream zipOut) throws IOException {
         DefectExporter exp = new DefectExporterXMLv1();
-        exp.dumpDefects(ctx.getHierarchy(), filter, zipOut);
 
-        zipOut.closeEntry();
+        if (incrementalState == null) {
+            zipOut.putNextEntry(new ZipEntry(DEFECT_FILE_NAME));
+            exp.dumpDefects(ctx.getHierarchy(), filter, zipOut);
+            zipOut.closeEntry();
+            return true;
+        }
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        exp.dumpDefects(ctx.getHierarchy(), filter, content);
+        return writeSection(zipOut, DEFECT_FILE_NAME,
+            IncrementalExportState.DEFECTS, content, true);
+    }
+
+    /**
+     * Sections that are small or hard to compare item-by-item are written to
+     * a delta in their entirety if they have changed since the base.
+     */
+    private boolean writeSection(ZipOutputStream zipOut, String filename,
+            String section, ByteArrayOutputStream content, boolean hasContent)
+            throws IOException {
+        if (incrementalState.includeSection(section, content.toByteArray())
+                && (hasContent || isDelta())) {
+            zipOut.putNextEntry(new ZipEntry(filename));
+            content.writeTo(zipOut);
+            zipOut.closeEntry();
+            return true;
+        } else {
+            return false;
+        }
     }
 
     private void writeTimeLogEntries(ZipOutputStream zipOut) throws IOException {
         zipOut.putNextEntry(new ZipEntry(TIME_FILE_NAME));
 
         TimeLogExporterXMLv1 exp = new TimeLogExporterXMLv1();
+        exp.setIncrementalState(incrementalState);
         exp.dumpTimeLogEntries(ctx.getTimeLog(), ctx.getData(), filter, zipOut);
 
         Date maxTimeLogDate = exp.getMaxDate();
@@ -345,6 +460,49 @@ public class ArchiveMetricsFileExporter implements Runnable,
         zipOut.closeEntry();
     }
 
+    private void writeDeletions(ZipOutputStream zipOut) throws IOException {
+        zipOut.putNextEntry(new ZipEntry(DELETIONS_FILE_NAME));
+
+        XmlSerializer xml = null;
+        try {
+            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+            xml = factory.newSerializer();
+        } catch (XmlPullParserException xppe) {
+            throw new RuntimeException("Couldn't obtain xml serializer", xppe);
+        }
+
+        xml.setOutput(zipOut, ENCODING);
+        xml.startDocument(ENCODING, Boolean.TRUE);
+        xml.ignorableWhitespace(NEWLINE + NEWLINE);
+        xml.startTag(null, DeletionsXmlConstantsv1.DELETIONS_ELEM);
+        xml.ignorableWhitespace(NEWLINE);
+
+        for (String name : incrementalState.getDeletedDataNames()) {
+            xml.ignorableWhitespace(INDENT);
+            xml.startTag(null, DeletionsXmlConstantsv1.DELETED_DATA_ELEM);
+            xml.attribute(null, DeletionsXmlConstantsv1.DELETED_NAME_ATTR, name);
+            xml.endTag(null, DeletionsXmlConstantsv1.DELETED_DATA_ELEM);
+            xml.ignorableWhitespace(NEWLINE);
+        }
+
+        for (Long id : incrementalState.getDeletedTimeLogIDs()) {
+            xml.ignorableWhitespace(INDENT);
+            xml.startTag(null,
+                DeletionsXmlConstantsv1.DELETED_TIME_LOG_ENTRY_ELEM);
+            xml.attribute(null, DeletionsXmlConstantsv1.DELETED_ID_ATTR,
+                id.toString());
+            xml.endTag(null,
+                DeletionsXmlConstantsv1.DELETED_TIME_LOG_ENTRY_ELEM);
+            xml.ignorableWhitespace(NEWLINE);
+        }
+
+        xml.endTag(null, DeletionsXmlConstantsv1.DELETIONS_ELEM);
+        xml.ignorableWhitespace(NEWLINE);
+        xml.endDocument();
+
+        zipOut.closeEntry();
+    }
+
     private void maybeSaveMaxActivityDate() {
         if (maxActivityDate != null && filter.size() == 1) {
             String path = (String) filter.iterator().next();
@@ -418,16 +576,28 @@ public class ArchiveMetricsFileExporter implements Runnable,
         return uri.toString();
     }
 
-    private void writeTaskLists(ZipOutputStream zipOut, Collection taskListNames)
-            throws IOException {
+    private boolean writeTaskLists(ZipOutputStream zipOut,
+            Collection taskListNames) throws IOException {
+        if (taskListNames.isEmpty() && incrementalState == null)
+            return false;
 
         Map schedules = getEVSchedules(taskListNames);
-
-        zipOut.putNextEntry(new ZipEntry(EV_FILE_NAME));
         EVExporter exp = new EVExporterXMLv1();
-        exp.export(zipOut, schedules);
 
-        zipOut.closeEntry();
+        if (incrementalState == null) {
+            zipOut.putNextEntry(new ZipEntry(EV_FILE_NAME));
+            exp.export(zipOut, schedules);
+            zipOut.closeEntry();
+            return true;
+        }
+
+        // if all task lists have been removed since the base, a delta will
+        // contain an empty EV file so importers discard the old task lists.
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        exp.export(content, schedules);
+        return writeSection(zipOut, EV_FILE_NAME,
+            IncrementalExportState.EARNED_VALUE, content,
+            !taskListNames.isEmpty());
     }
 
     private Map getEVSchedules(Collection taskListNames) {
@@ -459,6 +629,16 @@ public class ArchiveMetricsFileExporter implements Runnable,
         return schedules;
     }
 
+    /**
+     * Return the name of the file holding the base archive that delta exports
+     * to the given file are applied against.
+     */
+    public static String getBaseArchiveName(String filename) {
+        if (filename.toLowerCase().endsWith(".pdash"))
+            filename = filename.substring(0, filename.length() - 6);
+        return filename + BASE_ARCHIVE_SUFFIX;
+    }
+
     private static final TopDownBottomUpJanitor EST_TIME_JANITOR =
         new TopDownBottomUpJanitor("Estimated Time");
 
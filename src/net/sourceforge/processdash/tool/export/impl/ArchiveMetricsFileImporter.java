@@ -27,9 +27,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +45,7 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
+import net.sourceforge.processdash.Settings;
 import net.sourceforge.processdash.data.DateData;
 import net.sourceforge.processdash.data.ImmutableDoubleData;
 import net.sourceforge.processdash.data.ListData;
@@ -95,6 +99,7 @@ public class ArchiveMetricsFileImporter implements Runnable,
 
     private List initHandlers() {
         List result = new LinkedList();
+        result.add(new DeletionsImporterXMLv1());
         result.add(new EVImporterXMLv1());
         result.add(new DefectImporterXMLv1());
         result.add(new TimeLogImporterXMLv1());
@@ -123,6 +128,8 @@ public class ArchiveMetricsFileImporter implements Runnable,
             exportTimestamp = null;
             srcDatasetID = null;
             defns = null;
+            isDelta = false;
+            deletedTimeLogIDs = null;
             if (zipFile != null)
                 try {
                     zipFile.close();
@@ -169,12 +176,31 @@ public class ArchiveMetricsFileImporter implements Runnable,
 
     private Map defns;
 
+    private boolean isDelta;
+
+    private List<Long> deletedTimeLogIDs;
+
     private boolean shouldDeleteArchiveFileOnCompletion;
 
     public Map getDefns() {
         return defns;
     }
 
+    /**
+     * @return true if the archive being imported is a delta, whose contents
+     *         should be applied on top of the data that is already mounted.
+     */
+    public boolean isDelta() {
+        return isDelta;
+    }
+
+    /**
+     * @return the IDs of time log entries that a delta archive has deleted
+     */
+    public List<Long> getDeletedTimeLogIDs() {
+        return deletedTimeLogIDs;
+    }
+
     public Date getExportTimestamp() {
         return exportTimestamp;
     }
@@ -208,17 +234,19 @@ public class ArchiveMetricsFileImporter implements Runnable,
             XmlPullParserException {
         shouldDeleteArchiveFileOnCompletion = false;
         zipFile = new ZipFile(file);
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        XmlPullParser parser = factory.newPullParser();
-
-        InputStream manifestIn = openEntry(zipFile, MANIFEST_FILE_NAME);
-        parser.setInput(manifestIn, ENCODING);
-
-        parser.nextTag();
-        parser.require(XmlPullParser.START_TAG, null, ARCHIVE_ELEM);
-        if (!FILE_TYPE_ARCHIVE
-                .equals(parser.getAttributeValue(null, TYPE_ATTR)))
+        XmlPullParser parser = openManifest(zipFile);
+
+        String archiveType = parser.getAttributeValue(null, TYPE_ATTR);
+        String exportID = parser.getAttributeValue(null, EXPORT_ID_ATTR);
+        String baseID = exportID;
+        boolean delta = FILE_TYPE_DELTA_ARCHIVE.equals(archiveType);
+        if (delta) {
+            baseID = parser.getAttributeValue(null, BASE_ID_ATTR);
+            if (!XMLUtils.hasValue(exportID) || !XMLUtils.hasValue(baseID))
+                error("delta archive does not identify its base");
+        } else if (!FILE_TYPE_ARCHIVE.equals(archiveType)) {
             error("expected archive of type " + FILE_TYPE_ARCHIVE);
+        }
 
         parser.nextTag();
         parser.require(XmlPullParser.START_TAG, null, EXPORTED_TAG);
@@ -226,12 +254,98 @@ public class ArchiveMetricsFileImporter implements Runnable,
         exportTimestamp = XMLUtils.parseDate(parser.getAttributeValue(null,
                 WHEN_ATTR));
 
+        if (delta)
+            startDelta(baseID);
+        else
+            startFullImport();
+        deletedTimeLogIDs = new ArrayList<Long>();
+        Map<String, String> packageIDs = new HashMap<String, String>();
+        readManifestEntries(zipFile, parser, packageIDs);
+
+        // make a note of the individual who exported this data
+        recordKnownPerson();
+
+        // Protect this data from being viewed via external http requests.
+        defns.put("_Password_", ImmutableDoubleData.READ_ONLY_ZERO);
+
+        // Save metadata about the import
+        addImportMetadata(packageIDs);
+
+        try {
+            data.mountImportedData(prefix, defns);
+        } catch (InvalidDatafileFormat idf) {
+        }
+
+        // if future deltas might be applied on top of this data, keep a copy
+        if (XMLUtils.hasValue(exportID))
+            ARCHIVE_STATES.put(prefix, new ArchiveState(baseID, defns));
+        else
+            ARCHIVE_STATES.remove(prefix);
+    }
+
+    private void startFullImport() {
         ImportedDefectManager.closeDefects(prefix);
         ImportedTimeLogManager.getInstance().closeTimeLogs(prefix);
         ImportedEVManager.getInstance().closeTaskLists(prefix);
         defns = new HashMap();
-        Map<String, String> packageIDs = new HashMap<String, String>();
+    }
+
+    private void startDelta(String baseID) throws IOException,
+            XmlPullParserException {
+        ArchiveState state = ARCHIVE_STATES.get(prefix);
+        if (state != null && state.baseID.equals(baseID)) {
+            // the data we have mounted came from the same base as this
+            // delta. Apply the changes on top of it.
+            defns = new HashMap(state.defns);
+        } else {
+            // we don't have the right base mounted. (This will be the case
+            // on startup, or if we missed a full export.) Read the base
+            // archive first, then apply the delta.
+            readBaseArchive(baseID);
+        }
+        isDelta = true;
+    }
+
+    private void readBaseArchive(String baseID) throws IOException,
+            XmlPullParserException {
+        String baseName = ArchiveMetricsFileExporter.getBaseArchiveName(file
+                .getName());
+        File baseFile = new File(file.getParentFile(), baseName);
+        if (!baseFile.isFile())
+            error("could not find base archive " + baseName);
+
+        ZipFile baseZip = new ZipFile(baseFile);
+        try {
+            XmlPullParser parser = openManifest(baseZip);
+            if (!FILE_TYPE_ARCHIVE.equals(parser.getAttributeValue(null,
+                TYPE_ATTR))
+                    || !baseID.equals(parser.getAttributeValue(null,
+                        EXPORT_ID_ATTR)))
+                error("base archive " + baseName + " does not match");
+
+            startFullImport();
+            readManifestEntries(baseZip, parser, new HashMap());
+        } finally {
+            baseZip.close();
+        }
+    }
+
+    private XmlPullParser openManifest(ZipFile zipFile) throws IOException,
+            XmlPullParserException {
+        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        XmlPullParser parser = factory.newPullParser();
+
+        InputStream manifestIn = openEntry(zipFile, MANIFEST_FILE_NAME);
+        parser.setInput(manifestIn, ENCODING);
+
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, null, ARCHIVE_ELEM);
+        return parser;
+    }
 
+    private void readManifestEntries(ZipFile zipFile, XmlPullParser parser,
+            Map<String, String> packageIDs) throws IOException,
+            XmlPullParserException {
         while (parser.next() != XmlPullParser.END_DOCUMENT) {
             if (parser.getEventType() == XmlPullParser.START_TAG) {
                 if (PACKAGE_ELEM.equals(parser.getName())) {
@@ -248,26 +362,19 @@ public class ArchiveMetricsFileImporter implements Runnable,
                 }
             }
         }
-
-        // make a note of the individual who exported this data
-        recordKnownPerson();
-
-        // Protect this data from being viewed via external http requests.
-        defns.put("_Password_", ImmutableDoubleData.READ_ONLY_ZERO);
-
-        // Save metadata about the import
-        addImportMetadata(packageIDs);
-
-        try {
-            data.mountImportedData(prefix, defns);
-        } catch (InvalidDatafileFormat idf) {
-        }
     }
 
     private void readFile(ZipFile zipFile, String name, String type,
             String version) throws IOException {
         Handler h = getHandler(type, version);
         if (h != null) {
+            // a delta only includes these files if they have changed, and
+            // their contents replace the items we had before.
+            if (isDelta && FILE_TYPE_DEFECTS.equals(type))
+                ImportedDefectManager.closeDefects(prefix);
+            else if (isDelta && FILE_TYPE_EARNED_VALUE.equals(type))
+                ImportedEVManager.getInstance().closeTaskLists(prefix);
+
             InputStream in = openEntry(zipFile, name);
             try {
                 h.handle(this, in, type, version);
@@ -358,4 +465,43 @@ public class ArchiveMetricsFileImporter implements Runnable,
         shouldDeleteArchiveFileOnCompletion = true;
     }
 
+
+    /**
+     * Discard the information we retained about an incremental archive that
+     * was mounted at the given prefix.
+     */
+    public static void closeArchive(String prefix) {
+        ARCHIVE_STATES.remove(prefix);
+    }
+
+    private static class ArchiveState {
+
+        private String baseID;
+
+        private Map defns;
+
+        private ArchiveState(String baseID, Map defns) {
+            this.baseID = baseID;
+            this.defns = defns;
+        }
+
+    }
+
+    /**
+     * The incremental archives mounted most recently.  Only a limited number
+     * are retained; a delta for any other prefix is applied after rereading
+     * its base archive.
+     */
+    private static final Map<String, ArchiveState> ARCHIVE_STATES = Collections
+            .synchronizedMap(new LinkedHashMap<String, ArchiveState>(16,
+                    0.75f, true) {
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, ArchiveState> eldest) {
+                    return size() > MAX_ARCHIVE_STATES;
+                }
+            });
+
+    private static final int MAX_ARCHIVE_STATES = Settings.getInt(
+        "import.deltaCacheSize", 10);
+
 }
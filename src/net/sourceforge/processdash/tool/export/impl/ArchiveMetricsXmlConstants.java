@@ -33,6 +33,8 @@ public interface ArchiveMetricsXmlConstants extends XmlConstants {
 
     public static final String FILE_TYPE_ARCHIVE = "dashboardDataExport";
 
+    public static final String FILE_TYPE_DELTA_ARCHIVE = "dashboardDataDelta";
+
     public static final String FILE_TYPE_METRICS = "metrics";
 
     public static final String FILE_TYPE_DEFECTS = "defects";
@@ -43,6 +45,14 @@ public interface ArchiveMetricsXmlConstants extends XmlConstants {
 
     public static final String FILE_TYPE_MESSAGE = "messages";
 
+    public static final String FILE_TYPE_DELETIONS = "deletions";
+
+    public static final String EXPORT_ID_ATTR = "exportID";
+
+    public static final String BASE_ID_ATTR = "baseID";
+
+    public static final String BASE_ARCHIVE_SUFFIX = ".base.pdash";
+
     public static final String EXPORTED_TAG = "exported";
 
     public static final String OWNER_ATTR = "byOwner";
@@ -29,7 +29,10 @@ import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 import net.sourceforge.processdash.data.DateData;
 import net.sourceforge.processdash.data.DoubleData;
@@ -56,9 +59,20 @@ public class DataImporterXMLv1 implements ArchiveMetricsFileImporter.Handler,
     public void handle(ArchiveMetricsFileImporter caller, InputStream in,
             String type, String version) throws Exception {
         Map defns = caller.getDefns();
-        if (shouldImportRootValuesOnly(caller))
+        boolean rootValuesOnly = shouldImportRootValuesOnly(caller);
+        if (rootValuesOnly && caller.isDelta()) {
+            importRootValueChanges(in, defns);
+            return;
+        }
+
+        if (rootValuesOnly)
             defns.put(ROOT_VALUES_ONLY_TAG, "true");
+        importDataFile(in, defns);
+        defns.remove(ROOT_VALUES_ONLY_TAG);
+    }
 
+    private void importDataFile(InputStream in, Map defns)
+            throws XmlPullParserException, IOException {
         XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
         XmlPullParser parser = factory.newPullParser();
 
@@ -67,8 +81,30 @@ public class DataImporterXMLv1 implements ArchiveMetricsFileImporter.Handler,
         parser.require(XmlPullParser.START_TAG, null, DATA_ELEM);
         importData(parser, defns, null);
         parser.require(XmlPullParser.END_TAG, null, DATA_ELEM);
+    }
 
-        defns.remove(ROOT_VALUES_ONLY_TAG);
+    /**
+     * The document order that "root values only" mode relies upon is not
+     * present in a delta. Instead, keep the changed values that belong to a
+     * node whose values were retained when the base was imported.
+     */
+    private void importRootValueChanges(InputStream in, Map defns)
+            throws XmlPullParserException, IOException {
+        Set<String> retainedNodes = new HashSet<String>();
+        for (Iterator i = defns.keySet().iterator(); i.hasNext();)
+            retainedNodes.add(getParentPath((String) i.next()));
+
+        Map<String, Object> changes = new HashMap<String, Object>();
+        importDataFile(in, changes);
+        for (Map.Entry<String, Object> e : changes.entrySet()) {
+            if (retainedNodes.contains(getParentPath(e.getKey())))
+                defns.put(e.getKey(), e.getValue());
+        }
+    }
+
+    private static String getParentPath(String dataName) {
+        int slashPos = dataName.lastIndexOf('/');
+        return (slashPos == -1 ? "" : dataName.substring(0, slashPos));
     }
 
     private boolean shouldImportRootValuesOnly(ArchiveMetricsFileImporter caller) {
@@ -152,7 +188,7 @@ public class DataImporterXMLv1 implements ArchiveMetricsFileImporter.Handler,
             SimpleData result = (SimpleData) NUMBER_MAP.get(value);
             if (result == null) {
                 try {
-                    Number d = NUMBER_FORMAT.parse(value);
+                    Number d = NUMBER_FORMAT.get().parse(value);
                     if (d != null)
                         result = new DoubleData(d.doubleValue(), false);
                 } catch (ParseException e) {
@@ -263,7 +299,15 @@ public class DataImporterXMLv1 implements ArchiveMetricsFileImporter.Handler,
         return Collections.unmodifiableMap(result);
     }
 
-    private static NumberFormat NUMBER_FORMAT = new XmlNumberFormatter();
+    // archives can be imported on several threads at once, and number
+    // formats are not threadsafe
+    private static ThreadLocal<NumberFormat> NUMBER_FORMAT =
+        new ThreadLocal<NumberFormat>() {
+            @Override
+            protected NumberFormat initialValue() {
+                return new XmlNumberFormatter();
+            }
+        };
 
     private static final String ROOT_VALUES_ONLY_TAG = "importRootElementsOnly";
 
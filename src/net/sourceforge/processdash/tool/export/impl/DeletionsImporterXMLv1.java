@@ -0,0 +1,80 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.tool.export.impl;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * Applies the list of deleted items carried by a delta archive.
+ */
+public class DeletionsImporterXMLv1 implements
+        ArchiveMetricsFileImporter.Handler, ArchiveMetricsXmlConstants,
+        DeletionsXmlConstantsv1 {
+
+    public boolean canHandle(String type, String version) {
+        return FILE_TYPE_DELETIONS.equals(type) && "1".equals(version);
+    }
+
+    public void handle(ArchiveMetricsFileImporter caller, InputStream in,
+            String type, String version) throws Exception {
+        Map defns = caller.getDefns();
+        List<Long> deletedTimeLogIDs = caller.getDeletedTimeLogIDs();
+
+        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        XmlPullParser parser = factory.newPullParser();
+        parser.setInput(in, ENCODING);
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, null, DELETIONS_ELEM);
+
+        while (parser.next() != XmlPullParser.END_DOCUMENT) {
+            if (parser.getEventType() == XmlPullParser.START_TAG) {
+                String tagName = parser.getName();
+                if (DELETED_DATA_ELEM.equals(tagName)) {
+                    defns.remove(getDefnName(parser.getAttributeValue(null,
+                        DELETED_NAME_ATTR)));
+                } else if (DELETED_TIME_LOG_ENTRY_ELEM.equals(tagName)) {
+                    String id = parser.getAttributeValue(null, DELETED_ID_ATTR);
+                    deletedTimeLogIDs.add(Long.valueOf(id));
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletions name data elements by their full path, but the data importer
+     * stores them relative to the import prefix, without a leading slash.
+     */
+    private static String getDefnName(String dataName) {
+        if (dataName != null && dataName.startsWith("/"))
+            return dataName.substring(1);
+        else
+            return dataName;
+    }
+
+}
@@ -31,6 +31,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.Adler32;
 import java.util.zip.CheckedOutputStream;
@@ -141,11 +142,55 @@ public class ExportFileStream {
         return directFile;
     }
 
+    /**
+     * Return the checksum of a file with the given name, in the directory
+     * where the export target will be written.  This must be called after
+     * {@link #getOutputStream()}.
+     * 
+     * @return the checksum of the file, or null if the file is missing or
+     *         its checksum could not be determined
+     */
+    public Long getSiblingChecksum(String filename) {
+        try {
+            if (target instanceof File) {
+                File f = new File(directFile.getParentFile(), filename);
+                return (f.isFile() ? FileUtils.computeChecksum(f,
+                    new Adler32()) : null);
+            } else if (serverUrl != null) {
+                return ResourceBridgeClient.getSingleFileChecksum(serverUrl,
+                    filename);
+            }
+        } catch (IOException ioe) {
+            logger.log(Level.FINE, "Could not check " + filename, ioe);
+        }
+        return null;
+    }
+
+    /**
+     * Return the checksum of the exported content.  This must be called after
+     * the output stream has been closed, and before {@link #finish()}.
+     */
+    public long getChecksum() {
+        return outStream.getChecksum().getValue();
+    }
+
+    /**
+     * Write a copy of the exported content to another file in the same
+     * directory as the export target. This must be called after the output
+     * stream has been closed, and before {@link #finish()}.
+     */
+    public void copyToSibling(String filename) throws IOException {
+        long checksum = outStream.getChecksum().getValue();
+        if (tryCopyToServer(filename, checksum) == false)
+            copyToDestFile(new File(directFile.getParentFile(), filename),
+                checksum);
+    }
+
     public void finish() throws IOException {
         try {
             long checksum = outStream.getChecksum().getValue();
-            if (tryCopyToServer(checksum) == false)
-                copyToDestFile(checksum);
+            if (tryCopyToServer(exportFile.getName(), checksum) == false)
+                copyToDestFile(directFile, checksum);
 
         } finally {
             outStream = null;
@@ -154,12 +199,13 @@ public class ExportFileStream {
         }
     }
 
-    private boolean tryCopyToServer(long checksum) throws IOException {
+    private boolean tryCopyToServer(String name, long checksum)
+            throws IOException {
         if (serverUrl == null)
             return false;
 
         try {
-            copyToServer(checksum);
+            copyToServer(name, checksum);
             return true;
         } catch (Exception e) {
             if (directFile == null) {
@@ -178,10 +224,9 @@ public class ExportFileStream {
         }
     }
 
-    private void copyToServer(long checksum) throws IOException,
+    private void copyToServer(String name, long checksum) throws IOException,
             LockFailureException {
         FileInputStream in = new FileInputStream(tempOutFile);
-        String name = exportFile.getName();
         Long serverSum = ResourceBridgeClient.uploadSingleFile(serverUrl, name,
             in);
         if (serverSum == null || serverSum != checksum)
@@ -191,8 +236,9 @@ public class ExportFileStream {
         target = serverUrl;
     }
 
-    private void copyToDestFile(long checksum) throws IOException {
-        RobustFileOutputStream out = new RobustFileOutputStream(directFile,
+    private void copyToDestFile(File destFile, long checksum)
+            throws IOException {
+        RobustFileOutputStream out = new RobustFileOutputStream(destFile,
                 false);
         FileUtils.copyFile(tempOutFile, out);
         long copySum = out.getChecksum();
@@ -201,7 +247,7 @@ public class ExportFileStream {
             target = directFile;
         } else {
             out.abort();
-            throw new IOException("Error writing to " + directFile
+            throw new IOException("Error writing to " + destFile
                     + " - checksums do not match");
         }
     }
@@ -0,0 +1,431 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.tool.export.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.sourceforge.processdash.Settings;
+import net.sourceforge.processdash.data.SimpleData;
+import net.sourceforge.processdash.log.time.TimeLogEntry;
+import net.sourceforge.processdash.tool.bridge.client.DirectoryPreferences;
+import net.sourceforge.processdash.util.FileUtils;
+import net.sourceforge.processdash.util.RobustFileOutputStream;
+
+/**
+ * Remembers what the most recent export to a particular destination
+ * contained, so the next export can write only the items that changed.
+ * 
+ * Deltas are cumulative: each one contains every item that has changed
+ * since the last full export (the "base"). An importer can therefore apply
+ * a delta on top of the base, or on top of any delta that followed it.
+ */
+class IncrementalExportState {
+
+    /** The section name used for the defect log */
+    static final String DEFECTS = "defects";
+
+    /** The section name used for earned value schedules */
+    static final String EARNED_VALUE = "ev";
+
+
+    private File file;
+
+    private long configHash;
+
+    private String baseID;
+
+    private long baseChecksum;
+
+    private Map<String, Long> dataHashes;
+
+    private Set<String> touchedData;
+
+    private Map<Long, Long> timeLogHashes;
+
+    private Set<Long> touchedTimeLogEntries;
+
+    private Map<String, Long> sectionHashes;
+
+    private Set<String> touchedSections;
+
+    // information about the export that is currently in progress
+
+    private String exportID;
+
+    private boolean delta;
+
+    private Map<String, Long> newDataHashes;
+
+    private Map<Long, Long> newTimeLogHashes;
+
+    private Map<String, Long> newSectionHashes;
+
+
+    private IncrementalExportState(File file) {
+        this.file = file;
+        this.dataHashes = new HashMap<String, Long>();
+        this.touchedData = new HashSet<String>();
+        this.timeLogHashes = new HashMap<Long, Long>();
+        this.touchedTimeLogEntries = new HashSet<Long>();
+        this.sectionHashes = new HashMap<String, Long>();
+        this.touchedSections = new HashSet<String>();
+    }
+
+
+    /**
+     * Begin a new export.
+     * 
+     * @param config
+     *            a string describing the settings that determine what will be
+     *            exported. If this differs from the value used by the base
+     *            export, a full export is required.
+     * @param destBaseChecksum
+     *            the checksum of the base archive that is currently present
+     *            at the export destination, or null if it is missing or
+     *            could not be checked. If the destination holds a different
+     *            base (for example, because the dataset was exported from
+     *            another computer), a full export is required.
+     * @return true if this export should be written as a delta
+     */
+    public boolean startExport(String config, Long destBaseChecksum) {
+        long newConfigHash = hash(config);
+        exportID = UUID.randomUUID().toString();
+        delta = baseID != null && destBaseChecksum != null
+                && destBaseChecksum.longValue() == baseChecksum
+                && configHash == newConfigHash && !isRebaseNeeded();
+        configHash = newConfigHash;
+
+        newDataHashes = new HashMap<String, Long>();
+        newTimeLogHashes = new HashMap<Long, Long>();
+        newSectionHashes = new HashMap<String, Long>();
+
+        return delta;
+    }
+
+    /**
+     * Cumulative deltas grow until the next full export. Once the changed
+     * items amount to a sizable fraction of the base, it is cheaper for
+     * everyone to start over with a new base.
+     */
+    private boolean isRebaseNeeded() {
+        int numItems = dataHashes.size() + timeLogHashes.size();
+        int numTouched = touchedData.size() + touchedTimeLogEntries.size();
+        return numTouched * 100 > numItems * REBASE_PERCENT;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    public String getExportID() {
+        return exportID;
+    }
+
+    public String getBaseID() {
+        return baseID;
+    }
+
+    /**
+     * @return true if a previous full export has established a base that a
+     *         delta could be written against
+     */
+    public boolean hasBase() {
+        return baseID != null;
+    }
+
+
+    /**
+     * Record a data value that is being exported, and return true if it
+     * should be written to the archive.
+     */
+    public boolean includeDataValue(String name, SimpleData value) {
+        Long newHash = hash(value.saveString());
+        newDataHashes.put(name, newHash);
+        return includeItem(name, newHash, dataHashes, touchedData);
+    }
+
+    /**
+     * Return the names of data elements that should be deleted by an
+     * importer applying this delta. This must be called after all data
+     * values have been passed to {@link #includeDataValue(String, SimpleData)}.
+     */
+    public List<String> getDeletedDataNames() {
+        return getDeletedItems(dataHashes, newDataHashes, touchedData);
+    }
+
+    /**
+     * Record a time log entry that is being exported, and return true if it
+     * should be written to the archive.
+     */
+    public boolean includeTimeLogEntry(TimeLogEntry tle) {
+        Long id = tle.getID();
+        Long newHash = hash(tle.getPath() + "\t" + tle.getStartTime().getTime()
+                + "\t" + tle.getElapsedTime() + "\t" + tle.getInterruptTime()
+                + "\t" + tle.getComment());
+        newTimeLogHashes.put(id, newHash);
+        return includeItem(id, newHash, timeLogHashes, touchedTimeLogEntries);
+    }
+
+    /**
+     * Return the IDs of time log entries that should be deleted by an
+     * importer applying this delta. This must be called after all entries
+     * have been passed to {@link #includeTimeLogEntry(TimeLogEntry)}.
+     */
+    public List<Long> getDeletedTimeLogIDs() {
+        return getDeletedItems(timeLogHashes, newTimeLogHashes,
+            touchedTimeLogEntries);
+    }
+
+    /**
+     * Sections like the defect log are written or skipped as a whole. Record
+     * the content of a section, and return true if it should be written to
+     * the archive.
+     */
+    public boolean includeSection(String section, byte[] content) {
+        Long newHash = hash(content);
+        newSectionHashes.put(section, newHash);
+        return includeItem(section, newHash, sectionHashes, touchedSections);
+    }
+
+    private <T> boolean includeItem(T key, Long newHash, Map<T, Long> oldHashes,
+            Set<T> touched) {
+        if (!delta)
+            return true;
+        if (!newHash.equals(oldHashes.get(key)))
+            touched.add(key);
+        return touched.contains(key);
+    }
+
+    private <T> List<T> getDeletedItems(Map<T, Long> oldHashes,
+            Map<T, Long> newHashes, Set<T> touched) {
+        List<T> result = new ArrayList<T>();
+        if (delta) {
+            for (T key : oldHashes.keySet())
+                if (!newHashes.containsKey(key))
+                    touched.add(key);
+            for (T key : touched)
+                if (!newHashes.containsKey(key))
+                    result.add(key);
+        }
+        return result;
+    }
+
+
+    /**
+     * Forget the saved state. This is called before the base archive is
+     * replaced, so a failure partway through can't leave behind a state that
+     * refers to a base that no longer exists.
+     */
+    public void discardSavedState() {
+        file.delete();
+    }
+
+    /**
+     * Record the successful completion of the current export.
+     * 
+     * @param archiveChecksum
+     *            the checksum of the archive that was written. If this was a
+     *            full export, it is the checksum of the new base archive.
+     */
+    public void exportFinished(long archiveChecksum) {
+        if (!delta) {
+            baseID = exportID;
+            baseChecksum = archiveChecksum;
+            touchedData.clear();
+            touchedTimeLogEntries.clear();
+            touchedSections.clear();
+        }
+        dataHashes = newDataHashes;
+        timeLogHashes = newTimeLogHashes;
+        sectionHashes = newSectionHashes;
+        newDataHashes = null;
+        newTimeLogHashes = null;
+        newSectionHashes = null;
+
+        try {
+            save();
+        } catch (IOException ioe) {
+            // if the state can't be saved, the next export will be a full
+            // export. That is inefficient but safe.
+            logger.log(Level.WARNING, "Could not save incremental export "
+                    + "state to " + file, ioe);
+            file.delete();
+        }
+    }
+
+
+    private void save() throws IOException {
+        file.getParentFile().mkdirs();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new RobustFileOutputStream(file))));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(configHash);
+        out.writeUTF(baseID);
+        out.writeLong(baseChecksum);
+
+        out.writeInt(dataHashes.size());
+        for (Map.Entry<String, Long> e : dataHashes.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeLong(e.getValue());
+        }
+        out.writeInt(touchedData.size());
+        for (String name : touchedData)
+            out.writeUTF(name);
+
+        out.writeInt(timeLogHashes.size());
+        for (Map.Entry<Long, Long> e : timeLogHashes.entrySet()) {
+            out.writeLong(e.getKey());
+            out.writeLong(e.getValue());
+        }
+        out.writeInt(touchedTimeLogEntries.size());
+        for (Long id : touchedTimeLogEntries)
+            out.writeLong(id);
+
+        out.writeInt(sectionHashes.size());
+        for (Map.Entry<String, Long> e : sectionHashes.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeLong(e.getValue());
+        }
+        out.writeInt(touchedSections.size());
+        for (String section : touchedSections)
+            out.writeUTF(section);
+
+        out.close();
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return;
+            configHash = in.readLong();
+            String id = in.readUTF();
+            baseChecksum = in.readLong();
+
+            for (int i = in.readInt(); i-- > 0;)
+                dataHashes.put(in.readUTF(), in.readLong());
+            for (int i = in.readInt(); i-- > 0;)
+                touchedData.add(in.readUTF());
+
+            for (int i = in.readInt(); i-- > 0;)
+                timeLogHashes.put(in.readLong(), in.readLong());
+            for (int i = in.readInt(); i-- > 0;)
+                touchedTimeLogEntries.add(in.readLong());
+
+            for (int i = in.readInt(); i-- > 0;)
+                sectionHashes.put(in.readUTF(), in.readLong());
+            for (int i = in.readInt(); i-- > 0;)
+                touchedSections.add(in.readUTF());
+
+            // only record the base ID once everything has been read
+            // successfully; a null base ID forces a full export.
+            baseID = id;
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Retrieve the incremental export state for a particular destination.
+     * 
+     * @param datasetID
+     *            the ID of the dataset performing the export
+     * @param targetPath
+     *            the export target, as returned by
+     *            {@link ExportFileStream#getExportTargetPath(File, String)}
+     */
+    public static IncrementalExportState get(String datasetID,
+            String targetPath) {
+        String filename = FileUtils.makeSafeIdentifier(datasetID + "-"
+                + targetPath) + ".dat";
+        File file = new File(getStateDirectory(), filename);
+        IncrementalExportState result = new IncrementalExportState(file);
+        if (file.isFile()) {
+            try {
+                result.load();
+            } catch (IOException ioe) {
+                logger.log(Level.FINE, "Could not read incremental export "
+                        + "state from " + file, ioe);
+                result = new IncrementalExportState(file);
+            }
+        }
+        return result;
+    }
+
+    private static File getStateDirectory() {
+        return new File(DirectoryPreferences.getApplicationDirectory(true),
+                "export");
+    }
+
+    /** Compute a 64-bit FNV-1a hash of a string */
+    private static long hash(String s) {
+        long result = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            result ^= s.charAt(i);
+            result *= 0x100000001b3L;
+        }
+        return result;
+    }
+
+    /** Compute a 64-bit FNV-1a hash of a block of content */
+    private static long hash(byte[] content) {
+        long result = 0xcbf29ce484222325L;
+        for (int i = 0; i < content.length; i++) {
+            result ^= (content[i] & 0xff);
+            result *= 0x100000001b3L;
+        }
+        return result;
+    }
+
+    private static final int MAGIC = 0x50444458; // "PDDX"
+
+    private static final int VERSION = 2;
+
+    private static final int REBASE_PERCENT = Settings.getInt(
+        "export.deltaRebasePercent", 20);
+
+    private static final Logger logger = Logger
+            .getLogger(IncrementalExportState.class.getName());
+
+}
@@ -47,6 +47,16 @@ public class TimeLogExporterXMLv1 implements TimeLogExporter {
 
     private Date maxDate;
 
+    private IncrementalExportState incrementalState;
+
+    /**
+     * When exporting a delta, only the entries that the given state selects
+     * will be written.
+     */
+    void setIncrementalState(IncrementalExportState incrementalState) {
+        this.incrementalState = incrementalState;
+    }
+
     public void dumpTimeLogEntries(TimeLog timeLog, DataContext data,
             Collection filter, OutputStream out) throws IOException {
 
@@ -62,8 +72,11 @@ public class TimeLogExporterXMLv1 implements TimeLogExporter {
         }
         TimeLogEntryIterator iter = new TimeLogEntryIterator(entries,
                 new PhaseAppender(data));
+        Iterator toWrite = iter;
+        if (incrementalState != null)
+            toWrite = new IncrementalFilter(iter, incrementalState);
 
-        TimeLogWriter.write(out, iter, false);
+        TimeLogWriter.write(out, toWrite, false);
         out.flush();
 
         maxDate = iter.maxDate;
@@ -91,6 +104,23 @@ public class TimeLogExporterXMLv1 implements TimeLogExporter {
 
     }
 
+    private static class IncrementalFilter extends IteratorFilter {
+
+        private IncrementalExportState state;
+
+        protected IncrementalFilter(Iterator parent,
+                IncrementalExportState state) {
+            super(parent);
+            this.state = state;
+            init();
+        }
+
+        protected boolean includeInResults(Object o) {
+            return state.includeTimeLogEntry((TimeLogEntry) o);
+        }
+
+    }
+
     private static class PhaseAppender implements StringMapper {
 
         private ProcessUtil procUtil;
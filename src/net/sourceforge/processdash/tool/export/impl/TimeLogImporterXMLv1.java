@@ -37,7 +37,11 @@ public class TimeLogImporterXMLv1 implements
     public void handle(ArchiveMetricsFileImporter caller, InputStream in,
             String type, String version) throws Exception {
         String prefix = caller.getPrefix();
-        ImportedTimeLogManager.getInstance().importTimeLog(prefix, in);
+        if (caller.isDelta())
+            ImportedTimeLogManager.getInstance().updateTimeLog(prefix, in,
+                caller.getDeletedTimeLogIDs());
+        else
+            ImportedTimeLogManager.getInstance().importTimeLog(prefix, in);
     }
 
 }
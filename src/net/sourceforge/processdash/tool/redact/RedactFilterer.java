@@ -24,6 +24,7 @@
 package net.sourceforge.processdash.tool.redact;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -32,12 +33,15 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -92,11 +96,19 @@ public class RedactFilterer {
         while (entries.hasMoreElements()) {
             ZipEntry srcEntry = entries.nextElement();
             String filename = srcEntry.getName();
+            ZipEntry journal = getDatafileJournal(srcZip, filename);
 
             if (filename.toLowerCase().endsWith(
                 PersonMapper.PDASH_FILENAME_SUFFIX)) {
                 filterPdashFile(srcEntry, filename, out);
 
+            } else if (filename.endsWith(".dat" + JOURNAL_SUFFIX)) {
+                // datafile journals are merged into their datafiles below
+
+            } else if (journal != null) {
+                Reader content = mergeJournal(srcEntry, journal);
+                filterZipEntry(srcEntry, content, "", out);
+
             } else if (UNFILTERED_FILES.contains(filename)
                     || srcEntry.getSize() == 0) {
                 copyUnfilteredEntry(srcEntry, out);
@@ -187,6 +199,79 @@ public class RedactFilterer {
         zipOut.closeEntry();
     }
 
+    /**
+     * @return the journal of changes for the given datafile, if the ZIP
+     *     contains one that applies to the datafile; otherwise null
+     */
+    private ZipEntry getDatafileJournal(ZipFile srcZip, String filename)
+            throws IOException {
+        if (!filename.endsWith(".dat"))
+            return null;
+        ZipEntry journal = srcZip.getEntry(filename + JOURNAL_SUFFIX);
+        if (journal == null)
+            return null;
+
+        // the first line of the journal records the size of the datafile it
+        // applies to. If the datafile was rewritten since, it is outdated.
+        BufferedReader in = data.getFile(journal);
+        String header = in.readLine();
+        in.close();
+        long datafileSize = srcZip.getEntry(filename).getSize();
+        return (header != null && header.startsWith(JOURNAL_HEADER
+                + datafileSize + " ") ? journal : null);
+    }
+
+    /**
+     * Apply the changes recorded in a journal to its datafile, so the result
+     * can be filtered like any other datafile.
+     */
+    private Reader mergeJournal(ZipEntry datafile, ZipEntry journal)
+            throws IOException {
+        // read the latest state of each element recorded in the journal.
+        // a null value indicates an element that was removed.
+        Map<String, String> changes = new LinkedHashMap<String, String>();
+        String text = readEntry(journal);
+        int end = text.lastIndexOf('\n');
+        String[] lines = (end == -1 ? new String[0] : text.substring(0, end)
+                .split("\r?\n"));
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int equalsPos = line.indexOf('=');
+            if (line.startsWith("+") && equalsPos > 1) {
+                String name = line.substring(1, equalsPos);
+                changes.remove(name);
+                changes.put(name, line.substring(1));
+            } else if (line.startsWith("-") && equalsPos == -1) {
+                changes.put(line.substring(1), null);
+            }
+        }
+
+        // copy the lines of the datafile that were not changed, then append
+        // the new values of the changed elements.
+        StringBuilder result = new StringBuilder();
+        for (String line : readEntry(datafile).split("\r?\n")) {
+            int equalsPos = line.indexOf('=');
+            if (equalsPos > 0 && !line.startsWith("#")
+                    && changes.containsKey(line.substring(0, equalsPos)))
+                continue;
+            result.append(line).append('\n');
+        }
+        for (String line : changes.values()) {
+            if (line != null)
+                result.append(line).append('\n');
+        }
+        return new StringReader(result.toString());
+    }
+
+    private String readEntry(ZipEntry e) throws IOException {
+        InputStream in = data.getStream(e);
+        try {
+            return new String(FileUtils.slurpContents(in, false), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
     private Reader filterFile(String filename, Reader content)
             throws IOException {
         filename = filename.toLowerCase();
@@ -198,6 +283,10 @@ public class RedactFilterer {
         return content;
     }
 
+    private static final String JOURNAL_SUFFIX = ".jnl";
+
+    private static final String JOURNAL_HEADER = "#journal ";
+
     private static final Set<String> UNFILTERED_FILES = Collections
             .unmodifiableSet(new HashSet(Arrays.asList("icon.ico")));
 
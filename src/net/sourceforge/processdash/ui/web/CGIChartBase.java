@@ -30,8 +30,11 @@ import java.awt.GradientPaint;
 import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -57,6 +60,7 @@ import org.jfree.chart.title.TextTitle;
 import org.jfree.ui.RectangleInsets;
 
 import net.sourceforge.processdash.Settings;
+import net.sourceforge.processdash.data.SimpleData;
 import net.sourceforge.processdash.data.util.ResultSet;
 import net.sourceforge.processdash.i18n.Resources;
 import net.sourceforge.processdash.i18n.Translator;
@@ -71,6 +75,16 @@ public abstract class CGIChartBase extends net.sourceforge.processdash.ui.web.Ti
     protected ResultSet data = null;
     protected boolean chromeless = false;
 
+    /** The ETag of the image this request will produce, or null if the
+     * image cannot be cached */
+    private String chartETag;
+
+    /** True if {@link #data} has already been built for this request */
+    private boolean dataBuilt;
+
+    /** True if the client already has the image for this request */
+    private boolean notModified;
+
     private static Color INVISIBLE = new Color(1f, 1f, 1f, 0f);
 
     private static final String HTML_PARAM = "html";
@@ -85,6 +99,9 @@ public abstract class CGIChartBase extends net.sourceforge.processdash.ui.web.Ti
     /** Write the CGI header. */
     @Override
     protected void writeHeader() {
+        chartETag = null;
+        notModified = false;
+        dataBuilt = false;
         if (isHtmlMode())
             writeHtmlHeader();
         else
@@ -96,10 +113,103 @@ public abstract class CGIChartBase extends net.sourceforge.processdash.ui.web.Ti
     }
 
     protected void writeImageHeader() {
+        chartETag = getChartETag();
+        if (chartETag != null) {
+            String quotedETag = '"' + chartETag + '"';
+            if (quotedETag.equals(env.get("HTTP_IF_NONE_MATCH"))) {
+                out.print("Status: 304 Not Modified\r\n");
+                notModified = true;
+            }
+            out.print("ETag: " + quotedETag + "\r\n");
+            out.print("Cache-Control: no-cache\r\n");
+        }
         out.print("Content-type: image/png\r\n\r\n");
         out.flush();
     }
 
+    /**
+     * @return true if the image for this chart depends only on the request
+     *         parameters and on the values described by
+     *         {@link #appendChartInputs(StringBuilder)}. The rendered images
+     *         for such charts are cached, and reused until those values
+     *         change.
+     * 
+     * By default, charts that use the standard {@link #buildData()} logic
+     * are considered cacheable. Subclasses that override it to read data
+     * from other sources are not.
+     */
+    protected boolean isCacheableChart() {
+        Class c = getClass();
+        Boolean result = CACHEABLE_CLASSES.get(c);
+        if (result == null) {
+            result = Boolean.TRUE;
+            for (; c != CGIChartBase.class; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("buildData");
+                    result = Boolean.FALSE;
+                    break;
+                } catch (NoSuchMethodException nsme) {}
+            }
+            CACHEABLE_CLASSES.put(getClass(), result);
+        }
+        return result;
+    }
+
+    private static final Map<Class, Boolean> CACHEABLE_CLASSES = Collections
+            .synchronizedMap(new HashMap<Class, Boolean>());
+
+    /** Compute the ETag for the image this request will produce.
+     * 
+     * The data for the chart is built first, and the tag is a hash of that
+     * data along with the request.  Looking up the data is much cheaper than
+     * drawing and encoding the image, and an unrelated change elsewhere in
+     * the repository leaves the tag alone.
+     */
+    private String getChartETag() {
+        if (!isCacheableChart() || getDataRepository() == null)
+            return null;
+
+        try {
+            buildData();
+            dataBuilt = true;
+        } catch (IOException ioe) {
+            // let the error be reported when the chart is rendered
+            return null;
+        }
+
+        StringBuilder inputs = new StringBuilder();
+        inputs.append(getClass().getName()) //
+                .append('\n').append(env.get("REQUEST_URI")) //
+                .append('\n').append(env.get("QUERY_STRING")) //
+                .append('\n').append(getPrefix());
+        appendChartInputs(inputs);
+        return PngCache.getChartETag(inputs.toString());
+    }
+
+    /** Describe the values that determine the appearance of this chart.
+     * 
+     * By default, this is the content of the {@link #data} result set.
+     * Subclasses that read other values while drawing the chart should
+     * append those values as well.
+     */
+    protected void appendChartInputs(StringBuilder inputs) {
+        if (data == null)
+            return;
+        for (int row = 0; row <= data.numRows(); row++) {
+            inputs.append('\n');
+            for (int col = 0; col <= data.numCols(); col++) {
+                String value;
+                if (row == 0 || col == 0) {
+                    value = data.format(row, col);
+                } else {
+                    SimpleData d = data.getData(row, col);
+                    value = (d == null ? null : d.saveString());
+                }
+                inputs.append('\t').append(value);
+            }
+        }
+    }
+
     /** create the data upon which this chart is based. */
     protected void buildData() throws IOException {
         retrieveParamsFromServlet("dqf");
@@ -123,7 +233,28 @@ public abstract class CGIChartBase extends net.sourceforge.processdash.ui.web.Ti
     /** Generate CGI chart output. */
     @Override
     protected void writeContents() throws IOException {
-        buildData();            // get the data for display
+        if (chartETag == null) {
+            renderChart(outStream);
+
+        } else if (!notModified) {
+            // reuse a previously rendered image if one is available
+            byte[] image = PngCache.getChartImage(chartETag);
+            if (image == null) {
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                renderChart(buf);
+                image = buf.toByteArray();
+                PngCache.putChartImage(chartETag, image);
+            }
+            outStream.write(image);
+            outStream.flush();
+        }
+    }
+
+    /** Build and draw the chart. In image mode, the image is written to
+     * the given stream. */
+    private void renderChart(OutputStream imageDest) throws IOException {
+        if (!dataBuilt)
+            buildData();        // get the data for display
 
         chromeless = (parameters.get("chromeless") != null);
         JFreeChart chart = createChart();
@@ -217,7 +348,7 @@ public abstract class CGIChartBase extends net.sourceforge.processdash.ui.web.Ti
         if (isHtmlMode()) {
             imgOut = PngCache.getOutputStream();
         } else {
-            imgOut = outStream;
+            imgOut = imageDest;
         }
         ImageIO.write(img, outputFormat, imgOut);
         imgOut.flush();
@@ -23,11 +23,18 @@
 
 package net.sourceforge.processdash.ui.web;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import net.sourceforge.processdash.InternalSettings;
 import net.sourceforge.processdash.Settings;
 import net.sourceforge.processdash.net.http.TinyCGIException;
 import net.sourceforge.processdash.tool.export.DataExtractionScaffold;
@@ -46,6 +53,83 @@ public class PngCache extends TinyCGIBase {
         return PNG_CACHE.getOutputStream();
     }
 
+
+    /** Rendered chart images, keyed by an ETag that hashes their inputs */
+    private static final Map<String, byte[]> CHART_IMAGES =
+            new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    private static long chartImageBytes = 0;
+
+    private static final long CHART_IMAGE_BUDGET = Long.getLong(
+        PngCache.class.getName() + ".chartImageBytes", 8 * 1024 * 1024)
+            .longValue();
+
+    static {
+        // chart appearance can depend on user settings, so discard all
+        // rendered images when a setting changes.
+        InternalSettings.addPropertyChangeListener(
+            new PropertyChangeListener() {
+                public void propertyChange(PropertyChangeEvent evt) {
+                    clearChartImages();
+                }
+            });
+    }
+
+    /**
+     * Compute an ETag for a chart image.
+     * 
+     * @param chartInputs
+     *            a string describing everything that can affect the
+     *            appearance of the chart
+     */
+    static String getChartETag(String chartInputs) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] hash = md.digest(chartInputs.getBytes("UTF-8"));
+            StringBuilder result = new StringBuilder();
+            for (byte b : hash)
+                result.append(Integer.toHexString((b & 0xff) | 0x100)
+                        .substring(1));
+            return result.toString();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Retrieve a previously rendered chart image, or null if none exists */
+    static byte[] getChartImage(String etag) {
+        synchronized (CHART_IMAGES) {
+            return CHART_IMAGES.get(etag);
+        }
+    }
+
+    /** Save a rendered chart image, discarding the least recently used
+     * images if necessary to stay within the memory budget. */
+    static void putChartImage(String etag, byte[] image) {
+        if (image.length > CHART_IMAGE_BUDGET / 4)
+            return;
+
+        synchronized (CHART_IMAGES) {
+            byte[] old = CHART_IMAGES.put(etag, image);
+            if (old != null)
+                chartImageBytes -= old.length;
+            chartImageBytes += image.length;
+
+            Iterator<byte[]> i = CHART_IMAGES.values().iterator();
+            while (chartImageBytes > CHART_IMAGE_BUDGET && i.hasNext()) {
+                chartImageBytes -= i.next().length;
+                i.remove();
+            }
+        }
+    }
+
+    private static void clearChartImages() {
+        synchronized (CHART_IMAGES) {
+            CHART_IMAGES.clear();
+            chartImageBytes = 0;
+        }
+    }
+
     @Override
     protected void doGet() throws IOException {
         int streamID = Integer.parseInt(getParameter("id"));
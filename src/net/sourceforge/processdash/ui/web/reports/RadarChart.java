@@ -75,22 +75,7 @@ public class RadarChart extends CGIChartBase {
         for (int i = 0;  i < data.numCols();  i++) {
             int n = i+1;
 
-            String target = getParameter("t" + n);
-            if (!StringUtils.hasValue(target))
-                continue;
-
-            double targetVal = 0;
-            try {
-                targetVal = FormatUtil.parseNumber(target);
-            } catch (Exception e) {
-                SaveableData val = getDataRepository().getInheritableValue(
-                        getPrefix(), target);
-                if (val != null) {
-                    SimpleData sVal = val.getSimpleValue();
-                    if (sVal instanceof NumberData)
-                        targetVal = ((NumberData) sVal).getDouble();
-                }
-            }
+            double targetVal = getTargetValue(n);
             if (targetVal == 0)
                 continue;
 
@@ -111,4 +96,33 @@ public class RadarChart extends CGIChartBase {
         }
     }
 
+    /** @return the target for the given axis, or 0 if it has none */
+    private double getTargetValue(int n) {
+        String target = getParameter("t" + n);
+        if (!StringUtils.hasValue(target))
+            return 0;
+
+        try {
+            return FormatUtil.parseNumber(target);
+        } catch (Exception e) {
+            SaveableData val = getDataRepository().getInheritableValue(
+                    getPrefix(), target);
+            if (val != null) {
+                SimpleData sVal = val.getSimpleValue();
+                if (sVal instanceof NumberData)
+                    return ((NumberData) sVal).getDouble();
+            }
+            return 0;
+        }
+    }
+
+    /** Axis targets can name data elements, so include their values. */
+    @Override
+    protected void appendChartInputs(StringBuilder inputs) {
+        super.appendChartInputs(inputs);
+        if (data != null)
+            for (int n = 1; n <= data.numCols(); n++)
+                inputs.append('\n').append(getTargetValue(n));
+    }
+
 }
@@ -117,6 +117,7 @@ public class DashboardBackupFactory {
 
             if (name.equals("log.txt") || // backup the log file
                 name.endsWith(".dat") || // backup data files
+                name.endsWith(".dat.jnl") || // backup datafile journals
                 name.endsWith(".def") || // backup defect logs
                 name.equals("time.log") || // backup the time log
                 name.equalsIgnoreCase("timelog.xml") ||
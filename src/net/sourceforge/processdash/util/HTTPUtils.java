@@ -87,18 +87,20 @@ public class HTTPUtils {
     /** Determine the length (in bytes) of the header in an HTTP response.
      */
     public static int getHeaderLength(byte[] result) {
-        int i = 0;
-        int max = result.length-3;
-
-        do {
-            if ((result[i  ] == '\r') && (result[i+1] == '\n') &&
-                (result[i+2] == '\r') && (result[i+3] == '\n'))
-                return (i+4);
+        return getHeaderLength(result, 0, result.length);
+    }
 
-            i++;
-        } while (i < max);
+    /** Return the length of the header in a response that occupies a region
+     * of a byte array. */
+    public static int getHeaderLength(byte[] buf, int offset, int length) {
+        int end = offset + length - 3;
+        for (int i = offset; i < end; i++) {
+            if ((buf[i  ] == '\r') && (buf[i+1] == '\n') &&
+                (buf[i+2] == '\r') && (buf[i+3] == '\n'))
+                return (i + 4 - offset);
+        }
 
-        return result.length;
+        return length;
     }
 
 
@@ -119,6 +119,18 @@ public class Perl5Util {
     }
 
 
+    /** Compile the given perl 5 regular expression.
+     *
+     * Callers that match the same expression many times can hold onto the
+     * result, rather than looking it up in the shared cache on each match.
+     *
+     * @return the compiled pattern, or null if the expression is invalid
+     */
+    public static Pattern compile(String expression) {
+        return getPattern(expression);
+    }
+
+
     /** Return true if the given input matches a substring within the
      * given expression. */
     public boolean match(String expression, String input)
@@ -185,4 +197,52 @@ public class Perl5Util {
         return result.toString();
     }
 
+    /** Find a literal string that every match of a regular expression
+     * must end with.
+     *
+     * Only expressions that end with a "$" anchor must match through the end
+     * of the input, so any other expression returns an empty string.  The
+     * analysis is conservative, and also returns an empty string for any
+     * expression it does not fully understand.
+     *
+     * @param regexp a regular expression, in java.util.regex syntax
+     * @return the literal suffix, or the empty string if none was found
+     */
+    public static String getLiteralSuffix(String regexp) {
+        if (regexp == null || regexp.indexOf('|') != -1
+                || regexp.indexOf("(?") != -1 || regexp.indexOf("\\Q") != -1)
+            return "";
+
+        // the expression must end with a "$" that is not escaped by an odd
+        // number of backslashes
+        if (!regexp.endsWith("$"))
+            return "";
+        int end = regexp.length() - 1;
+        int backslashes = 0;
+        while (backslashes < end
+                && regexp.charAt(end - backslashes - 1) == '\\')
+            backslashes++;
+        if (backslashes % 2 != 0)
+            return "";
+
+        final String metachars = ".[]\\()?*+{}|^$";
+        int beg = end;
+        while (beg > 0 && metachars.indexOf(regexp.charAt(beg - 1)) == -1)
+            beg--;
+
+        // a run of literal characters cannot start with an escaped
+        // metacharacter (the metacharacter would have stopped the scan), so
+        // an unescaped backslash before the run begins an escape sequence
+        // such as \d, \x41, \u0041, \0101 or \cA.  Those can consume an
+        // unknown number of the run's characters, so give up.
+        backslashes = 0;
+        while (backslashes < beg
+                && regexp.charAt(beg - backslashes - 1) == '\\')
+            backslashes++;
+        if (backslashes % 2 != 0)
+            return "";
+
+        return (beg < end ? regexp.substring(beg, end) : "");
+    }
+
 }
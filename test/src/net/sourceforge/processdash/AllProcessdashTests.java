@@ -1,8 +1,27 @@
 package net.sourceforge.processdash;
 
+import net.sourceforge.processdash.data.compiler.ScriptCodecTest;
+import net.sourceforge.processdash.data.compiler.ScriptTreeTest;
+import net.sourceforge.processdash.data.repository.CalculationBatchTest;
+import net.sourceforge.processdash.data.repository.DatafileJournalTest;
+import net.sourceforge.processdash.data.repository.DataNameIndexTest;
+import net.sourceforge.processdash.data.repository.DefinitionSnapshotTest;
+import net.sourceforge.processdash.data.repository.OpenDatafilesTest;
+import net.sourceforge.processdash.data.repository.PrefixHierarchyTest;
+import net.sourceforge.processdash.hier.DashHierarchyTest;
+import net.sourceforge.processdash.hier.PropTest;
+import net.sourceforge.processdash.hier.PropertyKeyTest;
 import net.sourceforge.processdash.log.time.AllTimeLogTests;
+import net.sourceforge.processdash.net.cache.FileObjectCacheTest;
+import net.sourceforge.processdash.net.http.HTMLPreprocessorTest;
+import net.sourceforge.processdash.net.http.TinyCGIMetricsTest;
 import net.sourceforge.processdash.templates.DashPackageTest;
+import net.sourceforge.processdash.tool.bridge.ChunkedSyncTest;
+import net.sourceforge.processdash.tool.bridge.impl.FileResourceCollectionTest;
+import net.sourceforge.processdash.tool.export.ImportSchedulerTest;
+import net.sourceforge.processdash.tool.export.impl.IncrementalExportTest;
 import net.sourceforge.processdash.tool.export.mgr.AllExportMgrTests;
+import net.sourceforge.processdash.ui.web.PngCacheTest;
 import net.sourceforge.processdash.util.AllUtilTests;
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -16,6 +35,25 @@ public class AllProcessdashTests {
 		suite.addTest(AllTimeLogTests.suite());
                 suite.addTestSuite(DashPackageTest.class);
 		suite.addTest(AllExportMgrTests.suite());
+		suite.addTestSuite(ImportSchedulerTest.class);
+		suite.addTestSuite(IncrementalExportTest.class);
+		suite.addTestSuite(ScriptTreeTest.class);
+		suite.addTestSuite(ScriptCodecTest.class);
+		suite.addTestSuite(DataNameIndexTest.class);
+		suite.addTestSuite(CalculationBatchTest.class);
+		suite.addTestSuite(DatafileJournalTest.class);
+		suite.addTestSuite(OpenDatafilesTest.class);
+		suite.addTestSuite(DefinitionSnapshotTest.class);
+		suite.addTestSuite(PrefixHierarchyTest.class);
+		suite.addTestSuite(PropTest.class);
+		suite.addTestSuite(DashHierarchyTest.class);
+		suite.addTestSuite(PropertyKeyTest.class);
+		suite.addTestSuite(FileObjectCacheTest.class);
+		suite.addTestSuite(HTMLPreprocessorTest.class);
+		suite.addTestSuite(TinyCGIMetricsTest.class);
+		suite.addTestSuite(PngCacheTest.class);
+		suite.addTestSuite(ChunkedSyncTest.class);
+		suite.addTestSuite(FileResourceCollectionTest.class);
 		//$JUnit-END$
 		return suite;
 	}
@@ -0,0 +1,111 @@
+package net.sourceforge.processdash.data.compiler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import net.sourceforge.processdash.data.DoubleData;
+import net.sourceforge.processdash.data.SimpleData;
+
+/**
+ * Measures the time and memory allocated when evaluating an arithmetic
+ * expression, both through the expression tree and by interpreting the
+ * script's instructions one at a time.
+ *
+ * Usage: ScriptArithmeticBenchmark [numIterations [expression]]
+ */
+public class ScriptArithmeticBenchmark {
+
+    private static final String DEFAULT_EXPRESSION = "([A] + [B]) * [C] "
+            + "/ ([D] - [E]) + [A] * [B] - [C] / 2 + ([D] > [E] * 1.5)";
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0 ? Integer.parseInt(args[0])
+                : 1000000);
+        String expression = (args.length > 1 ? args[1] : DEFAULT_EXPRESSION);
+
+        CompiledScript script = Compiler.compile(expression);
+        ExpressionContext context = new MapContext();
+        System.out.println("Expression: " + expression);
+        System.out.println("Result: " + evalTree(script, context));
+
+        // warm up before measuring
+        for (int i = 0; i < 20000; i++) {
+            evalTree(script, context);
+            evalInterpreted(script, context);
+        }
+
+        measure("Expression tree", script, context, iterations, true);
+        measure("Interpreted", script, context, iterations, false);
+    }
+
+    private static void measure(String label, CompiledScript script,
+            ExpressionContext context, int iterations, boolean tree)
+            throws ExecutionException {
+        long bytesBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (tree)
+                evalTree(script, context);
+            else
+                evalInterpreted(script, context);
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytes = getAllocatedBytes() - bytesBefore;
+
+        System.out.println(label + " time per evaluation: "
+                + (elapsed / iterations) + " ns");
+        if (bytesBefore >= 0)
+            System.out.println(label + " allocated per evaluation: "
+                    + (bytes / iterations) + " bytes");
+    }
+
+    private static Object evalTree(CompiledScript script,
+            ExpressionContext context) throws ExecutionException {
+        ListStack stack = new ListStack();
+        script.run(stack, context);
+        return stack.pop();
+    }
+
+    private static Object evalInterpreted(CompiledScript script,
+            ExpressionContext context) throws ExecutionException {
+        ListStack stack = new ListStack();
+        for (Iterator i = script.getInstructions().iterator(); i.hasNext();)
+            ((Instruction) i.next()).execute(stack, context);
+        return stack.pop();
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        else
+            return -1;
+    }
+
+    private static class MapContext implements ExpressionContext {
+
+        private Map<String, SimpleData> values =
+            new HashMap<String, SimpleData>();
+
+        MapContext() {
+            values.put("A", new DoubleData(3.5));
+            values.put("B", new DoubleData(12));
+            values.put("C", new DoubleData(0.25));
+            values.put("D", new DoubleData(40));
+            values.put("E", new DoubleData(7));
+        }
+
+        public SimpleData get(String dataName) {
+            return values.get(dataName);
+        }
+
+        public String resolveName(String dataName) {
+            return dataName;
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+package net.sourceforge.processdash.data.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import net.sourceforge.processdash.data.DateData;
+import net.sourceforge.processdash.data.DoubleData;
+import net.sourceforge.processdash.data.ImmutableDoubleData;
+import net.sourceforge.processdash.data.ImmutableStringData;
+import net.sourceforge.processdash.data.SimpleData;
+import net.sourceforge.processdash.data.StringData;
+import net.sourceforge.processdash.data.TagData;
+
+public class ScriptCodecTest extends TestCase {
+
+    private ListStringTable strings;
+
+    protected void setUp() throws Exception {
+        strings = new ListStringTable();
+    }
+
+
+    public void testValueRoundTrip() throws Exception {
+        DateData dateOnly = new DateData(new Date(1234567890000L), true);
+        dateOnly.setFormatAsDateOnly(true);
+        DoubleData undefined = new DoubleData(7, true);
+        undefined.setDefined(false);
+
+        SimpleData[] values = { null, TagData.getInstance(),
+                new DoubleData(3.25, false), new DoubleData(-1, true),
+                undefined, new ImmutableDoubleData(42, false, true),
+                new ImmutableDoubleData(Double.NaN, true, false),
+                StringData.create("hello"),
+                new ImmutableStringData("world", false, true),
+                new DateData(new Date(1234567890000L), false), dateOnly };
+
+        for (int i = 0; i < values.length; i++) {
+            assertTrue(ScriptCodec.canWrite(values[i]));
+            SimpleData copy = roundTripValue(values[i]);
+            assertEquals(describe(values[i]), describe(copy));
+        }
+    }
+
+    public void testSharedConstants() throws Exception {
+        ImmutableDoubleData[] constants = { ImmutableDoubleData.READ_ONLY_ZERO,
+                ImmutableDoubleData.EDITABLE_ZERO,
+                ImmutableDoubleData.EDITABLE_UNDEF_NAN,
+                ImmutableDoubleData.BAD_VALUE, ImmutableDoubleData.TRUE,
+                ImmutableDoubleData.DIVIDE_BY_ZERO };
+        for (int i = 0; i < constants.length; i++)
+            assertSame(constants[i], roundTripValue(constants[i]));
+    }
+
+    public void testScriptRoundTrip() throws Exception {
+        String[] expressions = { "[A] + [B] * 2", "-[A] / ([B] - 1)",
+                "[A] > 3 && ([B] <= 2 || ![C])", "\"abc\" & [S]",
+                "[A] == [B] || [A] != 4", "max([A], [B], 17)",
+                "iff([C], [A], [B] + 1)", "iff([Missing], 1, 2)" };
+        ExpressionContext context = new MapContext();
+
+        for (int i = 0; i < expressions.length; i++) {
+            CompiledScript script = Compiler.compile(expressions[i]);
+            assertTrue(expressions[i], ScriptCodec.canWrite(script));
+            CompiledScript copy = roundTripScript(script);
+
+            assertEquals(expressions[i], script.toString(), copy.toString());
+            assertEquals(expressions[i], script.saveString(), copy
+                    .saveString());
+            assertEquals(expressions[i], describe(eval(script, context)),
+                describe(eval(copy, context)));
+        }
+    }
+
+    public void testSharedStrings() throws Exception {
+        roundTripScript(Compiler.compile("[A] + [A] * [B] - [A]"));
+        assertEquals(1, Collections.frequency(strings.list, "A"));
+        assertEquals(1, Collections.frequency(strings.list, "B"));
+    }
+
+    public void testCorruptValue() throws Exception {
+        assertCorrupt(new byte[] { 99, 0 }, false);
+        // a string index that is not in the table
+        assertCorrupt(new byte[] { 4, 2, 0, 0, 0, 9 }, false);
+        // a truncated double
+        assertCorrupt(new byte[] { 2, 2, 0, 0 }, false);
+    }
+
+    public void testCorruptScript() throws Exception {
+        // unknown instruction type
+        assertCorrupt(new byte[] { -1, -1, -1, -1, 0, 0, 0, 1, 42 }, true);
+        // unknown operator
+        assertCorrupt(new byte[] { -1, -1, -1, -1, 0, 0, 0, 1, 5, 99 }, true);
+        // more instructions than the data holds
+        assertCorrupt(new byte[] { -1, -1, -1, -1, 0, 0, 0, 3, 0 }, true);
+    }
+
+
+    private void assertCorrupt(byte[] data, boolean script) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                data));
+        try {
+            if (script)
+                ScriptCodec.readScript(in, strings);
+            else
+                ScriptCodec.readValue(in, strings);
+            fail("Expected IOException");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    private SimpleData roundTripValue(SimpleData value) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        ScriptCodec.writeValue(out, value, strings);
+        out.flush();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf
+                .toByteArray()));
+        SimpleData result = ScriptCodec.readValue(in, strings);
+        assertEquals(-1, in.read());
+        return result;
+    }
+
+    private CompiledScript roundTripScript(CompiledScript script)
+            throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        ScriptCodec.writeScript(out, script, strings);
+        out.flush();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf
+                .toByteArray()));
+        CompiledScript result = ScriptCodec.readScript(in, strings);
+        assertEquals(-1, in.read());
+        return result;
+    }
+
+    private Object eval(CompiledScript script, ExpressionContext context)
+            throws ExecutionException {
+        ListStack stack = new ListStack();
+        script.run(stack, context);
+        return stack.pop();
+    }
+
+    private String describe(Object value) {
+        if (value == null)
+            return "null";
+        StringBuffer result = new StringBuffer(value.getClass().getName());
+        if (value instanceof SimpleData) {
+            SimpleData d = (SimpleData) value;
+            result.append(" ").append(d.saveString()) //
+                    .append(" editable=").append(d.isEditable()) //
+                    .append(" defined=").append(d.isDefined());
+        }
+        return result.toString();
+    }
+
+
+    private static class ListStringTable implements ScriptCodec.StringTable {
+
+        List<String> list = new ArrayList<String>();
+
+        public int indexOf(String s) {
+            int result = list.indexOf(s);
+            if (result == -1) {
+                result = list.size();
+                list.add(s);
+            }
+            return result;
+        }
+
+        public String get(int index) throws IOException {
+            if (index < 0 || index >= list.size())
+                throw new IOException("Invalid string index " + index);
+            return list.get(index);
+        }
+    }
+
+    private static class MapContext implements ExpressionContext {
+
+        private Map<String, SimpleData> values =
+            new HashMap<String, SimpleData>();
+
+        MapContext() {
+            values.put("A", new DoubleData(5));
+            values.put("B", new DoubleData(2));
+            values.put("C", ImmutableDoubleData.TRUE);
+            values.put("S", StringData.create("def"));
+        }
+
+        public SimpleData get(String dataName) {
+            return values.get(dataName);
+        }
+
+        public String resolveName(String dataName) {
+            return dataName;
+        }
+    }
+
+}
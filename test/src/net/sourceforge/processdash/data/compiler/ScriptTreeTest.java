@@ -0,0 +1,174 @@
+package net.sourceforge.processdash.data.compiler;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import net.sourceforge.processdash.data.DoubleData;
+import net.sourceforge.processdash.data.ImmutableDoubleData;
+import net.sourceforge.processdash.data.NumberData;
+import net.sourceforge.processdash.data.SimpleData;
+import net.sourceforge.processdash.data.StringData;
+
+public class ScriptTreeTest extends TestCase {
+
+    public void testArithmetic() throws Exception {
+        assertEquivalent("[A] + [B]");
+        assertEquivalent("[A] - [B] * [C]");
+        assertEquivalent("([A] + [B]) / [C] - [D] * 0.5");
+        assertEquivalent("-[A] + 2");
+        assertEquivalent("[A] * 2.5 - 7 / 4");
+        assertEquivalent("1 + 2 * 3");
+        assertEquivalent("([A] + [B]) * [C] / ([D] - [E]) + [A] * [B]");
+    }
+
+    public void testComparisons() throws Exception {
+        assertEquivalent("[A] > [B]");
+        assertEquivalent("[A] == 3.5");
+        assertEquivalent("[A] + 1 <= [B] * 2");
+        assertEquivalent("[A] != [A]");
+        assertEquivalent("([A] < [B]) + ([B] >= [A])");
+    }
+
+    public void testNullOperands() throws Exception {
+        assertEquivalent("[Missing] + 1");
+        assertEquivalent("[Missing] * [A]");
+        assertEquivalent("-[Missing]");
+        assertEquivalent("[Missing] / 0");
+        assertEquivalent("[Missing] > 1");
+        assertEquivalent("[Missing] == [Missing]");
+        assertEquivalent("([Missing] + 1) * [A]");
+    }
+
+    public void testUndefinedOperands() throws Exception {
+        assertEquivalent("[Undef] + [A]");
+        assertEquivalent("[Undef] * 2");
+        assertEquivalent("-[Undef]");
+        assertEquivalent("[Undef] > 1");
+        assertEquivalent("[Undef] / [Zero]");
+        assertEquivalent("[NaN] + 1");
+        assertEquivalent("[NaN] * [Inf]");
+    }
+
+    public void testNonNumericOperands() throws Exception {
+        assertEquivalent("[S] + 1");
+        assertEquivalent("[S] * [A]");
+        assertEquivalent("[S] == \"abc\"");
+        assertEquivalent("[S] < [A]");
+    }
+
+    public void testOverflow() throws Exception {
+        assertEquivalent("[Big] * [Big]");
+        assertEquivalent("[Big] * 10");
+        assertEquivalent("-[Big] * 10");
+        assertEquivalent("[Big] + [Big]");
+        assertEquivalent("([Big] * 10) / 2");
+        assertEquivalent("[Big] * [Big] - [Big] * [Big]");
+        assertEquivalent("[Big] * [Big] > [Big]");
+        assertEquivalent("[Big] * [Big] * 0");
+    }
+
+    public void testDivideByZero() throws Exception {
+        assertEquivalent("[A] / 0");
+        assertEquivalent("[A] / [Zero]");
+        assertEquivalent("-[A] / [Zero]");
+        assertEquivalent("[Zero] / [Zero]");
+        assertEquivalent("([A] / [Zero]) + 1");
+        assertEquivalent("([A] / [Zero]) * 0");
+        assertEquivalent("1 / 0");
+        assertEquivalent("0 / 0");
+        assertEquivalent("[Inf] - [Inf]");
+        assertEquivalent("[A] / [Zero] > 1");
+    }
+
+    public void testTreeIsBuilt() throws Exception {
+        CompiledScript script = Compiler.compile("([A] + [B]) * [C]");
+        assertNotNull(ScriptTree.build(script.getInstructions()));
+    }
+
+
+    private void assertEquivalent(String expression) throws Exception {
+        CompiledScript script = Compiler.compile(expression);
+        ScriptTree tree = ScriptTree.build(script.getInstructions());
+        assertNotNull(expression, tree);
+
+        String expected = evalInterpreted(script);
+        ListStack stack = new ListStack();
+        String actual;
+        try {
+            tree.run(stack, CONTEXT);
+            actual = describe(stack.pop());
+            assertTrue(expression, stack.empty());
+        } catch (ExecutionException ee) {
+            actual = "exception";
+        }
+        assertEquals(expression, expected, actual);
+    }
+
+    private String evalInterpreted(CompiledScript script) {
+        ListStack stack = new ListStack();
+        try {
+            for (Iterator i = script.getInstructions().iterator(); i.hasNext();)
+                ((Instruction) i.next()).execute(stack, CONTEXT);
+            return describe(stack.pop());
+        } catch (ExecutionException ee) {
+            return "exception";
+        }
+    }
+
+    private String describe(Object value) {
+        if (value == null)
+            return "null";
+        StringBuffer result = new StringBuffer();
+        result.append(value.getClass().getName());
+        if (value instanceof SimpleData) {
+            SimpleData d = (SimpleData) value;
+            result.append(" format=").append(d.format()) //
+                    .append(" defined=").append(d.isDefined()) //
+                    .append(" editable=").append(d.isEditable()) //
+                    .append(" test=").append(d.test());
+        }
+        if (value instanceof NumberData)
+            result.append(" value=").append(((NumberData) value).getDouble());
+        // callers can tell divide-by-zero from overflow by identity
+        if (value == ImmutableDoubleData.DIVIDE_BY_ZERO)
+            result.append(" DIVIDE_BY_ZERO");
+        else if (value == ImmutableDoubleData.BAD_VALUE)
+            result.append(" BAD_VALUE");
+        return result.toString();
+    }
+
+
+    private static final ExpressionContext CONTEXT = new MapContext();
+
+    private static class MapContext implements ExpressionContext {
+
+        private Map<String, SimpleData> values =
+            new HashMap<String, SimpleData>();
+
+        MapContext() {
+            values.put("A", new DoubleData(3.5));
+            values.put("B", new DoubleData(12));
+            values.put("C", new DoubleData(0.25));
+            values.put("D", new DoubleData(40));
+            values.put("E", new DoubleData(7));
+            values.put("Zero", new DoubleData(0));
+            values.put("Big", new DoubleData(1e300));
+            values.put("Inf", new DoubleData(Double.POSITIVE_INFINITY));
+            values.put("NaN", new DoubleData(Double.NaN));
+            values.put("Undef", new ImmutableDoubleData(5, true, false));
+            values.put("S", StringData.create("abc"));
+        }
+
+        public SimpleData get(String dataName) {
+            return values.get(dataName);
+        }
+
+        public String resolveName(String dataName) {
+            return dataName;
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package net.sourceforge.processdash.data.repository;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+public class CalculationBatchTest extends TestCase {
+
+    private Map notifications;
+
+    private Map activeData;
+
+    protected void setUp() throws Exception {
+        notifications = new HashMap();
+        activeData = new HashMap();
+    }
+
+    private DataListener listener(String output, String... inputs) {
+        DataListener result = new Listener(output);
+        Map elements = new Hashtable();
+        for (String input : inputs)
+            elements.put(input, input);
+        notifications.put(result, elements);
+        if (output != null)
+            activeData.put(result, output);
+        return result;
+    }
+
+    private CalculationBatch batch(DataListener... listeners) {
+        return new CalculationBatch(Arrays.asList(listeners), notifications,
+                activeData);
+    }
+
+    public void testDependencyOrder() {
+        DataListener p = listener(null, "B", "A");
+        DataListener f2 = listener("B", "A");
+        DataListener f1 = listener("A", "X");
+
+        CalculationBatch b = batch(p, f2, f1);
+        assertEquals(Arrays.asList(f1, f2, p), b.getListeners());
+        assertTrue(b.getCircularListeners().isEmpty());
+    }
+
+    public void testCircularListeners() {
+        DataListener p = listener(null, "C");
+        DataListener f3 = listener("C", "D");
+        DataListener f4 = listener("D", "C");
+        DataListener f5 = listener("E", "E");
+        DataListener q = listener(null, "X");
+
+        CalculationBatch b = batch(p, f3, f4, f5, q);
+        assertEquals(Arrays.asList(q, p), b.getListeners());
+        assertEquals(3, b.getCircularListeners().size());
+        assertTrue(b.getCircularListeners().containsAll(
+            Arrays.asList(f3, f4, f5)));
+    }
+
+    public void testIndependentCalculations() {
+        DataListener f1 = listener("A", "X");
+        DataListener f2 = listener("B", "A");
+        DataListener p = listener(null, "B");
+        DataListener f3 = listener("C", "Y");
+        DataListener q = listener(null, "C", "Z");
+        DataListener r = listener(null, "Z");
+
+        CalculationBatch b = batch(q, p, f2, f3, f1, r);
+        List<List<String>> groups = b.getIndependentCalculations(Arrays
+                .asList(p, q, r));
+        assertEquals(2, groups.size());
+        assertTrue(groups.contains(Arrays.asList("B")));
+        assertTrue(groups.contains(Arrays.asList("C")));
+
+        groups = b.getIndependentCalculations(Arrays.asList(f2, r));
+        assertEquals(Arrays.asList(Arrays.asList("A")), groups);
+    }
+
+    private static class Listener implements DataListener {
+        private String name;
+
+        Listener(String name) {
+            this.name = name;
+        }
+
+        public void dataValueChanged(DataEvent e) {}
+
+        public void dataValuesChanged(Vector v) {}
+
+        public String toString() {
+            return String.valueOf(name);
+        }
+    }
+
+}
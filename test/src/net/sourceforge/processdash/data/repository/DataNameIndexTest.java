@@ -0,0 +1,131 @@
+package net.sourceforge.processdash.data.repository;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class DataNameIndexTest extends TestCase {
+
+    private static final String[] NAMES = { "/Project/Time",
+            "/Project/Team/Time", "/Project/Team/Component/Time",
+            "/Project/Teammate/Time", "/Project/Team//Legacy",
+            "/Other/Time", "/Time", "Unrooted/Time" };
+
+    private DataNameIndex index;
+
+    protected void setUp() throws Exception {
+        index = new DataNameIndex();
+        for (String name : NAMES)
+            index.add(name);
+    }
+
+    private void assertPrefix(String prefix) {
+        Set<String> expected = new HashSet<String>();
+        for (String name : NAMES)
+            if (name.startsWith(prefix))
+                expected.add(name);
+
+        Set<String> actual = new HashSet<String>();
+        index.getNamesWithPrefix(prefix, actual);
+        assertEquals(prefix, expected, actual);
+    }
+
+    public void testPrefixScans() {
+        assertPrefix("/");
+        assertPrefix("/Project");
+        assertPrefix("/Project/");
+        assertPrefix("/Project/Team");
+        assertPrefix("/Project/Team/");
+        assertPrefix("/Project/Team//");
+        assertPrefix("/Project/Team/Component/Time");
+        assertPrefix("/Project/Team/Component/Time/");
+        assertPrefix("/Pro");
+        assertPrefix("/Missing/");
+        assertPrefix("Unrooted");
+        assertPrefix("Un");
+    }
+
+    public void testRemove() {
+        index.remove("/Project/Team/Component/Time");
+        index.remove("/Project/Nonexistent/Time");
+        Set<String> actual = new HashSet<String>();
+        index.getNamesWithPrefix("/Project/Team/", actual);
+        assertEquals(2, actual.size());
+        assertTrue(actual.contains("/Project/Team//Legacy"));
+
+        index.remove("/Project/Team//Legacy");
+        actual.clear();
+        index.getNamesWithPrefix("/Project/Team/", actual);
+        assertEquals(1, actual.size());
+        assertTrue(actual.contains("/Project/Team/Time"));
+
+        actual.clear();
+        index.getNamesWithPrefix("/Project/Team", actual);
+        assertEquals(2, actual.size());
+    }
+
+    public void testSharedNameInstances() {
+        String name = new String("/Project/Team/Time");
+        index.add(name);
+        Set<String> actual = new HashSet<String>();
+        index.getNamesWithPrefix("/Project/Team/T", actual);
+        assertSame(name, actual.iterator().next());
+    }
+
+    public void testSymbolsReleased() {
+        int symbolCount = index.getSymbolCount();
+        for (int i = 0; i < 100; i++)
+            index.add("/Project/Anonymous///Unique_" + i);
+        // the empty segment is already in use by "/Project/Team//Legacy"
+        assertEquals(symbolCount + 101, index.getSymbolCount());
+
+        for (int i = 0; i < 100; i++)
+            index.remove("/Project/Anonymous///Unique_" + i);
+        assertEquals(symbolCount, index.getSymbolCount());
+        assertPrefix("/Project/");
+
+        for (String name : NAMES)
+            index.remove(name);
+        assertEquals(0, index.getSymbolCount());
+    }
+
+    public void testConcurrentChanges() throws Exception {
+        final int numThreads = 4, numNames = 2000;
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final String prefix = "/Shared/Thread " + t + "/";
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int round = 0; round < 3; round++) {
+                            for (int i = 0; i < numNames; i++)
+                                index.add(prefix + (i % 10) + "/Name " + i);
+                            for (int i = 0; i < numNames; i += 2)
+                                index.remove(prefix + (i % 10) + "/Name " + i);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        Set<String> actual = new HashSet<String>();
+        index.getNamesWithPrefix("/Shared/", actual);
+        assertEquals(numThreads * numNames / 2, actual.size());
+        for (int t = 0; t < numThreads; t++)
+            assertTrue(actual.contains("/Shared/Thread " + t + "/1/Name 1"));
+        assertPrefix("/Project/");
+    }
+
+}
@@ -0,0 +1,130 @@
+package net.sourceforge.processdash.data.repository;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.sourceforge.processdash.data.DoubleData;
+
+/**
+ * Measures the throughput of concurrent data lookups while another thread
+ * keeps changing values, along with how often and how long the reader
+ * threads were blocked waiting for a monitor. The measurement is repeated
+ * for each number of reader threads in a comma-separated list, so the
+ * results show how throughput scales as readers are added.
+ *
+ * Usage: DataRepositoryContentionBenchmark [readerCounts [numElements
+ * [seconds]]]
+ */
+public class DataRepositoryContentionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String readerCounts = (args.length > 0 ? args[0] : "1,2,4,8,16");
+        int numElements = (args.length > 1 ? Integer.parseInt(args[1])
+                : 50000);
+        int seconds = (args.length > 2 ? Integer.parseInt(args[2]) : 10);
+
+        final DataRepository data = new DataRepository();
+        final String[] names = new String[numElements];
+        for (int i = 0; i < numElements; i++) {
+            names[i] = "/Project " + (i % 100) + "/Element " + i;
+            data.putValue(names[i], new DoubleData(i));
+        }
+        System.out.println("Repository contains " + numElements
+                + " elements");
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean.isThreadContentionMonitoringSupported())
+            bean.setThreadContentionMonitoringEnabled(true);
+
+        System.out.println("Readers\tLookups/sec\tWrites/sec"
+                + "\tBlocked count\tBlocked ms");
+        for (String count : readerCounts.split(",")) {
+            int numReaders = Integer.parseInt(count.trim());
+            run(bean, data, names, numReaders, seconds);
+        }
+
+        data.shutDown();
+        System.exit(0);
+    }
+
+    private static void run(ThreadMXBean bean, final DataRepository data,
+            final String[] names, int numReaders, int seconds)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] lookups = new long[numReaders];
+        final long[] writes = new long[1];
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        Thread[] readers = new Thread[numReaders];
+        for (int t = 0; t < numReaders; t++) {
+            final int threadNum = t;
+            readers[t] = new Thread("reader " + t) {
+                public void run() {
+                    Random r = new Random(threadNum);
+                    await(start);
+                    long count = 0;
+                    while (running.get()) {
+                        for (int i = 0; i < 1000; i++)
+                            data.getSimpleValue(names[r.nextInt(names.length)]);
+                        count += 1000;
+                    }
+                    lookups[threadNum] = count;
+                }
+            };
+            readers[t].start();
+        }
+
+        Thread writer = new Thread("writer") {
+            public void run() {
+                Random r = new Random(-1);
+                await(start);
+                long count = 0;
+                while (running.get()) {
+                    data.putValue(names[r.nextInt(names.length)],
+                        new DoubleData(r.nextDouble()));
+                    count++;
+                }
+                writes[0] = count;
+            }
+        };
+        writer.start();
+
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+
+        // read the contention statistics before the threads exit
+        long blockedCount = 0, blockedMillis = 0;
+        for (Thread t : readers) {
+            ThreadInfo info = bean.getThreadInfo(t.getId());
+            if (info != null) {
+                blockedCount += info.getBlockedCount();
+                blockedMillis += Math.max(0, info.getBlockedTime());
+            }
+        }
+
+        running.set(false);
+        long totalLookups = 0;
+        for (int t = 0; t < numReaders; t++) {
+            readers[t].join();
+            totalLookups += lookups[t];
+        }
+        writer.join();
+
+        System.out.println(numReaders + "\t" + (totalLookups / seconds)
+                + "\t" + (writes[0] / seconds) + "\t" + blockedCount + "\t"
+                + (bean.isThreadContentionMonitoringEnabled()
+                        ? Long.toString(blockedMillis) : "n/a"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ie) {
+        }
+    }
+
+}
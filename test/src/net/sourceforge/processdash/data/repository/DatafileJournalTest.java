@@ -0,0 +1,98 @@
+package net.sourceforge.processdash.data.repository;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import net.sourceforge.processdash.util.FileUtils;
+
+public class DatafileJournalTest extends TestCase {
+
+    private File tempDir;
+
+    private File datafile;
+
+    protected void setUp() throws Exception {
+        tempDir = File.createTempFile("test", ".tmp");
+        tempDir.delete();
+        tempDir.mkdir();
+        datafile = new File(tempDir, "1.dat");
+        write(datafile, "A=1\nB=\"x\n");
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    public void testReplay() throws Exception {
+        DatafileJournal journal = new DatafileJournal(datafile);
+        assertFalse(journal.hasChanges());
+        assertTrue(journal.isCurrent());
+
+        Map changes = new LinkedHashMap();
+        changes.put("A", "2.0");
+        changes.put("B", null);
+        changes.put("C=D", "=3.0");
+        journal.append(changes, "UTF-8");
+        changes.clear();
+        changes.put("A", "4.0");
+        journal.append(changes, "UTF-8");
+        assertTrue(journal.hasChanges());
+        assertTrue(journal.isCurrent());
+
+        Map values = new HashMap();
+        values.put("A", "1");
+        values.put("B", "\"x");
+        assertTrue(new DatafileJournal(datafile).replay(values, "UTF-8"));
+        assertEquals(2, values.size());
+        assertEquals("4.0", values.get("A"));
+        assertEquals("=3.0", values.get("C=D"));
+    }
+
+    public void testIncompleteLineIgnored() throws Exception {
+        DatafileJournal journal = new DatafileJournal(datafile);
+        Map changes = new HashMap();
+        changes.put("A", "2.0");
+        journal.append(changes, "UTF-8");
+        FileOutputStream out = new FileOutputStream(journalFile(), true);
+        out.write("+A=3".getBytes("UTF-8"));
+        out.close();
+
+        Map values = new HashMap();
+        assertTrue(new DatafileJournal(datafile).replay(values, "UTF-8"));
+        assertEquals("2.0", values.get("A"));
+    }
+
+    public void testOutdatedJournalDiscarded() throws Exception {
+        DatafileJournal journal = new DatafileJournal(datafile);
+        Map changes = new HashMap();
+        changes.put("A", "2.0");
+        journal.append(changes, "UTF-8");
+
+        // simulate a rewrite of the datafile
+        write(datafile, "A=2.0\nB=\"x\n");
+        assertFalse(journal.isCurrent());
+
+        Map values = new HashMap();
+        values.put("A", "2.0");
+        assertFalse(new DatafileJournal(datafile).replay(values, "UTF-8"));
+        assertEquals("2.0", values.get("A"));
+        assertFalse(journalFile().exists());
+    }
+
+    private File journalFile() {
+        return new File(datafile.getPath() + DatafileJournal.FILENAME_SUFFIX);
+    }
+
+    private void write(File f, String contents) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(contents.getBytes("UTF-8"));
+        out.close();
+    }
+
+}
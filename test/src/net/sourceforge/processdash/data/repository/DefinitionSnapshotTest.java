@@ -0,0 +1,227 @@
+package net.sourceforge.processdash.data.repository;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import net.sourceforge.processdash.data.DoubleData;
+import net.sourceforge.processdash.data.ImmutableDoubleData;
+import net.sourceforge.processdash.data.SimpleData;
+import net.sourceforge.processdash.data.StringData;
+import net.sourceforge.processdash.data.compiler.CompiledScript;
+import net.sourceforge.processdash.data.compiler.Compiler;
+import net.sourceforge.processdash.util.FileUtils;
+
+public class DefinitionSnapshotTest extends TestCase {
+
+    private static final long TEMPLATE_TIMESTAMP = 1234567;
+
+    private File tempDir;
+
+    private File base;
+
+    private File datafile;
+
+    protected void setUp() throws Exception {
+        tempDir = File.createTempFile("test", ".tmp");
+        tempDir.delete();
+        tempDir.mkdir();
+        base = new File(tempDir, "snapshot.dat");
+        datafile = new File(tempDir, "0.dat");
+        write(datafile, "#include <foo.txt>\nA=1\nB=\"text\n");
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+
+    public void testRoundTrip() throws Exception {
+        writeSnapshot(null);
+        DefinitionSnapshot snapshot = open();
+        assertNotNull(snapshot);
+
+        Map includes = snapshot.getIncludedFileDefinitions("<foo.txt>",
+            "defs");
+        assertEquals(5, includes.size());
+        assertEquals("plain text", includes.get("Text"));
+        assertEquals(describe(new DoubleData(3.5, true)),
+            describe(includes.get("Number")));
+        assertSame(ImmutableDoubleData.TRUE, includes.get("Flag"));
+        assertTrue(includes.containsKey("Nothing"));
+        assertNull(includes.get("Nothing"));
+        CompiledScript script = (CompiledScript) includes.get("Script");
+        assertEquals(Compiler.compile("[Number] * 2").toString(), script
+                .toString());
+
+        DefinitionSnapshot.DatafileContents contents = snapshot
+                .getDatafileContents(datafile, "context");
+        assertNotNull(contents);
+        assertEquals("<foo.txt>", contents.inheritsFrom);
+        assertEquals(datafile.lastModified(), contents.lastModified);
+        assertEquals(datafile.length(), contents.length);
+        assertEquals(DefinitionSnapshot.checksum(datafile), contents.checksum);
+        assertEquals(describe(new DoubleData(1, true)), describe(contents
+                .values.get("A")));
+        assertEquals(describe(StringData.create("text")), describe(contents
+                .values.get("B")));
+    }
+
+    public void testDefinesMismatch() throws Exception {
+        writeSnapshot(null);
+        DefinitionSnapshot snapshot = open();
+        assertNull(snapshot.getIncludedFileDefinitions("<foo.txt>", "other"));
+        assertNull(snapshot.getIncludedFileDefinitions("<bar.txt>", "defs"));
+        assertNull(snapshot.getDatafileContents(datafile, "other"));
+    }
+
+    public void testTemplatesChanged() throws Exception {
+        writeSnapshot(null);
+        assertNull(DefinitionSnapshot.open(base, TEMPLATE_TIMESTAMP + 1));
+    }
+
+    public void testStaleDatafile() throws Exception {
+        writeSnapshot(null);
+        long lastModified = datafile.lastModified();
+        long length = datafile.length();
+
+        // edit the file without changing its length or timestamp
+        write(datafile, "#include <foo.txt>\nA=2\nB=\"text\n");
+        datafile.setLastModified(lastModified);
+        assertEquals(length, datafile.length());
+        assertEquals(lastModified, datafile.lastModified());
+        assertNull(open().getDatafileContents(datafile, "context"));
+
+        // a change to the timestamp alone is also detected
+        write(datafile, "#include <foo.txt>\nA=1\nB=\"text\n");
+        datafile.setLastModified(lastModified + 10000);
+        assertNull(open().getDatafileContents(datafile, "context"));
+    }
+
+    public void testCorruptSnapshot() throws Exception {
+        writeSnapshot(null);
+        long size = base.length();
+        for (long pos = 32; pos < size; pos += 7) {
+            flipByte(base, pos);
+            assertNull("corruption at " + pos, open());
+            flipByte(base, pos);
+        }
+        assertNotNull(open());
+
+        // a truncated snapshot is rejected as well
+        RandomAccessFile raf = new RandomAccessFile(base, "rw");
+        raf.setLength(size - 1);
+        raf.close();
+        assertNull(open());
+        raf = new RandomAccessFile(base, "rw");
+        raf.setLength(20);
+        raf.close();
+        assertNull(open());
+    }
+
+    public void testAlternateFiles() throws Exception {
+        writeSnapshot(null);
+        DefinitionSnapshot first = open();
+        assertEquals(base, first.getFile());
+
+        // the next snapshot is written to the other file, which becomes the
+        // preferred one
+        File second = new File(tempDir, "snapshot.dat.1");
+        writeSnapshot(first);
+        second.setLastModified(base.lastModified() + 10000);
+        assertEquals(second, open().getFile());
+
+        // if the newer file is damaged, the older one is used instead
+        flipByte(second, second.length() - 1);
+        assertEquals(base, open().getFile());
+    }
+
+    public void testEditedDatafileReparsed() throws Exception {
+        File snapshotFile = new File(tempDir, "repository-snapshot.dat");
+        write(new File(tempDir, "foo.txt"), "Inherited=5\n");
+        assertEquals("1", readValue(snapshotFile, "A"));
+        assertTrue(snapshotFile.isFile());
+
+        long lastModified = datafile.lastModified();
+        write(datafile, "#include <foo.txt>\nA=7\nB=\"text\n");
+        datafile.setLastModified(lastModified);
+        assertEquals("7", readValue(snapshotFile, "A"));
+    }
+
+
+    private String readValue(File snapshotFile, String name)
+            throws Exception {
+        DataRepository data = new DataRepository();
+        try {
+            data.setDatafileSearchURLs(new URL[] { tempDir.toURI().toURL() });
+            data.openDefinitionSnapshot(snapshotFile);
+            data.openDatafile("/Project", datafile.getPath());
+            data.saveDefinitionSnapshot();
+            SimpleData value = data.getSimpleValue("/Project/" + name);
+            return (value == null ? null : value.format());
+        } finally {
+            data.shutDown();
+        }
+    }
+
+    private void writeSnapshot(DefinitionSnapshot current) throws Exception {
+        Map includes = new HashMap();
+        includes.put("Text", "plain text");
+        includes.put("Number", new DoubleData(3.5, true));
+        includes.put("Flag", ImmutableDoubleData.TRUE);
+        includes.put("Nothing", null);
+        includes.put("Script", Compiler.compile("[Number] * 2"));
+
+        DefinitionSnapshot.DatafileContents contents =
+            new DefinitionSnapshot.DatafileContents();
+        contents.inheritsFrom = "<foo.txt>";
+        contents.values = new HashMap();
+        contents.values.put("A", new DoubleData(1, true));
+        contents.values.put("B", StringData.create("text"));
+        contents.lastModified = datafile.lastModified();
+        contents.length = datafile.length();
+        contents.checksum = DefinitionSnapshot.checksum(datafile);
+
+        DefinitionSnapshot.Builder builder = new DefinitionSnapshot.Builder();
+        builder.addIncludedFile("<foo.txt>", "defs", includes, false);
+        builder.addDatafile(datafile, "context", contents, false);
+        assertTrue(builder.isDirty());
+        builder.write(base, current, TEMPLATE_TIMESTAMP);
+        assertFalse(builder.isDirty());
+    }
+
+    private DefinitionSnapshot open() {
+        return DefinitionSnapshot.open(base, TEMPLATE_TIMESTAMP);
+    }
+
+    private String describe(Object value) {
+        if (!(value instanceof SimpleData))
+            return String.valueOf(value);
+        SimpleData d = (SimpleData) value;
+        return value.getClass().getName() + " " + d.saveString()
+                + " editable=" + d.isEditable() + " defined="
+                + d.isDefined();
+    }
+
+    private void flipByte(File f, long pos) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(pos);
+        int b = raf.read();
+        raf.seek(pos);
+        raf.write(b ^ 0x55);
+        raf.close();
+    }
+
+    private void write(File f, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+    }
+
+}
@@ -0,0 +1,72 @@
+package net.sourceforge.processdash.data.repository;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import net.sourceforge.processdash.data.SimpleData;
+import net.sourceforge.processdash.util.FileUtils;
+
+public class OpenDatafilesTest extends TestCase {
+
+    private File tempDir;
+
+    private DataRepository data;
+
+    protected void setUp() throws Exception {
+        tempDir = File.createTempFile("test", ".tmp");
+        tempDir.delete();
+        tempDir.mkdir();
+        data = new DataRepository();
+        data.setDatafileSearchURLs(new URL[] { tempDir.toURI().toURL() });
+    }
+
+    protected void tearDown() throws Exception {
+        data.shutDown();
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    public void testGlobalValuesAppliedInListOrder() throws Exception {
+        // the first template takes much longer to parse than the second, so
+        // a concurrent read of the second finishes first.
+        StringBuilder slow = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+            slow.append("Slow_").append(i).append("=").append(i).append('\n');
+        slow.append("/Shared_Global=\"first\n");
+        write("first.txt", slow.toString());
+        write("second.txt", "/Shared_Global=\"second\n");
+
+        List<String[]> datafiles = new ArrayList<String[]>();
+        for (int i = 0; i < 8; i++) {
+            String template = (i == 0 ? "first.txt" : "second.txt");
+            write(i + ".dat", "#include <" + template + ">\n");
+            datafiles.add(new String[] { "/Project " + i,
+                    new File(tempDir, i + ".dat").getPath() });
+        }
+
+        Exception[] errors = data.openDatafiles(datafiles);
+        for (Exception e : errors)
+            assertNull(e);
+
+        // sequential opens would apply the global from the first template,
+        // then overwrite it with the value from the second.
+        Map globals = data.loadIncludedFileDefinitions("dataFile.txt");
+        Object value = globals.get("Shared_Global");
+        if (value instanceof SimpleData)
+            value = ((SimpleData) value).format();
+        assertEquals("\"second", value);
+    }
+
+    private void write(String name, String contents) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(tempDir, name));
+        out.write(contents.getBytes("UTF-8"));
+        out.close();
+    }
+
+}
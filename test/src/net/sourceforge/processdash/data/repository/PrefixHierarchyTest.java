@@ -0,0 +1,97 @@
+package net.sourceforge.processdash.data.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import net.sourceforge.processdash.util.Perl5Util;
+
+public class PrefixHierarchyTest extends TestCase {
+
+    private static final String[] NAMES = { "/Project/Time",
+            "/Project/Estimated Time", "/Project/A", "/Project/Size\tTime",
+            "/Project/A/Time", "/Other/Time", "/Other/Size", "/Project" };
+
+    private PrefixHierarchy hierarchy;
+
+    protected void setUp() throws Exception {
+        hierarchy = new PrefixHierarchy();
+    }
+
+    public void testSuffixDispatch() {
+        Recorder all = addListener("/Project", null);
+        Recorder time = addListener("/Project", "/Time");
+        Recorder estTime = addListener("/Project/", "Estimated Time");
+        Recorder other = addListener("/Other/", "Time");
+        Recorder root = addListener("", "Size");
+        dispatchAll();
+
+        assertEquals(list("/Project/Time", "/Project/Estimated Time",
+            "/Project/A", "/Project/Size\tTime", "/Project/A/Time",
+            "/Project"), all.added);
+        assertEquals(list("/Project/Time", "/Project/A/Time"), time.added);
+        assertEquals(list("/Project/Estimated Time"), estTime.added);
+        assertEquals(list("/Other/Time"), other.added);
+        assertEquals(list("/Other/Size"), root.added);
+
+        hierarchy.removeListener(time);
+        hierarchy.dispatchRemoved("/Project/Time");
+        assertTrue(time.removed.isEmpty());
+        assertEquals(list("/Project/Time"), all.removed);
+    }
+
+    public void testRegexpSuffixes() {
+        // every name that matches a regular expression must reach the
+        // listener registered with that expression's literal suffix
+        String[] regexps = { "/Time$", "e Time$", "[A-Z]$", "\\x41$",
+                "\\u0041$", "\\0101$", "\\cA$", "/Size\\tTime$", "\\d$",
+                "\\\\Time$", "Ti*me$" };
+        List<Recorder> recorders = new ArrayList<Recorder>();
+        for (String re : regexps)
+            recorders.add(addListener("", Perl5Util.getLiteralSuffix(re)));
+        dispatchAll();
+
+        for (int i = 0; i < regexps.length; i++) {
+            Pattern p = Pattern.compile(regexps[i]);
+            for (String name : NAMES) {
+                if (p.matcher(name).find())
+                    assertTrue(regexps[i] + " / " + name, recorders.get(i)
+                            .added.contains(name));
+            }
+        }
+    }
+
+    private Recorder addListener(String prefix, String suffix) {
+        Recorder result = new Recorder();
+        hierarchy.addListener(result, prefix, suffix);
+        return result;
+    }
+
+    private void dispatchAll() {
+        for (String name : NAMES)
+            hierarchy.dispatchAdded(name);
+    }
+
+    private List<String> list(String... names) {
+        List<String> result = new ArrayList<String>();
+        for (String name : names)
+            result.add(name);
+        return result;
+    }
+
+    private static class Recorder implements RepositoryListener {
+        List<String> added = new ArrayList<String>();
+        List<String> removed = new ArrayList<String>();
+
+        public void dataAdded(String name) {
+            added.add(name);
+        }
+
+        public void dataRemoved(String name) {
+            removed.add(name);
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package net.sourceforge.processdash.hier;
+
+import junit.framework.TestCase;
+
+public class DashHierarchyTest extends TestCase {
+
+    private DashHierarchy hier;
+
+
+    protected void setUp() throws Exception {
+        hier = new DashHierarchy(null);
+        hier.put(PropertyKey.ROOT, new Prop());
+        addNode(PropertyKey.ROOT, "Project", "1:1");
+        addNode(hier.findExistingKey("/Project"), "Component", "1:2");
+        for (int i = 0; i < 20; i++)
+            addNode(PropertyKey.ROOT, "Other " + i, null);
+    }
+
+    private PropertyKey addNode(PropertyKey parent, String name, String id) {
+        hier.addChildKey(parent, name, -1);
+        PropertyKey key = new PropertyKey(parent, name);
+        if (id != null)
+            hier.pget(key).setNodeID(id);
+        return key;
+    }
+
+
+    public void testFindExistingKey() {
+        assertSame(PropertyKey.ROOT, hier.findExistingKey(""));
+        assertSame(PropertyKey.ROOT, hier.findExistingKey("/"));
+        assertEquals(PropertyKey.fromPath("/Project/Component"),
+            hier.findExistingKey("/Project/Component"));
+        assertEquals(PropertyKey.fromPath("/Project/Component"),
+            hier.findExistingKey("Project/Component"));
+        assertEquals(PropertyKey.fromPath("/Other 12"),
+            hier.findExistingKey("/Other 12"));
+        assertNull(hier.findExistingKey("/Project/Missing"));
+        assertNull(hier.findExistingKey(null));
+
+        // repeated lookups are answered from the index
+        PropertyKey key = hier.findExistingKey("/Project/Component");
+        assertSame(key, hier.findExistingKey("/Project/Component"));
+    }
+
+    public void testFindClosestKey() {
+        assertEquals(PropertyKey.fromPath("/Project/Component"),
+            hier.findClosestKey("/Project/Component/Task/Phase"));
+        assertSame(PropertyKey.ROOT, hier.findClosestKey("/Missing"));
+    }
+
+    public void testPathIndexAfterAdd() {
+        assertNull(hier.findExistingKey("/Project/Component/Task"));
+        addNode(hier.findExistingKey("/Project/Component"), "Task", null);
+        assertEquals(PropertyKey.fromPath("/Project/Component/Task"),
+            hier.findExistingKey("/Project/Component/Task"));
+    }
+
+    public void testPathIndexAfterRemove() {
+        PropertyKey project = hier.findExistingKey("/Project");
+        assertNotNull(hier.findExistingKey("/Project/Component"));
+        hier.removeChildKey(project, 0);
+        assertNull(hier.findExistingKey("/Project/Component"));
+        assertNotNull(hier.findExistingKey("/Project"));
+
+        assertNotNull(hier.findExistingKey("/Other 7"));
+        hier.removeChildKey(PropertyKey.ROOT, 8);
+        assertNull(hier.findExistingKey("/Other 7"));
+    }
+
+    public void testPathIndexAfterRename() {
+        assertNotNull(hier.findExistingKey("/Project/Component"));
+        assertNotNull(hier.findExistingKey("/Other 3"));
+
+        hier.setChildKey(PropertyKey.ROOT, "Renamed", 0);
+        assertNull(hier.findExistingKey("/Project"));
+        assertNull(hier.findExistingKey("/Project/Component"));
+        assertEquals(PropertyKey.fromPath("/Renamed/Component"),
+            hier.findExistingKey("/Renamed/Component"));
+
+        hier.setChildKey(PropertyKey.ROOT, "Renamed 3", 4);
+        assertNull(hier.findExistingKey("/Other 3"));
+        assertNotNull(hier.findExistingKey("/Renamed 3"));
+    }
+
+    public void testPathIndexAfterInPlaceChange() {
+        assertNotNull(hier.findExistingKey("/Other 3"));
+
+        // change a child without storing the parent Prop again
+        hier.pget(PropertyKey.ROOT).setChild(
+            new PropertyKey(PropertyKey.ROOT, "Changed"), 4);
+        assertNull(hier.findExistingKey("/Other 3"));
+        assertNotNull(hier.findExistingKey("/Changed"));
+    }
+
+    public void testPathIndexAfterClear() {
+        assertNotNull(hier.findExistingKey("/Project"));
+        hier.clear();
+        assertNull(hier.findExistingKey("/Project"));
+    }
+
+    public void testFindKeyByNodeID() {
+        assertEquals(PropertyKey.fromPath("/Project/Component"),
+            hier.findKeyByNodeID("1:2"));
+        assertNull(hier.findKeyByNodeID("1:3"));
+        assertNull(hier.findKeyByNodeID(null));
+
+        // changes to IDs are seen after the index was built
+        hier.pget(hier.findExistingKey("/Project")).setNodeID("1:3");
+        assertEquals(PropertyKey.fromPath("/Project"),
+            hier.findKeyByNodeID("1:3"));
+        assertNull(hier.findKeyByNodeID("1:1"));
+
+        // as are newly stored nodes
+        PropertyKey task = addNode(hier.findExistingKey("/Project/Component"),
+            "Task", null);
+        Prop p = new Prop(hier.pget(task));
+        p.setNodeID("1:4");
+        hier.put(task, p);
+        assertEquals(task, hier.findKeyByNodeID("1:4"));
+    }
+
+}
@@ -0,0 +1,95 @@
+package net.sourceforge.processdash.hier;
+
+import junit.framework.TestCase;
+
+public class PropTest extends TestCase {
+
+    private PropertyKey parent = PropertyKey.fromPath("/Project");
+
+
+    public void testFewChildren() {
+        checkChildLookups(3);
+    }
+
+    public void testManyChildren() {
+        checkChildLookups(20);
+    }
+
+    private void checkChildLookups(int numChildren) {
+        Prop p = createProp(numChildren);
+        for (int i = 0; i < numChildren; i++)
+            assertSame(p.getChild(i), p.getChildByName("Child " + i));
+        assertNull(p.getChildByName("Child " + numChildren));
+        assertNull(p.getChildByName(null));
+        assertFalse(p.isUniqueChildName("Child 0"));
+        assertTrue(p.isUniqueChildName("Other"));
+        assertNull(new Prop().getChildByName("Child 0"));
+    }
+
+    public void testDuplicateNames() {
+        Prop p = createProp(20);
+        PropertyKey dup = new PropertyKey(parent, "Child 3");
+        p.addChild(dup, -1);
+        assertSame(dup, p.getChildByName("Child 3"));
+    }
+
+    public void testSetChild() {
+        Prop p = createProp(20);
+        assertNotNull(p.getChildByName("Child 5"));
+
+        PropertyKey renamed = new PropertyKey(parent, "Renamed");
+        p.setChild(renamed, 5);
+        assertNull(p.getChildByName("Child 5"));
+        assertSame(renamed, p.getChildByName("Renamed"));
+    }
+
+    public void testMoveChildUp() {
+        Prop p = createProp(20);
+        PropertyKey child = p.getChildByName("Child 5");
+
+        // swapping two children leaves each name on the same key
+        p.moveChildUp(5);
+        assertSame(child, p.getChild(4));
+        assertSame(child, p.getChildByName("Child 5"));
+        assertSame(p.getChild(5), p.getChildByName("Child 4"));
+    }
+
+    public void testAddAndRemoveChild() {
+        Prop p = createProp(20);
+        assertNull(p.getChildByName("New"));
+
+        PropertyKey added = new PropertyKey(parent, "New");
+        p.addChild(added, 2);
+        assertSame(added, p.getChildByName("New"));
+
+        p.removeChild(2);
+        assertNull(p.getChildByName("New"));
+        p.removeChild(0);
+        assertNull(p.getChildByName("Child 0"));
+        assertNotNull(p.getChildByName("Child 1"));
+    }
+
+    public void testChildChangeCount() {
+        Prop p = createProp(20);
+        int count = Prop.getChildChangeCount();
+        p.setChild(new PropertyKey(parent, "Renamed"), 5);
+        assertTrue(count != Prop.getChildChangeCount());
+
+        count = Prop.getChildChangeCount();
+        p.moveChildUp(5);
+        assertTrue(count != Prop.getChildChangeCount());
+
+        count = Prop.getChildChangeCount();
+        p.removeChild(5);
+        assertTrue(count != Prop.getChildChangeCount());
+    }
+
+
+    private Prop createProp(int numChildren) {
+        Prop result = new Prop();
+        for (int i = 0; i < numChildren; i++)
+            result.addChild(new PropertyKey(parent, "Child " + i), -1);
+        return result;
+    }
+
+}
@@ -0,0 +1,71 @@
+package net.sourceforge.processdash.hier;
+
+import junit.framework.TestCase;
+
+public class PropertyKeyTest extends TestCase {
+
+    public void testRoot() {
+        assertEquals("top", PropertyKey.ROOT.key());
+        assertEquals("", PropertyKey.ROOT.path());
+        assertNull(PropertyKey.ROOT.getParent());
+        assertEquals(PropertyKey.ROOT, PropertyKey.fromPath(""));
+        assertEquals(PropertyKey.ROOT, PropertyKey.fromKey("top"));
+    }
+
+    public void testConstructedMatchesParsed() {
+        PropertyKey a = new PropertyKey(PropertyKey.ROOT, "Project");
+        PropertyKey b = new PropertyKey(a, "Component");
+        PropertyKey c = new PropertyKey(b, "Task");
+
+        PropertyKey parsed = PropertyKey.fromPath("/Project/Component/Task");
+        assertEquals(c, parsed);
+        assertEquals(parsed, c);
+        assertEquals(c.hashCode(), parsed.hashCode());
+        assertEquals(0, c.compareTo(parsed));
+        assertEquals("top/Project/Component/Task", parsed.key());
+        assertEquals("/Project/Component/Task", c.path());
+        assertEquals("Task", parsed.name());
+        assertEquals(c.toString(), parsed.toString());
+        assertEquals(c, PropertyKey.valueOf(c.toString()));
+    }
+
+    public void testParents() {
+        PropertyKey a = new PropertyKey(PropertyKey.ROOT, "Project");
+        PropertyKey b = new PropertyKey(a, "Component");
+        assertSame(a, b.getParent());
+        assertSame(PropertyKey.ROOT, a.getParent());
+
+        PropertyKey parsed = PropertyKey.fromPath("/Project/Component");
+        PropertyKey parent = parsed.getParent();
+        assertEquals(a, parent);
+        assertSame(parent, parsed.getParent());
+        assertEquals(PropertyKey.ROOT, parent.getParent());
+        assertNull(parent.getParent().getParent());
+
+        assertNull(new PropertyKey((PropertyKey) null, "x").getParent());
+        assertEquals(b, new PropertyKey(b));
+        assertSame(a, new PropertyKey(b).getParent());
+    }
+
+    public void testIsChildOf() {
+        PropertyKey a = PropertyKey.fromPath("/Project");
+        PropertyKey b = PropertyKey.fromPath("/Project/Component/Task");
+        PropertyKey c = PropertyKey.fromPath("/Projects/Task");
+        assertTrue(b.isChildOf(a));
+        assertTrue(b.isChildOf(PropertyKey.ROOT));
+        assertFalse(c.isChildOf(a));
+        assertFalse(a.isChildOf(b));
+        assertFalse(a.isChildOf(a));
+    }
+
+    public void testInequality() {
+        PropertyKey a = PropertyKey.fromPath("/Project/Task");
+        PropertyKey b = PropertyKey.fromPath("/Project/Tasks");
+        PropertyKey c = PropertyKey.fromPath("/Projec/tTask");
+        assertFalse(a.equals(b));
+        assertFalse(a.equals(c));
+        assertFalse(a.equals("top/Project/Task"));
+        assertTrue(a.compareTo(b) < 0);
+    }
+
+}
@@ -0,0 +1,87 @@
+package net.sourceforge.processdash.hier;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the time and memory allocated by a typical hierarchy walk over
+ * a large hierarchy: for every node, walk its parents up to the root,
+ * looking each of them up in the hierarchy and computing its path.
+ *
+ * Usage: PropertyKeyWalkBenchmark [numNodes [numIterations]]
+ */
+public class PropertyKeyWalkBenchmark {
+
+    public static void main(String[] args) {
+        int numNodes = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+        int iterations = (args.length > 1 ? Integer.parseInt(args[1]) : 20);
+
+        DashHierarchy hier = new DashHierarchy(null);
+        List<PropertyKey> nodes = buildHierarchy(hier, numNodes);
+        System.out.println("Hierarchy contains " + hier.size() + " nodes");
+
+        // warm up before measuring
+        for (int i = 0; i < 5; i++)
+            walk(hier, nodes);
+
+        long bytesBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        int count = 0;
+        for (int i = 0; i < iterations; i++)
+            count += walk(hier, nodes);
+        long elapsed = System.nanoTime() - start;
+        long bytes = getAllocatedBytes() - bytesBefore;
+
+        System.out.println("Visited " + count + " keys in " + iterations
+                + " walks");
+        System.out.println("Time per walk: " + (elapsed / iterations / 1000)
+                + " microseconds");
+        if (bytesBefore >= 0)
+            System.out.println("Allocated per walk: " + (bytes / iterations)
+                    + " bytes");
+    }
+
+    /** Build a hierarchy five levels deep with the given number of nodes */
+    private static List<PropertyKey> buildHierarchy(DashHierarchy hier,
+            int numNodes) {
+        List<PropertyKey> result = new ArrayList<PropertyKey>();
+        hier.put(PropertyKey.ROOT, new Prop());
+        result.add(PropertyKey.ROOT);
+        for (int i = 0; result.size() < numNodes; i++) {
+            PropertyKey parent = result.get(i);
+            Prop parentProp = hier.pget(parent);
+            for (int j = 0; j < 8 && result.size() < numNodes; j++) {
+                PropertyKey child = new PropertyKey(parent, "Node " + j);
+                parentProp.addChild(child, -1);
+                hier.put(child, new Prop());
+                result.add(child);
+            }
+        }
+        return result;
+    }
+
+    private static int walk(DashHierarchy hier, List<PropertyKey> nodes) {
+        int count = 0;
+        for (PropertyKey node : nodes) {
+            PropertyKey key = node;
+            while (key != null) {
+                if (hier.containsKey(key) && key.path().length() > 0)
+                    count++;
+                key = key.getParent();
+            }
+        }
+        return count;
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        else
+            return -1;
+    }
+
+}
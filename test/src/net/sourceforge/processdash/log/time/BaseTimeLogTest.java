@@ -0,0 +1,188 @@
+package net.sourceforge.processdash.log.time;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import net.sourceforge.processdash.log.ChangeFlagged;
+import net.sourceforge.processdash.util.FileUtils;
+
+public class BaseTimeLogTest extends AbstractTimeLogTest {
+
+    private static final String[] PATHS = { "/Project", "/Project/A",
+            "/Project/A/Code", "/Project/AB", "/Other/Task", null };
+
+    private static final long BASE_TIME = 1100000000000L;
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private File tempDir, logFile, indexFile;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDir = createTempDir();
+        logFile = new File(tempDir, WorkingTimeLog.TIME_LOG_FILENAME);
+        indexFile = new File(tempDir, "timelog.idx");
+
+        Random r = new Random(42);
+        List entries = new ArrayList();
+        for (int id = 1; id <= 400; id++) {
+            String path = PATHS[r.nextInt(PATHS.length)];
+            Date start = (id % 50 == 0 ? null : new Date(BASE_TIME
+                    + r.nextInt(1000) * DAY / 10));
+            String comment = (id % 7 == 0 ? "see <time /> & \"more\"" : null);
+            entries.add(new TimeLogEntryVO(id, path, start, r.nextInt(90),
+                    r.nextInt(10), comment));
+        }
+        TimeLogWriter.write(logFile, entries.iterator());
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+        super.tearDown();
+    }
+
+    public void testQueries() throws Exception {
+        BaseTimeLog log = new BaseTimeLog(logFile);
+        assertQueries(log);
+        assertTrue(indexFile.isFile());
+
+        // a new log object should reuse the saved index
+        long indexTimestamp = indexFile.lastModified();
+        assertQueries(new BaseTimeLog(logFile));
+        assertEquals(indexTimestamp, indexFile.lastModified());
+    }
+
+    public void testStaleIndex() throws Exception {
+        BaseTimeLog log = new BaseTimeLog(logFile);
+        assertQueries(log);
+
+        List entries = new ArrayList();
+        entries.add(new TimeLogEntryVO(1, "/Project/A", new Date(BASE_TIME),
+                5, 0, null));
+        TimeLogWriter.write(logFile, entries.iterator());
+        logFile.setLastModified(logFile.lastModified() + 2000);
+
+        assertQueries(log);
+        assertQueries(new BaseTimeLog(logFile));
+    }
+
+    public void testSameSizeEditWithSameTimestamp() throws Exception {
+        replaceInLog("/Other/Task", "/Other/Tusk");
+        long timestamp = logFile.lastModified();
+        BaseTimeLog log = new BaseTimeLog(logFile);
+        assertQuery(log, "/Other/Task", null, null);
+
+        // restore the original paths without changing the file's size or
+        // timestamp.  The index checksum should notice the change.
+        replaceInLog("/Other/Tusk", "/Other/Task");
+        logFile.setLastModified(timestamp);
+        assertQueries(log);
+        assertQueries(new BaseTimeLog(logFile));
+    }
+
+    public void testMisalignedIndex() throws Exception {
+        // give the log an old timestamp, so its index is trusted without
+        // recomputing the checksum.
+        long timestamp = logFile.lastModified() - 60 * 60 * 1000L;
+        logFile.setLastModified(timestamp);
+        BaseTimeLog log = new BaseTimeLog(logFile);
+        assertQueries(log);
+
+        // move the first entry to the end of the file, keeping the size and
+        // timestamp, so the indexed offsets no longer line up with entries
+        String content = readLog();
+        int beg = content.indexOf("<time ");
+        int end = content.indexOf('\n', beg) + 1;
+        int last = content.lastIndexOf("<time ");
+        last = content.indexOf('\n', last) + 1;
+        writeLog(content.substring(0, beg) + content.substring(end, last)
+                + content.substring(beg, end) + content.substring(last));
+        logFile.setLastModified(timestamp);
+
+        assertQueries(log);
+        assertQueries(new BaseTimeLog(logFile));
+    }
+
+    public void testModifiedEntries() throws Exception {
+        TimeLogModifications mods = new TimeLogModifications(new BaseTimeLog(
+                logFile));
+        Date from = new Date(BASE_TIME + 90 * DAY);
+        Date to = new Date(BASE_TIME + 95 * DAY);
+
+        // move an entry into the requested range, and another one out of it
+        TimeLogEntry inRange = (TimeLogEntry) new TimeLogReader(logFile)
+                .next();
+        TimeLogEntry outOfRange = (TimeLogEntry) new BaseTimeLog(logFile)
+                .filter("/Project", from, to).next();
+        mods.addModification(new TimeLogEntryVO(inRange.getID(), "/Project",
+                new Date(BASE_TIME + 91 * DAY), 0, 0, null,
+                ChangeFlagged.MODIFIED));
+        mods.addModification(new TimeLogEntryVO(outOfRange.getID(), null,
+                new Date(BASE_TIME + 200 * DAY), 0, 0, null,
+                ChangeFlagged.MODIFIED));
+
+        List ids = getIDs(mods.filter("/Project", from, to));
+        assertTrue(ids.contains(inRange.getID()));
+        assertFalse(ids.contains(outOfRange.getID()));
+        assertEquals(getIDs(new TimeLogIteratorFilter(mods.filter(null, null,
+                null), "/Project", from, to)), ids);
+    }
+
+    private void assertQueries(TimeLog log) throws Exception {
+        assertQuery(log, null, null, null);
+        assertQuery(log, "/Project", null, null);
+        assertQuery(log, "/Project/A", null, null);
+        assertQuery(log, "/Other", null, null);
+        assertQuery(log, "/Nowhere", null, null);
+        for (int i = 0; i < 100; i += 13) {
+            Date from = new Date(BASE_TIME + i * DAY);
+            Date to = new Date(BASE_TIME + (i + 3) * DAY);
+            assertQuery(log, null, from, null);
+            assertQuery(log, null, null, from);
+            assertQuery(log, null, from, to);
+            assertQuery(log, "/Project/A", from, to);
+            assertQuery(log, "/Other/Task", null, to);
+        }
+    }
+
+    private void assertQuery(TimeLog log, String path, Date from, Date to)
+            throws Exception {
+        List expected = getIDs(new TimeLogIteratorFilter(new TimeLogReader(
+                logFile), path, from, to));
+        List actual = getIDs(log.filter(path, from, to));
+        assertEquals(path + " " + from + " " + to, expected, actual);
+    }
+
+    private void replaceInLog(String find, String replace) throws Exception {
+        writeLog(readLog().replace(find, replace));
+    }
+
+    private String readLog() throws Exception {
+        FileInputStream in = new FileInputStream(logFile);
+        try {
+            return new String(FileUtils.slurpContents(in, false), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeLog(String content) throws Exception {
+        FileOutputStream out = new FileOutputStream(logFile);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+    }
+
+    private List getIDs(Iterator entries) {
+        List result = new ArrayList();
+        while (entries.hasNext())
+            result.add(((TimeLogEntry) entries.next()).getID());
+        return result;
+    }
+
+}
@@ -0,0 +1,177 @@
+package net.sourceforge.processdash.net.cache;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.w3c.dom.Element;
+
+import junit.framework.TestCase;
+
+import net.sourceforge.processdash.util.FileUtils;
+
+public class FileObjectCacheTest extends TestCase {
+
+    private File dir;
+
+    private FileObjectCache cache;
+
+
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("test", ".tmp");
+        dir.delete();
+        dir.mkdir();
+        cache = new FileObjectCache(dir, ".obj");
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir, true);
+    }
+
+
+    public void testStoreAndRetrieve() throws Exception {
+        TestObject obj = store("one", "value");
+        assertEquals(0, obj.getID());
+        assertTrue(new File(dir, "0.obj").isFile());
+
+        CachedObject copy = cache.getCachedObject(0, -1);
+        assertTrue(copy instanceof TestObject);
+        assertEquals("one", copy.getType());
+        assertEquals("value", copy.getLocalAttr("attr"));
+        assertEquals("data:value", copy.getString("UTF-8"));
+
+        assertNull(cache.getCachedObject(1, -1));
+        assertNull(cache.getCachedObject(-1, -1));
+
+        // a new cache finds the objects on disk
+        FileObjectCache other = new FileObjectCache(dir, "obj");
+        assertEquals(1, other.getNextID());
+        assertEquals("value", other.getCachedObject(0, -1).getLocalAttr("attr"));
+    }
+
+    public void testCallersGetSeparateObjects() {
+        TestObject obj = store("one", "value");
+
+        CachedObject a = cache.getCachedObject(0, -1);
+        CachedObject b = cache.getCachedObject(0, -1);
+        assertNotSame(a, b);
+        assertNotSame(obj, a);
+
+        // unsaved changes are not seen by other callers
+        a.setLocalAttrImpl("attr", "changed");
+        obj.setLocalAttrImpl("attr", "changed too");
+        assertEquals("value", b.getLocalAttr("attr"));
+        assertEquals("value", cache.getCachedObject(0, -1)
+                .getLocalAttr("attr"));
+
+        // but stored changes are
+        a.setLocalAttr("attr", "stored");
+        assertEquals("stored", cache.getCachedObject(0, -1)
+                .getLocalAttr("attr"));
+        assertEquals("value", b.getLocalAttr("attr"));
+    }
+
+    public void testRecentObjects() {
+        int max = FileObjectCache.MAX_RECENT_OBJECTS;
+        for (int i = 0; i < max; i++)
+            store("type", "value " + i);
+
+        // remove the files behind the first two objects.  They can still
+        // be retrieved while they are recently used.
+        new File(dir, "0.obj").delete();
+        new File(dir, "1.obj").delete();
+        assertNotNull(cache.getCachedObject(0, -1));
+
+        // storing another object pushes out the least recently used one
+        store("type", "value " + max);
+        assertNull(cache.getCachedObject(1, -1));
+        CachedObject zero = cache.getCachedObject(0, -1);
+        assertNotNull(zero);
+        assertEquals("value 0", zero.getLocalAttr("attr"));
+
+        // objects read from disk are remembered as well
+        assertEquals("value 2", cache.getCachedObject(2, -1)
+                .getLocalAttr("attr"));
+        new File(dir, "2.obj").delete();
+        assertNotNull(cache.getCachedObject(2, -1));
+    }
+
+    public void testTypeIndex() {
+        store("a", "1");
+        store("b", "2");
+        store("a", "3");
+        store(null, "4");
+
+        assertIDs(cache.getObjectIDs("a"), 0, 2);
+        assertIDs(cache.getObjectIDs("b"), 1);
+        assertIDs(cache.getObjectIDs("c"));
+        assertIDs(cache.getObjectIDs(null), 0, 1, 2, 3);
+        assertEquals(2, cache.getObjects("a").length);
+        assertEquals("3", cache.getObjects("a")[1].getLocalAttr("attr"));
+
+        // the index follows stores and deletes
+        store("b", "5");
+        cache.deleteCachedObject(0);
+        assertIDs(cache.getObjectIDs("a"), 2);
+        assertIDs(cache.getObjectIDs("b"), 1, 4);
+        assertFalse(new File(dir, "0.obj").exists());
+        assertNull(cache.getCachedObject(0, -1));
+
+        // a new cache builds the same index from disk
+        FileObjectCache other = newCache();
+        assertIDs(other.getObjectIDs("a"), 2);
+        assertIDs(other.getObjectIDs("b"), 1, 4);
+        assertIDs(other.getObjectIDs(""), 3);
+    }
+
+    public void testObjectIDs() throws Exception {
+        store("a", "1");
+        store("a", "2");
+        assertIDs(cache.getObjectIDs(), 0, 1);
+
+        // an object that is being stored may only exist as a backup
+        File backup = new File(dir, FileObjectCache.BACKUP_PREFIX + "1.obj");
+        new File(dir, "1.obj").renameTo(backup);
+        assertIDs(cache.getObjectIDs(), 0, 1);
+        backup.delete();
+        assertIDs(cache.getObjectIDs(), 0);
+    }
+
+
+    private TestObject store(String type, String attr) {
+        TestObject result = new TestObject(cache, type);
+        result.setLocalAttrImpl("attr", attr);
+        result.store(("data:" + attr).getBytes());
+        return result;
+    }
+
+    private FileObjectCache newCache() {
+        try {
+            return new FileObjectCache(dir, ".obj");
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void assertIDs(int[] actual, int... expected) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+
+    public static class TestObject extends CachedObject {
+
+        public TestObject(ObjectCache c, String type) {
+            super(c, type);
+        }
+
+        public TestObject(ObjectCache c, int id, Element xml,
+                CachedDataProvider dataProvider) {
+            super(c, id, xml, dataProvider);
+        }
+
+        public boolean refresh() {
+            return true;
+        }
+
+    }
+
+}
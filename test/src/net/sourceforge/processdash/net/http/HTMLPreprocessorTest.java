@@ -0,0 +1,126 @@
+package net.sourceforge.processdash.net.http;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class HTMLPreprocessorTest extends TestCase {
+
+    private static final String TEMPLATE = "<html><body>\n"
+            + "<h1><!--#echo var=title --></h1>\n"
+            + "<!--#if flag -->flag on<!--#else-->flag off<!--#endif-->\n"
+            + "<!--#foreach name=ITEM values=',a,b,c,' -->"
+            + "<li>ITEM<!--#if flag -->*<!--#endif--></li>\n"
+            + "<!--#endfor-->"
+            + "<!--#set var=greeting inline=\"t\" #-->Hi <!--#echo var=title -->"
+            + "<!--#endset-->[<!--#echo var=greeting -->]\n"
+            + "<!--#include file=\"inc.txt\" -->\n"
+            + "<!--#parameter name=\"p\" value=\"1\" -->\n"
+            + "<!--#include file=\"parsed.txt\" parse=\"t\" -->\n"
+            + "<!--#replace token=\"X\" value=\"Y\" -->XoX<!--#endreplace-->\n"
+            + "<!--#if stop --><!--#break skip --><!--#endif-->"
+            + "middle<!--#endbreak skip -->\n"
+            + "<!--#incr count --><!--#echo var=count -->"
+            + "<!--#bogus --><!--#endfor-->\n"
+            + "</body></html>";
+
+
+    public void testCachedRenderingMatchesUncached() throws IOException {
+        String[][] cases = { //
+                { "title", "One" }, //
+                { "title", "Two", "flag", "t" }, //
+                { "title", "Three", "stop", "t" }, //
+                { "title", "Four", "flag", "t", "stop", "t" } };
+
+        for (int i = 0; i < cases.length; i++) {
+            String expected = render(cases[i], TEMPLATE, null, 0);
+            assertEquals(expected, render(cases[i], TEMPLATE, "/t.shtm", 1));
+            assertEquals(expected, render(cases[i], TEMPLATE, "/t.shtm", 1));
+        }
+    }
+
+    public void testRendering() throws IOException {
+        String template = "a<!--#if stop --><!--#break x --><!--#endif-->"
+                + "b<!--#endbreak x -->c<!--#include file=\"inc.txt\" -->"
+                + "<!--#parameter name=\"p\" value=\"1\" -->d";
+        String[] vars = { "stop", "t" };
+
+        assertEquals("ac[inc.txt?p=1]d",
+            render(vars, template, "/render.shtm", 1));
+        assertEquals("abc[inc.txt?p=1]d",
+            render(new String[0], template, "/render.shtm", 1));
+    }
+
+    public void testTemplateChange() throws IOException {
+        String[] vars = { "title", "T" };
+        TemplateCacheMetrics metrics = HTMLPreprocessor
+                .getTemplateCacheMetrics();
+
+        long misses = metrics.getMissCount();
+        long hits = metrics.getHitCount();
+        assertEquals("1:T", render(vars, "1:<!--#echo var=title -->",
+            "/change.shtm", 100));
+        assertEquals("1:T", render(vars, "1:<!--#echo var=title -->",
+            "/change.shtm", 100));
+        assertEquals(misses + 1, metrics.getMissCount());
+        assertEquals(hits + 1, metrics.getHitCount());
+
+        // a new modification time causes the template to be parsed again
+        assertEquals("2:T", render(vars, "2:<!--#echo var=title -->",
+            "/change.shtm", 200));
+        assertEquals(misses + 2, metrics.getMissCount());
+        assertEquals(hits + 1, metrics.getHitCount());
+        assertEquals(3, metrics.getRenderCount("/change.shtm"));
+        assertTrue(metrics.getTemplateNames().contains("/change.shtm"));
+    }
+
+    public void testUnknownModificationTime() throws IOException {
+        String[] vars = { "title", "T" };
+        TemplateCacheMetrics metrics = HTMLPreprocessor
+                .getTemplateCacheMetrics();
+
+        long misses = metrics.getMissCount();
+        long hits = metrics.getHitCount();
+        assertEquals("1:T", render(vars, "1:<!--#echo var=title -->",
+            "/unknown.shtm", 0));
+        assertEquals("2:T", render(vars, "2:<!--#echo var=title -->",
+            "/unknown.shtm", 0));
+        assertEquals(misses, metrics.getMissCount());
+        assertEquals(hits, metrics.getHitCount());
+        assertEquals(2, metrics.getRenderCount("/unknown.shtm"));
+    }
+
+    public void testTemplateWithoutDirectives() throws IOException {
+        String template = "<html>plain</html>";
+        assertEquals(template, render(new String[0], template, "/plain.htm", 1));
+        assertEquals(template, render(new String[0], template, "/plain.htm", 1));
+    }
+
+
+    private String render(String[] vars, String content,
+            String templateName, long lastModified) throws IOException {
+        Map env = new HashMap();
+        for (int i = 0; i < vars.length; i += 2)
+            env.put(vars[i], vars[i + 1]);
+        HTMLPreprocessor p = new HTMLPreprocessor(new FakeContentSource(),
+                null, null, "", env, new HashMap());
+        return p.preprocess(content, templateName, lastModified);
+    }
+
+    private static class FakeContentSource implements ContentSource {
+
+        public byte[] getContent(String context, String uri, boolean raw)
+                throws IOException {
+            String result;
+            if (uri.startsWith("parsed"))
+                result = "<!--#echo var=title -->!";
+            else
+                result = "[" + uri + "]";
+            return result.getBytes("UTF-8");
+        }
+
+    }
+
+}
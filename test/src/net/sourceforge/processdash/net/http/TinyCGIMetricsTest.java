@@ -0,0 +1,51 @@
+package net.sourceforge.processdash.net.http;
+
+import junit.framework.TestCase;
+
+public class TinyCGIMetricsTest extends TestCase {
+
+    private static final long NOW = 1500000000000L;
+
+    private TinyCGIMetrics metrics;
+
+    protected void setUp() throws Exception {
+        metrics = new TinyCGIMetrics();
+    }
+
+    public void testScriptStats() {
+        metrics.recordRequest("/a", 2000000, 100, NOW);
+        metrics.recordRequest("/a", 4000000, 300, NOW);
+        metrics.recordRequest("/b", 1000000, -1, NOW);
+
+        assertEquals(3, metrics.getRequestCount());
+        assertEquals(2, metrics.getScriptUris().size());
+        assertEquals(2, metrics.getRequestCount("/a"));
+        assertEquals(3.0, metrics.getAverageMillis("/a"), 0.0001);
+        assertEquals(300, metrics.getMaxBufferSize("/a"));
+        assertEquals(1, metrics.getRequestCount("/b"));
+        assertEquals(0, metrics.getRequestCount("/c"));
+        assertEquals(0.0, metrics.getAverageMillis("/c"), 0.0);
+    }
+
+    public void testRequestRate() {
+        assertEquals(0.0, metrics.getRequestRate(NOW), 0.0);
+
+        for (int i = 0; i < 30; i++)
+            metrics.recordRequest("/a", 1000, 0, NOW + i * 1000);
+        for (int i = 0; i < 30; i++)
+            metrics.recordRequest("/a", 1000, 0, NOW + 29000);
+        assertEquals(1.0, metrics.getRequestRate(NOW + 29000), 0.0001);
+
+        // requests older than a minute no longer count
+        assertEquals(31.0 / 60, metrics.getRequestRate(NOW + 88000), 0.0001);
+        assertEquals(0.0, metrics.getRequestRate(NOW + 89000), 0.0);
+        assertEquals(60, metrics.getRequestCount());
+    }
+
+    public void testRateSlotsAreReused() {
+        metrics.recordRequest("/a", 1000, 0, NOW);
+        metrics.recordRequest("/a", 1000, 0, NOW + 60000);
+        assertEquals(1.0 / 60, metrics.getRequestRate(NOW + 60000), 0.0001);
+    }
+
+}
@@ -0,0 +1,233 @@
+package net.sourceforge.processdash.tool.bridge;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import net.sourceforge.processdash.tool.bridge.client.ResourceBridgeClient;
+import net.sourceforge.processdash.tool.bridge.impl.ChunkStore;
+import net.sourceforge.processdash.tool.bridge.impl.ContentChunker;
+import net.sourceforge.processdash.tool.bridge.impl.FileResourceCollection;
+import net.sourceforge.processdash.tool.bridge.impl.LocalResourceBridgeServlet;
+import net.sourceforge.processdash.tool.bridge.impl.TeamDataDirStrategy;
+import net.sourceforge.processdash.util.FileUtils;
+
+public class ChunkedSyncTest extends TestCase {
+
+    private static final String FILENAME = "wbs.xml";
+
+    private static final int FILE_SIZE = 500 * 1024;
+
+    private File tempDir;
+
+    private File serverDir;
+
+    private File clientDir;
+
+    private FileResourceCollection serverCollection;
+
+    private FileResourceCollection clientCollection;
+
+    private LocalResourceBridgeServlet servlet;
+
+    private Server server;
+
+    private ResourceBridgeClient client;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDir = File.createTempFile("test", ".tmp");
+        tempDir.delete();
+        tempDir.mkdir();
+        serverDir = new File(tempDir, "server");
+        clientDir = new File(tempDir, "client");
+        serverDir.mkdir();
+        clientDir.mkdir();
+
+        serverCollection = new FileResourceCollection(serverDir, false);
+        serverCollection.setStrategy(TeamDataDirStrategy.INSTANCE);
+        servlet = new LocalResourceBridgeServlet(serverCollection,
+                new ChunkStore(new File(tempDir, "serverChunks"), 1L << 30));
+
+        server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        server.addConnector(connector);
+        ServletHandler handler = new ServletHandler();
+        handler.addServletWithMapping(new ServletHolder(servlet), "/bridge");
+        server.setHandler(handler);
+        server.start();
+        String url = "http://127.0.0.1:" + connector.getLocalPort()
+                + "/bridge";
+
+        clientCollection = new FileResourceCollection(clientDir, false);
+        clientCollection.setStrategy(TeamDataDirStrategy.INSTANCE);
+        client = new ResourceBridgeClient(clientCollection, url, null);
+        client.setChunkStore(new ChunkStore(new File(tempDir, "clientChunks"),
+                1L << 30));
+    }
+
+    protected void tearDown() throws Exception {
+        server.stop();
+        FileUtils.deleteDirectory(tempDir, true);
+        super.tearDown();
+    }
+
+    public void testChunkBoundariesSurviveEdits() throws Exception {
+        byte[] data = makeContent(1);
+        byte[] edited = insert(data, FILE_SIZE / 2, "<edit/>");
+
+        ChunkRecipe a = ContentChunker.chunk(new ByteArrayInputStream(data),
+            null);
+        ChunkRecipe b = ContentChunker.chunk(
+            new ByteArrayInputStream(edited), null);
+        assertEquals(data.length, a.getTotalLength());
+        assertEquals(edited.length, b.getTotalLength());
+        for (int i = 0; i < a.getChunkCount() - 1; i++) {
+            int len = a.getChunkLength(i);
+            assertTrue(len >= ContentChunker.MIN_CHUNK_SIZE);
+            assertTrue(len <= ContentChunker.MAX_CHUNK_SIZE);
+        }
+
+        Set<String> changed = new HashSet<String>(b.getChunkIDs());
+        changed.removeAll(a.getChunkIDs());
+        assertTrue(changed.size() <= 2);
+    }
+
+    public void testSyncDown() throws Exception {
+        byte[] data = makeContent(2);
+        writeServerFile(data, 100000);
+        assertTrue(client.syncDown());
+        assertFileContents(clientDir, data);
+        long initialBytes = servlet.getChunkBytesSent();
+        assertTrue(initialBytes >= data.length);
+
+        byte[] edited = insert(data, FILE_SIZE / 3, "<edit/>");
+        writeServerFile(edited, 200000);
+        assertTrue(client.syncDown());
+        assertFileContents(clientDir, edited);
+        long editBytes = servlet.getChunkBytesSent() - initialBytes;
+        assertTrue(editBytes > 0);
+        assertTrue(editBytes <= 2 * ContentChunker.MAX_CHUNK_SIZE);
+        assertEquals(200000, new File(clientDir, FILENAME).lastModified());
+
+        assertFalse(client.syncDown());
+    }
+
+    public void testSyncUp() throws Exception {
+        byte[] data = makeContent(3);
+        writeServerFile(data, 100000);
+        client.syncDown();
+        client.acquireLock("test user");
+
+        byte[] edited = insert(data, FILE_SIZE / 4, "<edit/>");
+        File clientFile = new File(clientDir, FILENAME);
+        FileUtils.copyFile(new ByteArrayInputStream(edited), clientFile);
+        clientFile.setLastModified(300000);
+        clientCollection.recheckAllFileTimestamps();
+
+        assertTrue(client.syncUp());
+        serverCollection.recheckAllFileTimestamps();
+        assertFileContents(serverDir, edited);
+        long sentBytes = servlet.getChunkBytesReceived();
+        assertTrue(sentBytes > 0);
+        assertTrue(sentBytes <= 2 * ContentChunker.MAX_CHUNK_SIZE);
+        assertEquals(300000, new File(serverDir, FILENAME).lastModified());
+
+        assertFalse(client.syncUp());
+        client.releaseLock();
+    }
+
+    public void testSyncUpManyChunks() throws Exception {
+        // a file with more chunks than fit in a single chunk query
+        byte[] data = makeContent(5, 10 * FILE_SIZE);
+        writeServerFile(makeContent(6), 100000);
+        client.syncDown();
+        client.acquireLock("test user");
+
+        File clientFile = new File(clientDir, FILENAME);
+        FileUtils.copyFile(new ByteArrayInputStream(data), clientFile);
+        clientFile.setLastModified(300000);
+        clientCollection.recheckAllFileTimestamps();
+        assertTrue(ContentChunker.chunk(new ByteArrayInputStream(data), null)
+                .getChunkCount() > 450);
+
+        assertTrue(client.syncUp());
+        serverCollection.recheckAllFileTimestamps();
+        assertFileContents(serverDir, data);
+        assertTrue(servlet.getChunkBytesReceived() >= data.length);
+        client.releaseLock();
+    }
+
+    public void testWholeFileFallback() throws Exception {
+        System.setProperty(ResourceBridgeClient.DISABLE_CHUNKING_PROPERTY,
+            "true");
+        try {
+            byte[] data = makeContent(4);
+            writeServerFile(data, 100000);
+            client.syncDown();
+            assertFileContents(clientDir, data);
+            assertEquals(0, servlet.getChunkBytesSent());
+        } finally {
+            System.clearProperty(ResourceBridgeClient.DISABLE_CHUNKING_PROPERTY);
+        }
+    }
+
+    private void writeServerFile(byte[] data, long modTime)
+            throws IOException {
+        File f = new File(serverDir, FILENAME);
+        FileUtils.copyFile(new ByteArrayInputStream(data), f);
+        f.setLastModified(modTime);
+        serverCollection.recheckAllFileTimestamps();
+    }
+
+    private void assertFileContents(File dir, byte[] expected)
+            throws IOException {
+        byte[] actual = FileUtils.slurpContents(new FileInputStream(new File(
+            dir, FILENAME)), true);
+        assertTrue(Arrays.equals(expected, actual));
+    }
+
+    /** Generate XML-like content that resembles a large team data file */
+    private byte[] makeContent(long seed) throws IOException {
+        return makeContent(seed, FILE_SIZE);
+    }
+
+    private byte[] makeContent(long seed, int size) throws IOException {
+        Random r = new Random(seed);
+        StringBuilder result = new StringBuilder("<projDump>\n");
+        while (result.length() < size) {
+            result.append("  <task id=\"").append(r.nextInt(100000))
+                    .append("\" time=\"").append(r.nextDouble())
+                    .append("\" name=\"Task ")
+                    .append(Long.toString(r.nextLong(), 36)).append("\"/>\n");
+        }
+        result.append("</projDump>\n");
+        return result.toString().getBytes("UTF-8");
+    }
+
+    private byte[] insert(byte[] data, int pos, String text)
+            throws IOException {
+        byte[] insertion = text.getBytes("UTF-8");
+        byte[] result = new byte[data.length + insertion.length];
+        System.arraycopy(data, 0, result, 0, pos);
+        System.arraycopy(insertion, 0, result, pos, insertion.length);
+        System.arraycopy(data, pos, result, pos + insertion.length,
+            data.length - pos);
+        return result;
+    }
+
+}
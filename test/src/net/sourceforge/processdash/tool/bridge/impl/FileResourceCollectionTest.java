@@ -0,0 +1,114 @@
+package net.sourceforge.processdash.tool.bridge.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import net.sourceforge.processdash.tool.bridge.ResourceFilterFactory;
+import net.sourceforge.processdash.tool.bridge.report.ListingHashcodeCalculator;
+import net.sourceforge.processdash.util.FileUtils;
+
+public class FileResourceCollectionTest extends TestCase {
+
+    private File tempDir;
+
+    private File dataDir;
+
+    private File cacheFile;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDir = File.createTempFile("test", ".tmp");
+        tempDir.delete();
+        tempDir.mkdir();
+        dataDir = new File(tempDir, "data");
+        dataDir.mkdir();
+        cacheFile = new File(dataDir,
+                FileResourceCollection.CHECKSUM_CACHE_FILENAME);
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir, true);
+        super.tearDown();
+    }
+
+    public void testChecksumCacheSurvivesRestart() throws Exception {
+        writeFile("wbs.xml", "<wbs>one</wbs>", 100000);
+        writeFile("team.xml", "<team>one</team>", 100000);
+
+        FileResourceCollection c = makeCollection();
+        long hash = ListingHashcodeCalculator.getListingHashcode(c,
+            ResourceFilterFactory.DEFAULT_FILTER);
+        Long checksum = c.getChecksum("wbs.xml");
+        assertTrue(cacheFile.isFile());
+        assertFalse(c.listResourceNames().contains(
+            FileResourceCollection.CHECKSUM_CACHE_FILENAME));
+
+        // change the content without changing the size or timestamp. A new
+        // collection should trust the cache instead of rereading the file.
+        writeFile("wbs.xml", "<wbs>two</wbs>", 100000);
+        c = makeCollection();
+        assertEquals(checksum, c.getChecksum("wbs.xml"));
+        assertEquals(hash, ListingHashcodeCalculator.getListingHashcode(c,
+            ResourceFilterFactory.DEFAULT_FILTER));
+
+        // a change in timestamp should invalidate the cached value
+        writeFile("wbs.xml", "<wbs>two</wbs>", 200000);
+        c = makeCollection();
+        assertFalse(checksum.equals(c.getChecksum("wbs.xml")));
+    }
+
+    public void testListingHashcode() throws Exception {
+        writeFile("wbs.xml", "<wbs>one</wbs>", 100000);
+        writeFile("team.xml", "<team>one</team>", 100000);
+        FileResourceCollection c = makeCollection();
+        List<String> names = c.listResourceNames();
+
+        // the cached hashcode should match the one computed directly
+        long hash = c.getListingHashcode(names);
+        assertEquals(hash, ListingHashcodeCalculator.getListingHashcode(c,
+            names));
+        assertEquals(hash, c.getListingHashcode(names));
+
+        // modifications through the collection change the hashcode
+        OutputStream out = c.getOutputStream("wbs.xml", 300000);
+        out.write("<wbs>changed</wbs>".getBytes("UTF-8"));
+        out.close();
+        long newHash = c.getListingHashcode(names);
+        assertFalse(hash == newHash);
+        assertEquals(newHash, ListingHashcodeCalculator.getListingHashcode(c,
+            names));
+
+        // external modifications are seen once timestamps are rechecked
+        writeFile("team.xml", "<team>changed</team>", 400000);
+        c.recheckAllFileTimestamps();
+        long externalHash = c.getListingHashcode(names);
+        assertFalse(newHash == externalHash);
+        assertEquals(externalHash, ListingHashcodeCalculator
+                .getListingHashcode(c, names));
+
+        c.deleteResource("team.xml");
+        assertFalse(externalHash == c.getListingHashcode(c
+                .listResourceNames()));
+    }
+
+    private FileResourceCollection makeCollection() {
+        FileResourceCollection result = new FileResourceCollection(dataDir,
+                false);
+        result.setStrategy(TeamDataDirStrategy.INSTANCE);
+        result.setChecksumCacheFile(cacheFile);
+        return result;
+    }
+
+    private void writeFile(String name, String content, long modTime)
+            throws Exception {
+        File f = new File(dataDir, name);
+        FileUtils.copyFile(new ByteArrayInputStream(content
+                .getBytes("UTF-8")), f);
+        f.setLastModified(modTime);
+    }
+
+}
@@ -0,0 +1,325 @@
+// Copyright (C) 2019 Tuma Solutions, LLC
+// Process Dashboard - Data Automation Tool for high-maturity processes
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+//
+// Additional permissions also apply; see the README-license.txt
+// file in the project root directory for more information.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, see <http://www.gnu.org/licenses/>.
+//
+// The author(s) may be contacted at:
+//     processdash@tuma-solutions.com
+//     processdash-devel@lists.sourceforge.net
+
+package net.sourceforge.processdash.tool.bridge.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sourceforge.processdash.tool.bridge.ChunkRecipe;
+import net.sourceforge.processdash.tool.bridge.ResourceBridgeConstants;
+import net.sourceforge.processdash.tool.bridge.ResourceCollection;
+import net.sourceforge.processdash.tool.bridge.ResourceFilterFactory;
+import net.sourceforge.processdash.tool.bridge.report.ChunkContentStream;
+import net.sourceforge.processdash.tool.bridge.report.ChunkRecipeListing;
+import net.sourceforge.processdash.tool.bridge.report.CollectionReport;
+import net.sourceforge.processdash.tool.bridge.report.ListingHashcodeCalculator;
+import net.sourceforge.processdash.tool.bridge.report.ResourceContentStream;
+import net.sourceforge.processdash.tool.bridge.report.XmlCollectionListing;
+import net.sourceforge.processdash.util.FileUtils;
+import net.sourceforge.processdash.util.MultipartRequest;
+
+
+/**
+ * A minimal stand-in for the resource bridge of a Team Server, which serves a
+ * single collection.
+ * 
+ * This implements the parts of the bridge protocol that
+ * {@link net.sourceforge.processdash.tool.bridge.client.ResourceBridgeClient}
+ * uses to synchronize a collection, including chunked transfer.  It is meant
+ * for exercising the client in tests; requests are not authenticated, locks
+ * are accepted without being enforced, and backups are not supported.
+ */
+public class LocalResourceBridgeServlet extends HttpServlet implements
+        ResourceBridgeConstants {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The protocol version we report, which enables ZIP uploads */
+    private static final String SERVER_VERSION = "3.6.9";
+
+    private ResourceCollection collection;
+
+    private ChunkStore chunkStore;
+
+    private long chunkBytesSent;
+
+    private long chunkBytesReceived;
+
+
+    public LocalResourceBridgeServlet(ResourceCollection collection,
+            ChunkStore chunkStore) {
+        this.collection = collection;
+        this.chunkStore = chunkStore;
+    }
+
+    /** @return the number of chunk bytes sent to clients so far */
+    public synchronized long getChunkBytesSent() {
+        return chunkBytesSent;
+    }
+
+    /** @return the number of chunk bytes received from clients so far */
+    public synchronized long getChunkBytesReceived() {
+        return chunkBytesReceived;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        handleRequest(req, resp);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        handleRequest(req, resp);
+    }
+
+    private synchronized void handleRequest(HttpServletRequest req,
+            HttpServletResponse resp) throws IOException {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        Map<String, byte[]> files = new HashMap<String, byte[]>();
+        parseParameters(req, params, files);
+
+        resp.setHeader(VERSION_HEADER, SERVER_VERSION);
+        resp.setHeader(CHUNKING_HEADER, ContentChunker.SCHEME);
+
+        String action = getParameter(params, ACTION_PARAM);
+        try {
+            if (HASHCODE_ACTION.equals(action))
+                sendHashcode(params, resp);
+            else if (LIST_ACTION.equals(action))
+                runReport(XmlCollectionListing.INSTANCE, params, resp);
+            else if (DOWNLOAD_ACTION.equals(action))
+                runReport(ResourceContentStream.INSTANCE, params, resp);
+            else if (UPLOAD_ACTION.equals(action))
+                handleUpload(params, files, resp);
+            else if (DELETE_ACTION.equals(action))
+                handleDelete(params, resp);
+            else if (CHUNK_LIST_ACTION.equals(action))
+                runReport(new ChunkRecipeListing(chunkStore), params, resp);
+            else if (CHUNK_DOWNLOAD_ACTION.equals(action))
+                sendChunks(params, resp);
+            else if (CHUNK_QUERY_ACTION.equals(action))
+                sendMissingChunks(params, resp);
+            else if (CHUNK_UPLOAD_ACTION.equals(action))
+                handleChunkUpload(files, resp);
+            else if (ACQUIRE_LOCK_ACTION.equals(action)
+                    || PING_LOCK_ACTION.equals(action)
+                    || ASSERT_LOCK_ACTION.equals(action)
+                    || RELEASE_LOCK_ACTION.equals(action))
+                resp.setContentType("text/plain");
+            else
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Unsupported action " + action);
+        } catch (IllegalArgumentException iae) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                iae.getMessage());
+        }
+    }
+
+    private void sendHashcode(Map<String, String[]> params,
+            HttpServletResponse resp) throws IOException {
+        long hash = ListingHashcodeCalculator.getListingHashcode(collection,
+            ResourceFilterFactory.getForRequest(params));
+        resp.setContentType("text/plain");
+        resp.getWriter().write(Long.toString(hash));
+    }
+
+    private void runReport(CollectionReport report,
+            Map<String, String[]> params, HttpServletResponse resp)
+            throws IOException {
+        List<String> names = ResourceFilterFactory.getForRequest(params)
+                .filterCollection(collection);
+        resp.setContentType(report.getContentType());
+        report.runReport(collection, names, resp.getOutputStream());
+    }
+
+    private void handleUpload(Map<String, String[]> params,
+            Map<String, byte[]> files, HttpServletResponse resp)
+            throws IOException {
+        List<String> names = new ArrayList<String>();
+
+        byte[] zipData = files.remove(UPLOAD_ZIP_PARAM);
+        if (zipData != null) {
+            ZipInputStream zipIn = new ZipInputStream(
+                    new ByteArrayInputStream(zipData));
+            ZipEntry e;
+            while ((e = zipIn.getNextEntry()) != null) {
+                if (saveResource(e.getName(), e.getTime(), zipIn))
+                    names.add(e.getName());
+            }
+            zipIn.close();
+        }
+
+        for (Map.Entry<String, byte[]> e : files.entrySet()) {
+            String name = e.getKey();
+            String timestamp = getParameter(params,
+                UPLOAD_TIMESTAMP_PARAM_PREFIX + name);
+            long modTime = (timestamp == null ? -1 : Long.parseLong(timestamp));
+            if (saveResource(name, modTime, new ByteArrayInputStream(e
+                    .getValue())))
+                names.add(name);
+        }
+
+        resp.setContentType(XmlCollectionListing.INSTANCE.getContentType());
+        XmlCollectionListing.INSTANCE.runReport(collection, names,
+            resp.getOutputStream());
+    }
+
+    private boolean saveResource(String name, long modTime, InputStream in)
+            throws IOException {
+        OutputStream out = collection.getOutputStream(name, modTime);
+        if (out == null)
+            return false;
+        FileUtils.copyFile(in, out);
+        out.close();
+        return true;
+    }
+
+    private void handleDelete(Map<String, String[]> params,
+            HttpServletResponse resp) {
+        String[] names = params.get(DELETE_FILE_PARAM);
+        if (names != null)
+            for (String name : names)
+                collection.deleteResource(name);
+        resp.setContentType("text/plain");
+    }
+
+    private void sendChunks(Map<String, String[]> params,
+            HttpServletResponse resp) throws IOException {
+        List<String> chunkIDs = getParameterList(params, CHUNK_ID_PARAM);
+        resp.setContentType("application/zip");
+        chunkBytesSent += ChunkContentStream.writeChunks(chunkStore, chunkIDs,
+            resp.getOutputStream());
+    }
+
+    private void sendMissingChunks(Map<String, String[]> params,
+            HttpServletResponse resp) throws IOException {
+        // add the chunks of our current copy of each named resource to the
+        // store, so the client will not need to send them again
+        for (String name : getParameterList(params,
+            ResourceFilterFactory.INCLUDE_PARAM))
+            ChunkRecipeListing.getRecipe(collection, name, chunkStore);
+
+        resp.setContentType("text/plain");
+        PrintWriter out = resp.getWriter();
+        for (String chunkID : getParameterList(params, CHUNK_ID_PARAM))
+            if (!chunkStore.contains(chunkID))
+                out.println(chunkID);
+    }
+
+    private void handleChunkUpload(Map<String, byte[]> files,
+            HttpServletResponse resp) throws IOException {
+        byte[] recipeData = files.get(CHUNK_RECIPES_PARAM);
+        if (recipeData == null)
+            throw new IllegalArgumentException("No chunk recipes were sent");
+        Map<String, ChunkRecipe> recipes = ChunkRecipeListing
+                .parseRecipes(new ByteArrayInputStream(recipeData));
+
+        byte[] chunkData = files.get(UPLOAD_CHUNKS_ZIP_PARAM);
+        if (chunkData != null)
+            chunkBytesReceived += ChunkContentStream.readChunks(
+                new ByteArrayInputStream(chunkData), chunkStore);
+
+        // make certain we can build every resource before writing any
+        for (ChunkRecipe recipe : recipes.values())
+            if (!chunkStore.containsAll(recipe))
+                throw new IllegalArgumentException("Missing chunks");
+
+        for (Map.Entry<String, ChunkRecipe> e : recipes.entrySet()) {
+            ChunkRecipe recipe = e.getValue();
+            OutputStream out = collection.getOutputStream(e.getKey(),
+                recipe.getLastModified());
+            if (out != null) {
+                chunkStore.writeContent(recipe, out);
+                out.close();
+            }
+        }
+
+        resp.setContentType(XmlCollectionListing.INSTANCE.getContentType());
+        XmlCollectionListing.INSTANCE.runReport(collection,
+            new ArrayList<String>(recipes.keySet()), resp.getOutputStream());
+    }
+
+    private void parseParameters(HttpServletRequest req,
+            Map<String, String[]> params, Map<String, byte[]> files)
+            throws IOException {
+        String contentType = req.getContentType();
+        if (contentType == null
+                || !contentType.startsWith("multipart/form-data")) {
+            params.putAll(req.getParameterMap());
+            return;
+        }
+
+        MultipartRequest mr = new MultipartRequest(new PrintWriter(
+                new StringWriter()), contentType, req.getContentLength(),
+                req.getInputStream(), Integer.MAX_VALUE);
+        for (Enumeration e = mr.getParameterNames(); e.hasMoreElements();) {
+            String name = (String) e.nextElement();
+            List<String> values = new ArrayList<String>();
+            for (Enumeration v = mr.getURLParameters(name); v
+                    .hasMoreElements();)
+                values.add((String) v.nextElement());
+            params.put(name, values.toArray(new String[values.size()]));
+        }
+        for (Enumeration e = mr.getFileParameterNames(); e.hasMoreElements();) {
+            String name = (String) e.nextElement();
+            files.put(name, (byte[]) mr.getFileParameter(name,
+                MultipartRequest.CONTENTS));
+        }
+    }
+
+    private static String getParameter(Map<String, String[]> params,
+            String name) {
+        String[] values = params.get(name);
+        return (values == null || values.length == 0 ? null : values[0]);
+    }
+
+    private static List<String> getParameterList(
+            Map<String, String[]> params, String name) {
+        List<String> result = new ArrayList<String>();
+        String[] values = params.get(name);
+        if (values != null)
+            for (String v : values)
+                result.add(v);
+        return result;
+    }
+
+}
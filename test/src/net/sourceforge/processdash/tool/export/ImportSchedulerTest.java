@@ -0,0 +1,211 @@
+package net.sourceforge.processdash.tool.export;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import net.sourceforge.processdash.util.FileUtils;
+
+public class ImportSchedulerTest extends TestCase {
+
+    private static final long START = 1000000L;
+
+    private long clock;
+
+    private ImportScheduler scheduler;
+
+    private File dir;
+
+
+    protected void setUp() throws Exception {
+        clock = START;
+        dir = File.createTempFile("test", ".tmp");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    protected void tearDown() throws Exception {
+        if (scheduler != null)
+            scheduler.stop();
+        FileUtils.deleteDirectory(dir, true);
+    }
+
+    private ImportScheduler createScheduler(boolean watch) {
+        scheduler = new ImportScheduler(watch) {
+            long currentTime() {
+                return clock;
+            }
+        };
+        return scheduler;
+    }
+
+
+    public void testFirstCheck() {
+        createScheduler(false);
+        FakeImporter now = new FakeImporter(null);
+        FakeImporter later = new FakeImporter(null);
+        scheduler.register(now, true);
+        scheduler.register(later, false);
+        assertEquals(START, scheduler.getNextCheckTime(now));
+        assertEquals(START + ImportScheduler.POLL_DELAY,
+            scheduler.getNextCheckTime(later));
+
+        scheduler.runDueChecks();
+        assertEquals(1, now.checkCount);
+        assertEquals(0, later.checkCount);
+
+        // checks that are not yet due are not performed
+        scheduler.runDueChecks();
+        assertEquals(1, now.checkCount);
+    }
+
+    public void testPollingBackoff() {
+        createScheduler(false);
+        FakeImporter imp = new FakeImporter(null);
+        scheduler.register(imp, true);
+
+        // a check that finds changes keeps the usual polling interval
+        imp.changed = true;
+        long delay = checkAndGetDelay(imp);
+        assertEquals(ImportScheduler.POLL_DELAY, delay);
+
+        // the interval doubles while the directory is unchanged
+        imp.changed = false;
+        long expected = ImportScheduler.POLL_DELAY;
+        for (int i = 0; i < 10; i++) {
+            expected = Math.min(expected * 2, ImportScheduler.MAX_POLL_DELAY);
+            assertEquals(expected, checkAndGetDelay(imp));
+        }
+        assertEquals(ImportScheduler.MAX_POLL_DELAY, expected);
+
+        // a change restores the usual interval
+        imp.changed = true;
+        assertEquals(ImportScheduler.POLL_DELAY, checkAndGetDelay(imp));
+        assertEquals(12, imp.checkCount);
+    }
+
+    public void testSlowDirectory() {
+        createScheduler(false);
+        FakeImporter imp = new FakeImporter(null);
+        imp.changed = true;
+        imp.checkTime = ImportScheduler.POLL_DELAY
+                / ImportScheduler.SLOW_POLL_FACTOR * 2;
+        scheduler.register(imp, true);
+
+        // slow checks stretch the interval, up to the maximum
+        long delay = checkAndGetDelay(imp);
+        assertEquals(Math.min(ImportScheduler.POLL_DELAY * 2,
+            ImportScheduler.MAX_POLL_DELAY), delay);
+
+        imp.checkTime = ImportScheduler.MAX_POLL_DELAY;
+        assertEquals(ImportScheduler.MAX_POLL_DELAY, checkAndGetDelay(imp));
+    }
+
+    public void testWatchedDirectory() {
+        createScheduler(true);
+        FakeImporter imp = new FakeImporter(dir);
+        scheduler.register(imp, true);
+        assertNotNull(scheduler.getWatchKey(imp));
+
+        // watched directories are still polled at the usual interval, even
+        // when they are unchanged
+        for (int i = 0; i < 5; i++)
+            assertEquals(ImportScheduler.POLL_DELAY, checkAndGetDelay(imp));
+        assertNotNull(scheduler.getWatchKey(imp));
+    }
+
+    public void testChangeNotification() {
+        createScheduler(true);
+        FakeImporter imp = new FakeImporter(dir);
+        scheduler.register(imp, true);
+        scheduler.runDueChecks();
+
+        // a notification schedules a check after the settling delay
+        scheduler.directoryChanged(scheduler.getWatchKey(imp), null);
+        assertEquals(clock + ImportScheduler.SETTLE_DELAY,
+            scheduler.getNextCheckTime(imp));
+
+        // a change that the watcher did not report stops the watching
+        clock = scheduler.getNextCheckTime(imp);
+        scheduler.runDueChecks();
+        imp.changed = true;
+        clock = scheduler.getNextCheckTime(imp);
+        scheduler.runDueChecks();
+        assertNull(scheduler.getWatchKey(imp));
+    }
+
+    public void testIrrelevantNotification() {
+        createScheduler(true);
+        FakeImporter imp = new FakeImporter(dir);
+        scheduler.register(imp, true);
+        scheduler.runDueChecks();
+
+        long due = scheduler.getNextCheckTime(imp);
+        scheduler.directoryChanged(scheduler.getWatchKey(imp),
+            Collections.singletonList(".DS_Store"));
+        assertEquals(due, scheduler.getNextCheckTime(imp));
+    }
+
+    public void testLocalPathIsNotNetwork() throws Exception {
+        assertFalse(ImportDirectoryWatcher.isNetworkPath(Paths.get(dir
+                .getAbsolutePath())));
+    }
+
+    public void testUnregister() {
+        createScheduler(false);
+        FakeImporter imp = new FakeImporter(null);
+        scheduler.register(imp, true);
+        scheduler.removeEntry(imp);
+        scheduler.runDueChecks();
+        assertEquals(0, imp.checkCount);
+        assertEquals(-1, scheduler.getNextCheckTime(imp));
+    }
+
+
+    /** Perform the next check of an importer, and return the delay after */
+    private long checkAndGetDelay(FakeImporter imp) {
+        clock = scheduler.getNextCheckTime(imp);
+        int count = imp.checkCount;
+        scheduler.runDueChecks();
+        assertEquals(count + 1, imp.checkCount);
+        return scheduler.getNextCheckTime(imp) - clock;
+    }
+
+
+    private class FakeImporter extends DataImporter {
+
+        File watchableDir;
+
+        boolean changed;
+
+        long checkTime;
+
+        int checkCount;
+
+        FakeImporter(File watchableDir) {
+            super("/fake", null);
+            this.watchableDir = watchableDir;
+        }
+
+        @Override
+        boolean checkScheduled() {
+            checkCount++;
+            clock += checkTime;
+            return changed;
+        }
+
+        @Override
+        File getWatchableDirectory() {
+            return watchableDir;
+        }
+
+        @Override
+        String getDirectoryDescription() {
+            return "fake directory";
+        }
+
+    }
+
+}
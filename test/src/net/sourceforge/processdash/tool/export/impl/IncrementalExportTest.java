@@ -0,0 +1,418 @@
+package net.sourceforge.processdash.tool.export.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import junit.framework.TestCase;
+
+import net.sourceforge.processdash.DashController;
+import net.sourceforge.processdash.DashboardContext;
+import net.sourceforge.processdash.Settings;
+import net.sourceforge.processdash.data.DoubleData;
+import net.sourceforge.processdash.data.SimpleData;
+import net.sourceforge.processdash.data.repository.DataRepository;
+import net.sourceforge.processdash.data.repository.InvalidDatafileFormat;
+import net.sourceforge.processdash.hier.DashHierarchy;
+import net.sourceforge.processdash.log.time.ImportedTimeLogManager;
+import net.sourceforge.processdash.log.time.TimeLog;
+import net.sourceforge.processdash.log.time.TimeLogEntry;
+import net.sourceforge.processdash.log.time.TimeLogEntryVO;
+import net.sourceforge.processdash.log.time.TimeLogIteratorFilter;
+import net.sourceforge.processdash.net.cache.ObjectCache;
+import net.sourceforge.processdash.net.http.WebServer;
+import net.sourceforge.processdash.team.group.UserGroupManagerDash;
+import net.sourceforge.processdash.tool.bridge.client.WorkingDirectory;
+import net.sourceforge.processdash.tool.db.DatabasePlugin;
+import net.sourceforge.processdash.tool.export.mgr.CompletionStatus;
+import net.sourceforge.processdash.util.EnumerIterator;
+import net.sourceforge.processdash.util.FileUtils;
+
+/**
+ * Exports a small dataset as incremental archives, imports the results, and
+ * checks that the imported data matches the exported data.
+ */
+public class IncrementalExportTest extends TestCase {
+
+    private static final String PROJECT = "/Project";
+
+    private static final String IMPORT_PREFIX = "/Imported/Test";
+
+    private static final int NUM_METRICS = 20;
+
+    private static final int NUM_TIME_LOG_ENTRIES = 10;
+
+    private File tempDir;
+
+    private File exportFile;
+
+    private DataRepository data;
+
+    private List<TimeLogEntry> timeLog;
+
+    private List<String> metricsExcludes;
+
+    private DataRepository importData;
+
+    private Map mountedData;
+
+
+    protected void setUp() throws Exception {
+        tempDir = File.createTempFile("test", ".tmp");
+        tempDir.delete();
+        tempDir.mkdir();
+
+        System.setProperty("net.sourceforge.processdash.applicationDir",
+            new File(tempDir, "app").getPath());
+        System.setProperty(Settings.SYS_PROP_PREFIX + "export.deltaArchives",
+            "true");
+        File dataDir = new File(tempDir, "data");
+        dataDir.mkdir();
+        DashController.setDataDirectory(dataDir);
+        if (UserGroupManagerDash.getInstance() == null)
+            UserGroupManagerDash.install();
+
+        File exportDir = new File(tempDir, "export");
+        exportDir.mkdir();
+        exportFile = new File(exportDir, "test-" + getName() + ".pdash");
+
+        data = new DataRepository();
+        for (int i = 1; i <= NUM_METRICS; i++)
+            data.putValue(metric(i), new DoubleData(i));
+
+        timeLog = new ArrayList<TimeLogEntry>();
+        for (int i = 1; i <= NUM_TIME_LOG_ENTRIES; i++)
+            timeLog.add(timeLogEntry(i, i));
+
+        metricsExcludes = new ArrayList<String>();
+        importData = createImportRepository();
+    }
+
+    protected void tearDown() throws Exception {
+        System.getProperties().remove(
+            Settings.SYS_PROP_PREFIX + "export.deltaArchives");
+        System.getProperties().remove(
+            "net.sourceforge.processdash.applicationDir");
+        ArchiveMetricsFileImporter.closeArchive(IMPORT_PREFIX);
+        ImportedTimeLogManager.getInstance().closeTimeLogs(IMPORT_PREFIX);
+        data.shutDown();
+        importData.shutDown();
+        FileUtils.deleteDirectory(tempDir, true);
+    }
+
+
+    public void testFullExportThenDelta() throws Exception {
+        assertFalse(export());
+        assertTrue(getBaseFile().isFile());
+        importArchive();
+        assertImportedDataMatches();
+
+        // change one value and one time log entry, and add one of each
+        data.putValue(metric(3), new DoubleData(333));
+        data.putValue(metric(NUM_METRICS + 1), new DoubleData(99));
+        timeLog.set(4, timeLogEntry(5, 55));
+        timeLog.add(timeLogEntry(NUM_TIME_LOG_ENTRIES + 1, 7));
+
+        assertTrue(export());
+        Map<String, String> entries = readArchive();
+        assertFalse(entries.containsKey("defects.xml"));
+        String dataXml = entries.get("data.xml");
+        assertTrue(dataXml.contains("Metric 3\""));
+        assertTrue(dataXml.contains("Metric " + (NUM_METRICS + 1) + "\""));
+        assertFalse(dataXml.contains("Metric 4\""));
+        String timeXml = entries.get("time.xml");
+        assertEquals(2, countOccurrences(timeXml, "<time "));
+
+        importArchive();
+        assertImportedDataMatches();
+    }
+
+    public void testDeltasAreCumulative() throws Exception {
+        assertFalse(export());
+        importArchive();
+
+        data.putValue(metric(3), new DoubleData(333));
+        assertTrue(export());
+        importArchive();
+
+        // the second delta still carries the change from the first, so it
+        // can be applied directly on top of the base
+        data.putValue(metric(4), new DoubleData(444));
+        assertTrue(export());
+        String dataXml = readArchive().get("data.xml");
+        assertTrue(dataXml.contains("Metric 3\""));
+        assertTrue(dataXml.contains("Metric 4\""));
+
+        ArchiveMetricsFileImporter.closeArchive(IMPORT_PREFIX);
+        importArchive();
+        assertImportedDataMatches();
+    }
+
+    public void testDeletions() throws Exception {
+        assertFalse(export());
+        importArchive();
+
+        data.putValue(metric(2), null);
+        timeLog.remove(0);
+        assertTrue(export());
+
+        String deletions = readArchive().get("deletions.xml");
+        assertNotNull(deletions);
+        assertTrue(deletions.contains(metric(2)));
+        assertTrue(deletions.contains("id=\"1\""));
+
+        importArchive();
+        assertImportedDataMatches();
+        assertNull(getImportedValue(metric(2)));
+    }
+
+    public void testDeltaReadsBaseArchive() throws Exception {
+        assertFalse(export());
+        importArchive();
+        data.putValue(metric(5), new DoubleData(555));
+        timeLog.remove(2);
+        assertTrue(export());
+
+        // an importer that no longer has the base mounted, as on startup,
+        // reads the base archive before applying the delta
+        ArchiveMetricsFileImporter.closeArchive(IMPORT_PREFIX);
+        ImportedTimeLogManager.getInstance().closeTimeLogs(IMPORT_PREFIX);
+        importData.shutDown();
+        importData = createImportRepository();
+        importArchive();
+        assertImportedDataMatches();
+    }
+
+    public void testDeltaWithMissingBaseArchiveFails() throws Exception {
+        assertFalse(export());
+        data.putValue(metric(5), new DoubleData(555));
+        assertTrue(export());
+
+        getBaseFile().delete();
+        try {
+            importArchive();
+            fail("Expected the import to fail");
+        } catch (IOException ioe) {
+        }
+    }
+
+    public void testChangedConfigForcesFullExport() throws Exception {
+        assertFalse(export());
+        data.putValue(metric(3), new DoubleData(333));
+        assertTrue(export());
+
+        metricsExcludes.add("Metric 7$");
+        assertFalse(export());
+        String dataXml = readArchive().get("data.xml");
+        assertFalse(dataXml.contains("Metric 7\""));
+        assertTrue(dataXml.contains("Metric 8\""));
+        importArchive();
+        assertEquals("8", getImportedValue(metric(8)).format());
+        assertNull(getImportedValue(metric(7)));
+    }
+
+    public void testMissingBaseForcesFullExport() throws Exception {
+        assertFalse(export());
+        getBaseFile().delete();
+        data.putValue(metric(3), new DoubleData(333));
+
+        assertFalse(export());
+        assertTrue(getBaseFile().isFile());
+        importArchive();
+        assertImportedDataMatches();
+    }
+
+    public void testMismatchedBaseForcesFullExport() throws Exception {
+        assertFalse(export());
+        File otherExport = new File(tempDir, "other.pdash");
+        FileUtils.copyFile(exportFile, otherExport);
+
+        // replace the base with a different archive, as if another computer
+        // had exported this dataset to the same destination
+        data.putValue(metric(3), new DoubleData(333));
+        assertTrue(export());
+        FileUtils.copyFile(exportFile, getBaseFile());
+
+        data.putValue(metric(4), new DoubleData(444));
+        assertFalse(export());
+        importArchive();
+        assertImportedDataMatches();
+    }
+
+    public void testDeletionsImporter() throws Exception {
+        Map defns = new HashMap();
+        defns.put("Project/a", new DoubleData(1));
+        defns.put("Project/b", new DoubleData(2));
+        String xml = "<?xml version='1.0' encoding='UTF-8'?>"
+                + "<deletions><data name='/Project/a'/>"
+                + "<timeLogEntry id='42'/></deletions>";
+
+        List<Long> deletedIDs = new ArrayList<Long>();
+        DeletionsImporterXMLv1 handler = new DeletionsImporterXMLv1();
+        assertTrue(handler.canHandle(
+            ArchiveMetricsXmlConstants.FILE_TYPE_DELETIONS, "1"));
+        assertFalse(handler.canHandle(
+            ArchiveMetricsXmlConstants.FILE_TYPE_DELETIONS, "2"));
+        handler.handle(new TestImporter(defns, deletedIDs),
+            new ByteArrayInputStream(xml.getBytes("UTF-8")),
+            ArchiveMetricsXmlConstants.FILE_TYPE_DELETIONS, "1");
+
+        assertFalse(defns.containsKey("Project/a"));
+        assertTrue(defns.containsKey("Project/b"));
+        assertEquals(Collections.singletonList(42L), deletedIDs);
+    }
+
+
+    /** @return true if the export was written as a delta */
+    private boolean export() throws Exception {
+        ArchiveMetricsFileExporter exp = new ArchiveMetricsFileExporter(
+                new TestContext(), exportFile, null,
+                Collections.singleton(PROJECT), new ArrayList(),
+                metricsExcludes, null);
+        exp.run();
+        CompletionStatus status = exp.getCompletionStatus();
+        assertEquals(CompletionStatus.SUCCESS, status.getStatus());
+
+        ZipFile zip = new ZipFile(exportFile);
+        try {
+            String manifest = readEntry(zip, "manifest.xml");
+            return manifest.contains(
+                ArchiveMetricsXmlConstants.FILE_TYPE_DELTA_ARCHIVE);
+        } finally {
+            zip.close();
+        }
+    }
+
+    private void importArchive() throws IOException {
+        new ArchiveMetricsFileImporter(importData, exportFile, IMPORT_PREFIX)
+                .doImport();
+    }
+
+    private void assertImportedDataMatches() throws IOException {
+        for (int i = 1; i <= NUM_METRICS + 1; i++) {
+            SimpleData exported = data.getSimpleValue(metric(i));
+            SimpleData imported = getImportedValue(metric(i));
+            if (exported == null)
+                assertNull(metric(i), imported);
+            else
+                assertEquals(metric(i), exported.format(), imported.format());
+        }
+
+        Map<Long, String> expected = new HashMap<Long, String>();
+        for (TimeLogEntry tle : timeLog)
+            expected.put(tle.getID(), IMPORT_PREFIX + tle.getPath() + "\t"
+                    + tle.getElapsedTime());
+        Map<Long, String> actual = new HashMap<Long, String>();
+        Iterator i = ImportedTimeLogManager.getInstance()
+                .getImportedTimeLogEntries(IMPORT_PREFIX);
+        while (i != null && i.hasNext()) {
+            TimeLogEntry tle = (TimeLogEntry) i.next();
+            actual.put(tle.getID(), tle.getPath() + "\t"
+                    + tle.getElapsedTime());
+        }
+        assertEquals(expected, actual);
+    }
+
+    /** Create a repository that remembers the data mounted by an import */
+    private DataRepository createImportRepository() {
+        mountedData = null;
+        return new DataRepository() {
+            public void mountImportedData(String dataPrefix, Map values)
+                    throws InvalidDatafileFormat {
+                assertEquals(IMPORT_PREFIX, dataPrefix);
+                mountedData = new HashMap(values);
+                super.mountImportedData(dataPrefix, values);
+            }
+        };
+    }
+
+    /** @return the value the last import mounted for an exported name */
+    private SimpleData getImportedValue(String name) {
+        // imported data names are relative to the import prefix
+        return (SimpleData) mountedData.get(name.substring(1));
+    }
+
+    private Map<String, String> readArchive() throws IOException {
+        Map<String, String> result = new HashMap<String, String>();
+        ZipFile zip = new ZipFile(exportFile);
+        try {
+            for (Iterator i = Collections.list(zip.entries()).iterator(); i
+                    .hasNext();) {
+                String name = ((ZipEntry) i.next()).getName();
+                result.put(name, readEntry(zip, name));
+            }
+        } finally {
+            zip.close();
+        }
+        return result;
+    }
+
+    private String readEntry(ZipFile zip, String name) throws IOException {
+        InputStream in = zip.getInputStream(zip.getEntry(name));
+        return new String(FileUtils.slurpContents(in, true), "UTF-8");
+    }
+
+    private File getBaseFile() {
+        return new File(exportFile.getParentFile(),
+                ArchiveMetricsFileExporter.getBaseArchiveName(exportFile
+                        .getName()));
+    }
+
+    private static String metric(int i) {
+        return PROJECT + "/Metric " + i;
+    }
+
+    private static TimeLogEntry timeLogEntry(long id, long elapsed) {
+        return new TimeLogEntryVO(id, PROJECT, new Date(1000000000L * id),
+                elapsed, 0, null);
+    }
+
+    private static int countOccurrences(String text, String s) {
+        int result = 0;
+        for (int pos = text.indexOf(s); pos != -1; pos = text.indexOf(s,
+            pos + 1))
+            result++;
+        return result;
+    }
+
+
+    private class TestContext implements DashboardContext {
+        public DataRepository getData() { return data; }
+        public DashHierarchy getHierarchy() { return new DashHierarchy(""); }
+        public ObjectCache getCache() { return null; }
+        public WebServer getWebServer() { return null; }
+        public TimeLog getTimeLog() {
+            return new TimeLog() {
+                public EnumerIterator filter(String path, Date from, Date to) {
+                    return new TimeLogIteratorFilter(new ArrayList(timeLog)
+                            .iterator(), path, from, to);
+                }
+            };
+        }
+        public WorkingDirectory getWorkingDirectory() { return null; }
+        public DatabasePlugin getDatabasePlugin() { return null; }
+    }
+
+    private static class TestImporter extends ArchiveMetricsFileImporter {
+        private Map defns;
+        private List<Long> deletedIDs;
+        TestImporter(Map defns, List<Long> deletedIDs) {
+            super(null, null, IMPORT_PREFIX);
+            this.defns = defns;
+            this.deletedIDs = deletedIDs;
+        }
+        public Map getDefns() { return defns; }
+        public List<Long> getDeletedTimeLogIDs() { return deletedIDs; }
+    }
+
+}
@@ -0,0 +1,174 @@
+package net.sourceforge.processdash.ui.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PiePlot;
+
+import net.sourceforge.processdash.DashboardContext;
+import net.sourceforge.processdash.data.DoubleData;
+import net.sourceforge.processdash.data.repository.DataRepository;
+import net.sourceforge.processdash.data.util.ResultSet;
+import net.sourceforge.processdash.hier.DashHierarchy;
+import net.sourceforge.processdash.log.time.TimeLog;
+import net.sourceforge.processdash.net.cache.ObjectCache;
+import net.sourceforge.processdash.net.http.TinyCGI;
+import net.sourceforge.processdash.net.http.WebServer;
+import net.sourceforge.processdash.tool.bridge.client.WorkingDirectory;
+import net.sourceforge.processdash.tool.db.DatabasePlugin;
+
+public class PngCacheTest extends TestCase {
+
+    private DataRepository data;
+
+    private ResultSet resultSet;
+
+    protected void setUp() throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        data = new DataRepository();
+        resultSet = new ResultSet(2, 1);
+        resultSet.setColName(1, "Time");
+        resultSet.setRowName(1, "Design");
+        resultSet.setRowName(2, "Code");
+        resultSet.setData(1, 1, new DoubleData(10));
+        resultSet.setData(2, 1, new DoubleData(20));
+    }
+
+    protected void tearDown() throws Exception {
+        data.shutDown();
+    }
+
+
+    public void testChartETag() throws Exception {
+        String tag = PngCache.getChartETag("inputs");
+        assertNotNull(tag);
+        assertEquals(40, tag.length());
+        assertEquals(tag, PngCache.getChartETag("inputs"));
+        assertFalse(tag.equals(PngCache.getChartETag("inputs2")));
+    }
+
+    public void testChartImages() throws Exception {
+        String tag = PngCache.getChartETag("testChartImages");
+        assertNull(PngCache.getChartImage(tag));
+        byte[] image = new byte[] { 1, 2, 3 };
+        PngCache.putChartImage(tag, image);
+        assertSame(image, PngCache.getChartImage(tag));
+    }
+
+    public void testLeastRecentlyUsedImagesDiscarded() throws Exception {
+        // the default budget is 8MB, and single images over 2MB are never
+        // cached.
+        byte[] huge = new byte[3 * 1024 * 1024];
+        PngCache.putChartImage("huge", huge);
+        assertNull(PngCache.getChartImage("huge"));
+
+        int size = 1900 * 1024;
+        for (int i = 0; i < 4; i++)
+            PngCache.putChartImage("lru" + i, new byte[size]);
+        for (int i = 0; i < 4; i++)
+            assertNotNull(PngCache.getChartImage("lru" + i));
+
+        // touch the oldest image, so the second one is discarded next
+        PngCache.getChartImage("lru0");
+        PngCache.putChartImage("lru4", new byte[size]);
+        assertNotNull(PngCache.getChartImage("lru0"));
+        assertNull(PngCache.getChartImage("lru1"));
+        assertNotNull(PngCache.getChartImage("lru4"));
+    }
+
+    public void testChartCachedUntilItsDataChanges() throws Exception {
+        TestChart chart = new TestChart();
+        Response first = request(chart, null);
+        assertNotNull(first.etag);
+        assertEquals(1, chart.renderCount);
+        assertTrue(first.body.length > 0);
+
+        // an unrelated change to the repository does not affect the chart
+        data.putValue("/Unrelated/Value", new DoubleData(5));
+        Response second = request(chart, null);
+        assertEquals(first.etag, second.etag);
+        assertEquals(1, chart.renderCount);
+        assertTrue(Arrays.equals(first.body, second.body));
+
+        // a client that has the image gets a 304
+        Response revalidate = request(chart, first.etag);
+        assertTrue(revalidate.header.indexOf("304 Not Modified") != -1);
+        assertEquals(0, revalidate.body.length);
+        assertEquals(1, chart.renderCount);
+
+        // a change to the chart's own data produces a new image
+        resultSet.setData(2, 1, new DoubleData(25));
+        Response third = request(chart, first.etag);
+        assertFalse(first.etag.equals(third.etag));
+        assertTrue(third.header.indexOf("304") == -1);
+        assertEquals(2, chart.renderCount);
+    }
+
+
+    private Response request(TinyCGIBase script, String ifNoneMatch)
+            throws IOException {
+        Map params = new HashMap();
+        params.put("resultSet", resultSet);
+        params.put("width", "100");
+        params.put("height", "80");
+        params.put("initGradColor", "#ffffff");
+        params.put("finalGradColor", "#cccccc");
+        params.put("outputFormat", "png");
+        Map env = new HashMap();
+        env.put(TinyCGI.DASHBOARD_CONTEXT, new TestContext());
+        env.put("REQUEST_URI", "/reports/testChart");
+        env.put("QUERY_STRING", "");
+        env.put("PATH_TRANSLATED", "/Project");
+        env.put("REQUEST_PARAMS", params);
+        if (ifNoneMatch != null)
+            env.put("HTTP_IF_NONE_MATCH", '"' + ifNoneMatch + '"');
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        script.service(new ByteArrayInputStream(new byte[0]), out, env);
+        return new Response(out.toByteArray());
+    }
+
+    private static class Response {
+        String header;
+        String etag;
+        byte[] body;
+
+        Response(byte[] response) throws IOException {
+            String text = new String(response, "ISO-8859-1");
+            int headerEnd = text.indexOf("\r\n\r\n") + 4;
+            header = text.substring(0, headerEnd);
+            body = new byte[response.length - headerEnd];
+            System.arraycopy(response, headerEnd, body, 0, body.length);
+            int pos = header.indexOf("ETag: \"");
+            if (pos != -1)
+                etag = header.substring(pos + 7, header.indexOf('"', pos + 7));
+        }
+    }
+
+    private static class TestChart extends CGIChartBase {
+        int renderCount;
+
+        public JFreeChart createChart() {
+            renderCount++;
+            return new JFreeChart(new PiePlot());
+        }
+    }
+
+    private class TestContext implements DashboardContext {
+        public DataRepository getData() { return data; }
+        public DashHierarchy getHierarchy() { return null; }
+        public ObjectCache getCache() { return null; }
+        public WebServer getWebServer() { return null; }
+        public TimeLog getTimeLog() { return null; }
+        public WorkingDirectory getWorkingDirectory() { return null; }
+        public DatabasePlugin getDatabasePlugin() { return null; }
+    }
+
+}
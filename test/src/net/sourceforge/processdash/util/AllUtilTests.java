@@ -22,6 +22,7 @@ public class AllUtilTests {
         suite.addTestSuite(OrderedListMergerTest.class);
         suite.addTestSuite(FallbackObjectFactoryTest.class);
         suite.addTestSuite(RuntimeUtilsTest.class);
+        suite.addTestSuite(Perl5UtilTest.class);
         //$JUnit-END$
         return suite;
     }
@@ -0,0 +1,43 @@
+package net.sourceforge.processdash.util;
+
+import junit.framework.TestCase;
+
+public class Perl5UtilTest extends TestCase {
+
+    public void testLiteralSuffix() {
+        assertEquals("/Estimated Time", Perl5Util
+                .getLiteralSuffix("^.*/Estimated Time$"));
+        assertEquals(" Time", Perl5Util.getLiteralSuffix("[A-Z]+ Time$"));
+        assertEquals("abc", Perl5Util.getLiteralSuffix("\\d.abc$"));
+        assertEquals("abc", Perl5Util.getLiteralSuffix("\\\\abc$"));
+        assertEquals("", Perl5Util.getLiteralSuffix("abc*$"));
+    }
+
+    public void testNoSuffixAfterEscapeSequence() {
+        // the escape could consume any number of the following characters
+        assertEquals("", Perl5Util.getLiteralSuffix("\\dabc$"));
+        assertEquals("", Perl5Util.getLiteralSuffix("\\x41$"));
+        assertEquals("", Perl5Util.getLiteralSuffix("\\u0041$"));
+        assertEquals("", Perl5Util.getLiteralSuffix("\\0101$"));
+        assertEquals("", Perl5Util.getLiteralSuffix("\\cA$"));
+        assertEquals("", Perl5Util.getLiteralSuffix("/Size\\tTime$"));
+        assertEquals("", Perl5Util.getLiteralSuffix("\\\\\\x41$"));
+    }
+
+    public void testNoSuffixWithoutEndAnchor() {
+        // these can match in the middle of a name
+        assertEquals("", Perl5Util.getLiteralSuffix("/Estimated Time"));
+        assertEquals("", Perl5Util.getLiteralSuffix("^.*/Time"));
+        assertEquals("", Perl5Util.getLiteralSuffix("Cost\\$"));
+        assertEquals("", Perl5Util.getLiteralSuffix("Cost\\\\\\$"));
+        assertEquals("", Perl5Util.getLiteralSuffix("$"));
+        assertEquals("", Perl5Util.getLiteralSuffix(null));
+    }
+
+    public void testNoSuffixForUncertainExpressions() {
+        assertEquals("", Perl5Util.getLiteralSuffix("Time$|Size$"));
+        assertEquals("", Perl5Util.getLiteralSuffix("(?i)time$"));
+        assertEquals("", Perl5Util.getLiteralSuffix("\\Qa.b\\E$"));
+    }
+
+}